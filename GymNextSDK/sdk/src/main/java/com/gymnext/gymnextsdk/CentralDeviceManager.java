@@ -1,20 +1,37 @@
 package com.gymnext.gymnextsdk;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.util.Log;
 
 import com.gymnext.gymnextsdk.btle.BluetoothLEDevice;
 import com.gymnext.gymnextsdk.btle.BluetoothLEDeviceManager;
 import com.gymnext.gymnextsdk.btle.BluetoothLEDeviceManager.BluetoothLEDeviceManagerDelegate;
+import com.gymnext.gymnextsdk.base.CommandTraceStore;
+import com.gymnext.gymnextsdk.base.DebouncedPreferences;
+import com.gymnext.gymnextsdk.base.ExecutorScheduler;
+import com.gymnext.gymnextsdk.base.LongKeyedMap;
+import com.gymnext.gymnextsdk.base.MacAddress;
+import com.gymnext.gymnextsdk.base.Scheduler;
+import com.gymnext.gymnextsdk.base.TickSource;
+import com.gymnext.gymnextsdk.base.Trace;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is the main access point for all device management.  This is where you will discover new devices,
@@ -28,7 +45,9 @@ import java.util.Set;
 public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
 {
     /**
-     * Main listener for all events related to device management
+     * Main listener for all events related to device management.  Callbacks arrive on a thread of
+     * the event bus, never on the Bluetooth threads or the main thread, one at a time and in order.
+     * Post to the main thread to update the UI.
      */
     public interface CentralDeviceManagerDelegate
     {
@@ -102,7 +121,8 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
         public void deviceDidDisconnect(CentralDeviceManager centralDeviceManager, Device device);
 
         /**
-         * The device manager finished reconnecting
+         * The device manager finished reconnecting.  Extend CentralDeviceManagerDelegateAdapter to
+         * also be told how it went.
          * @param centralDeviceManager
          * the device manager
          */
@@ -116,6 +136,87 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
         public void deviceManagerDidFinishDisconnectingDevices(CentralDeviceManager centralDeviceManager);
     }
 
+    /**
+     * A delegate that does nothing, extend it to implement only the callbacks you need and to get
+     * the callbacks that aren't part of CentralDeviceManagerDelegate
+     */
+    public static abstract class CentralDeviceManagerDelegateAdapter implements CentralDeviceManagerDelegate
+    {
+        @Override
+        public void deviceDidMoveInRange(CentralDeviceManager centralDeviceManager, Device device)
+        {
+        }
+
+        @Override
+        public void deviceDidMoveOutOfRange(CentralDeviceManager centralDeviceManager, Device device)
+        {
+        }
+
+        @Override
+        public void deviceDidActivate(CentralDeviceManager centralDeviceManager, Device device)
+        {
+        }
+
+        @Override
+        public void deviceDidDeactivate(CentralDeviceManager centralDeviceManager, Device device)
+        {
+        }
+
+        @Override
+        public void deviceDidConnect(CentralDeviceManager centralDeviceManager, Device device)
+        {
+        }
+
+        @Override
+        public void deviceDidFailToConnect(CentralDeviceManager centralDeviceManager, Device device)
+        {
+        }
+
+        @Override
+        public void deviceDidDisconnect(CentralDeviceManager centralDeviceManager, Device device)
+        {
+        }
+
+        @Override
+        public void deviceManagerDidFinishReconnectingDevices(CentralDeviceManager centralDeviceManager)
+        {
+        }
+
+        /**
+         * The device manager finished reconnecting.  Calls
+         * deviceManagerDidFinishReconnectingDevices(centralDeviceManager) unless overridden.
+         * @param centralDeviceManager
+         * the device manager
+         * @param summary
+         * which devices connected, which were given up on, and how long it took
+         */
+        public void deviceManagerDidFinishReconnectingDevices(CentralDeviceManager centralDeviceManager, ReconnectSummary summary)
+        {
+            deviceManagerDidFinishReconnectingDevices(centralDeviceManager);
+        }
+
+        /**
+         * A set of devices was activated and/or deactivated in one go.  Calls deviceDidActivate and
+         * deviceDidDeactivate for each device unless overridden.  Connection results arrive through
+         * deviceDidConnect and deviceManagerDidFinishReconnectingDevices as usual.
+         * @param centralDeviceManager
+         * the device manager
+         * @param activatedDevices
+         * the devices that were made active
+         * @param deactivatedDevices
+         * the devices that were made inactive
+         */
+        public void deviceManagerDidChangeActiveDevices(CentralDeviceManager centralDeviceManager, List<Device> activatedDevices, List<Device> deactivatedDevices)
+        {
+            _didChangeActiveDevices(this, centralDeviceManager, activatedDevices, deactivatedDevices);
+        }
+
+        @Override
+        public void deviceManagerDidFinishDisconnectingDevices(CentralDeviceManager centralDeviceManager)
+        {
+        }
+    }
+
     /**
      * singleton instance
      */
@@ -129,24 +230,68 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
         return mInstance;
     }
 
+    // Settings changes are collected for this long and written together in the background
+    private static final long SETTINGS_WRITE_DELAY = 500;
+
     // Context
-    private Context _context;
+    private volatile Context _context;
+
+    // Initialization
+    private volatile Future<Void> _ready;
+    // The settings thread while it is loading or running a queued operation
+    private volatile Thread _settingsThread;
+    private final AtomicInteger _queuedOperations = new AtomicInteger();
+    private volatile long _initializationTime = -1;
+    private final AtomicBoolean _allRegistered = new AtomicBoolean(false);
+
+    // Settings
+    private final ScheduledExecutorService _settingsExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final Scheduler _defaultSettingsScheduler = new ExecutorScheduler(_settingsExecutor);
+    private volatile Scheduler _settingsScheduler = _defaultSettingsScheduler;
+    private DebouncedPreferences _aliasSettings;
+    private DebouncedPreferences _secureCodeSettings;
+    private DebouncedPreferences _lastUsedSettings;
+    private DebouncedPreferences _activeDeviceIdSettings;
+    private DebouncedPreferences _persistentDeviceIdSettings;
 
     // Reconnection State
-    private boolean _reconnected = false;
-    private Map<String, Device> _reconnectingDevices = new HashMap<String, Device>();
-    private Map<String, Device> _disconnectingDevices = new HashMap<String, Device>();
+    private final AtomicBoolean _reconnected = new AtomicBoolean(false);
+    private final ReconnectScheduler _reconnectScheduler = new ReconnectScheduler(new ReconnectScheduler.Callback()
+    {
+        @Override
+        public void connect(Device device)
+        {
+            _connect(device);
+        }
+
+        @Override
+        public void didFinish(ReconnectSummary summary)
+        {
+            _eventBus.publish(new DeviceEvent(DeviceEvent.Type.FinishedReconnecting, Collections.<Device>emptyList(), Collections.<Device>emptyList(), null, summary));
+        }
+    });
+    private final Map<String, Device> _disconnectingDevices = new ConcurrentHashMap<String, Device>();
+    private final AtomicInteger _disconnectingRemaining = new AtomicInteger();
 
     // Scanning State
-    private boolean _scanning = false;
+    private volatile boolean _scanning = false;
+
+    // Events
+    private final DeviceEventBus _eventBus = DeviceEventBus.getInstance();
+    private volatile CentralDeviceManagerDelegate _delegate;
+    private DeviceEventBus.Subscription _delegateSubscription;
+    private final Map<CommunicationMethod, Boolean> _communicationMethods = new ConcurrentHashMap<CommunicationMethod, Boolean>();
 
-    private CentralDeviceManagerDelegate _delegate;
-    private Map<CommunicationMethod, Boolean> _communicationMethods = new HashMap<CommunicationMethod, Boolean>();
+    // Touched from the UI, scan and GATT callback threads
+    // Keyed by the packed device id (Device.getDeviceKey()), the id sets map to the device id
+    private final LongKeyedMap<String> _activeDeviceIds = new LongKeyedMap<String>();
+    private final LongKeyedMap<String> _transientInactiveDeviceIds = new LongKeyedMap<String>();
+    private final LongKeyedMap<String> _deviceAliases = new LongKeyedMap<String>();
+    private final LongKeyedMap<String> _deviceSecureCodes = new LongKeyedMap<String>();
+    private final LongKeyedMap<Long> _deviceLastUsed = new LongKeyedMap<Long>();
+    private final Set<String> _persistentDeviceIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-    private Set<String> _activeDeviceIds = new HashSet<String>();
-    private Set<String> _transientInactiveDeviceIds = new HashSet<String>();
-    private Map<String, String> _deviceAliases = new HashMap<String, String>();
-    private Map<String, String> _deviceSecureCodes = new HashMap<String, String>();
+    private final DeviceRegistry _registry = new DeviceRegistry();
 
     /**
      * hidden constructor
@@ -157,27 +302,100 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
         _communicationMethods.put(CommunicationMethod.Wifi, false); // not fully implemented
         _communicationMethods.put(CommunicationMethod.BluetoothLE, true);
 
+        for (CommunicationMethod communicationMethod : _communicationMethods.keySet())
+        {
+            _registry.setEnabled(communicationMethod, _communicationMethods.get(communicationMethod));
+        }
     }
 
-    public void initialize(Context context) {
-        if (_context != null) {
-            return;
+    /**
+     * Start up the manager.  Returns straight away; settings and known devices are loaded in the
+     * background.  Methods that change state don't wait for loading either: until it has finished
+     * they are queued and run in order afterwards.  Queries return what has been loaded so far
+     * (watch getDevicesVersion() or wait on the returned future).
+     *
+     * @param context
+     * the application context
+     * @return
+     * a future that completes once loading has finished
+     */
+    public synchronized Future<Void> initialize(Context context) {
+        if (_ready != null) {
+            return _ready;
         }
         _context = context;
-        _loadSettings();
+        _aliasSettings = _openSettings("gymnext_device_aliases.pref");
+        _secureCodeSettings = _openSettings("gymnext_device_secure_codes.pref");
+        _lastUsedSettings = _openSettings("gymnext_device_last_used.pref");
+        _activeDeviceIdSettings = _openSettings("gymnext_active_device_ids.pref");
+        _persistentDeviceIdSettings = _openSettings("gymnext_persistent_device_ids.pref");
 
         BluetoothLEDeviceManager.getInstance().setDelegate(this);
-        BluetoothLEDeviceManager.getInstance().initialize(context);
+
+        // settings writes queue up behind loading
+        _ready = _settingsExecutor.submit(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                _settingsThread = Thread.currentThread();
+                try
+                {
+                    _load();
+                }
+                finally
+                {
+                    _settingsThread = null;
+                }
+                return null;
+            }
+        });
+        return _ready;
+    }
+
+    /**
+     * Check if initialize() has finished loading
+     * @return
+     * true once loading has finished
+     */
+    public boolean isReady()
+    {
+        Future<Void> ready = _ready;
+        return ready != null && ready.isDone();
+    }
+
+    /**
+     * How long loading took in the background
+     * @return
+     * the time in milliseconds, or -1 if loading hasn't finished
+     */
+    public long getInitializationTime()
+    {
+        return _initializationTime;
     }
 
     /**
-     * Set the delegate for the manager
+     * Set the delegate for the manager.  The delegate is called on a thread of the event bus, never
+     * on the Bluetooth threads or the main thread, and gets every callback in order however far
+     * behind it falls.  Use
+     * getEventBus() to add more listeners.
      * @param delegate
      * The delegate listener
      */
-    public void setDelegate(CentralDeviceManagerDelegate delegate)
+    public synchronized void setDelegate(CentralDeviceManagerDelegate delegate)
     {
         _delegate = delegate;
+
+        if (_delegateSubscription != null)
+        {
+            _delegateSubscription.unsubscribe();
+            _delegateSubscription = null;
+        }
+        if (delegate != null)
+        {
+            DeviceEventFilter filter = DeviceEventFilter.ALL.withTypes(EnumSet.range(DeviceEvent.Type.MovedInRange, DeviceEvent.Type.FinishedDisconnecting));
+            _delegateSubscription = _eventBus.subscribe(new DelegateAdapter(delegate), filter, null, DeviceEventBus.UNBOUNDED, DeviceEventBus.OverflowPolicy.DropNewest);
+        }
     }
 
     /**
@@ -190,6 +408,33 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
         return _delegate;
     }
 
+    /**
+     * The bus all device events are published on, for subscribing more than one listener
+     * @return
+     * the event bus
+     */
+    public DeviceEventBus getEventBus()
+    {
+        return _eventBus;
+    }
+
+    /**
+     * Deliver device events in batches, once per tick, for UIs that redraw once per frame.  Pass a
+     * ChoreographerTickSource created on the main thread for one batch per display frame.
+     * @param listener
+     * the listener to give the batches to
+     * @param tickSource
+     * when to deliver
+     * @return
+     * the delivery, already started.  Call stop() on it when done.
+     */
+    public FrameAlignedDelivery deliverPerTick(DeviceBatchListener listener, TickSource tickSource)
+    {
+        FrameAlignedDelivery delivery = new FrameAlignedDelivery(_eventBus, DeviceEventFilter.ALL, tickSource, listener);
+        delivery.start();
+        return delivery;
+    }
+
     // COMMUNICATION METHODS
 
     /**
@@ -212,6 +457,7 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
     public void enable(CommunicationMethod communicationMethod)
     {
         _communicationMethods.put(communicationMethod, true);
+        _registry.setEnabled(communicationMethod, true);
     }
 
     /**
@@ -224,6 +470,7 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
     public void disable(CommunicationMethod communicationMethod)
     {
         _communicationMethods.put(communicationMethod, false);
+        _registry.setEnabled(communicationMethod, false);
     }
 
     /**
@@ -261,66 +508,194 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
      * @param forceActive
      * Forces a retry of all active devices even if a previous reconnect attempt failed
      * @return
-     * If a reconnect attempt can be made.
+     * If a reconnect attempt can be made.  While initialize() is still loading the call is queued
+     * and returns true; if there turns out to be nothing to reconnect, an empty summary is
+     * reported with deviceManagerDidFinishReconnectingDevices.
      */
-    public boolean reconnectAll(boolean forceActive)
+    public boolean reconnectAll(final boolean forceActive)
     {
+        if (_deferUntilReady(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (!reconnectAll(forceActive))
+                {
+                    // we promised a FinishedReconnecting
+                    _eventBus.publish(new DeviceEvent(DeviceEvent.Type.FinishedReconnecting, Collections.<Device>emptyList(), Collections.<Device>emptyList(), null, ReconnectSummary.EMPTY));
+                }
+            }
+        }))
+        {
+            return true;
+        }
 
         if (forceActive)
         {
+            List<String> deviceIds = _transientInactiveDeviceIds.values();
             _transientInactiveDeviceIds.clear();
+            _updateActive(deviceIds);
         }
 
-        if (_reconnected)
+        if (!_reconnected.compareAndSet(false, true))
         {
             // println("skipping reconnection due to already reconnected")
             return false;
         }
 
-        if (_activeDeviceIds.size() == 0)
+        if (_activeDeviceIds.isEmpty())
         {
             // println("skipping reconnect - there are no active devices")
-            _reconnected = true;
             return false;
         }
 
         // println("reconnecting to active devices")
 
-        _reconnected = true;
-        _reconnectingDevices.clear();
-
+        List<Device> devices = new ArrayList<Device>();
         if (isEnabled(CommunicationMethod.BluetoothLE))
         {
             for (Device device : BluetoothLEDeviceManager.getInstance().getDevices(null))
             {
                 if (isActive(device))
                 {
-                    _reconnectingDevices.put(device.getDeviceId(), device);
+                    devices.add(device);
                 }
             }
         }
 
         // MARKER: Add additional communication methods here
 
-        if (_reconnectingDevices.size() == 0)
+        if (devices.size() == 0)
         {
             // println("skipping reconnect - there are no actual active devices")
             return false;
         }
 
-        for (Device device : _reconnectingDevices.values())
+        // most recently used first
+        Collections.sort(devices, new Comparator<Device>()
         {
-            _connect(device);
-        }
+            @Override
+            public int compare(Device lhs, Device rhs)
+            {
+                long l = _getLastUsed(lhs);
+                long r = _getLastUsed(rhs);
+                return l < r ? 1 : (l > r ? -1 : 0);
+            }
+        });
+
+        _reconnectScheduler.start(devices);
 
         return true;
     }
 
+    /**
+     * Limit how many devices reconnectAll() connects to at the same time.  Platforms quietly cap the
+     * number of simultaneous connection attempts, so asking for more just causes timeouts.
+     *
+     * @param maxConcurrentConnections
+     * the maximum number of connection attempts in flight (at least 1)
+     */
+    public void setMaxConcurrentConnections(int maxConcurrentConnections)
+    {
+        _reconnectScheduler.setMaxConcurrentConnections(maxConcurrentConnections);
+    }
+
+    /**
+     * Run the SDK's timers on a different scheduler and take its timestamps from the scheduler's
+     * clock: connection timeouts, reconnect back-offs, scan windows, clock sync and the times in
+     * events, stats and traces.  With a VirtualScheduler hours of reconnecting can be run in
+     * seconds.  Set it before initialize(), timers already running stay on the old scheduler.
+     *
+     * Settings are written on the scheduler too, on virtual time they are only written as time
+     * is advanced or when flushSettings() is called.
+     *
+     * @param scheduler
+     * the scheduler, or null for the default ones
+     */
+    public void setScheduler(Scheduler scheduler)
+    {
+        BluetoothLEDeviceManager.getInstance().setScheduler(scheduler);
+        _reconnectScheduler.setScheduler(scheduler);
+        CommandTraceStore.getInstance().setClock(scheduler);
+        Trace.setClock(scheduler);
+
+        _settingsScheduler = scheduler != null ? scheduler : _defaultSettingsScheduler;
+        for (DebouncedPreferences settings : _allSettings())
+        {
+            // not opened yet if we are still loading, they are opened on the new scheduler
+            if (settings != null)
+            {
+                settings.setScheduler(_settingsScheduler);
+            }
+        }
+    }
+
+    /**
+     * @return
+     * the scheduler the SDK's timers run on
+     */
+    public Scheduler getScheduler()
+    {
+        return BluetoothLEDeviceManager.getInstance().getScheduler();
+    }
+
+    /**
+     * Change where the jitter in reconnect back-offs comes from.  Use a seeded one, together with
+     * a VirtualScheduler, to make reconnect runs repeatable.
+     *
+     * @param random
+     * the random number generator
+     */
+    public void setReconnectRandom(Random random)
+    {
+        _reconnectScheduler.setRandom(random);
+    }
+
+    /**
+     * Retrieve the connection attempt statistics for a device
+     *
+     * @param device
+     * the device
+     * @return
+     * the connection statistics
+     */
+    public ConnectStats getConnectStats(Device device)
+    {
+        return _reconnectScheduler.getStats(device.getDeviceKey());
+    }
+
+    /**
+     * Retrieve a snapshot of the link metrics of every known device, summed
+     *
+     * @return
+     * the metrics, with a null device id
+     */
+    public DeviceMetrics getMetrics()
+    {
+        List<DeviceMetrics> metrics = new ArrayList<DeviceMetrics>();
+        for (Device device : getDevices(null))
+        {
+            metrics.add(device.getMetrics());
+        }
+        return new DeviceMetrics(metrics);
+    }
+
     /**
      * Disconnect from all devices
      */
     public void disconnectAll()
     {
+        if (_deferUntilReady(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                disconnectAll();
+            }
+        }))
+        {
+            return;
+        }
 
         _disconnectingDevices.clear();
 
@@ -339,41 +714,65 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
 
         if (_disconnectingDevices.size() == 0)
         {
-            if (_delegate != null)
-            {
-                _delegate.deviceManagerDidFinishDisconnectingDevices(this);
-            }
+            _publish(DeviceEvent.Type.FinishedDisconnecting, null);
         }
 
-        for (Device device : _disconnectingDevices.values())
+        _disconnectingRemaining.set(_disconnectingDevices.size());
+        for (Device device : new ArrayList<Device>(_disconnectingDevices.values()))
         {
             _disconnect(device);
         }
 
-        _reconnected = false;
+        _reconnected.set(false);
     }
 
     // DISCOVERY FOR NEW DEVICES
 
     /**
-     * Start scanning for devices to be discovered.
+     * Start scanning for devices to be discovered.  Scanning is duty cycled to save battery and
+     * radio time (see {@link ScanMode#Balanced}).
      */
     public void startScanning()
     {
+        startScanning(ScanMode.Balanced);
+    }
+
+    /**
+     * Start scanning for devices to be discovered.  If we are already scanning, switch to the
+     * given scan mode.
+     *
+     * @param scanMode
+     * How aggressively to scan.  Use {@link ScanMode#Burst} when the user is looking for new devices.
+     */
+    public void startScanning(final ScanMode scanMode)
+    {
+        if (_deferUntilReady(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                startScanning(scanMode);
+            }
+        }))
+        {
+            return;
+        }
 
         // mark reconnection as done if we start scanning
-        _reconnected = true;
+        _reconnected.set(true);
 
         if (_scanning)
         {
-            Log.i("CentralDeviceManager", "skipping scanning due to already scanning");
-            return;
+            if (Log.isLoggable("CentralDeviceManager", Log.INFO))
+            {
+                Log.i("CentralDeviceManager", "already scanning, switching scan mode to " + scanMode);
+            }
         }
 
         _scanning = true;
         if (isEnabled(CommunicationMethod.BluetoothLE))
         {
-            BluetoothLEDeviceManager.getInstance().startScanning();
+            BluetoothLEDeviceManager.getInstance().startScanning(scanMode);
         }
 
         // MARKER: Add communication methods here
@@ -414,17 +813,29 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
      * @param deviceAlias
      * The alias to use (null to remove aliases)
      */
-    public void setDeviceAlias(Device device, String deviceAlias)
+    public void setDeviceAlias(final Device device, final String deviceAlias)
     {
+        if (_deferUntilReady(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                setDeviceAlias(device, deviceAlias);
+            }
+        }))
+        {
+            return;
+        }
         if (deviceAlias == null) {
             device.setDeviceAlias(null);
-            _deviceAliases.remove(device.getDeviceId());
+            _deviceAliases.remove(device.getDeviceKey());
         }
         else {
             device.setDeviceAlias(deviceAlias);
-            _deviceAliases.put(device.getDeviceId(), deviceAlias);
+            _deviceAliases.put(device.getDeviceKey(), deviceAlias);
         }
-        _saveSettings();
+        _registry.invalidate();
+        _aliasSettings.putString(device.getDeviceId(), deviceAlias);
     }
 
 
@@ -436,7 +847,7 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
      * The secure code
      */
     public String getDeviceSecureCode(Device device) {
-        return _deviceSecureCodes.get(device.getDeviceId());
+        return _deviceSecureCodes.get(device.getDeviceKey());
     }
 
     /**
@@ -448,10 +859,66 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
      * @param secureCode
      * The secure code
      */
-    public void setDeviceSecureCode(Device device, String secureCode)
+    public void setDeviceSecureCode(final Device device, final String secureCode)
+    {
+        if (_deferUntilReady(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                setDeviceSecureCode(device, secureCode);
+            }
+        }))
+        {
+            return;
+        }
+        if (secureCode == null)
+        {
+            _deviceSecureCodes.remove(device.getDeviceKey());
+        }
+        else
+        {
+            _deviceSecureCodes.put(device.getDeviceKey(), secureCode);
+        }
+        _secureCodeSettings.putString(device.getDeviceId(), secureCode);
+    }
+
+    /**
+     * Put a device in persistent mode, for timers that stay in one place (e.g. wall mounted).
+     * Persistent devices are connected in the background without a timeout and the platform
+     * reconnects them as soon as they are powered back on; you get deviceDidConnect without
+     * calling reconnectAll() or retrying yourself.  reconnectAll() arms persistent devices without
+     * waiting for them, they are listed in ReconnectSummary.getArmedDevices().  Takes effect the
+     * next time the device connects.
+     *
+     * @param device
+     * the device
+     * @param persistent
+     * true to reconnect automatically
+     */
+    public void setDevicePersistent(final Device device, final boolean persistent)
     {
-        _deviceSecureCodes.put(device.getDeviceId(), secureCode);
-        _saveSettings();
+        if (_deferUntilReady(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                setDevicePersistent(device, persistent);
+            }
+        }))
+        {
+            return;
+        }
+        if (persistent)
+        {
+            _persistentDeviceIds.add(device.getDeviceId());
+        }
+        else
+        {
+            _persistentDeviceIds.remove(device.getDeviceId());
+        }
+        device.setPersistent(persistent);
+        _saveDeviceIds(_persistentDeviceIdSettings, "persistent_devices", _persistentDeviceIds);
     }
 
     /**
@@ -460,8 +927,19 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
      * @param device
      * the device to remove
      */
-    public void forgetDevice(Device device)
+    public void forgetDevice(final Device device)
     {
+        if (_deferUntilReady(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                forgetDevice(device);
+            }
+        }))
+        {
+            return;
+        }
 
         if (isEnabled(CommunicationMethod.BluetoothLE))
         {
@@ -473,117 +951,171 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
 
         // MARKER: Add additional communication methods here
 
-        _deviceAliases.remove(device.getDeviceId());
-        _deviceSecureCodes.remove(device.getDeviceId());
-        _saveSettings();
-    }
+        _registry.remove(device.getDeviceId());
+        _deviceLastUsed.remove(device.getDeviceKey());
+        _deviceAliases.remove(device.getDeviceKey());
+        _deviceSecureCodes.remove(device.getDeviceKey());
+        _persistentDeviceIds.remove(device.getDeviceId());
 
-    // LIST DEVICES
+        _lastUsedSettings.remove(device.getDeviceId());
+        _aliasSettings.remove(device.getDeviceId());
+        _secureCodeSettings.remove(device.getDeviceId());
+        _saveDeviceIds(_persistentDeviceIdSettings, "persistent_devices", _persistentDeviceIds);
+    }
 
     /**
-     * Retrieve a specific device
-     * @param deviceId
-     * the id of the device to retrieve
-     * @return
-     * the device or null if not found
+     * Settings are written in the background shortly after they change.  Call this to write any
+     * pending changes now, e.g. when the app is going into the background.
      */
-    public Device getDevice(String deviceId)
+    public void flushSettings()
     {
-
-        if (isEnabled(CommunicationMethod.BluetoothLE))
+        if (_deferUntilReady(new Runnable()
         {
-            if (BluetoothLEDeviceManager.getInstance().hasDevice(deviceId))
+            @Override
+            public void run()
             {
-                return _flushOut(BluetoothLEDeviceManager.getInstance().getDevice(deviceId));
+                flushSettings();
             }
+        }))
+        {
+            return;
+        }
+        for (DebouncedPreferences settings : _allSettings())
+        {
+            settings.flush();
         }
-
-        // MARKER: Add additional communication methods here
-
-        return null;
     }
 
     /**
-     * Retrieve all devices. Optionally filter by service id.
-     * @param serviceId
-     * the service id to filter
+     * The number of times settings have been written to disk
      * @return
-     * The devices that match the filter
+     * the number of writes
      */
-    public List<Device> getDevices(String serviceId)
+    public long getSettingsWriteCount()
     {
-
-        List<Device> result = new ArrayList<Device>();
-        if (isEnabled(CommunicationMethod.BluetoothLE))
+        long writes = 0;
+        for (DebouncedPreferences settings : _allSettings())
         {
-            result.addAll(BluetoothLEDeviceManager.getInstance().getDevices(serviceId));
+            writes += settings.getWriteCount();
         }
-
-        // MARKER: Add additional communication methods here
-        return _filterDevices(result, null, null, null);
+        return writes;
     }
 
     /**
-     * Retrieve all the devices that are connected.  Optionally filter by service id.
-     * @param serviceId
-     * the service id to filter
+     * The average time taken to write settings to disk
      * @return
-     * the devices that are connected and match the filter
+     * the time in milliseconds
      */
-    public List<Device> getConnectedDevices(String serviceId)
+    public long getSettingsWriteLatency()
     {
-        List<Device> result = new ArrayList<Device>();
-        if (isEnabled(CommunicationMethod.BluetoothLE))
+        long writes = 0;
+        long time = 0;
+        for (DebouncedPreferences settings : _allSettings())
         {
-            result.addAll(BluetoothLEDeviceManager.getInstance().getDevices(serviceId));
+            writes += settings.getWriteCount();
+            time += settings.getWriteCount() * settings.getAverageWriteLatency();
         }
+        return writes == 0 ? 0 : time / writes;
+    }
 
-        // MARKER: Add additional communication methods here
-        return _filterDevices(result, true, null, null);
+    // LIST DEVICES
+
+    /**
+     * The version of the device lists.  This changes whenever a device is added or removed, changes
+     * state, is activated or deactivated, or is renamed.  If the version hasn't changed since you
+     * last rendered, the lists are the same and there is nothing to redraw.
+     *
+     * @return
+     * the current version of the device lists
+     */
+    public long getDevicesVersion()
+    {
+        _registerAll();
+        return _registry.getVersion();
     }
 
     /**
-     * Retrieve all active devices.  Optionally filter by service id.
-     * @param serviceId
-     * the service id to filter
+     * Retrieve a specific device
+     * @param deviceId
+     * the id of the device to retrieve
      * @return
-     * the devices that are active and match the filter
+     * the device or null if not found
      */
-    public List<Device> getActiveDevices(String serviceId)
+    public Device getDevice(String deviceId)
     {
 
-        List<Device> result = new ArrayList<Device>();
         if (isEnabled(CommunicationMethod.BluetoothLE))
         {
-            result.addAll(BluetoothLEDeviceManager.getInstance().getDevices(serviceId));
+            if (BluetoothLEDeviceManager.getInstance().hasDevice(deviceId))
+            {
+                return _flushOut(BluetoothLEDeviceManager.getInstance().getDevice(deviceId));
+            }
         }
 
         // MARKER: Add additional communication methods here
-        return _filterDevices(result, null, null, true);
+
+        return null;
     }
 
     /**
-     * Retrieve all inactive devices.  Optionally filter by service id.
+     * Retrieve all devices. Optionally filter by service id.  The list is a read-only
+     * snapshot that is shared until the devices change (see {@link #getDevicesVersion()}).
      * @param serviceId
      * the service id to filter
      * @return
-     * the devices that are inactive and match the filter
+     * The devices that match the filter
      */
-    public List<Device> getInactiveDevices(String serviceId)
+    public List<Device> getDevices(String serviceId)
     {
+        _registerAll();
+        return _registry.getDevices(serviceId);
+    }
 
-        List<Device> result = new ArrayList<Device>();
-        if (isEnabled(CommunicationMethod.BluetoothLE))
-        {
-            result.addAll(BluetoothLEDeviceManager.getInstance().getDevices(serviceId));
-        }
+    /**
+     * Retrieve all the devices that are connected.  Optionally filter by service id.  The list is a read-only
+     * snapshot that is shared until the devices change (see {@link #getDevicesVersion()}).
+     * @param serviceId
+     * the service id to filter
+     * @return
+     * the devices that are connected and match the filter
+     */
+    public List<Device> getConnectedDevices(String serviceId)
+    {
+        _registerAll();
+        return _registry.getConnectedDevices(serviceId);
+    }
 
-        // MARKER: Add additional communication methods here
-        return _filterDevices(result, null, true, false);
+    /**
+     * Retrieve all active devices.  Optionally filter by service id.  The list is a read-only
+     * snapshot that is shared until the devices change (see {@link #getDevicesVersion()}).
+     * @param serviceId
+     * the service id to filter
+     * @return
+     * the devices that are active and match the filter
+     */
+    public List<Device> getActiveDevices(String serviceId)
+    {
+        _registerAll();
+        return _registry.getActiveDevices(serviceId);
+    }
+
+    /**
+     * Retrieve all inactive devices.  Optionally filter by service id.  The list is a read-only
+     * snapshot that is shared until the devices change (see {@link #getDevicesVersion()}).
+     * @param serviceId
+     * the service id to filter
+     * @return
+     * the devices that are inactive and match the filter
+     */
+    public List<Device> getInactiveDevices(String serviceId)
+    {
+        _registerAll();
+        return _registry.getInactiveInRangeDevices(serviceId);
     }
 
     /**
-     * Retrieve all out of range devices.  Optionally filter by service id.
+     * Retrieve all out of range devices.  Optionally filter by service id.  The list is a read-only
+     * snapshot that is shared until the devices change (see {@link #getDevicesVersion()}).
      * @param serviceId
      * the service id to filter
      * @return
@@ -591,14 +1123,8 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
      */
     public List<Device> getOutOfRangeDevices(String serviceId)
     {
-        List<Device> result = new ArrayList<Device>();
-        if (isEnabled(CommunicationMethod.BluetoothLE))
-        {
-            result.addAll(BluetoothLEDeviceManager.getInstance().getDevices(serviceId));
-        }
-
-        // MARKER: Add additional communication methods here
-        return _filterDevices(result, null, false, false);
+        _registerAll();
+        return _registry.getInactiveOutOfRangeDevices(serviceId);
     }
 
     // ACTIVATE AND CONNECT TO DEVICES
@@ -612,12 +1138,23 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
      * @param deactivateOthers
      * if we should deactivate (and possibly disconnect) from all other devices
      */
-    public void activateDevice(Device device, boolean deactivateOthers)
+    public void activateDevice(final Device device, final boolean deactivateOthers)
     {
+        if (_deferUntilReady(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                activateDevice(device, deactivateOthers);
+            }
+        }))
+        {
+            return;
+        }
 
         if (deactivateOthers)
         {
-            for (String deviceId : _activeDeviceIds)
+            for (String deviceId : _activeDeviceIds.values())
             {
                 Device oldDevice = getDevice(deviceId);
                 if (oldDevice != null)
@@ -629,14 +1166,14 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
             _activeDeviceIds.clear();
         }
 
-        _activeDeviceIds.add(device.getDeviceId());
-        _saveSettings();
+        _activeDeviceIds.put(device.getDeviceKey(), device.getDeviceId());
+        _deviceLastUsed.put(device.getDeviceKey(), getScheduler().currentTimeMillis());
+        _updateActive(device);
+        _lastUsedSettings.putLong(device.getDeviceId(), _getLastUsed(device));
+        _saveDeviceIds(_activeDeviceIdSettings, "active_devices", _activeDeviceIds.values());
+        _updateWatchedDevices();
 
-        // TODO: Background thread
-        if (_delegate != null)
-        {
-            _delegate.deviceDidActivate(this, device);
-        }
+        _publish(DeviceEvent.Type.Activated, device);
 
         _connect(device);
     }
@@ -648,19 +1185,105 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
      * @param device
      * the device to make inactive
      */
-    public void deactivateDevice(Device device)
+    public void deactivateDevice(final Device device)
     {
+        if (_deferUntilReady(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                deactivateDevice(device);
+            }
+        }))
+        {
+            return;
+        }
         Log.i("CentralDeviceManager", "Deactivate Device");
-        _activeDeviceIds.remove(device.getDeviceId());
+        _activeDeviceIds.remove(device.getDeviceKey());
+        _updateWatchedDevices();
+        _reconnectScheduler.cancel(device);
         _disconnect(device);
+        _updateActive(device);
+
+        _publish(DeviceEvent.Type.Deactivated, device);
+
+        _saveDeviceIds(_activeDeviceIdSettings, "active_devices", _activeDeviceIds.values());
+    }
+
+    /**
+     * Make several devices active and connect to them, leaving other active devices alone.
+     * Connections are made a few at a time (see setMaxConcurrentConnections()) and the change is
+     * reported with a single deviceManagerDidChangeActiveDevices (see
+     * CentralDeviceManagerDelegateAdapter).
+     *
+     * @param devices
+     * the devices to make active, highest priority first
+     */
+    public void activateDevices(Collection<Device> devices)
+    {
+        final List<Device> toActivate = new ArrayList<Device>(devices);
+        if (_deferUntilReady(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                activateDevices(toActivate);
+            }
+        }))
+        {
+            return;
+        }
+        _changeActiveDevices(toActivate, new ArrayList<Device>());
+    }
+
+    /**
+     * Make exactly these devices active.  Devices that are active and not in the collection are
+     * deactivated and disconnected, devices that aren't active yet are activated and connected.
+     * Devices that stay active are left alone.
+     *
+     * @param devices
+     * the devices that should be active, highest priority first
+     */
+    public void setActiveDevices(Collection<Device> devices)
+    {
+        final List<Device> toActivate = new ArrayList<Device>(devices);
+        if (_deferUntilReady(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                setActiveDevices(toActivate);
+            }
+        }))
+        {
+            return;
+        }
+        LongKeyedMap<Device> wanted = new LongKeyedMap<Device>();
+        for (Device device : toActivate)
+        {
+            wanted.put(device.getDeviceKey(), device);
+        }
 
-        // TODO: Background thread
-        if (_delegate != null)
+        List<Device> toDeactivate = new ArrayList<Device>();
+        for (long deviceKey : _activeDeviceIds.keys())
         {
-            _delegate.deviceDidDeactivate(this, device);
+            String deviceId = _activeDeviceIds.get(deviceKey);
+            if (deviceId != null && !wanted.containsKey(deviceKey))
+            {
+                Device device = getDevice(deviceId);
+                if (device != null)
+                {
+                    toDeactivate.add(device);
+                }
+                else
+                {
+                    // not known any more, nothing to disconnect
+                    _activeDeviceIds.remove(deviceKey);
+                }
+            }
         }
 
-        _saveSettings();
+        _changeActiveDevices(toActivate, toDeactivate);
     }
 
     /**
@@ -674,10 +1297,11 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
      */
     public boolean isActive(Device device)
     {
-        boolean active = _activeDeviceIds.contains(device.getDeviceId());
+        long deviceKey = device.getDeviceKey();
+        boolean active = _activeDeviceIds.containsKey(deviceKey);
 
         // override
-        if (_transientInactiveDeviceIds.contains(device.getDeviceId()))
+        if (_transientInactiveDeviceIds.containsKey(deviceKey))
         {
             active = false;
         }
@@ -696,7 +1320,7 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
      */
     public boolean hasActiveDevices(String serviceId)
     {
-        return getActiveDevices(serviceId).size() > 0;
+        return _registry.hasActiveDevices(serviceId);
     }
 
     /**
@@ -710,23 +1334,219 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
      */
     public boolean hasConnectedDevices(String serviceId)
     {
-        return getConnectedDevices(serviceId).size() > 0;
+        return _registry.hasConnectedDevices(serviceId);
     }
 
     // PRIVATE METHODS
 
+    private void _load()
+    {
+        long startTime = getScheduler().nanoTime();
+
+        _loadSettings();
+        BluetoothLEDeviceManager.getInstance().initialize(_context);
+
+        // Only the devices we are going to reconnect are read now, the rest are read when the
+        // device lists are first asked for
+        Set<String> deviceIds = new HashSet<String>(_activeDeviceIds.values());
+        deviceIds.addAll(_persistentDeviceIds);
+        for (String deviceId : deviceIds)
+        {
+            Device device = getDevice(deviceId);
+            if (device != null)
+            {
+                _register(device);
+            }
+        }
+        _updateWatchedDevices();
+
+        _initializationTime = (getScheduler().nanoTime() - startTime) / 1000000;
+        Log.i("CentralDeviceManager", "Initialized in " + _initializationTime + "ms");
+    }
+
+    /**
+     * Queue an operation that changes state behind loading, so callers never wait for
+     * initialize().  Queued operations run in the order they were made, on the settings thread;
+     * once the queue has drained operations run straight away on the caller's thread again.
+     * Usage, at the top of the operation:
+     *
+     * if (_deferUntilReady(... a runnable calling this method again ...)) return;
+     *
+     * @return
+     * true if the operation was queued and the caller should return
+     */
+    private boolean _deferUntilReady(final Runnable operation)
+    {
+        Future<Void> ready = _ready;
+        if (ready == null || Thread.currentThread() == _settingsThread)
+        {
+            // never initialized, or we are loading or running a queued operation
+            return false;
+        }
+        if (ready.isDone() && _queuedOperations.get() == 0)
+        {
+            return false;
+        }
+
+        _queuedOperations.incrementAndGet();
+        _settingsExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                _settingsThread = Thread.currentThread();
+                try
+                {
+                    operation.run();
+                }
+                catch (RuntimeException e)
+                {
+                    Log.e("CentralDeviceManager", "Queued operation failed", e);
+                }
+                finally
+                {
+                    _settingsThread = null;
+                    _queuedOperations.decrementAndGet();
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Register every known device the first time the device lists are asked for
+     */
+    private void _registerAll()
+    {
+        if (!isReady() || _allRegistered.get() || !_allRegistered.compareAndSet(false, true))
+        {
+            return;
+        }
+
+        if (isEnabled(CommunicationMethod.BluetoothLE))
+        {
+            for (Device device : BluetoothLEDeviceManager.getInstance().getDevices(null))
+            {
+                _register(device);
+            }
+        }
+
+        // MARKER: Add additional communication methods here
+    }
+
+    private void _changeActiveDevices(Collection<Device> toActivate, Collection<Device> toDeactivate)
+    {
+        List<Device> activated = new ArrayList<Device>();
+        List<Device> deactivated = new ArrayList<Device>();
+        long now = getScheduler().currentTimeMillis();
+
+        for (Device device : toDeactivate)
+        {
+            if (_activeDeviceIds.remove(device.getDeviceKey()) != null)
+            {
+                deactivated.add(device);
+            }
+        }
+        for (Device device : toActivate)
+        {
+            _deviceLastUsed.put(device.getDeviceKey(), now);
+            _lastUsedSettings.putLong(device.getDeviceId(), now);
+            if (_activeDeviceIds.putIfAbsent(device.getDeviceKey(), device.getDeviceId()) == null)
+            {
+                activated.add(device);
+            }
+        }
+
+        if (activated.isEmpty() && deactivated.isEmpty())
+        {
+            return;
+        }
+
+        _updateWatchedDevices();
+        _saveDeviceIds(_activeDeviceIdSettings, "active_devices", _activeDeviceIds.values());
+
+        for (Device device : deactivated)
+        {
+            _reconnectScheduler.cancel(device);
+            _disconnect(device);
+            _updateActive(device);
+        }
+
+        // marks them as no longer transient inactive, _connect does the same per attempt
+        for (Device device : activated)
+        {
+            _transientInactiveDeviceIds.remove(device.getDeviceKey());
+            _updateActive(device);
+        }
+
+        _eventBus.publish(new DeviceEvent(DeviceEvent.Type.ActiveDevicesChanged, Collections.unmodifiableList(activated), Collections.unmodifiableList(deactivated), null, null));
+
+        _reconnectScheduler.add(activated);
+    }
+
     private void _disconnect(Device device)
     {
-        _transientInactiveDeviceIds.add(device.getDeviceId());
+        _transientInactiveDeviceIds.put(device.getDeviceKey(), device.getDeviceId());
+        _updateActive(device);
         device.disconnect();
     }
 
     private void _connect(Device device)
     {
-        _transientInactiveDeviceIds.remove(device.getDeviceId());
+        _transientInactiveDeviceIds.remove(device.getDeviceKey());
+        _updateActive(device);
+        _reconnectScheduler.attemptDidStart(device);
         device.connect(_context);
     }
 
+    private long _getLastUsed(Device device)
+    {
+        Long lastUsed = _deviceLastUsed.get(device.getDeviceKey());
+        return lastUsed == null ? 0 : lastUsed;
+    }
+
+    private boolean _register(Device device)
+    {
+        if (_registry.contains(device.getDeviceId()))
+        {
+            return false;
+        }
+
+        return _registry.add(_flushOut(device), isActive(device));
+    }
+
+    private void _updateActive(Device device)
+    {
+        // checked under the registry's lock, so of two racing updates the last one files the
+        // device as it is after both changes
+        synchronized (_registry)
+        {
+            _registry.setActive(device, isActive(device));
+        }
+    }
+
+    private void _updateActive(Collection<String> deviceIds)
+    {
+        for (String deviceId : deviceIds)
+        {
+            Device device = getDevice(deviceId);
+            if (device != null)
+            {
+                _updateActive(device);
+            }
+        }
+    }
+
+    private void _updateWatchedDevices()
+    {
+        if (isEnabled(CommunicationMethod.BluetoothLE))
+        {
+            BluetoothLEDeviceManager.getInstance().setWatchedDeviceIds(_activeDeviceIds.values());
+        }
+
+        // MARKER: Add additional communication methods here
+    }
+
     private Device _flushOut(Device device)
     {
 
@@ -735,150 +1555,179 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
             return null;
         }
 
-        String deviceAlias = _deviceAliases.get(device.getDeviceId());
+        String deviceAlias = _deviceAliases.get(device.getDeviceKey());
         if (deviceAlias != null)
         {
             device.setDeviceAlias(deviceAlias);
         }
+        device.setPersistent(_persistentDeviceIds.contains(device.getDeviceId()));
 
         return device;
     }
 
-    private List<Device> _filterDevices(Collection<Device> devices, Boolean connected, Boolean inRange, Boolean active)
+    private DebouncedPreferences _openSettings(String name)
     {
-        List<Device> result = new ArrayList<Device>();
-        for (Device device : devices)
-        {
-            Device d = _flushOut(device);
-            if (d != null)
-            {
-                boolean match = true;
-                if (connected != null)
-                {
-                    boolean r = d.isConnected();
-                    if ((!r && connected) || (r && !connected))
-                    {
-                        match = false;
-                    }
-                }
-                if (inRange != null)
-                {
-                    boolean r = d.isInRange();
-                    if ((!r && inRange) || (r && !inRange))
-                    {
-                        match = false;
-                    }
-                }
-                if (active != null)
-                {
-                    boolean a = isActive(d);
-                    if ((!a && active) || (a && !active))
-                    {
-                        match = false;
-                    }
-                }
+        return new DebouncedPreferences(_context.getSharedPreferences(name, Context.MODE_PRIVATE), _settingsScheduler, SETTINGS_WRITE_DELAY);
+    }
 
-                if (match)
-                {
-                    result.add(d);
-                }
-            }
+    private DebouncedPreferences[] _allSettings()
+    {
+        if (_context == null)
+        {
+            return new DebouncedPreferences[0];
         }
-
-        return result;
+        return new DebouncedPreferences[] { _aliasSettings, _secureCodeSettings, _lastUsedSettings, _activeDeviceIdSettings, _persistentDeviceIdSettings };
     }
 
     private void _loadSettings()
     {
-        SharedPreferences settings = _context.getSharedPreferences("gymnext_device_aliases.pref", Context.MODE_PRIVATE);
-        Map<String, ?> values = settings.getAll();
+        Map<String, ?> values = _aliasSettings.getPreferences().getAll();
         for (String key : values.keySet())
         {
-            String value = (String) values.get(key);
-            _deviceAliases.put(key, value);
+            _putSetting(_deviceAliases, key, values.get(key), String.class);
         }
 
-        settings = _context.getSharedPreferences("gymnext_device_secure_codes.pref", Context.MODE_PRIVATE);
-        values = settings.getAll();
+        values = _secureCodeSettings.getPreferences().getAll();
         for (String key : values.keySet())
         {
-            String value = (String) values.get(key);
-            _deviceSecureCodes.put(key, value);
+            _putSetting(_deviceSecureCodes, key, values.get(key), String.class);
         }
 
-        settings = _context.getSharedPreferences("gymnext_active_device_ids.pref", Context.MODE_PRIVATE);
-        _activeDeviceIds = settings.getStringSet("active_devices", new HashSet<String>());
-        Log.i("CentralDeviceManager", "Load Active Devices: " + _activeDeviceIds.size());
-    }
-
-    private void _saveSettings()
-    {
-        SharedPreferences settings = _context.getSharedPreferences("gymnext_device_aliases.pref", Context.MODE_PRIVATE);
-        SharedPreferences.Editor editor = settings.edit();
+        values = _lastUsedSettings.getPreferences().getAll();
+        for (String key : values.keySet())
+        {
+            _putSetting(_deviceLastUsed, key, values.get(key), Long.class);
+        }
 
-        for (String key : _deviceAliases.keySet())
+        for (String deviceId : _activeDeviceIdSettings.getPreferences().getStringSet("active_devices", new HashSet<String>()))
         {
-            String value = _deviceAliases.get(key);
-            editor.putString(key, value);
+            _putSetting(_activeDeviceIds, deviceId, deviceId, String.class);
         }
-        editor.commit();
+        Log.i("CentralDeviceManager", "Load Active Devices: " + _activeDeviceIds.size());
 
-        settings = _context.getSharedPreferences("gymnext_device_secure_codes.pref", Context.MODE_PRIVATE);
-        editor = settings.edit();
+        _persistentDeviceIds.addAll(_persistentDeviceIdSettings.getPreferences().getStringSet("persistent_devices", new HashSet<String>()));
+    }
 
-        for (String key : _deviceSecureCodes.keySet())
+    /**
+     * Put a loaded setting in one of the device maps, skipping ids that aren't MAC addresses
+     */
+    private <V> void _putSetting(LongKeyedMap<V> map, String deviceId, Object value, Class<V> type)
+    {
+        long deviceKey = MacAddress.pack(deviceId);
+        if (deviceKey == MacAddress.INVALID || !type.isInstance(value))
         {
-            String value = _deviceSecureCodes.get(key);
-            editor.putString(key, value);
+            Log.w("CentralDeviceManager", "Ignoring setting for " + deviceId);
+            return;
         }
-        editor.commit();
+        map.put(deviceKey, type.cast(value));
+    }
 
-        settings = _context.getSharedPreferences("gymnext_active_device_ids.pref", Context.MODE_PRIVATE);
-        editor = settings.edit();
-        if (_activeDeviceIds.size() == 0) {
-            editor.remove("active_devices");
+    private void _saveDeviceIds(DebouncedPreferences settings, String key, Collection<String> deviceIds)
+    {
+        if (deviceIds.isEmpty())
+        {
+            settings.remove(key);
         }
-        else {
-            editor.putStringSet("active_devices", _activeDeviceIds);
+        else
+        {
+            settings.putStringSet(key, new HashSet<String>(deviceIds));
         }
-        boolean b = editor.commit();
-
-        Log.i("CentralDeviceManager","Save Active Devices: " + b + " - " + _activeDeviceIds.size());
+    }
 
-        settings = _context.getSharedPreferences("gymnext_active_device_ids.pref", Context.MODE_PRIVATE);
-        _activeDeviceIds = settings.getStringSet("active_devices", new HashSet<String>());
-        Log.i("CentralDeviceManager", "Load Active Devices: " + _activeDeviceIds.size());
+    private void _publish(DeviceEvent.Type type, Device device)
+    {
+        _eventBus.publish(new DeviceEvent(type, device, null));
     }
 
-    private void _checkForFinishedReconnecting(Device device)
+    /**
+     * Calls a CentralDeviceManagerDelegate for events from the bus
+     */
+    private class DelegateAdapter implements DeviceEventListener
     {
-        if (_reconnectingDevices.get(device.getDeviceId()) != null)
+        private final CentralDeviceManagerDelegate _listener;
+
+        private DelegateAdapter(CentralDeviceManagerDelegate listener)
         {
-            _reconnectingDevices.remove(device.getDeviceId());
+            _listener = listener;
+        }
 
-            if (_reconnectingDevices.size() == 0)
+        @Override
+        public void onDeviceEvent(DeviceEvent event)
+        {
+            CentralDeviceManager manager = CentralDeviceManager.this;
+            switch (event.getType())
             {
-                if (_delegate != null)
-                {
-                    _delegate.deviceManagerDidFinishReconnectingDevices(this);
-                }
+                case MovedInRange:
+                    _listener.deviceDidMoveInRange(manager, event.getDevice());
+                    break;
+                case MovedOutOfRange:
+                    _listener.deviceDidMoveOutOfRange(manager, event.getDevice());
+                    break;
+                case Activated:
+                    _listener.deviceDidActivate(manager, event.getDevice());
+                    break;
+                case Deactivated:
+                    _listener.deviceDidDeactivate(manager, event.getDevice());
+                    break;
+                case Connected:
+                    _listener.deviceDidConnect(manager, event.getDevice());
+                    break;
+                case FailedToConnect:
+                    _listener.deviceDidFailToConnect(manager, event.getDevice());
+                    break;
+                case Disconnected:
+                    _listener.deviceDidDisconnect(manager, event.getDevice());
+                    break;
+                case ActiveDevicesChanged:
+                    if (_listener instanceof CentralDeviceManagerDelegateAdapter)
+                    {
+                        ((CentralDeviceManagerDelegateAdapter) _listener).deviceManagerDidChangeActiveDevices(manager, event.getDevices(), event.getDeactivatedDevices());
+                    }
+                    else
+                    {
+                        _didChangeActiveDevices(_listener, manager, event.getDevices(), event.getDeactivatedDevices());
+                    }
+                    break;
+                case FinishedReconnecting:
+                    if (_listener instanceof CentralDeviceManagerDelegateAdapter)
+                    {
+                        ((CentralDeviceManagerDelegateAdapter) _listener).deviceManagerDidFinishReconnectingDevices(manager, event.getReconnectSummary());
+                    }
+                    else
+                    {
+                        _listener.deviceManagerDidFinishReconnectingDevices(manager);
+                    }
+                    break;
+                case FinishedDisconnecting:
+                    _listener.deviceManagerDidFinishDisconnectingDevices(manager);
+                    break;
+                default:
+                    break;
             }
         }
     }
 
-    private void _checkForFinishedDisconnecting(Device device)
+    /**
+     * Report a change of active devices one device at a time, to delegates that don't take it in
+     * one go
+     */
+    private static void _didChangeActiveDevices(CentralDeviceManagerDelegate delegate, CentralDeviceManager manager, List<Device> activatedDevices, List<Device> deactivatedDevices)
     {
-        if (_disconnectingDevices.get(device.getDeviceId()) != null)
+        for (Device device : deactivatedDevices)
+        {
+            delegate.deviceDidDeactivate(manager, device);
+        }
+        for (Device device : activatedDevices)
         {
-            _disconnectingDevices.remove(device.getDeviceId());
+            delegate.deviceDidActivate(manager, device);
+        }
+    }
 
-            if (_disconnectingDevices.size() == 0)
-            {
-                if (_delegate != null)
-                {
-                    _delegate.deviceManagerDidFinishDisconnectingDevices(this);
-                }
-            }
+    private void _checkForFinishedDisconnecting(Device device)
+    {
+        if (_disconnectingDevices.remove(device.getDeviceId()) != null && _disconnectingRemaining.decrementAndGet() == 0)
+        {
+            _publish(DeviceEvent.Type.FinishedDisconnecting, null);
         }
     }
 
@@ -891,10 +1740,7 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
      */
     public final void deviceDidMoveOutOfRange(BluetoothLEDeviceManager manager, BluetoothLEDevice device)
     {
-        if (_delegate != null)
-        {
-            _delegate.deviceDidMoveOutOfRange(this, device);
-        }
+        _publish(DeviceEvent.Type.MovedOutOfRange, device);
     }
 
     /**
@@ -904,10 +1750,13 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
      */
     public final void deviceDidMoveInRange(BluetoothLEDeviceManager manager, BluetoothLEDevice device)
     {
-        if (_delegate != null)
+        if (!_register(device))
         {
-            _delegate.deviceDidMoveInRange(this, device);
+            // known device that was renamed or came back into range
+            _registry.invalidate();
         }
+
+        _publish(DeviceEvent.Type.MovedInRange, device);
     }
 
     /**
@@ -917,12 +1766,12 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
      */
     public final void deviceDidConnect(BluetoothLEDeviceManager manager, BluetoothLEDevice device)
     {
-        _checkForFinishedReconnecting(device);
+        _deviceLastUsed.put(device.getDeviceKey(), getScheduler().currentTimeMillis());
+        _lastUsedSettings.putLong(device.getDeviceId(), _getLastUsed(device));
 
-        if (_delegate != null)
-        {
-            _delegate.deviceDidConnect(this, device);
-        }
+        _reconnectScheduler.deviceDidConnect(device);
+
+        _publish(DeviceEvent.Type.Connected, device);
     }
 
     /**
@@ -932,12 +1781,9 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
      */
     public final void deviceDidFailToConnect(BluetoothLEDeviceManager manager, BluetoothLEDevice device)
     {
-        _checkForFinishedReconnecting(device);
+        _reconnectScheduler.deviceDidFailToConnect(device);
 
-        if (_delegate != null)
-        {
-            _delegate.deviceDidFailToConnect(this, device);
-        }
+        _publish(DeviceEvent.Type.FailedToConnect, device);
     }
 
     /**
@@ -949,10 +1795,7 @@ public class CentralDeviceManager implements BluetoothLEDeviceManagerDelegate
     {
         _checkForFinishedDisconnecting(device);
 
-        if (_delegate != null)
-        {
-            _delegate.deviceDidDisconnect(this, device);
-        }
+        _publish(DeviceEvent.Type.Disconnected, device);
     }
 
 }
@@ -0,0 +1,115 @@
+package com.gymnext.gymnextsdk;
+
+/**
+ * Connection attempt statistics for a single device.  Instances are immutable snapshots.
+ */
+public final class ConnectStats
+{
+    static final ConnectStats EMPTY = new ConnectStats(0, 0, 0, 0, 0, 0, 0);
+
+    private final int _attempts;
+    private final int _successes;
+    private final int _failures;
+    private final long _lastLatency;
+    private final long _minLatency;
+    private final long _maxLatency;
+    private final long _totalLatency;
+
+    private ConnectStats(int attempts, int successes, int failures, long lastLatency, long minLatency, long maxLatency, long totalLatency)
+    {
+        _attempts = attempts;
+        _successes = successes;
+        _failures = failures;
+        _lastLatency = lastLatency;
+        _minLatency = minLatency;
+        _maxLatency = maxLatency;
+        _totalLatency = totalLatency;
+    }
+
+    ConnectStats withAttempt()
+    {
+        return new ConnectStats(_attempts + 1, _successes, _failures, _lastLatency, _minLatency, _maxLatency, _totalLatency);
+    }
+
+    ConnectStats withSuccess(long latency)
+    {
+        long minLatency = _successes == 0 ? latency : Math.min(_minLatency, latency);
+        long maxLatency = Math.max(_maxLatency, latency);
+        return new ConnectStats(_attempts, _successes + 1, _failures, latency, minLatency, maxLatency, _totalLatency + latency);
+    }
+
+    ConnectStats withFailure()
+    {
+        return new ConnectStats(_attempts, _successes, _failures + 1, _lastLatency, _minLatency, _maxLatency, _totalLatency);
+    }
+
+    /**
+     * The number of connection attempts made
+     * @return
+     * the number of attempts
+     */
+    public int getAttempts()
+    {
+        return _attempts;
+    }
+
+    /**
+     * The number of attempts that connected
+     * @return
+     * the number of successful attempts
+     */
+    public int getSuccesses()
+    {
+        return _successes;
+    }
+
+    /**
+     * The number of attempts that failed or timed out
+     * @return
+     * the number of failed attempts
+     */
+    public int getFailures()
+    {
+        return _failures;
+    }
+
+    /**
+     * Time taken by the most recent successful attempt
+     * @return
+     * latency in milliseconds (0 if never connected)
+     */
+    public long getLastLatency()
+    {
+        return _lastLatency;
+    }
+
+    /**
+     * Fastest successful attempt
+     * @return
+     * latency in milliseconds (0 if never connected)
+     */
+    public long getMinLatency()
+    {
+        return _minLatency;
+    }
+
+    /**
+     * Slowest successful attempt
+     * @return
+     * latency in milliseconds (0 if never connected)
+     */
+    public long getMaxLatency()
+    {
+        return _maxLatency;
+    }
+
+    /**
+     * Average time taken by successful attempts
+     * @return
+     * latency in milliseconds (0 if never connected)
+     */
+    public long getAverageLatency()
+    {
+        return _successes == 0 ? 0 : _totalLatency / _successes;
+    }
+}
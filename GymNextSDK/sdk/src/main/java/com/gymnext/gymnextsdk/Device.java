@@ -2,10 +2,20 @@ package com.gymnext.gymnextsdk;
 
 import android.content.Context;
 
+import com.gymnext.gymnextsdk.base.LinkMetrics;
+import com.gymnext.gymnextsdk.base.MacAddress;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -18,7 +28,19 @@ public abstract class Device
 {
 
     /**
-     * Main listener for this device
+     * Internal listener used to keep the device registry indexes up to date
+     */
+    interface DeviceStateListener
+    {
+        public void deviceStateDidChange(Device device);
+
+        public void deviceServicesDidChange(Device device);
+    }
+
+    /**
+     * Main listener for this device.  Callbacks arrive on a thread of the event bus, never on the
+     * Bluetooth threads or the main thread, one at a time and in order.  Post to the main thread
+     * to update the UI.
      */
     public interface DeviceDelegate
     {
@@ -54,14 +76,33 @@ public abstract class Device
     private static final String KEY_MODEL_NAME = "modelName";
     private static final String KEY_SERVICE_IDS = "serviceIds";
 
-    protected DeviceDelegate _delegate;
+    // Version of the binary record written by writeTo()
+    private static final int RECORD_VERSION = 1;
+
+    protected volatile DeviceDelegate _delegate;
     protected String _deviceId;
-    protected DeviceState _deviceState = DeviceState.OutOfRange;
+    protected final DeviceStateMachine _stateMachine = new DeviceStateMachine(this);
     protected String _manufacturerName;
     protected String _modelName;
     protected String _deviceName;
     protected String _deviceAlias;
     protected Set<String> _serviceIds = new HashSet<String>();
+    protected volatile boolean _persistent = false;
+
+    private volatile DeviceStateListener _stateListener;
+
+    // The delegate receives its callbacks through the event bus, off the Bluetooth threads.  Its
+    // queue is unbounded, a delegate gets every callback however far behind it falls.  The bus
+    // only holds the device weakly, so a device that is let go of takes its delegate with it.
+    private static final Set<DeviceEvent.Type> DELEGATE_EVENTS = EnumSet.of(DeviceEvent.Type.EstablishedCommunicationChannel, DeviceEvent.Type.SentData, DeviceEvent.Type.ReceivedData);
+    private DeviceEventBus.Subscription _delegateSubscription;
+
+    // the device id packed by MacAddress, worked out on first use
+    private volatile boolean _hasDeviceKey = false;
+    private long _deviceKey;
+
+    // recorded by the communication method's link, read through getMetrics()
+    private final LinkMetrics _linkMetrics = new LinkMetrics();
 
     public Device(String deviceId, String deviceName, String deviceAlias, String manufacturerName, String modelName)
     {
@@ -91,6 +132,28 @@ public abstract class Device
         }
     }
 
+    protected Device(DataInput in) throws IOException
+    {
+        int version = in.readUnsignedByte();
+        if (version != RECORD_VERSION)
+        {
+            throw new IOException("Unknown device record version " + version);
+        }
+
+        _deviceId = _readString(in);
+        _deviceName = _readString(in);
+        _deviceAlias = _readString(in);
+        _manufacturerName = _readString(in);
+        _modelName = _readString(in);
+
+        _serviceIds = new HashSet<String>();
+        int serviceIdCount = in.readUnsignedShort();
+        for (int i = 0; i < serviceIdCount; i++)
+        {
+            _serviceIds.add(in.readUTF());
+        }
+    }
+
     /**
      * Retrieve the device's delegate
      * @return
@@ -102,13 +165,26 @@ public abstract class Device
     }
 
     /**
-     * Set the device's delegate
+     * Set the device's delegate.  It is called on a thread of the event bus, see DeviceDelegate.
      * @param delegate
      * The device delegate
      */
-    public void setDelegate(DeviceDelegate delegate)
+    public synchronized void setDelegate(DeviceDelegate delegate)
     {
         _delegate = delegate;
+
+        if (_delegateSubscription != null)
+        {
+            _delegateSubscription.unsubscribe();
+            _delegateSubscription = null;
+        }
+        if (delegate != null)
+        {
+            DeviceEventFilter filter = DeviceEventFilter.ALL.withDevice(_deviceId).withTypes(DELEGATE_EVENTS);
+            DelegateAdapter adapter = new DelegateAdapter(this);
+            _delegateSubscription = DeviceEventBus.getInstance().subscribe(adapter, filter, null, DeviceEventBus.UNBOUNDED, DeviceEventBus.OverflowPolicy.DropNewest);
+            adapter._subscription = _delegateSubscription;
+        }
     }
 
     /**
@@ -121,6 +197,42 @@ public abstract class Device
         return _deviceId;
     }
 
+    /**
+     * Retrieve the device id packed into a long, which the SDK uses to key its device maps
+     * @return
+     * the packed id or MacAddress.INVALID if the id isn't a MAC address
+     */
+    public long getDeviceKey()
+    {
+        if (!_hasDeviceKey)
+        {
+            _deviceKey = MacAddress.pack(_deviceId);
+            _hasDeviceKey = true;
+        }
+        return _deviceKey;
+    }
+
+    /**
+     * Retrieve a snapshot of the device's link metrics: traffic, write latency, queue depths,
+     * connection times and errors since the device was loaded
+     * @return
+     * the metrics
+     */
+    public DeviceMetrics getMetrics()
+    {
+        return new DeviceMetrics(_deviceId, _linkMetrics);
+    }
+
+    /**
+     * Internal recorder for the link metrics, written from the Bluetooth callbacks
+     * @return
+     * the recorder
+     */
+    public LinkMetrics getLinkMetrics()
+    {
+        return _linkMetrics;
+    }
+
     /**
      * Retrieve the name of the device to display to the user.  Uses alias if set, otherwise
      * device name.
@@ -199,17 +311,59 @@ public abstract class Device
      */
     public DeviceState getDeviceState()
     {
-        return _deviceState;
+        return _stateMachine.getState();
     }
 
     /**
-     * Update the state of the device
+     * Update the state of the device.  This bypasses the transition table, prefer
+     * letting the device drive its own state.
      * @param deviceState
      * The device state
      */
     public void setDeviceState(DeviceState deviceState)
     {
-        _deviceState = deviceState;
+        _stateMachine.force(deviceState);
+    }
+
+    /**
+     * Retrieve the state machine driving the connection state of this device.  Use it to hook
+     * transitions or read transition counters.
+     * @return
+     * The state machine
+     */
+    public DeviceStateMachine getStateMachine()
+    {
+        return _stateMachine;
+    }
+
+    void setStateListener(DeviceStateListener stateListener)
+    {
+        _stateListener = stateListener;
+    }
+
+    void stateDidChange()
+    {
+        DeviceStateListener stateListener = _stateListener;
+        if (stateListener != null)
+        {
+            stateListener.deviceStateDidChange(this);
+        }
+    }
+
+    /**
+     * Retrieve if the device is in persistent mode.  Persistent devices are connected in the
+     * background and reconnected automatically whenever they come back.
+     * @return
+     * If the device is persistent
+     */
+    public boolean isPersistent()
+    {
+        return _persistent;
+    }
+
+    void setPersistent(boolean persistent)
+    {
+        _persistent = persistent;
     }
 
     /**
@@ -219,7 +373,7 @@ public abstract class Device
      */
     public boolean isConnected()
     {
-        return _deviceState == DeviceState.Connected;
+        return getDeviceState() == DeviceState.Connected;
     }
 
     /**
@@ -228,7 +382,7 @@ public abstract class Device
      * If the device is in range
      */
     public boolean isInRange() {
-        return _deviceState != DeviceState.OutOfRange;
+        return getDeviceState() != DeviceState.OutOfRange;
     }
 
     /**
@@ -249,6 +403,12 @@ public abstract class Device
     public void setServiceIds(Set<String> serviceIds)
     {
         _serviceIds = serviceIds;
+
+        DeviceStateListener stateListener = _stateListener;
+        if (stateListener != null)
+        {
+            stateListener.deviceServicesDidChange(this);
+        }
     }
 
     /**
@@ -314,6 +474,128 @@ public abstract class Device
      */
     public abstract void didMoveOutOfRange();
 
+    /**
+     * Write the device as a compact binary record, read back by the DataInput constructor
+     * @param out
+     * where to write
+     */
+    public void writeTo(DataOutput out) throws IOException
+    {
+        out.writeByte(RECORD_VERSION);
+        _writeString(out, _deviceId);
+        _writeString(out, _deviceName);
+        _writeString(out, _deviceAlias);
+        _writeString(out, _manufacturerName);
+        _writeString(out, _modelName);
+
+        Set<String> serviceIds = _serviceIds;
+        out.writeShort(serviceIds.size());
+        for (String serviceId : serviceIds)
+        {
+            out.writeUTF(serviceId);
+        }
+    }
+
+    /**
+     * The binary record written by writeTo()
+     * @return
+     * the record
+     */
+    public byte[] toBytes()
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeTo(out);
+            out.flush();
+            return bytes.toByteArray();
+        }
+        catch (IOException e)
+        {
+            // not possible writing to memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Tell the delegate and any other subscribers about something the device did.  Returns
+     * straight away, the subscribers are called on their own executors.
+     * @param type
+     * one of the DeviceDelegate event types
+     * @param serviceId
+     * the service that sent or received data, or null
+     */
+    protected void publishEvent(DeviceEvent.Type type, String serviceId)
+    {
+        DeviceEventBus.getInstance().publish(new DeviceEvent(type, this, serviceId));
+    }
+
+    /**
+     * Passes events on to the device's delegate.  Holds the device weakly, the bus keeps its
+     * subscribers for good, and unsubscribes once the device is gone.
+     */
+    private static class DelegateAdapter implements DeviceEventListener
+    {
+        private final WeakReference<Device> _device;
+        private volatile DeviceEventBus.Subscription _subscription;
+
+        private DelegateAdapter(Device device)
+        {
+            _device = new WeakReference<Device>(device);
+        }
+
+        @Override
+        public void onDeviceEvent(DeviceEvent event)
+        {
+            Device device = _device.get();
+            if (device == null)
+            {
+                DeviceEventBus.Subscription subscription = _subscription;
+                if (subscription != null)
+                {
+                    subscription.unsubscribe();
+                }
+                return;
+            }
+
+            DeviceDelegate delegate = device._delegate;
+            if (delegate == null)
+            {
+                return;
+            }
+
+            switch (event.getType())
+            {
+                case EstablishedCommunicationChannel:
+                    delegate.establishedCommunicationChannel(event.getDevice());
+                    break;
+                case SentData:
+                    delegate.sentDataToDevice(event.getDevice());
+                    break;
+                case ReceivedData:
+                    delegate.receivedDataFromDevice(event.getDevice());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static void _writeString(DataOutput out, String s) throws IOException
+    {
+        out.writeBoolean(s != null);
+        if (s != null)
+        {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String _readString(DataInput in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
     public JSONObject toJson()
     {
         try
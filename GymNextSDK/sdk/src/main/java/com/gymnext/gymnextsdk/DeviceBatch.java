@@ -0,0 +1,89 @@
+package com.gymnext.gymnextsdk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Everything that happened between two ticks: the devices that changed, what happened to each of
+ * them, and the events that weren't about a single device
+ */
+public final class DeviceBatch
+{
+    private final Map<Device, Set<DeviceEvent.Type>> _changes = new LinkedHashMap<Device, Set<DeviceEvent.Type>>();
+    private final List<DeviceEvent> _otherEvents = new ArrayList<DeviceEvent>();
+    private int _eventCount = 0;
+
+    DeviceBatch()
+    {
+    }
+
+    void add(DeviceEvent event)
+    {
+        _eventCount++;
+        if (event.getDevices().size() != 1 || !event.getDeactivatedDevices().isEmpty())
+        {
+            _otherEvents.add(event);
+            return;
+        }
+
+        Device device = event.getDevice();
+        Set<DeviceEvent.Type> types = _changes.get(device);
+        if (types == null)
+        {
+            types = EnumSet.noneOf(DeviceEvent.Type.class);
+            _changes.put(device, types);
+        }
+        types.add(event.getType());
+    }
+
+    boolean isEmpty()
+    {
+        return _eventCount == 0;
+    }
+
+    /**
+     * The devices that had events, in the order they first changed
+     * @return
+     * the devices
+     */
+    public List<Device> getChangedDevices()
+    {
+        return new ArrayList<Device>(_changes.keySet());
+    }
+
+    /**
+     * What happened to a device
+     * @param device
+     * the device
+     * @return
+     * the types of event it had, empty if it didn't change
+     */
+    public Set<DeviceEvent.Type> getEventTypes(Device device)
+    {
+        Set<DeviceEvent.Type> types = _changes.get(device);
+        return types == null ? Collections.<DeviceEvent.Type>emptySet() : Collections.unmodifiableSet(types);
+    }
+
+    /**
+     * Events about several devices or none (e.g. FinishedReconnecting), in order
+     * @return
+     * the events
+     */
+    public List<DeviceEvent> getOtherEvents()
+    {
+        return Collections.unmodifiableList(_otherEvents);
+    }
+
+    /**
+     * The number of events folded into this batch
+     */
+    public int getEventCount()
+    {
+        return _eventCount;
+    }
+}
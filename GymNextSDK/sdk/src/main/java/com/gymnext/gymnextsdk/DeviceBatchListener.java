@@ -0,0 +1,15 @@
+package com.gymnext.gymnextsdk;
+
+/**
+ * Receives device changes once per tick, see {@link FrameAlignedDelivery}
+ */
+public interface DeviceBatchListener
+{
+    /**
+     * Called on the tick source's thread with everything that changed since the last call.  Not
+     * called for ticks where nothing changed.
+     * @param batch
+     * the changes
+     */
+    public void devicesDidChange(DeviceBatch batch);
+}
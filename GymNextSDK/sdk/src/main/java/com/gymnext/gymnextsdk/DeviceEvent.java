@@ -0,0 +1,136 @@
+package com.gymnext.gymnextsdk;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Something that happened to one or more devices, delivered through the {@link DeviceEventBus}
+ */
+public final class DeviceEvent
+{
+    /**
+     * The kinds of event, one for each delegate callback
+     */
+    public enum Type
+    {
+        // CentralDeviceManagerDelegate
+        MovedInRange,
+        MovedOutOfRange,
+        Activated,
+        Deactivated,
+        Connected,
+        FailedToConnect,
+        Disconnected,
+        ActiveDevicesChanged,
+        FinishedReconnecting,
+        FinishedDisconnecting,
+
+        // DeviceDelegate
+        EstablishedCommunicationChannel,
+        SentData,
+        ReceivedData
+    }
+
+    private final Type _type;
+    private final List<Device> _devices;
+    private final List<Device> _deactivatedDevices;
+    private final String _serviceId;
+    private final ReconnectSummary _reconnectSummary;
+    private final long _timestamp = CentralDeviceManager.getInstance().getScheduler().currentTimeMillis();
+
+    DeviceEvent(Type type, Device device, String serviceId)
+    {
+        this(type, device == null ? Collections.<Device>emptyList() : Collections.singletonList(device), Collections.<Device>emptyList(), serviceId, null);
+    }
+
+    DeviceEvent(Type type, List<Device> devices, List<Device> deactivatedDevices, String serviceId, ReconnectSummary reconnectSummary)
+    {
+        _type = type;
+        _devices = devices;
+        _deactivatedDevices = deactivatedDevices;
+        _serviceId = serviceId;
+        _reconnectSummary = reconnectSummary;
+    }
+
+    public Type getType()
+    {
+        return _type;
+    }
+
+    /**
+     * The device the event is about
+     * @return
+     * the device, or the first activated device for ActiveDevicesChanged, or null for events
+     * that aren't about a particular device
+     */
+    public Device getDevice()
+    {
+        return _devices.isEmpty() ? null : _devices.get(0);
+    }
+
+    /**
+     * The devices the event is about.  For ActiveDevicesChanged these are the activated devices.
+     * @return
+     * the devices, possibly empty
+     */
+    public List<Device> getDevices()
+    {
+        return _devices;
+    }
+
+    /**
+     * For ActiveDevicesChanged, the devices that were made inactive
+     * @return
+     * the devices, possibly empty
+     */
+    public List<Device> getDeactivatedDevices()
+    {
+        return _deactivatedDevices;
+    }
+
+    /**
+     * The service that sent or received data
+     * @return
+     * the service id or null if the event didn't come from a service
+     */
+    public String getServiceId()
+    {
+        return _serviceId;
+    }
+
+    /**
+     * For FinishedReconnecting, the outcome
+     * @return
+     * the summary or null
+     */
+    public ReconnectSummary getReconnectSummary()
+    {
+        return _reconnectSummary;
+    }
+
+    /**
+     * When the event happened
+     * @return
+     * the time in milliseconds since the epoch
+     */
+    public long getTimestamp()
+    {
+        return _timestamp;
+    }
+
+    /**
+     * Check if this event can stand in for an older one that is still waiting to be delivered, i.e.
+     * the same thing happened again to the same service of the same device
+     */
+    boolean supersedes(DeviceEvent event)
+    {
+        return event._type == _type && _devices.size() == 1 && event._devices.size() == 1 && event._devices.get(0) == _devices.get(0)
+                && (_serviceId == null ? event._serviceId == null : _serviceId.equals(event._serviceId));
+    }
+
+    @Override
+    public String toString()
+    {
+        return _type + " " + (_devices.size() == 1 ? _devices.get(0).getDeviceId() : _devices.size() + " devices");
+    }
+}
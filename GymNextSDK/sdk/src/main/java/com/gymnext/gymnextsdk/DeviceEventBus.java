@@ -0,0 +1,369 @@
+package com.gymnext.gymnextsdk;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers device events to any number of subscribers.
+ *
+ * Each subscriber has its own filter, executor and queue.  Publishing only queues the
+ * event, it never waits for a subscriber, so a slow subscriber can't hold up the Bluetooth
+ * callbacks or the other subscribers.  When a subscriber's queue is full its overflow policy
+ * decides what to give up.
+ *
+ * The delegates set with CentralDeviceManager.setDelegate() and Device.setDelegate() are
+ * subscribers like any other, with unbounded queues so they never miss a callback.  Like every
+ * subscriber without an executor of its own they are called on a bus thread, not the main thread.
+ */
+public class DeviceEventBus
+{
+    /**
+     * What to do with an event for a subscriber whose queue is full
+     */
+    public enum OverflowPolicy
+    {
+        /**
+         * make room by dropping the oldest waiting event
+         */
+        DropOldest,
+        /**
+         * drop the new event
+         */
+        DropNewest,
+        /**
+         * replace the waiting event of the same type for the same device, or drop the oldest if
+         * there isn't one
+         */
+        Coalesce
+    }
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    /**
+     * A capacity that is never reached, for subscribers that must see every event
+     */
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    // Events delivered per turn on the executor, so one busy subscriber can't hog a shared thread
+    private static final int MAX_BATCH = 32;
+
+    /**
+     * singleton instance
+     */
+    private static DeviceEventBus mInstance = new DeviceEventBus();
+
+    /**
+     * singleton accessor
+     */
+    public static DeviceEventBus getInstance()
+    {
+        return mInstance;
+    }
+
+    private final List<Subscription> _subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+    // For subscribers that don't bring their own executor, including the delegates.  A subscriber
+    // only ever has one delivery in flight, so each busy one gets a thread to itself and a slow one
+    // can't hold up the rest; idle threads go away.
+    private final ExecutorService _defaultExecutor = Executors.newCachedThreadPool();
+
+    private volatile Executor _mainThreadExecutor;
+
+    /**
+     * A subscription to the bus
+     */
+    public final class Subscription implements Runnable
+    {
+        private final DeviceEventListener _listener;
+        private final DeviceEventFilter _filter;
+        private final Executor _executor;
+        private final int _capacity;
+        private final OverflowPolicy _policy;
+
+        // guarded by this
+        private final ArrayDeque<DeviceEvent> _queue = new ArrayDeque<DeviceEvent>();
+        private boolean _scheduled = false;
+
+        private volatile boolean _active = true;
+
+        private final AtomicLong _delivered = new AtomicLong();
+        private final AtomicLong _dropped = new AtomicLong();
+        private final AtomicLong _coalesced = new AtomicLong();
+
+        private Subscription(DeviceEventListener listener, DeviceEventFilter filter, Executor executor, int capacity, OverflowPolicy policy)
+        {
+            _listener = listener;
+            _filter = filter;
+            _executor = executor;
+            _capacity = capacity;
+            _policy = policy;
+        }
+
+        /**
+         * Stop receiving events.  Events already queued are thrown away.
+         */
+        public void unsubscribe()
+        {
+            _active = false;
+            _subscriptions.remove(this);
+            synchronized (this)
+            {
+                _queue.clear();
+            }
+        }
+
+        public boolean isActive()
+        {
+            return _active;
+        }
+
+        public DeviceEventListener getListener()
+        {
+            return _listener;
+        }
+
+        /**
+         * The number of events handed to the listener
+         */
+        public long getDeliveredCount()
+        {
+            return _delivered.get();
+        }
+
+        /**
+         * The number of events dropped because the queue was full
+         */
+        public long getDroppedCount()
+        {
+            return _dropped.get();
+        }
+
+        /**
+         * The number of events replaced by a newer event for the same device
+         */
+        public long getCoalescedCount()
+        {
+            return _coalesced.get();
+        }
+
+        /**
+         * The number of events waiting to be delivered
+         */
+        public synchronized int getQueueSize()
+        {
+            return _queue.size();
+        }
+
+        private void _offer(DeviceEvent event)
+        {
+            if (!_active || !_filter.matches(event))
+            {
+                return;
+            }
+
+            synchronized (this)
+            {
+                if (_queue.size() >= _capacity && !_makeRoom(event))
+                {
+                    return;
+                }
+                _queue.addLast(event);
+                if (_scheduled)
+                {
+                    return;
+                }
+                _scheduled = true;
+            }
+
+            try
+            {
+                _executor.execute(this);
+            }
+            catch (RejectedExecutionException e)
+            {
+                Log.w("DeviceEventBus", "Executor rejected events for " + _listener, e);
+                synchronized (this)
+                {
+                    _scheduled = false;
+                }
+            }
+        }
+
+        /**
+         * Apply the overflow policy to a full queue
+         * @return
+         * true if there is now room for the event
+         */
+        private boolean _makeRoom(DeviceEvent event)
+        {
+            if (_policy == OverflowPolicy.Coalesce)
+            {
+                Iterator<DeviceEvent> it = _queue.descendingIterator();
+                while (it.hasNext())
+                {
+                    if (event.supersedes(it.next()))
+                    {
+                        // the newer one goes to the back so it stays after anything that happened in between
+                        it.remove();
+                        _coalesced.incrementAndGet();
+                        return true;
+                    }
+                }
+            }
+
+            _dropped.incrementAndGet();
+            if (_policy == OverflowPolicy.DropNewest)
+            {
+                return false;
+            }
+
+            _queue.pollFirst();
+            return true;
+        }
+
+        @Override
+        public void run()
+        {
+            for (int i = 0; i < MAX_BATCH; i++)
+            {
+                DeviceEvent event;
+                synchronized (this)
+                {
+                    event = _queue.pollFirst();
+                    if (event == null)
+                    {
+                        _scheduled = false;
+                        return;
+                    }
+                }
+
+                if (!_active)
+                {
+                    continue;
+                }
+
+                try
+                {
+                    _listener.onDeviceEvent(event);
+                }
+                catch (RuntimeException e)
+                {
+                    Log.w("DeviceEventBus", "Listener failed handling " + event, e);
+                }
+                _delivered.incrementAndGet();
+            }
+
+            // more to do, let others have a turn first
+            try
+            {
+                _executor.execute(this);
+            }
+            catch (RejectedExecutionException e)
+            {
+                synchronized (this)
+                {
+                    _scheduled = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Subscribe to every event, delivered on a bus thread
+     * @param listener
+     * the listener
+     * @return
+     * the subscription, used to unsubscribe
+     */
+    public Subscription subscribe(DeviceEventListener listener)
+    {
+        return subscribe(listener, DeviceEventFilter.ALL, null, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.Coalesce);
+    }
+
+    /**
+     * Subscribe to events
+     * @param listener
+     * the listener
+     * @param filter
+     * which events to receive
+     * @param executor
+     * where to call the listener, or null for a bus thread, which isn't shared with other busy
+     * subscribers.  Events are delivered one at a time even on a multi-threaded executor.
+     * @param capacity
+     * the most events to hold for the listener while it's busy, or UNBOUNDED to hold them all
+     * @param policy
+     * what to do with events once that many are waiting
+     * @return
+     * the subscription, used to unsubscribe
+     */
+    public Subscription subscribe(DeviceEventListener listener, DeviceEventFilter filter, Executor executor, int capacity, OverflowPolicy policy)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+
+        Subscription subscription = new Subscription(listener, filter, executor == null ? _defaultExecutor : executor, capacity, policy);
+        _subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * An executor for subscribers that update the UI
+     * @return
+     * an executor that runs on the main thread
+     */
+    public Executor getMainThreadExecutor()
+    {
+        Executor executor = _mainThreadExecutor;
+        if (executor == null)
+        {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            executor = new Executor()
+            {
+                @Override
+                public void execute(Runnable command)
+                {
+                    if (!handler.post(command))
+                    {
+                        throw new RejectedExecutionException("Main looper is exiting");
+                    }
+                }
+            };
+            _mainThreadExecutor = executor;
+        }
+        return executor;
+    }
+
+    /**
+     * The number of subscribers
+     */
+    public int getSubscriberCount()
+    {
+        return _subscriptions.size();
+    }
+
+    /**
+     * Queue an event for every subscriber that wants it.  Doesn't wait for any of them.
+     * @param event
+     * the event
+     */
+    void publish(DeviceEvent event)
+    {
+        for (Subscription subscription : _subscriptions)
+        {
+            subscription._offer(event);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.gymnext.gymnextsdk;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Selects the events a subscriber receives.  Filters are immutable, the with methods return a narrower
+ * copy:
+ *
+ * DeviceEventFilter.ALL.withDevice(deviceId).withTypes(EnumSet.of(DeviceEvent.Type.ReceivedData))
+ */
+public final class DeviceEventFilter
+{
+    /**
+     * Every event
+     */
+    public static final DeviceEventFilter ALL = new DeviceEventFilter(null, null, EnumSet.allOf(DeviceEvent.Type.class));
+
+    private final String _deviceId;
+    private final String _serviceId;
+    private final Set<DeviceEvent.Type> _types;
+
+    private DeviceEventFilter(String deviceId, String serviceId, Set<DeviceEvent.Type> types)
+    {
+        _deviceId = deviceId;
+        _serviceId = serviceId;
+        _types = types;
+    }
+
+    /**
+     * Only events about a device.  Events about several devices match if any of them is this one,
+     * events about no device in particular don't match.
+     * @param deviceId
+     * the device id
+     * @return
+     * the narrower filter
+     */
+    public DeviceEventFilter withDevice(String deviceId)
+    {
+        return new DeviceEventFilter(deviceId, _serviceId, _types);
+    }
+
+    /**
+     * Only events from a service, or about devices that support it
+     * @param serviceId
+     * the service id, e.g. TimerService.SERVICE_ID
+     * @return
+     * the narrower filter
+     */
+    public DeviceEventFilter withService(String serviceId)
+    {
+        return new DeviceEventFilter(_deviceId, serviceId, _types);
+    }
+
+    /**
+     * Only events of these types
+     * @param types
+     * the event types
+     * @return
+     * the narrower filter
+     */
+    public DeviceEventFilter withTypes(Set<DeviceEvent.Type> types)
+    {
+        Set<DeviceEvent.Type> narrowed = EnumSet.noneOf(DeviceEvent.Type.class);
+        narrowed.addAll(types);
+        narrowed.retainAll(_types);
+        return new DeviceEventFilter(_deviceId, _serviceId, narrowed);
+    }
+
+    /**
+     * Check if an event passes the filter
+     * @param event
+     * the event
+     * @return
+     * true if a subscriber with this filter should receive it
+     */
+    public boolean matches(DeviceEvent event)
+    {
+        if (!_types.contains(event.getType()))
+        {
+            return false;
+        }
+
+        if (_deviceId == null && _serviceId == null)
+        {
+            return true;
+        }
+
+        return _matchesDevices(event, event.getDevices()) || _matchesDevices(event, event.getDeactivatedDevices());
+    }
+
+    // PRIVATE METHODS
+
+    private boolean _matchesDevices(DeviceEvent event, Iterable<Device> devices)
+    {
+        for (Device device : devices)
+        {
+            if (_deviceId != null && !_deviceId.equals(device.getDeviceId()))
+            {
+                continue;
+            }
+            if (_serviceId != null && !(_serviceId.equals(event.getServiceId()) || (event.getServiceId() == null && device.hasService(_serviceId))))
+            {
+                continue;
+            }
+            return true;
+        }
+        return false;
+    }
+}
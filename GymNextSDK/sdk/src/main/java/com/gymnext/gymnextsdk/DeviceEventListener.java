@@ -0,0 +1,15 @@
+package com.gymnext.gymnextsdk;
+
+/**
+ * Receives events from the {@link DeviceEventBus}
+ */
+public interface DeviceEventListener
+{
+    /**
+     * Called on the subscriber's executor, one event at a time and in the order they happened
+     * (apart from events dropped or coalesced when the subscriber falls behind)
+     * @param event
+     * the event
+     */
+    public void onDeviceEvent(DeviceEvent event);
+}
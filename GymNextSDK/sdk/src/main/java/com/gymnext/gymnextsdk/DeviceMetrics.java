@@ -0,0 +1,305 @@
+package com.gymnext.gymnextsdk;
+
+import com.gymnext.gymnextsdk.base.LatencyHistogram;
+import com.gymnext.gymnextsdk.base.LinkMetrics;
+
+import java.util.Collection;
+
+/**
+ * Link metrics for a device, or summed over several devices.  Instances are immutable snapshots.
+ *
+ * All times are in milliseconds.
+ */
+public final class DeviceMetrics
+{
+    private final String _deviceId;
+    private final int _deviceCount;
+
+    private final long _commandsSent;
+    private final long _writesSent;
+    private final long _bytesSent;
+    private final long _notificationsReceived;
+    private final long _bytesReceived;
+    private final long _statusErrors;
+    private final long _connects;
+    private final long _reconnects;
+    private final long _maxWriteQueueDepth;
+    private final long _maxBufferedCommands;
+
+    // only ever read, never exposed
+    private final LatencyHistogram _writeLatency;
+    private final LatencyHistogram _connectTime;
+    private final LatencyHistogram _handshakeTime;
+
+    /**
+     * Snapshot a device's metrics
+     */
+    DeviceMetrics(String deviceId, LinkMetrics metrics)
+    {
+        _deviceId = deviceId;
+        _deviceCount = 1;
+        _commandsSent = metrics.getCommandsSent();
+        _writesSent = metrics.getWritesSent();
+        _bytesSent = metrics.getBytesSent();
+        _notificationsReceived = metrics.getNotificationsReceived();
+        _bytesReceived = metrics.getBytesReceived();
+        _statusErrors = metrics.getStatusErrors();
+        _connects = metrics.getConnects();
+        _reconnects = metrics.getReconnects();
+        _maxWriteQueueDepth = metrics.getMaxWriteQueueDepth();
+        _maxBufferedCommands = metrics.getMaxBufferedCommands();
+        _writeLatency = _copy(metrics.getWriteLatency().getCounts());
+        _connectTime = _copy(metrics.getConnectTime().getCounts());
+        _handshakeTime = _copy(metrics.getHandshakeTime().getCounts());
+    }
+
+    /**
+     * Sum snapshots.  Counters are added, high-water marks are the highest of any device and
+     * latencies cover the samples of every device.
+     */
+    DeviceMetrics(Collection<DeviceMetrics> metrics)
+    {
+        long commandsSent = 0;
+        long writesSent = 0;
+        long bytesSent = 0;
+        long notificationsReceived = 0;
+        long bytesReceived = 0;
+        long statusErrors = 0;
+        long connects = 0;
+        long reconnects = 0;
+        long maxWriteQueueDepth = 0;
+        long maxBufferedCommands = 0;
+        long[] writeLatency = new long[LatencyHistogram.BUCKET_COUNT];
+        long[] connectTime = new long[LatencyHistogram.BUCKET_COUNT];
+        long[] handshakeTime = new long[LatencyHistogram.BUCKET_COUNT];
+
+        int deviceCount = 0;
+        for (DeviceMetrics m : metrics)
+        {
+            deviceCount += m._deviceCount;
+            commandsSent += m._commandsSent;
+            writesSent += m._writesSent;
+            bytesSent += m._bytesSent;
+            notificationsReceived += m._notificationsReceived;
+            bytesReceived += m._bytesReceived;
+            statusErrors += m._statusErrors;
+            connects += m._connects;
+            reconnects += m._reconnects;
+            maxWriteQueueDepth = Math.max(maxWriteQueueDepth, m._maxWriteQueueDepth);
+            maxBufferedCommands = Math.max(maxBufferedCommands, m._maxBufferedCommands);
+            _add(writeLatency, m._writeLatency);
+            _add(connectTime, m._connectTime);
+            _add(handshakeTime, m._handshakeTime);
+        }
+
+        _deviceId = null;
+        _deviceCount = deviceCount;
+        _commandsSent = commandsSent;
+        _writesSent = writesSent;
+        _bytesSent = bytesSent;
+        _notificationsReceived = notificationsReceived;
+        _bytesReceived = bytesReceived;
+        _statusErrors = statusErrors;
+        _connects = connects;
+        _reconnects = reconnects;
+        _maxWriteQueueDepth = maxWriteQueueDepth;
+        _maxBufferedCommands = maxBufferedCommands;
+        _writeLatency = _copy(writeLatency);
+        _connectTime = _copy(connectTime);
+        _handshakeTime = _copy(handshakeTime);
+    }
+
+    /**
+     * The device these metrics are for
+     * @return
+     * the device id, or null if the metrics are summed over several devices
+     */
+    public String getDeviceId()
+    {
+        return _deviceId;
+    }
+
+    /**
+     * The number of devices these metrics cover
+     * @return
+     * the number of devices
+     */
+    public int getDeviceCount()
+    {
+        return _deviceCount;
+    }
+
+    /**
+     * Command strings written, each may hold several commands
+     * @return
+     * the number of command strings
+     */
+    public long getCommandsSent()
+    {
+        return _commandsSent;
+    }
+
+    /**
+     * GATT writes made, a command string is split into writes of up to 20 bytes
+     * @return
+     * the number of writes
+     */
+    public long getWritesSent()
+    {
+        return _writesSent;
+    }
+
+    /**
+     * @return
+     * the number of bytes written
+     */
+    public long getBytesSent()
+    {
+        return _bytesSent;
+    }
+
+    /**
+     * @return
+     * the number of notifications received
+     */
+    public long getNotificationsReceived()
+    {
+        return _notificationsReceived;
+    }
+
+    /**
+     * @return
+     * the number of bytes received in notifications
+     */
+    public long getBytesReceived()
+    {
+        return _bytesReceived;
+    }
+
+    /**
+     * Status frames where the device reported that a request failed
+     * @return
+     * the number of error frames
+     */
+    public long getStatusErrors()
+    {
+        return _statusErrors;
+    }
+
+    /**
+     * @return
+     * the number of times the link connected
+     */
+    public long getConnects()
+    {
+        return _connects;
+    }
+
+    /**
+     * @return
+     * the number of times the link connected after the first time
+     */
+    public long getReconnects()
+    {
+        return _reconnects;
+    }
+
+    /**
+     * The most writes that have been waiting for the device at once
+     * @return
+     * the write queue's high-water mark
+     */
+    public long getMaxWriteQueueDepth()
+    {
+        return _maxWriteQueueDepth;
+    }
+
+    /**
+     * The most commands that have been held back at once while the link was being set up
+     * @return
+     * the command buffer's high-water mark
+     */
+    public long getMaxBufferedCommands()
+    {
+        return _maxBufferedCommands;
+    }
+
+    /**
+     * How long the device took to acknowledge a write
+     * @param percentile
+     * between 0 and 1 (e.g. 0.95)
+     * @return
+     * the latency in milliseconds, or 0 if nothing was written
+     */
+    public long getWriteLatency(double percentile)
+    {
+        return _writeLatency.getPercentile(percentile);
+    }
+
+    /**
+     * @return
+     * the slowest write acknowledgement in milliseconds
+     */
+    public long getMaxWriteLatency()
+    {
+        return _writeLatency.getMax();
+    }
+
+    /**
+     * How long connecting took
+     * @param percentile
+     * between 0 and 1 (e.g. 0.95)
+     * @return
+     * the duration in milliseconds, or 0 if never connected
+     */
+    public long getConnectTime(double percentile)
+    {
+        return _connectTime.getPercentile(percentile);
+    }
+
+    /**
+     * How long it took from connecting until the device accepted commands
+     * @param percentile
+     * between 0 and 1 (e.g. 0.95)
+     * @return
+     * the duration in milliseconds, or 0 if never connected
+     */
+    public long getHandshakeTime(double percentile)
+    {
+        return _handshakeTime.getPercentile(percentile);
+    }
+
+    @Override
+    public String toString()
+    {
+        return (_deviceId != null ? _deviceId : _deviceCount + " devices")
+                + ": commands=" + _commandsSent
+                + " writes=" + _writesSent + "/" + _bytesSent + "B"
+                + " notifications=" + _notificationsReceived + "/" + _bytesReceived + "B"
+                + " statusErrors=" + _statusErrors
+                + " write p50/p95/max=" + getWriteLatency(0.5) + "/" + getWriteLatency(0.95) + "/" + getMaxWriteLatency() + "ms"
+                + " maxQueue=" + _maxWriteQueueDepth
+                + " maxBuffered=" + _maxBufferedCommands
+                + " connects=" + _connects + " (" + _reconnects + " reconnects)"
+                + " connect p50=" + getConnectTime(0.5) + "ms"
+                + " handshake p50=" + getHandshakeTime(0.5) + "ms";
+    }
+
+    // PRIVATE METHODS
+
+    private static LatencyHistogram _copy(long[] counts)
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.setCounts(counts);
+        return histogram;
+    }
+
+    private static void _add(long[] counts, LatencyHistogram histogram)
+    {
+        long[] add = histogram.getCounts();
+        for (int i = 0; i < counts.length; i++)
+        {
+            counts[i] += add[i];
+        }
+    }
+}
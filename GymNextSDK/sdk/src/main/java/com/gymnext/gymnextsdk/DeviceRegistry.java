@@ -0,0 +1,352 @@
+package com.gymnext.gymnextsdk;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * All known devices across communication methods, indexed by device state, active flag and
+ * service id.  The indexes are updated as devices change state so queries only touch the
+ * devices that can possibly match.
+ *
+ * Query results are immutable snapshots.  Every change to membership, state or the active flag
+ * bumps the version, and a snapshot is only rebuilt the first time it is asked for after that.
+ * Until then readers get the same list back without locking or allocating.
+ */
+final class DeviceRegistry implements Device.DeviceStateListener
+{
+    private enum Query
+    {
+        All,
+        Connected,
+        Active,
+        InactiveInRange,
+        InactiveOutOfRange
+    }
+
+    private static final class Snapshot
+    {
+        private final long version;
+        private final List<Device> devices;
+
+        private Snapshot(long version, List<Device> devices)
+        {
+            this.version = version;
+            this.devices = devices;
+        }
+    }
+
+    private static final DeviceState[] IN_RANGE_STATES = { DeviceState.Disconnected, DeviceState.Connecting, DeviceState.Connected };
+
+    // stands in for a null service id, which ConcurrentHashMap can't hold
+    private static final String ANY_SERVICE = "\u0000any";
+
+    private volatile long _version = 0;
+    private final Map<Query, Map<String, Snapshot>> _snapshots = new EnumMap<Query, Map<String, Snapshot>>(Query.class);
+
+    private final Map<String, Device> _devices = new LinkedHashMap<String, Device>();
+    private final Map<DeviceState, Set<Device>> _devicesByState = new EnumMap<DeviceState, Set<Device>>(DeviceState.class);
+    private final Map<String, Set<Device>> _devicesByService = new HashMap<String, Set<Device>>();
+    private final Set<Device> _activeDevices = new LinkedHashSet<Device>();
+    private final Set<CommunicationMethod> _enabledCommunicationMethods = EnumSet.noneOf(CommunicationMethod.class);
+
+    DeviceRegistry()
+    {
+        for (DeviceState deviceState : DeviceState.values())
+        {
+            _devicesByState.put(deviceState, new LinkedHashSet<Device>());
+        }
+        for (Query query : Query.values())
+        {
+            _snapshots.put(query, new ConcurrentHashMap<String, Snapshot>());
+        }
+    }
+
+    /**
+     * The current version of the device set.  It changes whenever any query could return
+     * something different.
+     */
+    long getVersion()
+    {
+        return _version;
+    }
+
+    /**
+     * Force a version bump for changes the registry can't see itself (e.g. a new alias)
+     */
+    synchronized void invalidate()
+    {
+        _version++;
+    }
+
+    // UPDATES
+
+    synchronized void setEnabled(CommunicationMethod communicationMethod, boolean enabled)
+    {
+        if (enabled)
+        {
+            _enabledCommunicationMethods.add(communicationMethod);
+        }
+        else
+        {
+            _enabledCommunicationMethods.remove(communicationMethod);
+        }
+        _version++;
+    }
+
+    synchronized boolean add(Device device, boolean active)
+    {
+        if (_devices.containsKey(device.getDeviceId()))
+        {
+            return false;
+        }
+
+        _devices.put(device.getDeviceId(), device);
+        _devicesByState.get(device.getDeviceState()).add(device);
+        _indexServices(device);
+        if (active)
+        {
+            _activeDevices.add(device);
+        }
+
+        device.setStateListener(this);
+        _version++;
+        return true;
+    }
+
+    synchronized void remove(String deviceId)
+    {
+        Device device = _devices.remove(deviceId);
+        if (device == null)
+        {
+            return;
+        }
+
+        device.setStateListener(null);
+
+        for (Set<Device> devices : _devicesByState.values())
+        {
+            devices.remove(device);
+        }
+        _unindexServices(device);
+        _activeDevices.remove(device);
+        _version++;
+    }
+
+    synchronized void setActive(Device device, boolean active)
+    {
+        if (!_devices.containsKey(device.getDeviceId()))
+        {
+            return;
+        }
+
+        boolean changed = active ? _activeDevices.add(device) : _activeDevices.remove(device);
+        if (changed)
+        {
+            _version++;
+        }
+    }
+
+    @Override
+    public synchronized void deviceStateDidChange(Device device)
+    {
+        if (_devices.get(device.getDeviceId()) != device)
+        {
+            return;
+        }
+
+        // notifications for racing transitions can arrive out of order, so always file the
+        // device under the state it is in now
+        for (Set<Device> devices : _devicesByState.values())
+        {
+            devices.remove(device);
+        }
+        _devicesByState.get(device.getDeviceState()).add(device);
+        _version++;
+    }
+
+    @Override
+    public synchronized void deviceServicesDidChange(Device device)
+    {
+        if (_devices.get(device.getDeviceId()) != device)
+        {
+            return;
+        }
+
+        _unindexServices(device);
+        _indexServices(device);
+        _version++;
+    }
+
+    // QUERIES
+
+    synchronized boolean contains(String deviceId)
+    {
+        return _devices.containsKey(deviceId);
+    }
+
+    List<Device> getDevices(String serviceId)
+    {
+        return _snapshot(Query.All, serviceId);
+    }
+
+    List<Device> getConnectedDevices(String serviceId)
+    {
+        return _snapshot(Query.Connected, serviceId);
+    }
+
+    List<Device> getActiveDevices(String serviceId)
+    {
+        return _snapshot(Query.Active, serviceId);
+    }
+
+    List<Device> getInactiveInRangeDevices(String serviceId)
+    {
+        return _snapshot(Query.InactiveInRange, serviceId);
+    }
+
+    List<Device> getInactiveOutOfRangeDevices(String serviceId)
+    {
+        return _snapshot(Query.InactiveOutOfRange, serviceId);
+    }
+
+    boolean hasActiveDevices(String serviceId)
+    {
+        return !_snapshot(Query.Active, serviceId).isEmpty();
+    }
+
+    boolean hasConnectedDevices(String serviceId)
+    {
+        return !_snapshot(Query.Connected, serviceId).isEmpty();
+    }
+
+    // PRIVATE METHODS
+
+    private void _indexServices(Device device)
+    {
+        for (String serviceId : device.getServiceIds())
+        {
+            Set<Device> devices = _devicesByService.get(serviceId);
+            if (devices == null)
+            {
+                devices = new LinkedHashSet<Device>();
+                _devicesByService.put(serviceId, devices);
+            }
+            devices.add(device);
+        }
+    }
+
+    /**
+     * Take a device out of the service index.  Looks in every service, the device's services may
+     * have changed since it was indexed.
+     */
+    private void _unindexServices(Device device)
+    {
+        Iterator<Set<Device>> iterator = _devicesByService.values().iterator();
+        while (iterator.hasNext())
+        {
+            Set<Device> devices = iterator.next();
+            if (devices.remove(device) && devices.isEmpty())
+            {
+                iterator.remove();
+            }
+        }
+    }
+
+    private List<Device> _snapshot(Query query, String serviceId)
+    {
+        Map<String, Snapshot> snapshots = _snapshots.get(query);
+        String key = serviceId == null ? ANY_SERVICE : serviceId;
+
+        Snapshot snapshot = snapshots.get(key);
+        if (snapshot != null && snapshot.version == _version)
+        {
+            return snapshot.devices;
+        }
+
+        synchronized (this)
+        {
+            snapshot = snapshots.get(key);
+            if (snapshot != null && snapshot.version == _version)
+            {
+                return snapshot.devices;
+            }
+
+            List<Device> devices = Collections.unmodifiableList(_build(query, serviceId));
+            snapshots.put(key, new Snapshot(_version, devices));
+            return devices;
+        }
+    }
+
+    private List<Device> _build(Query query, String serviceId)
+    {
+        switch (query)
+        {
+            case Connected:
+                return _collect(_devicesByState.get(DeviceState.Connected), serviceId, null);
+            case Active:
+                return _collect(_activeDevices, serviceId, null);
+            case InactiveInRange:
+                List<Device> result = new ArrayList<Device>();
+                for (DeviceState deviceState : IN_RANGE_STATES)
+                {
+                    _collectInto(result, _devicesByState.get(deviceState), serviceId, false);
+                }
+                return result;
+            case InactiveOutOfRange:
+                return _collect(_devicesByState.get(DeviceState.OutOfRange), serviceId, false);
+            default:
+                return _collect(serviceId == null ? _devices.values() : _devicesByService.get(serviceId), null, null);
+        }
+    }
+
+    private boolean _matches(Device device, String serviceId, Boolean active)
+    {
+        if (!_enabledCommunicationMethods.contains(device.getCommunicationMethod()))
+        {
+            return false;
+        }
+        if (serviceId != null && !device.hasService(serviceId))
+        {
+            return false;
+        }
+        if (active != null && _activeDevices.contains(device) != active)
+        {
+            return false;
+        }
+        return true;
+    }
+
+    private List<Device> _collect(Collection<Device> candidates, String serviceId, Boolean active)
+    {
+        if (candidates == null)
+        {
+            return new ArrayList<Device>();
+        }
+
+        List<Device> result = new ArrayList<Device>(candidates.size());
+        _collectInto(result, candidates, serviceId, active);
+        return result;
+    }
+
+    private void _collectInto(List<Device> result, Collection<Device> candidates, String serviceId, Boolean active)
+    {
+        for (Device device : candidates)
+        {
+            if (_matches(device, serviceId, active))
+            {
+                result.add(device);
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.gymnext.gymnextsdk;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The connection state of a device.  Every change goes through a fixed transition table and is
+ * applied with a compare-and-set, so callbacks racing on different threads (GATT, scan, connection
+ * timeout, UI) can't undo each other.  For example, a connection timeout that fires after the
+ * device connected is refused instead of knocking the device back to disconnected.
+ */
+public final class DeviceStateMachine
+{
+    /**
+     * Things that can happen to a device
+     */
+    public enum Event
+    {
+        /**
+         * the device was seen while scanning
+         */
+        MoveIntoRange,
+        /**
+         * the device can no longer be seen
+         */
+        MoveOutOfRange,
+        /**
+         * we started connecting to the device
+         */
+        Connect,
+        /**
+         * the connection was established
+         */
+        DidConnect,
+        /**
+         * the connection could not be established or broke with an error
+         */
+        DidFailToConnect,
+        /**
+         * the connection attempt took too long
+         */
+        ConnectionTimeout,
+        /**
+         * the connection was closed
+         */
+        DidDisconnect
+    }
+
+    /**
+     * Called after a transition has been applied
+     */
+    public interface TransitionHook
+    {
+        /**
+         * The device moved from one state to another
+         * @param device
+         * the device
+         * @param fromState
+         * the state before the event
+         * @param event
+         * the event that caused the transition
+         * @param toState
+         * the state after the event
+         */
+        public void deviceDidTransition(Device device, DeviceState fromState, Event event, DeviceState toState);
+    }
+
+    // [event][from state] -> to state.  null means the event is illegal in that state, and
+    // mapping a state to itself means the event is accepted but changes nothing.
+    private static final DeviceState[][] TRANSITIONS = new DeviceState[Event.values().length][DeviceState.values().length];
+
+    static
+    {
+        _allow(Event.MoveIntoRange, DeviceState.OutOfRange, DeviceState.Disconnected);
+        _allow(Event.MoveIntoRange, DeviceState.Disconnected, DeviceState.Disconnected);
+        _allow(Event.MoveIntoRange, DeviceState.Connecting, DeviceState.Connecting);
+        _allow(Event.MoveIntoRange, DeviceState.Connected, DeviceState.Connected);
+
+        _allow(Event.MoveOutOfRange, DeviceState.OutOfRange, DeviceState.OutOfRange);
+        _allow(Event.MoveOutOfRange, DeviceState.Disconnected, DeviceState.OutOfRange);
+        _allow(Event.MoveOutOfRange, DeviceState.Connecting, DeviceState.OutOfRange);
+        _allow(Event.MoveOutOfRange, DeviceState.Connected, DeviceState.OutOfRange);
+
+        _allow(Event.Connect, DeviceState.OutOfRange, DeviceState.Connecting);
+        _allow(Event.Connect, DeviceState.Disconnected, DeviceState.Connecting);
+
+        _allow(Event.DidConnect, DeviceState.Connecting, DeviceState.Connected);
+        _allow(Event.DidConnect, DeviceState.Connected, DeviceState.Connected);
+
+        _allow(Event.DidFailToConnect, DeviceState.OutOfRange, DeviceState.OutOfRange);
+        _allow(Event.DidFailToConnect, DeviceState.Disconnected, DeviceState.Disconnected);
+        _allow(Event.DidFailToConnect, DeviceState.Connecting, DeviceState.Disconnected);
+        _allow(Event.DidFailToConnect, DeviceState.Connected, DeviceState.Disconnected);
+
+        _allow(Event.ConnectionTimeout, DeviceState.Connecting, DeviceState.Disconnected);
+
+        _allow(Event.DidDisconnect, DeviceState.OutOfRange, DeviceState.OutOfRange);
+        _allow(Event.DidDisconnect, DeviceState.Disconnected, DeviceState.Disconnected);
+        _allow(Event.DidDisconnect, DeviceState.Connecting, DeviceState.Disconnected);
+        _allow(Event.DidDisconnect, DeviceState.Connected, DeviceState.Disconnected);
+    }
+
+    private static void _allow(Event event, DeviceState fromState, DeviceState toState)
+    {
+        TRANSITIONS[event.ordinal()][fromState.ordinal()] = toState;
+    }
+
+    private final Device _device;
+    private final AtomicReference<DeviceState> _state = new AtomicReference<DeviceState>(DeviceState.OutOfRange);
+
+    private final AtomicLongArray _appliedCounts = new AtomicLongArray(Event.values().length);
+    private final AtomicLongArray _rejectedCounts = new AtomicLongArray(Event.values().length);
+    private final AtomicLongArray _illegalCounts = new AtomicLongArray(Event.values().length);
+    private final AtomicReferenceArray<TransitionHook> _hooks = new AtomicReferenceArray<TransitionHook>(Event.values().length);
+
+    DeviceStateMachine(Device device)
+    {
+        _device = device;
+    }
+
+    /**
+     * Retrieve the current state
+     * @return
+     * the current state
+     */
+    public DeviceState getState()
+    {
+        return _state.get();
+    }
+
+    /**
+     * Apply an event to whatever state the device is in
+     * @param event
+     * the event
+     * @return
+     * true if the state changed
+     */
+    public boolean fire(Event event)
+    {
+        return _apply(event, null);
+    }
+
+    /**
+     * Apply an event only if the device is still in the expected state
+     * @param event
+     * the event
+     * @param expectedState
+     * the state the device must be in
+     * @return
+     * true if the state changed
+     */
+    public boolean fire(Event event, DeviceState expectedState)
+    {
+        return _apply(event, expectedState);
+    }
+
+    /**
+     * Register a hook that is called after every applied transition caused by an event
+     * @param event
+     * the event to hook
+     * @param hook
+     * the hook (null to remove)
+     */
+    public void setHook(Event event, TransitionHook hook)
+    {
+        _hooks.set(event.ordinal(), hook);
+    }
+
+    /**
+     * The number of times an event changed the state
+     * @param event
+     * the event
+     * @return
+     * the number of applied transitions
+     */
+    public long getAppliedCount(Event event)
+    {
+        return _appliedCounts.get(event.ordinal());
+    }
+
+    /**
+     * The number of times an event was refused because the device was no longer in the expected state
+     * @param event
+     * the event
+     * @return
+     * the number of rejected transitions
+     */
+    public long getRejectedCount(Event event)
+    {
+        return _rejectedCounts.get(event.ordinal());
+    }
+
+    /**
+     * The number of times an event was refused because the transition table doesn't allow it in
+     * the current state
+     * @param event
+     * the event
+     * @return
+     * the number of illegal transitions
+     */
+    public long getIllegalCount(Event event)
+    {
+        return _illegalCounts.get(event.ordinal());
+    }
+
+    /**
+     * Overwrite the state without consulting the transition table
+     */
+    void force(DeviceState state)
+    {
+        DeviceState oldState = _state.getAndSet(state);
+        if (oldState != state)
+        {
+            _device.stateDidChange();
+        }
+    }
+
+    private boolean _apply(Event event, DeviceState expectedState)
+    {
+        DeviceState[] transitions = TRANSITIONS[event.ordinal()];
+        while (true)
+        {
+            DeviceState fromState = _state.get();
+            if (expectedState != null && fromState != expectedState)
+            {
+                _rejectedCounts.incrementAndGet(event.ordinal());
+                return false;
+            }
+
+            DeviceState toState = transitions[fromState.ordinal()];
+            if (toState == null)
+            {
+                _illegalCounts.incrementAndGet(event.ordinal());
+                return false;
+            }
+            if (toState == fromState)
+            {
+                return false;
+            }
+
+            if (_state.compareAndSet(fromState, toState))
+            {
+                _appliedCounts.incrementAndGet(event.ordinal());
+                _device.stateDidChange();
+
+                TransitionHook hook = _hooks.get(event.ordinal());
+                if (hook != null)
+                {
+                    hook.deviceDidTransition(_device, fromState, event, toState);
+                }
+                return true;
+            }
+        }
+    }
+}
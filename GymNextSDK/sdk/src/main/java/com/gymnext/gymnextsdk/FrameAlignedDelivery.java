@@ -0,0 +1,136 @@
+package com.gymnext.gymnextsdk;
+
+import com.gymnext.gymnextsdk.base.TickSource;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Collects device events and hands them to a listener once per tick instead of one at a time, so
+ * a UI can do a single update per frame no matter how many devices changed.
+ *
+ * Use a ChoreographerTickSource for one batch per display frame, a FixedRateTickSource for a
+ * slower refresh rate or a ManualTickSource to drive it by hand.
+ */
+public class FrameAlignedDelivery
+{
+    // Collecting is only a few field updates, so it's done on whichever thread published the event
+    private static final Executor DIRECT = new Executor()
+    {
+        @Override
+        public void execute(Runnable command)
+        {
+            command.run();
+        }
+    };
+
+    private final DeviceEventBus _eventBus;
+    private final DeviceEventFilter _filter;
+    private final TickSource _tickSource;
+    private final DeviceBatchListener _listener;
+
+    // guarded by this
+    private DeviceBatch _batch = new DeviceBatch();
+    private DeviceEventBus.Subscription _subscription;
+
+    private final Runnable _tick = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            _deliver();
+        }
+    };
+
+    /**
+     * @param eventBus
+     * the bus to collect events from
+     * @param filter
+     * which events to collect
+     * @param tickSource
+     * when to deliver them
+     * @param listener
+     * who to deliver them to
+     */
+    public FrameAlignedDelivery(DeviceEventBus eventBus, DeviceEventFilter filter, TickSource tickSource, DeviceBatchListener listener)
+    {
+        _eventBus = eventBus;
+        _filter = filter;
+        _tickSource = tickSource;
+        _listener = listener;
+    }
+
+    /**
+     * Start collecting events
+     */
+    public synchronized void start()
+    {
+        if (_subscription != null)
+        {
+            return;
+        }
+
+        _subscription = _eventBus.subscribe(new DeviceEventListener()
+        {
+            @Override
+            public void onDeviceEvent(DeviceEvent event)
+            {
+                _collect(event);
+            }
+        }, _filter, DIRECT, DeviceEventBus.DEFAULT_QUEUE_CAPACITY, DeviceEventBus.OverflowPolicy.DropOldest);
+    }
+
+    /**
+     * Stop collecting events.  Anything collected but not yet delivered is dropped.
+     */
+    public synchronized void stop()
+    {
+        if (_subscription != null)
+        {
+            _subscription.unsubscribe();
+            _subscription = null;
+        }
+        _tickSource.cancelTick(_tick);
+        _batch = new DeviceBatch();
+    }
+
+    public synchronized boolean isStarted()
+    {
+        return _subscription != null;
+    }
+
+    // PRIVATE METHODS
+
+    private void _collect(DeviceEvent event)
+    {
+        boolean first;
+        synchronized (this)
+        {
+            if (_subscription == null)
+            {
+                return;
+            }
+            first = _batch.isEmpty();
+            _batch.add(event);
+        }
+
+        if (first)
+        {
+            _tickSource.scheduleTick(_tick);
+        }
+    }
+
+    private void _deliver()
+    {
+        DeviceBatch batch;
+        synchronized (this)
+        {
+            batch = _batch;
+            _batch = new DeviceBatch();
+        }
+
+        if (!batch.isEmpty())
+        {
+            _listener.devicesDidChange(batch);
+        }
+    }
+}
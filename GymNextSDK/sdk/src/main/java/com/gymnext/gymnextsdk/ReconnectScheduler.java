@@ -0,0 +1,428 @@
+package com.gymnext.gymnextsdk;
+
+import com.gymnext.gymnextsdk.base.ExecutorScheduler;
+import com.gymnext.gymnextsdk.base.LongKeyedMap;
+import com.gymnext.gymnextsdk.base.Scheduler;
+import com.gymnext.gymnextsdk.base.Trace;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+/**
+ * Reconnects to a set of devices without flooding the platform with connection requests.
+ *
+ * At most a fixed number of attempts are in flight at once; the rest wait their turn in priority
+ * order (most recently used first).  A failed attempt is retried after an exponential back-off
+ * with jitter, up to a maximum number of attempts.  Once every device has connected or been given
+ * up on, a summary is reported.
+ *
+ * Persistent devices are armed (connected in the background) but not waited for: their attempts
+ * have no timeout and only end when the device shows up.  Every other attempt that hasn't
+ * answered by a deadline counts as failed, so a run always finishes.
+ *
+ * Also keeps connection latency statistics for every attempt made through the central device manager.
+ */
+final class ReconnectScheduler
+{
+    interface Callback
+    {
+        public void connect(Device device);
+
+        public void didFinish(ReconnectSummary summary);
+    }
+
+    static final int DEFAULT_MAX_CONCURRENT_CONNECTIONS = 4;
+    static final int MAX_ATTEMPTS = 4;
+    static final long BASE_BACKOFF = 1000;
+    static final long MAX_BACKOFF = 16000;
+    // longer than the longest connection timeout, only reached when an attempt never answers
+    static final long ATTEMPT_DEADLINE = 30000;
+
+    private static final int TRACE_NO_ANSWER = Trace.event("reconnect.no_answer", "device", "ms");
+
+    private final Callback _callback;
+    private final Scheduler _defaultScheduler = new ExecutorScheduler(Executors.newSingleThreadScheduledExecutor());
+    private volatile Scheduler _scheduler = _defaultScheduler;
+    private Random _random = new Random(); // guarded by this
+
+    // by device key
+    private final LongKeyedMap<ConnectStats> _stats = new LongKeyedMap<ConnectStats>();
+    private final LongKeyedMap<Long> _attemptStartTimes = new LongKeyedMap<Long>();
+
+    private int _maxConcurrentConnections = DEFAULT_MAX_CONCURRENT_CONNECTIONS;
+
+    // Current run
+    private boolean _running = false;
+    private long _run = 0;
+    private long _startTime;
+    private int _attempts;
+    private final LongKeyedMap<Integer> _priorities = new LongKeyedMap<Integer>();
+    private final LongKeyedMap<Integer> _attemptCounts = new LongKeyedMap<Integer>();
+    private final PriorityQueue<Device> _ready = new PriorityQueue<Device>(11, new Comparator<Device>()
+    {
+        @Override
+        public int compare(Device lhs, Device rhs)
+        {
+            return _priorities.get(lhs.getDeviceKey()) - _priorities.get(rhs.getDeviceKey());
+        }
+    });
+    private final LongKeyedMap<Device> _waiting = new LongKeyedMap<Device>();
+    private final LongKeyedMap<Device> _inFlight = new LongKeyedMap<Device>();
+    private final List<Device> _connected = new ArrayList<Device>();
+    private final List<Device> _failed = new ArrayList<Device>();
+    private final List<Device> _armed = new ArrayList<Device>();
+
+    ReconnectScheduler(Callback callback)
+    {
+        _callback = callback;
+    }
+
+    /**
+     * @param scheduler
+     * the scheduler for back-offs and timing, or null for the default one
+     */
+    void setScheduler(Scheduler scheduler)
+    {
+        _scheduler = scheduler != null ? scheduler : _defaultScheduler;
+    }
+
+    /**
+     * @param random
+     * the source of back-off jitter, seeded for repeatable runs
+     */
+    synchronized void setRandom(Random random)
+    {
+        _random = random;
+    }
+
+    synchronized void setMaxConcurrentConnections(int maxConcurrentConnections)
+    {
+        _maxConcurrentConnections = Math.max(1, maxConcurrentConnections);
+    }
+
+    synchronized int getMaxConcurrentConnections()
+    {
+        return _maxConcurrentConnections;
+    }
+
+    synchronized boolean isRunning()
+    {
+        return _running;
+    }
+
+    ConnectStats getStats(long deviceKey)
+    {
+        ConnectStats stats = _stats.get(deviceKey);
+        return stats == null ? ConnectStats.EMPTY : stats;
+    }
+
+    /**
+     * Start reconnecting
+     * @param devices
+     * the devices to reconnect, highest priority first
+     */
+    void start(List<Device> devices)
+    {
+        synchronized (this)
+        {
+            _reset();
+        }
+
+        add(devices);
+    }
+
+    /**
+     * Add devices to the current run (or start one), after the devices already in it
+     * @param devices
+     * the devices to connect, highest priority first
+     */
+    void add(List<Device> devices)
+    {
+        synchronized (this)
+        {
+            if (!_running)
+            {
+                _reset();
+                _running = true;
+                _startTime = _scheduler.currentTimeMillis();
+            }
+
+            int priority = _priorities.size();
+            for (Device device : devices)
+            {
+                long deviceKey = device.getDeviceKey();
+                if (_priorities.containsKey(deviceKey))
+                {
+                    if (_inFlight.containsKey(deviceKey) || _waiting.containsKey(deviceKey) || _ready.contains(device))
+                    {
+                        continue;
+                    }
+
+                    // finished earlier in this run (e.g. cancelled), try again
+                    _failed.remove(device);
+                    _connected.remove(device);
+                    _armed.remove(device);
+                }
+                else
+                {
+                    _priorities.put(deviceKey, priority++);
+                }
+                _attemptCounts.put(deviceKey, 0);
+
+                if (device.isConnected())
+                {
+                    _connected.add(device);
+                }
+                else
+                {
+                    _ready.add(device);
+                }
+            }
+        }
+
+        _pump();
+    }
+
+    /**
+     * Stop trying to reconnect a device (e.g. it was deactivated)
+     */
+    void cancel(Device device)
+    {
+        synchronized (this)
+        {
+            if (!_running || !_priorities.containsKey(device.getDeviceKey()))
+            {
+                return;
+            }
+
+            if (_untrack(device))
+            {
+                _failed.add(device);
+            }
+        }
+
+        _pump();
+    }
+
+    // Connection results, reported for every attempt
+
+    void attemptDidStart(Device device)
+    {
+        long deviceKey = device.getDeviceKey();
+        _attemptStartTimes.put(deviceKey, _scheduler.currentTimeMillis());
+        _stats.put(deviceKey, getStats(deviceKey).withAttempt());
+    }
+
+    void deviceDidConnect(Device device)
+    {
+        long deviceKey = device.getDeviceKey();
+        Long startTime = _attemptStartTimes.remove(deviceKey);
+        if (startTime != null)
+        {
+            _stats.put(deviceKey, getStats(deviceKey).withSuccess(_scheduler.currentTimeMillis() - startTime));
+        }
+
+        synchronized (this)
+        {
+            if (!_running || !_untrack(device))
+            {
+                return;
+            }
+            _connected.add(device);
+        }
+
+        _pump();
+    }
+
+    void deviceDidFailToConnect(Device device)
+    {
+        long deviceKey = device.getDeviceKey();
+        if (_attemptStartTimes.remove(deviceKey) != null)
+        {
+            _stats.put(deviceKey, getStats(deviceKey).withFailure());
+        }
+
+        synchronized (this)
+        {
+            if (!_running || _inFlight.remove(deviceKey) == null)
+            {
+                return;
+            }
+            _didFail(device);
+        }
+
+        _pump();
+    }
+
+    // PRIVATE METHODS
+
+    /**
+     * Retry a failed attempt after a back-off, or give up on the device.  Called with the lock
+     * held, after the attempt was taken out of flight.
+     */
+    private void _didFail(final Device device)
+    {
+        int attempts = _attemptCounts.get(device.getDeviceKey());
+        if (attempts >= MAX_ATTEMPTS)
+        {
+            _failed.add(device);
+            return;
+        }
+
+        final long run = _run;
+        _waiting.put(device.getDeviceKey(), device);
+        _scheduler.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                _retry(device, run);
+            }
+        }, _backoff(attempts));
+    }
+
+    /**
+     * Fail an attempt that hasn't answered, e.g. because the device was already connecting in a
+     * way that never times out.  Does nothing if the attempt has finished.
+     */
+    private void _expire(Device device, long run, int attempt)
+    {
+        synchronized (this)
+        {
+            long deviceKey = device.getDeviceKey();
+            if (!_running || _run != run || !_inFlight.containsKey(deviceKey) || _attemptCounts.get(deviceKey) != attempt)
+            {
+                return;
+            }
+
+            Trace.record(Trace.INFO, TRACE_NO_ANSWER, deviceKey, ATTEMPT_DEADLINE);
+            _inFlight.remove(deviceKey);
+            _didFail(device);
+        }
+
+        _pump();
+    }
+
+    /**
+     * Try a device again once its back-off is over.  Does nothing if the run it was waiting in has
+     * ended, a later run may be waiting on the same device with a back-off of its own.
+     */
+    private void _retry(Device device, long run)
+    {
+        synchronized (this)
+        {
+            if (!_running || _run != run || _waiting.remove(device.getDeviceKey()) == null)
+            {
+                return;
+            }
+            _ready.add(device);
+        }
+
+        _pump();
+    }
+
+    private boolean _untrack(Device device)
+    {
+        boolean removed = _ready.remove(device);
+        removed |= _waiting.remove(device.getDeviceKey()) != null;
+        removed |= _inFlight.remove(device.getDeviceKey()) != null;
+        removed |= _armed.remove(device);
+        return removed;
+    }
+
+    private long _backoff(int attempts)
+    {
+        long backoff = Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.max(0, attempts - 1));
+
+        // spread retries out so devices that failed together don't retry together
+        return backoff / 2 + (long) (_random.nextDouble() * (backoff / 2));
+    }
+
+    /**
+     * Start as many attempts as we are allowed and report when everything is done.  Devices are
+     * connected outside the lock since connecting can call straight back into us.
+     */
+    private void _pump()
+    {
+        List<Device> toConnect = new ArrayList<Device>();
+        ReconnectSummary summary = null;
+
+        synchronized (this)
+        {
+            if (!_running)
+            {
+                return;
+            }
+
+            while (_inFlight.size() < _maxConcurrentConnections && !_ready.isEmpty())
+            {
+                Device device = _ready.poll();
+                if (device.isConnected())
+                {
+                    // connected some other way while it was waiting
+                    _connected.add(device);
+                    continue;
+                }
+
+                _attempts++;
+                toConnect.add(device);
+                if (device.isPersistent())
+                {
+                    // waits in the background for as long as the device takes, don't wait with it
+                    _armed.add(device);
+                    continue;
+                }
+
+                final Device attemptDevice = device;
+                final long run = _run;
+                final int attempt = _attemptCounts.get(device.getDeviceKey()) + 1;
+                _inFlight.put(device.getDeviceKey(), device);
+                _attemptCounts.put(device.getDeviceKey(), attempt);
+                _scheduler.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        _expire(attemptDevice, run, attempt);
+                    }
+                }, ATTEMPT_DEADLINE);
+            }
+
+            // armed devices don't hold the run up
+            if (_inFlight.isEmpty() && _waiting.isEmpty() && _ready.isEmpty())
+            {
+                summary = new ReconnectSummary(new ArrayList<Device>(_connected), new ArrayList<Device>(_failed), new ArrayList<Device>(_armed), _attempts, _scheduler.currentTimeMillis() - _startTime);
+                _reset();
+            }
+        }
+
+        for (Device device : toConnect)
+        {
+            _callback.connect(device);
+        }
+
+        if (summary != null)
+        {
+            _callback.didFinish(summary);
+        }
+    }
+
+    private void _reset()
+    {
+        _running = false;
+        _run++;
+        _attempts = 0;
+        _priorities.clear();
+        _attemptCounts.clear();
+        _ready.clear();
+        _waiting.clear();
+        _inFlight.clear();
+        _connected.clear();
+        _failed.clear();
+        _armed.clear();
+    }
+}
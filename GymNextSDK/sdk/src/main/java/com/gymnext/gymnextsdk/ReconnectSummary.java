@@ -0,0 +1,78 @@
+package com.gymnext.gymnextsdk;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of reconnecting to all active devices
+ */
+public final class ReconnectSummary
+{
+    static final ReconnectSummary EMPTY = new ReconnectSummary(Collections.<Device>emptyList(), Collections.<Device>emptyList(), Collections.<Device>emptyList(), 0, 0);
+
+    private final List<Device> _connectedDevices;
+    private final List<Device> _failedDevices;
+    private final List<Device> _armedDevices;
+    private final int _attempts;
+    private final long _duration;
+
+    ReconnectSummary(List<Device> connectedDevices, List<Device> failedDevices, List<Device> armedDevices, int attempts, long duration)
+    {
+        _connectedDevices = Collections.unmodifiableList(connectedDevices);
+        _failedDevices = Collections.unmodifiableList(failedDevices);
+        _armedDevices = Collections.unmodifiableList(armedDevices);
+        _attempts = attempts;
+        _duration = duration;
+    }
+
+    /**
+     * The devices that are connected
+     * @return
+     * the connected devices
+     */
+    public List<Device> getConnectedDevices()
+    {
+        return _connectedDevices;
+    }
+
+    /**
+     * The devices we gave up on after retrying
+     * @return
+     * the devices that failed to connect
+     */
+    public List<Device> getFailedDevices()
+    {
+        return _failedDevices;
+    }
+
+    /**
+     * The persistent devices that weren't connected yet.  They connect in the background when they
+     * show up, you get deviceDidConnect then.
+     * @return
+     * the devices still being connected in the background
+     */
+    public List<Device> getArmedDevices()
+    {
+        return _armedDevices;
+    }
+
+    /**
+     * The total number of connection attempts, including retries
+     * @return
+     * the number of attempts
+     */
+    public int getAttempts()
+    {
+        return _attempts;
+    }
+
+    /**
+     * How long reconnecting took
+     * @return
+     * the duration in milliseconds
+     */
+    public long getDuration()
+    {
+        return _duration;
+    }
+}
@@ -0,0 +1,18 @@
+package com.gymnext.gymnextsdk;
+
+/**
+ * Controls how aggressively we scan for devices
+ */
+public enum ScanMode
+{
+    /**
+     * Scan in short windows, backing off once all active devices have been seen.  Scanning is
+     * suspended while commands are being sent to connected devices.
+     */
+    Balanced,
+    /**
+     * Scan continuously for a limited time, then fall back to balanced scanning.  Use this
+     * on screens where the user is looking for new devices.
+     */
+    Burst
+}
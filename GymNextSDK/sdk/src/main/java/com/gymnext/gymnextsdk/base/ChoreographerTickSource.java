@@ -0,0 +1,55 @@
+package com.gymnext.gymnextsdk.base;
+
+import android.view.Choreographer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Ticks once per display frame, on the thread the source was created on (normally the main thread)
+ */
+public class ChoreographerTickSource implements TickSource
+{
+    private final Choreographer _choreographer;
+    private final ConcurrentMap<Runnable, Choreographer.FrameCallback> _callbacks = new ConcurrentHashMap<Runnable, Choreographer.FrameCallback>();
+
+    /**
+     * Must be created on a thread with a Looper, usually the main thread
+     */
+    public ChoreographerTickSource()
+    {
+        _choreographer = Choreographer.getInstance();
+    }
+
+    @Override
+    public void scheduleTick(final Runnable callback)
+    {
+        Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback()
+        {
+            @Override
+            public void doFrame(long frameTimeNanos)
+            {
+                if (_callbacks.remove(callback) != null)
+                {
+                    callback.run();
+                }
+            }
+        };
+
+        // posting from any thread is fine, the choreographer locks internally
+        if (_callbacks.putIfAbsent(callback, frameCallback) == null)
+        {
+            _choreographer.postFrameCallback(frameCallback);
+        }
+    }
+
+    @Override
+    public void cancelTick(Runnable callback)
+    {
+        Choreographer.FrameCallback frameCallback = _callbacks.remove(callback);
+        if (frameCallback != null)
+        {
+            _choreographer.removeFrameCallback(frameCallback);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.gymnext.gymnextsdk.base;
+
+/**
+ * A source of time.  Code that reads the time through a clock can be run on virtual time, see
+ * {@link VirtualScheduler}.
+ */
+public interface Clock
+{
+    /**
+     * The system clock
+     */
+    public static final Clock SYSTEM = new Clock()
+    {
+        @Override
+        public long currentTimeMillis()
+        {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long nanoTime()
+        {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * @return
+     * the wall clock time in milliseconds since the epoch, like System.currentTimeMillis()
+     */
+    public long currentTimeMillis();
+
+    /**
+     * @return
+     * a monotonic time in nanoseconds for measuring intervals, like System.nanoTime()
+     */
+    public long nanoTime();
+}
@@ -0,0 +1,213 @@
+package com.gymnext.gymnextsdk.base;
+
+/**
+ * The life of one command sent to a device: when it was issued, when its chunks were written and
+ * acknowledged, and when the device answered with a status frame.  Tells apart a command that sat
+ * in a queue from one the device was slow to acknowledge or never confirmed.
+ *
+ * Recorded by the service that sends the command, kept in the {@link CommandTraceStore}.
+ */
+public final class CommandTrace
+{
+    public enum Outcome
+    {
+        /**
+         * still waiting for writes, acknowledgements or the status frame
+         */
+        Pending,
+        /**
+         * the device answered with a status frame
+         */
+        Confirmed,
+        /**
+         * the device answered with an error status frame
+         */
+        Failed,
+        /**
+         * thrown away before the device answered, e.g. the connection was lost
+         */
+        Dropped
+    }
+
+    private final long _id;
+    private final long _deviceKey;
+    private final String _command;
+    private final Clock _clock;
+    private final long _issuedWallTime;
+    private final long _issuedTime;
+
+    // guarded by this
+    private int _chunks;
+    private int _written;
+    private int _acknowledged;
+    private long _firstWriteTime;
+    private long _lastAckTime;
+    private long _answerTime;
+    private Outcome _outcome = Outcome.Pending;
+
+    CommandTrace(long id, long deviceKey, String command, Clock clock)
+    {
+        _id = id;
+        _deviceKey = deviceKey;
+        _command = command;
+        _clock = clock;
+        _issuedWallTime = clock.currentTimeMillis();
+        _issuedTime = clock.nanoTime();
+    }
+
+    /**
+     * The command was split into writes and queued
+     * @param chunks
+     * the number of writes
+     */
+    public synchronized void didQueue(int chunks)
+    {
+        _chunks = chunks;
+    }
+
+    /**
+     * One of the command's writes was handed to the GATT client
+     */
+    public synchronized void didWrite()
+    {
+        if (_written++ == 0)
+        {
+            _firstWriteTime = _clock.nanoTime();
+        }
+    }
+
+    /**
+     * One of the command's writes was acknowledged
+     * @return
+     * true if that was the last one, the command now waits for the device's answer
+     */
+    public synchronized boolean didAcknowledge()
+    {
+        _acknowledged++;
+        _lastAckTime = _clock.nanoTime();
+        return _acknowledged == _chunks;
+    }
+
+    /**
+     * The device answered
+     * @param success
+     * false if the status frame reported an error
+     */
+    public synchronized void didAnswer(boolean success)
+    {
+        if (_outcome == Outcome.Pending)
+        {
+            _answerTime = _clock.nanoTime();
+            _outcome = success ? Outcome.Confirmed : Outcome.Failed;
+        }
+    }
+
+    /**
+     * The command was thrown away before the device answered
+     */
+    public synchronized void didDrop()
+    {
+        if (_outcome == Outcome.Pending)
+        {
+            _answerTime = _clock.nanoTime();
+            _outcome = Outcome.Dropped;
+        }
+    }
+
+    public long getId()
+    {
+        return _id;
+    }
+
+    /**
+     * The device the command was sent to, see {@link MacAddress}
+     */
+    public long getDeviceKey()
+    {
+        return _deviceKey;
+    }
+
+    /**
+     * The command, with secure codes hidden
+     */
+    public String getCommand()
+    {
+        return _command;
+    }
+
+    /**
+     * When the command was issued, in milliseconds since the epoch
+     */
+    public long getIssuedTime()
+    {
+        return _issuedWallTime;
+    }
+
+    public synchronized Outcome getOutcome()
+    {
+        return _outcome;
+    }
+
+    public synchronized boolean isComplete()
+    {
+        return _outcome != Outcome.Pending;
+    }
+
+    /**
+     * Time from being issued until the first write, i.e. spent waiting for the connection or
+     * behind other writes
+     * @return
+     * milliseconds, or -1 if nothing was written
+     */
+    public synchronized long getQueueTime()
+    {
+        return _written == 0 ? -1 : _millis(_issuedTime, _firstWriteTime);
+    }
+
+    /**
+     * Time from the first write until the last acknowledgement
+     * @return
+     * milliseconds, or -1 if not every write was acknowledged
+     */
+    public synchronized long getWriteTime()
+    {
+        return _chunks == 0 || _acknowledged < _chunks ? -1 : _millis(_firstWriteTime, _lastAckTime);
+    }
+
+    /**
+     * Time from the last acknowledgement until the device's answer
+     * @return
+     * milliseconds, or -1 if the device didn't answer
+     */
+    public synchronized long getAnswerTime()
+    {
+        return _outcome == Outcome.Confirmed || _outcome == Outcome.Failed ? _millis(_lastAckTime, _answerTime) : -1;
+    }
+
+    /**
+     * Time from being issued until the command completed, or until now if it hasn't
+     * @return
+     * milliseconds
+     */
+    public synchronized long getTotalTime()
+    {
+        return _millis(_issuedTime, _outcome == Outcome.Pending ? _clock.nanoTime() : _answerTime);
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "#" + _id + " " + MacAddress.unpack(_deviceKey) + " \"" + _command + "\" " + _outcome
+                + " total=" + getTotalTime() + "ms"
+                + " queued=" + getQueueTime() + "ms"
+                + " written=" + getWriteTime() + "ms (" + _acknowledged + "/" + _chunks + " acked)"
+                + " answered=" + getAnswerTime() + "ms";
+    }
+
+    // PRIVATE METHODS
+
+    private static long _millis(long start, long end)
+    {
+        return (end - start) / 1000000;
+    }
+}
@@ -0,0 +1,140 @@
+package com.gymnext.gymnextsdk.base;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The most recent commands sent to any device, with where their time went (see
+ * {@link CommandTrace}).  Fixed size, the oldest trace is overwritten once it is full.
+ */
+public class CommandTraceStore
+{
+    private static final int CAPACITY = 512; // must be a power of two
+    private static final int MASK = CAPACITY - 1;
+
+    /**
+     * singleton instance
+     */
+    private static CommandTraceStore mInstance = new CommandTraceStore();
+
+    /**
+     * singleton accessor
+     */
+    public static CommandTraceStore getInstance()
+    {
+        return mInstance;
+    }
+
+    private final AtomicLong _next = new AtomicLong();
+    private final AtomicReferenceArray<CommandTrace> _traces = new AtomicReferenceArray<CommandTrace>(CAPACITY);
+    private volatile Clock _clock = Clock.SYSTEM;
+
+    /**
+     * Time new traces on a different clock
+     * @param clock
+     * the clock, or null for the system clock
+     */
+    public void setClock(Clock clock)
+    {
+        _clock = clock == null ? Clock.SYSTEM : clock;
+    }
+
+    /**
+     * Start tracing a command
+     * @param deviceKey
+     * the device it is for, see {@link MacAddress}
+     * @param command
+     * the command, with anything secret hidden
+     * @return
+     * the trace to record the command's progress in
+     */
+    public CommandTrace begin(long deviceKey, String command)
+    {
+        long id = _next.getAndIncrement();
+        CommandTrace trace = new CommandTrace(id, deviceKey, command, _clock);
+        _traces.set((int) (id & MASK), trace);
+        return trace;
+    }
+
+    /**
+     * Look up a trace by id
+     * @param id
+     * the trace id
+     * @return
+     * the trace, or null if it has been overwritten
+     */
+    public CommandTrace get(long id)
+    {
+        CommandTrace trace = _traces.get((int) (id & MASK));
+        return trace != null && trace.getId() == id ? trace : null;
+    }
+
+    /**
+     * The traces still held, oldest first
+     */
+    public List<CommandTrace> getRecent()
+    {
+        return _collect(MacAddress.INVALID, 0);
+    }
+
+    /**
+     * The traces for a device, oldest first
+     * @param deviceKey
+     * the device, see Device.getDeviceKey()
+     */
+    public List<CommandTrace> getRecent(long deviceKey)
+    {
+        return _collect(deviceKey, 0);
+    }
+
+    /**
+     * Commands that took at least a given time, or have been pending that long, oldest first
+     * @param threshold
+     * the time in milliseconds
+     */
+    public List<CommandTrace> getSlowCommands(long threshold)
+    {
+        return _collect(MacAddress.INVALID, threshold);
+    }
+
+    /**
+     * Throw away every trace
+     */
+    public void clear()
+    {
+        for (int i = 0; i < CAPACITY; i++)
+        {
+            _traces.set(i, null);
+        }
+    }
+
+    // PRIVATE METHODS
+
+    private List<CommandTrace> _collect(long deviceKey, long threshold)
+    {
+        long end = _next.get();
+        long start = Math.max(0, end - CAPACITY);
+
+        List<CommandTrace> traces = new ArrayList<CommandTrace>();
+        for (long id = start; id < end; id++)
+        {
+            CommandTrace trace = get(id);
+            if (trace == null)
+            {
+                continue;
+            }
+            if (deviceKey != MacAddress.INVALID && trace.getDeviceKey() != deviceKey)
+            {
+                continue;
+            }
+            if (threshold > 0 && trace.getTotalTime() < threshold)
+            {
+                continue;
+            }
+            traces.add(trace);
+        }
+        return traces;
+    }
+}
@@ -0,0 +1,214 @@
+package com.gymnext.gymnextsdk.base;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind wrapper around a preferences file.
+ *
+ * Changes are remembered per key and written together on a background thread once the debounce
+ * delay after the first change has passed, so a burst of changes costs a single write.  Only keys
+ * that changed are written.  Call {@link #flush()} to write pending changes straight away.
+ */
+public class DebouncedPreferences
+{
+    private static final Object REMOVED = new Object();
+
+    private final SharedPreferences _preferences;
+    private volatile Scheduler _scheduler;
+    private final long _delay;
+
+    // key -> new value (or REMOVED), guarded by this
+    private final Map<String, Object> _pending = new HashMap<String, Object>();
+    private Scheduler.Task _scheduledWrite;
+
+    // keeps writes in the order their changes were made
+    private final Object _writeLock = new Object();
+
+    private final AtomicLong _changes = new AtomicLong();
+    private final AtomicLong _writes = new AtomicLong();
+    private final AtomicLong _writeTime = new AtomicLong();
+
+    private final Runnable _write = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            _write();
+        }
+    };
+
+    /**
+     * @param preferences
+     * the preferences file to write to
+     * @param executor
+     * the background thread to write on
+     * @param delay
+     * how long to collect changes before writing, in milliseconds
+     */
+    public DebouncedPreferences(SharedPreferences preferences, ScheduledExecutorService executor, long delay)
+    {
+        this(preferences, new ExecutorScheduler(executor), delay);
+    }
+
+    /**
+     * @param preferences
+     * the preferences file to write to
+     * @param scheduler
+     * the scheduler to write on, and the clock for write latency
+     * @param delay
+     * how long to collect changes before writing, in milliseconds
+     */
+    public DebouncedPreferences(SharedPreferences preferences, Scheduler scheduler, long delay)
+    {
+        _preferences = preferences;
+        _scheduler = scheduler;
+        _delay = delay;
+    }
+
+    /**
+     * Write on a different scheduler from now on.  A write that is already scheduled stays on the
+     * old one.
+     * @param scheduler
+     * the scheduler to write on
+     */
+    public void setScheduler(Scheduler scheduler)
+    {
+        _scheduler = scheduler;
+    }
+
+    /**
+     * The underlying preferences, for reading.  Doesn't include changes that haven't been written yet.
+     */
+    public SharedPreferences getPreferences()
+    {
+        return _preferences;
+    }
+
+    public void putString(String key, String value)
+    {
+        _put(key, value == null ? REMOVED : value);
+    }
+
+    public void putLong(String key, long value)
+    {
+        _put(key, value);
+    }
+
+    public void putStringSet(String key, Set<String> value)
+    {
+        // SharedPreferences keeps a reference to the set, so hold on to a copy
+        _put(key, value == null ? REMOVED : new HashSet<String>(value));
+    }
+
+    public void remove(String key)
+    {
+        _put(key, REMOVED);
+    }
+
+    /**
+     * Write all pending changes now, on the calling thread
+     */
+    public void flush()
+    {
+        _write();
+    }
+
+    /**
+     * The number of changes made
+     */
+    public long getChangeCount()
+    {
+        return _changes.get();
+    }
+
+    /**
+     * The number of times the file was written
+     */
+    public long getWriteCount()
+    {
+        return _writes.get();
+    }
+
+    /**
+     * Average time taken to write the file
+     * @return
+     * the time in milliseconds (0 if nothing has been written)
+     */
+    public long getAverageWriteLatency()
+    {
+        long writes = _writes.get();
+        return writes == 0 ? 0 : _writeTime.get() / writes;
+    }
+
+    // PRIVATE METHODS
+
+    private synchronized void _put(String key, Object value)
+    {
+        _pending.put(key, value);
+        _changes.incrementAndGet();
+
+        if (_scheduledWrite == null)
+        {
+            _scheduledWrite = _scheduler.schedule(_write, _delay);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void _write()
+    {
+        synchronized (_writeLock)
+        {
+            Map<String, Object> pending;
+            synchronized (this)
+            {
+                if (_scheduledWrite != null)
+                {
+                    _scheduledWrite.cancel();
+                    _scheduledWrite = null;
+                }
+                if (_pending.isEmpty())
+                {
+                    return;
+                }
+                pending = new HashMap<String, Object>(_pending);
+                _pending.clear();
+            }
+
+            Clock clock = _scheduler;
+            long startTime = clock.nanoTime();
+
+            SharedPreferences.Editor editor = _preferences.edit();
+            for (Map.Entry<String, Object> entry : pending.entrySet())
+            {
+                Object value = entry.getValue();
+                if (value == REMOVED)
+                {
+                    editor.remove(entry.getKey());
+                }
+                else if (value instanceof String)
+                {
+                    editor.putString(entry.getKey(), (String) value);
+                }
+                else if (value instanceof Long)
+                {
+                    editor.putLong(entry.getKey(), (Long) value);
+                }
+                else if (value instanceof Set)
+                {
+                    editor.putStringSet(entry.getKey(), (Set<String>) value);
+                }
+            }
+            editor.commit();
+
+            _writes.incrementAndGet();
+            _writeTime.addAndGet((clock.nanoTime() - startTime) / 1000000);
+        }
+    }
+}
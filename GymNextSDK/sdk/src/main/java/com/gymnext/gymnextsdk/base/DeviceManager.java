@@ -1,6 +1,7 @@
 package com.gymnext.gymnextsdk.base;
 
 import com.gymnext.gymnextsdk.Device;
+import com.gymnext.gymnextsdk.ScanMode;
 
 import java.util.List;
 
@@ -12,6 +13,8 @@ public interface DeviceManager
 
     public boolean startScanning();
 
+    public boolean startScanning(ScanMode scanMode);
+
     public void stopScanning();
 
     public boolean hasDevice(String deviceId);
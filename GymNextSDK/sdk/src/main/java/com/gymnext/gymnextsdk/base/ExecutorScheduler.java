@@ -0,0 +1,48 @@
+package com.gymnext.gymnextsdk.base;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules tasks on a scheduled executor, on real time
+ */
+public class ExecutorScheduler implements Scheduler
+{
+    private final ScheduledExecutorService _executor;
+
+    /**
+     * @param executor
+     * the executor to run tasks on
+     */
+    public ExecutorScheduler(ScheduledExecutorService executor)
+    {
+        _executor = executor;
+    }
+
+    @Override
+    public Task schedule(Runnable runnable, long delay)
+    {
+        final ScheduledFuture<?> future = _executor.schedule(runnable, Math.max(0, delay), TimeUnit.MILLISECONDS);
+        return new Task()
+        {
+            @Override
+            public boolean cancel()
+            {
+                return future.cancel(false);
+            }
+        };
+    }
+
+    @Override
+    public long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public long nanoTime()
+    {
+        return System.nanoTime();
+    }
+}
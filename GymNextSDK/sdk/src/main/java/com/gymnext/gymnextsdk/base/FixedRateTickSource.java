@@ -0,0 +1,106 @@
+package com.gymnext.gymnextsdk.base;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Ticks at a fixed rate on a scheduler.  Ticks fall on multiples of the period, so
+ * callbacks scheduled at different times within a period run together.
+ */
+public class FixedRateTickSource implements TickSource
+{
+    private final Scheduler _scheduler;
+    private final long _period;
+    // guarded by itself
+    private final ConcurrentMap<Runnable, Tick> _callbacks = new ConcurrentHashMap<Runnable, Tick>();
+
+    /**
+     * @param executor
+     * the executor to run callbacks on
+     * @param period
+     * the time between ticks in milliseconds
+     */
+    public FixedRateTickSource(ScheduledExecutorService executor, long period)
+    {
+        this(new ExecutorScheduler(executor), period);
+    }
+
+    /**
+     * @param scheduler
+     * the scheduler to run callbacks on
+     * @param period
+     * the time between ticks in milliseconds
+     */
+    public FixedRateTickSource(Scheduler scheduler, long period)
+    {
+        if (period <= 0)
+        {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        _scheduler = scheduler;
+        _period = period;
+    }
+
+    @Override
+    public void scheduleTick(Runnable callback)
+    {
+        long now = _scheduler.currentTimeMillis();
+        long delay = _period - (now % _period);
+        synchronized (_callbacks)
+        {
+            if (_callbacks.containsKey(callback))
+            {
+                return;
+            }
+
+            // registered before it is scheduled, a scheduler may run it straight away
+            Tick tick = new Tick(callback);
+            _callbacks.put(callback, tick);
+            tick._task = _scheduler.schedule(tick, delay);
+        }
+    }
+
+    @Override
+    public void cancelTick(Runnable callback)
+    {
+        Tick tick;
+        synchronized (_callbacks)
+        {
+            tick = _callbacks.remove(callback);
+        }
+        if (tick != null && tick._task != null)
+        {
+            tick._task.cancel();
+        }
+    }
+
+    /**
+     * A scheduled tick for one callback
+     */
+    private final class Tick implements Runnable
+    {
+        private final Runnable _callback;
+        private volatile Scheduler.Task _task;
+
+        private Tick(Runnable callback)
+        {
+            _callback = callback;
+        }
+
+        @Override
+        public void run()
+        {
+            // only if this is still the tick the callback is waiting for, it may have been
+            // cancelled and scheduled again in the meantime
+            synchronized (_callbacks)
+            {
+                if (!_callbacks.remove(_callback, this))
+                {
+                    return;
+                }
+            }
+            _callback.run();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.gymnext.gymnextsdk.base;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed memory latency histogram.  It has no unit of its own: values come back in whatever unit
+ * they were recorded in, so each histogram states its unit where it is exposed.
+ *
+ * Buckets are log-linear: every power of two is split into 8 equal buckets, so any recorded value
+ * is reported within 12.5% no matter how large it is.  Values above {@link #MAX_VALUE} are clamped.
+ * Recording is lock-free.
+ *
+ * If a window is set, all counts are halved whenever the total goes over it, so old samples fade
+ * out and the histogram follows recent behaviour.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_BITS = 24;
+
+    // about 4.6 hours in milliseconds, 16.7 seconds in microseconds
+    public static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    public static final int BUCKET_COUNT = (MAX_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong _total = new AtomicLong();
+    private final long _window;
+
+    /**
+     * A histogram that keeps every sample
+     */
+    public LatencyHistogram()
+    {
+        this(0);
+    }
+
+    /**
+     * A histogram that decays once it holds more than the given number of samples
+     * @param window
+     * the number of samples to keep (0 to keep everything)
+     */
+    public LatencyHistogram(long window)
+    {
+        _window = window;
+    }
+
+    /**
+     * @param value
+     * the sample, in the histogram's unit
+     */
+    public void record(long value)
+    {
+        _counts.incrementAndGet(_bucketFor(value));
+        long total = _total.incrementAndGet();
+
+        if (_window > 0 && total > _window)
+        {
+            _decay();
+        }
+    }
+
+    public long getCount()
+    {
+        return _total.get();
+    }
+
+    /**
+     * The value below which the given fraction of samples fall, rounded up to the top of its bucket
+     * @param percentile
+     * between 0 and 1 (e.g. 0.95)
+     * @return
+     * the value in the unit it was recorded in, or 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile)
+    {
+        long[] counts = getCounts();
+        long total = 0;
+        for (long count : counts)
+        {
+            total += count;
+        }
+        if (total == 0)
+        {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(total * percentile));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if (seen >= target)
+            {
+                return _highestValueIn(i);
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    public long getMax()
+    {
+        for (int i = BUCKET_COUNT - 1; i >= 0; i--)
+        {
+            if (_counts.get(i) > 0)
+            {
+                return _highestValueIn(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Copy out the bucket counts (e.g. to persist them)
+     */
+    public long[] getCounts()
+    {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            counts[i] = _counts.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * Restore bucket counts previously returned by {@link #getCounts()}
+     */
+    public void setCounts(long[] counts)
+    {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            long count = i < counts.length ? counts[i] : 0;
+            _counts.set(i, count);
+            total += count;
+        }
+        _total.set(total);
+    }
+
+    public void reset()
+    {
+        setCounts(new long[0]);
+    }
+
+    // PRIVATE METHODS
+
+    private void _decay()
+    {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            long count;
+            do
+            {
+                count = _counts.get(i);
+            }
+            while (!_counts.compareAndSet(i, count, count / 2));
+            total += count / 2;
+        }
+        _total.set(total);
+    }
+
+    static int _bucketFor(long value)
+    {
+        if (value < 0)
+        {
+            value = 0;
+        }
+        if (value > MAX_VALUE)
+        {
+            value = MAX_VALUE;
+        }
+        if (value < SUB_BUCKETS)
+        {
+            return (int) value;
+        }
+
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int shift = highestBit - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long _highestValueIn(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+        {
+            return bucket;
+        }
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
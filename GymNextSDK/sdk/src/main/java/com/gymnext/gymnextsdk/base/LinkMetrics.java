@@ -0,0 +1,218 @@
+package com.gymnext.gymnextsdk.base;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for one device's link, recorded as things happen on the Bluetooth callbacks and command
+ * writes.  Recording is lock-free: counters are atomics and latencies go into histograms, so the
+ * hot path never waits for a reader.  Read them through a snapshot, see Device.getMetrics().
+ *
+ * All times are in milliseconds.
+ */
+public class LinkMetrics
+{
+    private static final long WRITE_LATENCY_WINDOW = 1024;
+    private static final long CONNECT_WINDOW = 64;
+
+    private final AtomicLong _commandsSent = new AtomicLong();
+    private final AtomicLong _writesSent = new AtomicLong();
+    private final AtomicLong _bytesSent = new AtomicLong();
+    private final AtomicLong _notificationsReceived = new AtomicLong();
+    private final AtomicLong _bytesReceived = new AtomicLong();
+    private final AtomicLong _statusErrors = new AtomicLong();
+    private final AtomicLong _connects = new AtomicLong();
+    private final AtomicLong _reconnects = new AtomicLong();
+
+    // high-water marks
+    private final AtomicLong _maxWriteQueueDepth = new AtomicLong();
+    private final AtomicLong _maxBufferedCommands = new AtomicLong();
+
+    private final LatencyHistogram _writeLatency = new LatencyHistogram(WRITE_LATENCY_WINDOW);
+    private final LatencyHistogram _connectTime = new LatencyHistogram(CONNECT_WINDOW);
+    private final LatencyHistogram _handshakeTime = new LatencyHistogram(CONNECT_WINDOW);
+
+    /**
+     * A command string was handed to the link to be written
+     */
+    public void didSendCommand()
+    {
+        _commandsSent.incrementAndGet();
+    }
+
+    /**
+     * A write was queued
+     * @param queueDepth
+     * the number of writes waiting, including this one
+     */
+    public void didQueueWrite(int queueDepth)
+    {
+        _raise(_maxWriteQueueDepth, queueDepth);
+    }
+
+    /**
+     * A write was handed to the GATT client
+     * @param bytes
+     * the size of the write
+     */
+    public void didWrite(int bytes)
+    {
+        _writesSent.incrementAndGet();
+        _bytesSent.addAndGet(bytes);
+    }
+
+    /**
+     * The device acknowledged a write
+     * @param latency
+     * the time since the write was handed to the GATT client
+     */
+    public void didAcknowledgeWrite(long latency)
+    {
+        _writeLatency.record(latency);
+    }
+
+    /**
+     * A command was held back until the link is set up
+     * @param bufferedCommands
+     * the number of commands held back, including this one
+     */
+    public void didBufferCommand(int bufferedCommands)
+    {
+        _raise(_maxBufferedCommands, bufferedCommands);
+    }
+
+    /**
+     * A notification arrived from the device
+     * @param bytes
+     * the size of the notification
+     */
+    public void didReceiveNotification(int bytes)
+    {
+        _notificationsReceived.incrementAndGet();
+        _bytesReceived.addAndGet(bytes);
+    }
+
+    /**
+     * The device answered with an error status frame
+     */
+    public void didReceiveStatusError()
+    {
+        _statusErrors.incrementAndGet();
+    }
+
+    /**
+     * The link connected
+     * @param connectTime
+     * the time since the connection attempt started
+     */
+    public void didConnect(long connectTime)
+    {
+        if (_connects.getAndIncrement() > 0)
+        {
+            _reconnects.incrementAndGet();
+        }
+        _connectTime.record(connectTime);
+    }
+
+    /**
+     * The device started accepting commands
+     * @param handshakeTime
+     * the time since the connection attempt started
+     */
+    public void didFinishHandshake(long handshakeTime)
+    {
+        _handshakeTime.record(handshakeTime);
+    }
+
+    public long getCommandsSent()
+    {
+        return _commandsSent.get();
+    }
+
+    public long getWritesSent()
+    {
+        return _writesSent.get();
+    }
+
+    public long getBytesSent()
+    {
+        return _bytesSent.get();
+    }
+
+    public long getNotificationsReceived()
+    {
+        return _notificationsReceived.get();
+    }
+
+    public long getBytesReceived()
+    {
+        return _bytesReceived.get();
+    }
+
+    public long getStatusErrors()
+    {
+        return _statusErrors.get();
+    }
+
+    public long getConnects()
+    {
+        return _connects.get();
+    }
+
+    /**
+     * The number of connections after the first
+     */
+    public long getReconnects()
+    {
+        return _reconnects.get();
+    }
+
+    public long getMaxWriteQueueDepth()
+    {
+        return _maxWriteQueueDepth.get();
+    }
+
+    public long getMaxBufferedCommands()
+    {
+        return _maxBufferedCommands.get();
+    }
+
+    /**
+     * How long the device took to acknowledge writes, covering roughly the last thousand writes
+     */
+    public LatencyHistogram getWriteLatency()
+    {
+        return _writeLatency;
+    }
+
+    /**
+     * How long connecting took
+     */
+    public LatencyHistogram getConnectTime()
+    {
+        return _connectTime;
+    }
+
+    /**
+     * How long it took from connecting until the device accepted commands
+     */
+    public LatencyHistogram getHandshakeTime()
+    {
+        return _handshakeTime;
+    }
+
+    // PRIVATE METHODS
+
+    private static void _raise(AtomicLong max, long value)
+    {
+        long current;
+        do
+        {
+            current = max.get();
+            if (value <= current)
+            {
+                return;
+            }
+        }
+        while (!max.compareAndSet(current, value));
+    }
+}
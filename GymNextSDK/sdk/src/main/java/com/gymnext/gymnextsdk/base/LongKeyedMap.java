@@ -0,0 +1,290 @@
+package com.gymnext.gymnextsdk.base;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A map from long keys to non-null values, using open addressing with linear probing so keys are
+ * never boxed.
+ *
+ * Reads don't lock.  Writes are serialised and change the table in place: a slot's key is set
+ * before its value, and values are published through an AtomicReferenceArray, so a reader that
+ * sees a value also sees its key.  A key keeps its slot for the life of the table, removing it only
+ * marks the slot, so probe chains never move under a reader.  The table is rebuilt, and the marked
+ * slots reclaimed, when it gets half full; that copy is the only O(capacity) write.
+ *
+ * @param <V>
+ * the value type
+ */
+public class LongKeyedMap<V>
+{
+    private static final int MIN_CAPACITY = 8;
+
+    // the value of a slot whose key was removed, probes carry on past it
+    private static final Object REMOVED = new Object();
+
+    private static final class Table
+    {
+        // a slot is free while its value is null
+        private final long[] _keys;
+        private final AtomicReferenceArray<Object> _values;
+        // slots holding a key, removed or not, guarded by the map
+        private int _used = 0;
+
+        private Table(int capacity)
+        {
+            _keys = new long[capacity];
+            _values = new AtomicReferenceArray<Object>(capacity);
+        }
+    }
+
+    private volatile Table _table = new Table(MIN_CAPACITY);
+    private volatile int _size = 0;
+
+    @SuppressWarnings("unchecked")
+    public V get(long key)
+    {
+        Table table = _table;
+        int slot = _find(table, key);
+        if (slot < 0)
+        {
+            return null;
+        }
+        Object value = table._values.get(slot);
+        return value == REMOVED ? null : (V) value;
+    }
+
+    public boolean containsKey(long key)
+    {
+        return get(key) != null;
+    }
+
+    public int size()
+    {
+        return _size;
+    }
+
+    public boolean isEmpty()
+    {
+        return _size == 0;
+    }
+
+    /**
+     * Set the value for a key
+     * @param key
+     * the key
+     * @param value
+     * the value, which may not be null
+     * @return
+     * the previous value or null
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V put(long key, V value)
+    {
+        if (value == null)
+        {
+            throw new NullPointerException("value");
+        }
+
+        Table table = _table;
+        int slot = _find(table, key);
+        if (slot >= 0)
+        {
+            Object previous = table._values.getAndSet(slot, value);
+            if (previous == REMOVED)
+            {
+                _size++;
+                return null;
+            }
+            return (V) previous;
+        }
+
+        // keep the table at most half full so probes stay short and always end
+        if ((table._used + 1) * 2 > table._keys.length)
+        {
+            table = _rebuild(table, _size + 1);
+            _insert(table, key, value);
+            _table = table;
+        }
+        else
+        {
+            _insert(table, key, value);
+        }
+        _size++;
+        return null;
+    }
+
+    /**
+     * Set the value for a key unless it already has one
+     * @return
+     * the existing value or null if the value was set
+     */
+    public synchronized V putIfAbsent(long key, V value)
+    {
+        V existing = get(key);
+        if (existing != null)
+        {
+            return existing;
+        }
+        put(key, value);
+        return null;
+    }
+
+    /**
+     * Remove a key
+     * @return
+     * the removed value or null
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(long key)
+    {
+        Table table = _table;
+        int slot = _find(table, key);
+        if (slot < 0)
+        {
+            return null;
+        }
+
+        Object previous = table._values.get(slot);
+        if (previous == REMOVED)
+        {
+            return null;
+        }
+        table._values.set(slot, REMOVED);
+        _size--;
+        return (V) previous;
+    }
+
+    /**
+     * Remove a key only if it maps to the given value
+     * @return
+     * true if the key was removed
+     */
+    public synchronized boolean remove(long key, V value)
+    {
+        V existing = get(key);
+        if (existing == null || !existing.equals(value))
+        {
+            return false;
+        }
+        remove(key);
+        return true;
+    }
+
+    public synchronized void clear()
+    {
+        _table = new Table(MIN_CAPACITY);
+        _size = 0;
+    }
+
+    /**
+     * A snapshot of the values, in no particular order
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values()
+    {
+        Table table = _table;
+        int capacity = table._keys.length;
+        List<V> values = new ArrayList<V>(Math.min(_size, capacity));
+        for (int i = 0; i < capacity; i++)
+        {
+            Object value = table._values.get(i);
+            if (value != null && value != REMOVED)
+            {
+                values.add((V) value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * A snapshot of the keys, in the same order as {@link #values()}
+     */
+    public long[] keys()
+    {
+        Table table = _table;
+        int capacity = table._keys.length;
+        long[] keys = new long[capacity];
+        int count = 0;
+        for (int i = 0; i < capacity; i++)
+        {
+            Object value = table._values.get(i);
+            if (value != null && value != REMOVED)
+            {
+                keys[count++] = table._keys[i];
+            }
+        }
+        return Arrays.copyOf(keys, count);
+    }
+
+    // PRIVATE METHODS
+
+    /**
+     * @return
+     * the slot holding the key, even if it was removed, or -1
+     */
+    private static int _find(Table table, long key)
+    {
+        long[] keys = table._keys;
+        AtomicReferenceArray<Object> values = table._values;
+        int mask = keys.length - 1;
+        for (int slot = _hash(key) & mask; ; slot = (slot + 1) & mask)
+        {
+            // the value first, it publishes the key
+            if (values.get(slot) == null)
+            {
+                return -1;
+            }
+            if (keys[slot] == key)
+            {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Copy the entries that weren't removed into a new table with room for the given number of
+     * entries.  It starts a quarter full at most, so it takes a while to need rebuilding again.
+     */
+    private static Table _rebuild(Table table, int size)
+    {
+        int capacity = MIN_CAPACITY;
+        while (size * 4 > capacity)
+        {
+            capacity *= 2;
+        }
+
+        Table rebuilt = new Table(capacity);
+        for (int i = 0; i < table._keys.length; i++)
+        {
+            Object value = table._values.get(i);
+            if (value != null && value != REMOVED)
+            {
+                _insert(rebuilt, table._keys[i], value);
+            }
+        }
+        return rebuilt;
+    }
+
+    private static void _insert(Table table, long key, Object value)
+    {
+        int mask = table._keys.length - 1;
+        int slot = _hash(key) & mask;
+        while (table._values.get(slot) != null)
+        {
+            slot = (slot + 1) & mask;
+        }
+        table._keys[slot] = key;
+        table._values.set(slot, value);
+        table._used++;
+    }
+
+    private static int _hash(long key)
+    {
+        // the low bits of a MAC are the most varied but mix the rest in anyway
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
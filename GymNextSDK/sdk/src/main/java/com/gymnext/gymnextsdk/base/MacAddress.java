@@ -0,0 +1,85 @@
+package com.gymnext.gymnextsdk.base;
+
+/**
+ * Converts between MAC address strings ("01:23:45:67:89:AB") and the 48-bit value packed into a
+ * long, which is what we key devices by internally.
+ */
+public final class MacAddress
+{
+    /**
+     * Returned for strings that aren't MAC addresses.  Never a valid packed address since those
+     * only use the low 48 bits.
+     */
+    public static final long INVALID = -1L;
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private MacAddress()
+    {
+    }
+
+    /**
+     * Pack a MAC address
+     * @param address
+     * six hex octets separated by colons, in either case
+     * @return
+     * the packed address or INVALID
+     */
+    public static long pack(String address)
+    {
+        if (address == null || address.length() != 17)
+        {
+            return INVALID;
+        }
+
+        long value = 0;
+        for (int i = 0; i < 17; i++)
+        {
+            char c = address.charAt(i);
+            if (i % 3 == 2)
+            {
+                if (c != ':')
+                {
+                    return INVALID;
+                }
+                continue;
+            }
+
+            int digit = Character.digit(c, 16);
+            if (digit < 0)
+            {
+                return INVALID;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Unpack a MAC address
+     * @param value
+     * a packed address
+     * @return
+     * the address in upper case, as Android reports it
+     */
+    public static String unpack(long value)
+    {
+        char[] chars = new char[17];
+        for (int i = 0; i < 6; i++)
+        {
+            int octet = (int) (value >>> (8 * (5 - i))) & 0xFF;
+            chars[i * 3] = HEX_DIGITS[octet >>> 4];
+            chars[i * 3 + 1] = HEX_DIGITS[octet & 0x0F];
+            if (i < 5)
+            {
+                chars[i * 3 + 2] = ':';
+            }
+        }
+        return new String(chars);
+    }
+
+    public static boolean isValid(String address)
+    {
+        return pack(address) != INVALID;
+    }
+}
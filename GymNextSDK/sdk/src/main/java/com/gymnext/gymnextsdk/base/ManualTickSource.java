@@ -0,0 +1,67 @@
+package com.gymnext.gymnextsdk.base;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Ticks only when told to, for driving frame-aligned code without a display
+ */
+public class ManualTickSource implements TickSource
+{
+    // guarded by this
+    private final Set<Runnable> _callbacks = new LinkedHashSet<Runnable>();
+    private long _ticks = 0;
+
+    @Override
+    public synchronized void scheduleTick(Runnable callback)
+    {
+        _callbacks.add(callback);
+    }
+
+    @Override
+    public synchronized void cancelTick(Runnable callback)
+    {
+        _callbacks.remove(callback);
+    }
+
+    /**
+     * Run the callbacks waiting for a tick, on the calling thread.  Callbacks scheduled while this
+     * runs wait for the next tick.
+     * @return
+     * the number of callbacks run
+     */
+    public int tick()
+    {
+        List<Runnable> callbacks;
+        synchronized (this)
+        {
+            callbacks = new ArrayList<Runnable>(_callbacks);
+            _callbacks.clear();
+            _ticks++;
+        }
+
+        for (Runnable callback : callbacks)
+        {
+            callback.run();
+        }
+        return callbacks.size();
+    }
+
+    /**
+     * The number of times tick() has been called
+     */
+    public synchronized long getTickCount()
+    {
+        return _ticks;
+    }
+
+    /**
+     * Check if anything is waiting for a tick
+     */
+    public synchronized boolean hasPendingTicks()
+    {
+        return !_callbacks.isEmpty();
+    }
+}
@@ -0,0 +1,353 @@
+package com.gymnext.gymnextsdk.base;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A small key/value store kept as an append-only log of binary records.
+ *
+ * Every change appends a PUT or REMOVE record, so changing one entry never rewrites the others.
+ * Opening the log only reads record headers to build an index of where each live value is, values
+ * are read one at a time on demand.  Once more than half the file is superseded records it is
+ * compacted into a fresh file.  A record torn by a crash is dropped when the log is next opened.
+ *
+ * File layout: magic, version, then records of
+ * [type byte][key (modified UTF-8)][crc32 int][length int][value bytes]
+ */
+public class RecordLog implements Closeable
+{
+    private static final int MAGIC = 0x474E524C; // "GNRL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    // don't bother compacting small files
+    private static final long MIN_COMPACT_SIZE = 16 * 1024;
+
+    private static class Entry
+    {
+        private final long _valueOffset;
+        private final int _length;
+        private final int _crc;
+        private final long _recordSize;
+
+        private Entry(long valueOffset, int length, int crc, long recordSize)
+        {
+            _valueOffset = valueOffset;
+            _length = length;
+            _crc = crc;
+            _recordSize = recordSize;
+        }
+    }
+
+    private final File _file;
+    private RandomAccessFile _raf;
+    private Map<String, Entry> _index = new LinkedHashMap<String, Entry>();
+    private long _liveBytes = 0;
+    private long _compactions = 0;
+
+    /**
+     * Open (or create) a log
+     * @param file
+     * the file to keep the log in
+     * @throws IOException
+     * if the file can't be opened or isn't a log this version understands
+     */
+    public RecordLog(File file) throws IOException
+    {
+        _file = file;
+        _open();
+    }
+
+    /**
+     * The keys of all live records, in the order they were first written
+     */
+    public synchronized List<String> keys()
+    {
+        return new ArrayList<String>(_index.keySet());
+    }
+
+    public synchronized boolean contains(String key)
+    {
+        return _index.containsKey(key);
+    }
+
+    public synchronized int size()
+    {
+        return _index.size();
+    }
+
+    /**
+     * Read a single value
+     * @param key
+     * the key
+     * @return
+     * the value or null if there is none
+     * @throws IOException
+     * if the value can't be read or is corrupt
+     */
+    public synchronized byte[] read(String key) throws IOException
+    {
+        Entry entry = _index.get(key);
+        if (entry == null)
+        {
+            return null;
+        }
+
+        byte[] value = new byte[entry._length];
+        _raf.seek(entry._valueOffset);
+        _raf.readFully(value);
+
+        if (_crc(value) != entry._crc)
+        {
+            throw new IOException("Corrupt record " + key);
+        }
+        return value;
+    }
+
+    public synchronized void put(String key, byte[] value) throws IOException
+    {
+        long offset = _append(PUT, key, value);
+        _indexRecord(PUT, key, offset, value.length, _crc(value));
+        _compactIfNeeded();
+    }
+
+    public synchronized void remove(String key) throws IOException
+    {
+        if (!_index.containsKey(key))
+        {
+            return;
+        }
+
+        _append(REMOVE, key, new byte[0]);
+        _indexRecord(REMOVE, key, 0, 0, 0);
+        _compactIfNeeded();
+    }
+
+    /**
+     * The size of the file in bytes
+     */
+    public synchronized long getFileSize() throws IOException
+    {
+        return _raf.length();
+    }
+
+    /**
+     * The number of times the log has been compacted since it was opened
+     */
+    public synchronized long getCompactionCount()
+    {
+        return _compactions;
+    }
+
+    /**
+     * Rewrite the file with only the live records
+     */
+    public synchronized void compact() throws IOException
+    {
+        File tmpFile = new File(_file.getPath() + ".tmp");
+        RandomAccessFile tmp = new RandomAccessFile(tmpFile, "rw");
+        Map<String, Entry> index = new LinkedHashMap<String, Entry>();
+        long liveBytes = 0;
+        try
+        {
+            tmp.setLength(0);
+            tmp.writeInt(MAGIC);
+            tmp.writeInt(VERSION);
+
+            for (String key : _index.keySet())
+            {
+                byte[] value = read(key);
+                byte[] record = _record(PUT, key, value);
+                long offset = tmp.getFilePointer();
+                tmp.write(record);
+
+                index.put(key, new Entry(offset + record.length - value.length, value.length, _crc(value), record.length));
+                liveBytes += record.length;
+            }
+            tmp.getFD().sync();
+        }
+        finally
+        {
+            tmp.close();
+        }
+
+        _raf.close();
+        if (!tmpFile.renameTo(_file))
+        {
+            _open();
+            throw new IOException("Could not replace " + _file);
+        }
+
+        _raf = new RandomAccessFile(_file, "rw");
+        _index = index;
+        _liveBytes = liveBytes;
+        _compactions++;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        _raf.close();
+    }
+
+    // PRIVATE METHODS
+
+    private void _open() throws IOException
+    {
+        _raf = new RandomAccessFile(_file, "rw");
+        _index = new LinkedHashMap<String, Entry>();
+        _liveBytes = 0;
+
+        if (_raf.length() < HEADER_SIZE)
+        {
+            _raf.setLength(0);
+            _raf.writeInt(MAGIC);
+            _raf.writeInt(VERSION);
+            return;
+        }
+
+        _raf.seek(0);
+        if (_raf.readInt() != MAGIC || _raf.readInt() != VERSION)
+        {
+            _raf.close();
+            throw new IOException("Not a version " + VERSION + " record log: " + _file);
+        }
+
+        long position = HEADER_SIZE;
+        long end = _raf.length();
+        while (position < end)
+        {
+            try
+            {
+                _raf.seek(position);
+                byte type = _raf.readByte();
+                String key = _raf.readUTF();
+                int crc = _raf.readInt();
+                int length = _raf.readInt();
+                long valueOffset = _raf.getFilePointer();
+
+                if ((type != PUT && type != REMOVE) || length < 0 || valueOffset + length > end)
+                {
+                    break;
+                }
+
+                _indexRecord(type, key, valueOffset, length, crc, valueOffset + length - position);
+                position = valueOffset + length;
+            }
+            catch (EOFException e)
+            {
+                break;
+            }
+        }
+
+        if (position < end)
+        {
+            // torn write at the end
+            _raf.setLength(position);
+        }
+    }
+
+    private void _indexRecord(byte type, String key, long valueOffset, int length, int crc)
+    {
+        // the value is at the end of the record
+        long recordSize = type == PUT ? _recordSize(key, length) : 0;
+        _indexRecord(type, key, valueOffset, length, crc, recordSize);
+    }
+
+    private void _indexRecord(byte type, String key, long valueOffset, int length, int crc, long recordSize)
+    {
+        Entry old = type == PUT ? _index.put(key, new Entry(valueOffset, length, crc, recordSize)) : _index.remove(key);
+        if (old != null)
+        {
+            _liveBytes -= old._recordSize;
+        }
+        if (type == PUT)
+        {
+            _liveBytes += recordSize;
+        }
+    }
+
+    /**
+     * @return
+     * the offset of the value
+     */
+    private long _append(byte type, String key, byte[] value) throws IOException
+    {
+        byte[] record = _record(type, key, value);
+        long end = _raf.length();
+        _raf.seek(end);
+        _raf.write(record);
+        return end + record.length - value.length;
+    }
+
+    private void _compactIfNeeded() throws IOException
+    {
+        long size = _raf.length();
+        long garbage = size - HEADER_SIZE - _liveBytes;
+        if (size > MIN_COMPACT_SIZE && garbage > _liveBytes)
+        {
+            compact();
+        }
+    }
+
+    private static byte[] _record(byte type, String key, byte[] value) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length + key.length() + 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeUTF(key);
+        out.writeInt(type == PUT ? _crc(value) : 0);
+        out.writeInt(value.length);
+        out.write(value);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static long _recordSize(String key, int length)
+    {
+        // type + UTF length prefix + key + crc + length + value
+        return 1 + 2 + _utfLength(key) + 4 + 4 + length;
+    }
+
+    private static int _utfLength(String s)
+    {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F)
+            {
+                length += 1;
+            }
+            else if (c > 0x07FF)
+            {
+                length += 3;
+            }
+            else
+            {
+                length += 2;
+            }
+        }
+        return length;
+    }
+
+    private static int _crc(byte[] value)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(value, 0, value.length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,32 @@
+package com.gymnext.gymnextsdk.base;
+
+/**
+ * Runs tasks after a delay, measured on its own clock.  Timeouts, backoffs and other timers in
+ * the SDK go through a scheduler so they can be run on virtual time, see {@link VirtualScheduler}.
+ */
+public interface Scheduler extends Clock
+{
+    /**
+     * A scheduled task
+     */
+    public interface Task
+    {
+        /**
+         * Stop the task from running if it hasn't started yet
+         * @return
+         * true if the task won't run, false if it already ran or was cancelled
+         */
+        public boolean cancel();
+    }
+
+    /**
+     * Run a task once, after a delay
+     * @param runnable
+     * the task
+     * @param delay
+     * the delay in milliseconds, 0 or less to run as soon as possible
+     * @return
+     * the task, for cancelling it
+     */
+    public Task schedule(Runnable runnable, long delay);
+}
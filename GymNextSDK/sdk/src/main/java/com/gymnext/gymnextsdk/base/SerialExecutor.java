@@ -0,0 +1,173 @@
+package com.gymnext.gymnextsdk.base;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on threads borrowed from a shared
+ * executor.  Many serial executors can share a small pool: each only ever has one task in the pool
+ * at a time, so their tasks run in parallel with each other but never with themselves.
+ *
+ * Keeps track of how long tasks wait before they start (the queue lag).
+ */
+public class SerialExecutor implements Executor
+{
+    private static class Task
+    {
+        private final Runnable _runnable;
+        private final long _enqueueTime;
+
+        private Task(Runnable runnable, long enqueueTime)
+        {
+            _runnable = runnable;
+            _enqueueTime = enqueueTime;
+        }
+    }
+
+    private final Executor _executor;
+    private final String _name;
+    private final Clock _clock;
+
+    // guarded by this
+    private final ArrayDeque<Task> _tasks = new ArrayDeque<Task>();
+    private boolean _running = false;
+    private int _maxPending = 0;
+
+    private final LatencyHistogram _lag = new LatencyHistogram(1024);
+
+    private final Runnable _drain = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            _drain();
+        }
+    };
+
+    /**
+     * @param executor
+     * the shared executor to run on
+     * @param name
+     * used when logging task failures
+     */
+    public SerialExecutor(Executor executor, String name)
+    {
+        this(executor, name, Clock.SYSTEM);
+    }
+
+    /**
+     * @param executor
+     * the shared executor to run on
+     * @param name
+     * used when logging task failures
+     * @param clock
+     * the clock to measure the queue lag with
+     */
+    public SerialExecutor(Executor executor, String name, Clock clock)
+    {
+        _executor = executor;
+        _name = name;
+        _clock = clock;
+    }
+
+    @Override
+    public void execute(Runnable runnable)
+    {
+        synchronized (this)
+        {
+            _tasks.addLast(new Task(runnable, _clock.nanoTime()));
+            _maxPending = Math.max(_maxPending, _tasks.size());
+            if (_running)
+            {
+                return;
+            }
+            _running = true;
+        }
+
+        _schedule();
+    }
+
+    /**
+     * The number of tasks waiting to start
+     */
+    public synchronized int getPendingCount()
+    {
+        return _tasks.size();
+    }
+
+    /**
+     * The most tasks that have been waiting at once
+     */
+    public synchronized int getMaxPendingCount()
+    {
+        return _maxPending;
+    }
+
+    /**
+     * How long tasks waited between being submitted and starting, in microseconds.  Covers roughly
+     * the last thousand tasks.
+     */
+    public LatencyHistogram getLag()
+    {
+        return _lag;
+    }
+
+    // PRIVATE METHODS
+
+    private void _schedule()
+    {
+        try
+        {
+            _executor.execute(_drain);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the pool is shutting down, nothing more will run
+            Log.w("SerialExecutor", _name + " could not run tasks", e);
+            synchronized (this)
+            {
+                _tasks.clear();
+                _running = false;
+            }
+        }
+    }
+
+    private void _drain()
+    {
+        Task task;
+        synchronized (this)
+        {
+            task = _tasks.pollFirst();
+            if (task == null)
+            {
+                _running = false;
+                return;
+            }
+        }
+
+        _lag.record((_clock.nanoTime() - task._enqueueTime) / 1000);
+        try
+        {
+            task._runnable.run();
+        }
+        catch (RuntimeException e)
+        {
+            Log.w("SerialExecutor", _name + " task failed", e);
+        }
+
+        synchronized (this)
+        {
+            if (_tasks.isEmpty())
+            {
+                _running = false;
+                return;
+            }
+        }
+
+        // one task per turn so other devices sharing the pool aren't starved
+        _schedule();
+    }
+}
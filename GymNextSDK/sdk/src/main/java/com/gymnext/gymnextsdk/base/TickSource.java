@@ -0,0 +1,22 @@
+package com.gymnext.gymnextsdk.base;
+
+/**
+ * Something that ticks, like the display refreshing.  Used to line work up with frames.
+ */
+public interface TickSource
+{
+    /**
+     * Run a callback once, on the next tick.  Asking again for the same callback before the tick
+     * only runs it once.
+     * @param callback
+     * the callback
+     */
+    public void scheduleTick(Runnable callback);
+
+    /**
+     * Forget a callback that hasn't run yet
+     * @param callback
+     * the callback
+     */
+    public void cancelTick(Runnable callback);
+}
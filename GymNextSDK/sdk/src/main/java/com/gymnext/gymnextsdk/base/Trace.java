@@ -0,0 +1,301 @@
+package com.gymnext.gymnextsdk.base;
+
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cheap tracing for hot paths (scanning, GATT callbacks, command writes).
+ *
+ * Events are registered once and recorded as an id plus two long arguments into a fixed-size ring
+ * buffer, without locks, allocation or formatting.  Nothing is turned into text until the buffer is
+ * dumped, e.g. after something went wrong.  Events below the trace level aren't recorded at all.
+ *
+ * Events at or above the log level are also written to logcat as they happen, for debugging.
+ * That formats them, so it is off by default.
+ *
+ * Arguments named "device" are packed MAC addresses (see {@link MacAddress}) and are dumped as
+ * addresses.
+ */
+public final class Trace
+{
+    // Same values as android.util.Log
+    public static final int VERBOSE = Log.VERBOSE;
+    public static final int DEBUG = Log.DEBUG;
+    public static final int INFO = Log.INFO;
+    public static final int WARN = Log.WARN;
+    public static final int ERROR = Log.ERROR;
+    public static final int OFF = Integer.MAX_VALUE;
+
+    private static final int CAPACITY = 4096; // must be a power of two
+    private static final int MASK = CAPACITY - 1;
+    private static final String DEVICE_ARG = "device";
+
+    private static volatile int _level = INFO;
+    private static volatile int _logLevel = OFF;
+    private static volatile Clock _clock = Clock.SYSTEM;
+
+    // registered events, guarded by the class
+    private static volatile String[][] _events = new String[0][];
+
+    // the ring.  A slot's sequence number is written last, so a reader that sees the same
+    // sequence before and after reading the other fields knows they belong together.  The fields
+    // are atomic too: with plain arrays nothing stops the field reads from moving past the second
+    // sequence read, or the field writes ahead of marking the slot.
+    private static final AtomicLong _next = new AtomicLong();
+    private static final AtomicLongArray _sequences = new AtomicLongArray(CAPACITY);
+    private static final AtomicLongArray _times = new AtomicLongArray(CAPACITY);
+    private static final AtomicIntegerArray _ids = new AtomicIntegerArray(CAPACITY);
+    private static final AtomicIntegerArray _levels = new AtomicIntegerArray(CAPACITY);
+    private static final AtomicLongArray _threads = new AtomicLongArray(CAPACITY);
+    private static final AtomicLongArray _args0 = new AtomicLongArray(CAPACITY);
+    private static final AtomicLongArray _args1 = new AtomicLongArray(CAPACITY);
+
+    static
+    {
+        for (int i = 0; i < CAPACITY; i++)
+        {
+            _sequences.set(i, -1);
+        }
+    }
+
+    private Trace()
+    {
+    }
+
+    /**
+     * Register an event.  Call once, into a static final field.
+     * @param name
+     * the event name, e.g. "ble.notify"
+     * @param argNames
+     * names for up to two arguments
+     * @return
+     * the event id to record with
+     */
+    public static synchronized int event(String name, String... argNames)
+    {
+        if (argNames.length > 2)
+        {
+            throw new IllegalArgumentException("At most two arguments");
+        }
+
+        String[][] events = new String[_events.length + 1][];
+        System.arraycopy(_events, 0, events, 0, _events.length);
+
+        String[] event = new String[argNames.length + 1];
+        event[0] = name;
+        System.arraycopy(argNames, 0, event, 1, argNames.length);
+        events[events.length - 1] = event;
+
+        _events = events;
+        return events.length - 1;
+    }
+
+    /**
+     * The lowest level that is recorded
+     */
+    public static void setLevel(int level)
+    {
+        _level = level;
+    }
+
+    public static int getLevel()
+    {
+        return _level;
+    }
+
+    /**
+     * The lowest level that is also written to logcat
+     */
+    public static void setLogLevel(int level)
+    {
+        _logLevel = level;
+    }
+
+    /**
+     * Where event times come from, e.g. a VirtualScheduler
+     * @param clock
+     * the clock, or null for the system clock
+     */
+    public static void setClock(Clock clock)
+    {
+        _clock = clock == null ? Clock.SYSTEM : clock;
+    }
+
+    /**
+     * Check before doing any work to build arguments
+     */
+    public static boolean isEnabled(int level)
+    {
+        return level >= _level || level >= _logLevel;
+    }
+
+    public static void record(int level, int event)
+    {
+        record(level, event, 0, 0);
+    }
+
+    public static void record(int level, int event, long arg0)
+    {
+        record(level, event, arg0, 0);
+    }
+
+    public static void record(int level, int event, long arg0, long arg1)
+    {
+        if (level >= _level)
+        {
+            long sequence = _next.getAndIncrement();
+            int slot = (int) (sequence & MASK);
+
+            // mark the slot as being written
+            _sequences.set(slot, -1);
+            // ordered stores keep these after the mark and before the sequence without full fences
+            _times.lazySet(slot, _clock.nanoTime());
+            _ids.lazySet(slot, event);
+            _levels.lazySet(slot, level);
+            _threads.lazySet(slot, Thread.currentThread().getId());
+            _args0.lazySet(slot, arg0);
+            _args1.lazySet(slot, arg1);
+            _sequences.lazySet(slot, sequence);
+        }
+
+        if (level >= _logLevel)
+        {
+            Log.println(level, "Trace", _format(event, arg0, arg1));
+        }
+    }
+
+    /**
+     * The number of events recorded so far, including those that have been overwritten
+     */
+    public static long getRecordedCount()
+    {
+        return _next.get();
+    }
+
+    /**
+     * Throw away everything recorded
+     */
+    public static void clear()
+    {
+        for (int i = 0; i < CAPACITY; i++)
+        {
+            _sequences.set(i, -1);
+        }
+    }
+
+    /**
+     * The recorded events, oldest first, one per line.  Times are relative to now.
+     */
+    public static List<String> dump()
+    {
+        long now = _clock.nanoTime();
+        long end = _next.get();
+        long start = Math.max(0, end - CAPACITY);
+
+        List<String> lines = new ArrayList<String>();
+        for (long sequence = start; sequence < end; sequence++)
+        {
+            int slot = (int) (sequence & MASK);
+            if (_sequences.get(slot) != sequence)
+            {
+                continue;
+            }
+
+            long time = _times.get(slot);
+            int id = _ids.get(slot);
+            int level = _levels.get(slot);
+            long thread = _threads.get(slot);
+            long arg0 = _args0.get(slot);
+            long arg1 = _args1.get(slot);
+
+            // overwritten while we read it
+            if (_sequences.get(slot) != sequence)
+            {
+                continue;
+            }
+
+            lines.add(String.format("%+.3fms %s [%d] %s", (time - now) / 1e6, _levelName(level), thread, _format(id, arg0, arg1)));
+        }
+        return lines;
+    }
+
+    /**
+     * Write the recorded events somewhere, e.g. a bug report
+     */
+    public static void dump(PrintWriter writer)
+    {
+        for (String line : dump())
+        {
+            writer.println(line);
+        }
+        writer.flush();
+    }
+
+    /**
+     * The recorded events as one string
+     */
+    public static String dumpToString()
+    {
+        StringWriter out = new StringWriter();
+        dump(new PrintWriter(out));
+        return out.toString();
+    }
+
+    /**
+     * Write the recorded events to logcat
+     */
+    public static void dumpToLog()
+    {
+        for (String line : dump())
+        {
+            Log.i("Trace", line);
+        }
+    }
+
+    // PRIVATE METHODS
+
+    private static String _format(int id, long arg0, long arg1)
+    {
+        String[][] events = _events;
+        if (id < 0 || id >= events.length)
+        {
+            return "event" + id + " " + arg0 + " " + arg1;
+        }
+
+        String[] event = events[id];
+        StringBuilder sb = new StringBuilder(event[0]);
+        for (int i = 1; i < event.length; i++)
+        {
+            long arg = i == 1 ? arg0 : arg1;
+            sb.append(' ').append(event[i]).append('=');
+            sb.append(DEVICE_ARG.equals(event[i]) ? MacAddress.unpack(arg) : String.valueOf(arg));
+        }
+        return sb.toString();
+    }
+
+    private static String _levelName(int level)
+    {
+        switch (level)
+        {
+            case VERBOSE:
+                return "V";
+            case DEBUG:
+                return "D";
+            case INFO:
+                return "I";
+            case WARN:
+                return "W";
+            case ERROR:
+                return "E";
+            default:
+                return "?";
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.gymnext.gymnextsdk.base;
+
+import java.util.PriorityQueue;
+
+/**
+ * A scheduler on virtual time.  Time stands still until advance() moves it forward, running the
+ * tasks that fall due along the way on the calling thread, in order of due time and then of
+ * scheduling.  Hours of timeouts and backoffs run as fast as the tasks themselves do, and the
+ * same tasks run in the same order every time.
+ *
+ * VirtualScheduler scheduler = new VirtualScheduler();
+ * CentralDeviceManager.getInstance().setScheduler(scheduler);
+ * ... connect, disconnect ...
+ * scheduler.advance(60000);
+ *
+ * Work handed to real threads (GATT callbacks, the event bus) still runs on those threads; only
+ * the waiting is virtual.
+ */
+public class VirtualScheduler implements Scheduler
+{
+    private final long _epoch;
+
+    // guarded by this
+    private long _now = 0;
+    private long _sequence = 0;
+    private final PriorityQueue<VirtualTask> _tasks = new PriorityQueue<VirtualTask>();
+
+    /**
+     * Start the clock at the current time
+     */
+    public VirtualScheduler()
+    {
+        this(System.currentTimeMillis());
+    }
+
+    /**
+     * @param epoch
+     * the wall clock time to start at, in milliseconds since the epoch
+     */
+    public VirtualScheduler(long epoch)
+    {
+        _epoch = epoch;
+    }
+
+    @Override
+    public synchronized Task schedule(Runnable runnable, long delay)
+    {
+        VirtualTask task = new VirtualTask(runnable, _now + Math.max(0, delay) * 1000000, _sequence++);
+        _tasks.add(task);
+        return task;
+    }
+
+    @Override
+    public synchronized long currentTimeMillis()
+    {
+        return _epoch + _now / 1000000;
+    }
+
+    @Override
+    public synchronized long nanoTime()
+    {
+        return _now;
+    }
+
+    /**
+     * Move time forward, running the tasks that fall due, including ones they schedule
+     * @param millis
+     * how far to move, in milliseconds
+     * @return
+     * the number of tasks run
+     */
+    public int advance(long millis)
+    {
+        if (millis < 0)
+        {
+            throw new IllegalArgumentException("millis must not be negative");
+        }
+
+        long target;
+        synchronized (this)
+        {
+            target = _now + millis * 1000000;
+        }
+
+        int count = 0;
+        while (_runNext(target))
+        {
+            count++;
+        }
+        synchronized (this)
+        {
+            _now = Math.max(_now, target);
+        }
+        return count;
+    }
+
+    /**
+     * Run the tasks that are due now without moving time
+     * @return
+     * the number of tasks run
+     */
+    public int runDue()
+    {
+        return advance(0);
+    }
+
+    /**
+     * Move time to the next task and run it
+     * @return
+     * false if no task was scheduled
+     */
+    public boolean runNext()
+    {
+        return _runNext(Long.MAX_VALUE);
+    }
+
+    /**
+     * @return
+     * the number of tasks waiting to run
+     */
+    public synchronized int getPendingCount()
+    {
+        return _tasks.size();
+    }
+
+    /**
+     * @return
+     * the milliseconds until the next task is due, or -1 if no task is scheduled
+     */
+    public synchronized long getNextDelay()
+    {
+        VirtualTask task = _tasks.peek();
+        return task == null ? -1 : Math.max(0, task._due - _now) / 1000000;
+    }
+
+    // PRIVATE METHODS
+
+    private boolean _runNext(long limit)
+    {
+        VirtualTask task;
+        synchronized (this)
+        {
+            task = _tasks.peek();
+            if (task == null || task._due > limit)
+            {
+                return false;
+            }
+            _tasks.poll();
+            _now = Math.max(_now, task._due);
+            task._done = true;
+        }
+
+        // outside the lock, so the task can schedule more
+        task._runnable.run();
+        return true;
+    }
+
+    private final class VirtualTask implements Task, Comparable<VirtualTask>
+    {
+        private final Runnable _runnable;
+        private final long _due;
+        private final long _order;
+
+        // guarded by the scheduler
+        private boolean _done = false;
+
+        private VirtualTask(Runnable runnable, long due, long order)
+        {
+            _runnable = runnable;
+            _due = due;
+            _order = order;
+        }
+
+        @Override
+        public boolean cancel()
+        {
+            synchronized (VirtualScheduler.this)
+            {
+                if (_done)
+                {
+                    return false;
+                }
+                _done = true;
+                _tasks.remove(this);
+                return true;
+            }
+        }
+
+        @Override
+        public int compareTo(VirtualTask other)
+        {
+            if (_due != other._due)
+            {
+                return _due < other._due ? -1 : 1;
+            }
+            return _order < other._order ? -1 : (_order == other._order ? 0 : 1);
+        }
+    }
+}
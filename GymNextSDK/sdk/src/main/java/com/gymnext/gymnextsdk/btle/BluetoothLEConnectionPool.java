@@ -0,0 +1,194 @@
+package com.gymnext.gymnextsdk.btle;
+
+import com.gymnext.gymnextsdk.DeviceState;
+import com.gymnext.gymnextsdk.base.LongKeyedMap;
+import com.gymnext.gymnextsdk.base.Trace;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the number of open GATT connections under the platform limit.
+ *
+ * When a new connection would go over the cap, the idle connection that was least recently sent a
+ * command is closed.  Evicted devices stay active; the next command sent to one reconnects it and
+ * is delivered once the connection is set up again.
+ */
+public final class BluetoothLEConnectionPool {
+    /**
+     * Most phones allow 7 connections, leave room for other apps
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 6;
+
+    private static final int TRACE_EVICT = Trace.event("ble.pool.evict", "device");
+    private static final int TRACE_RECONNECT = Trace.event("ble.pool.reconnect", "device");
+
+    private final BluetoothLEDeviceManager _manager;
+
+    private int _maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    // Open or opening connections by device key, least recently commanded first
+    private final LinkedHashMap<Long, BluetoothLEDevice> _connections = new LinkedHashMap<Long, BluetoothLEDevice>(16, 0.75f, true);
+
+    // Devices we disconnected to make room, and when we started reconnecting them
+    private final LongKeyedMap<BluetoothLEDevice> _evictedDevices = new LongKeyedMap<BluetoothLEDevice>();
+    private final LongKeyedMap<Long> _reconnectStartTimes = new LongKeyedMap<Long>();
+
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _evictions = new AtomicLong();
+    private final AtomicLong _reconnects = new AtomicLong();
+    private final AtomicLong _reconnectTime = new AtomicLong();
+
+    BluetoothLEConnectionPool(BluetoothLEDeviceManager manager) {
+        _manager = manager;
+    }
+
+    public synchronized void setMaxConnections(int maxConnections) {
+        _maxConnections = Math.max(1, maxConnections);
+    }
+
+    public synchronized int getMaxConnections() {
+        return _maxConnections;
+    }
+
+    /**
+     * The number of connections that are open or being opened
+     */
+    public synchronized int getConnectionCount() {
+        return _connections.size();
+    }
+
+    public boolean isEvicted(BluetoothLEDevice device) {
+        return _evictedDevices.containsKey(device.getDeviceKey());
+    }
+
+    /**
+     * Commands sent while the device was connected
+     */
+    public long getHits() {
+        return _hits.get();
+    }
+
+    /**
+     * Commands sent while the device was not connected, which had to wait for a connection
+     */
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    /**
+     * Connections closed to make room for another device
+     */
+    public long getEvictions() {
+        return _evictions.get();
+    }
+
+    /**
+     * Evicted devices that were reconnected because a command was sent to them
+     */
+    public long getReconnects() {
+        return _reconnects.get();
+    }
+
+    /**
+     * Average time from a command being sent to an evicted device until it was connected again
+     * @return
+     * the time in milliseconds (0 if no device has been reconnected)
+     */
+    public long getAverageReconnectCost() {
+        long reconnects = _reconnects.get();
+        return reconnects == 0 ? 0 : _reconnectTime.get() / reconnects;
+    }
+
+    // Called by devices and the device manager
+
+    /**
+     * A connection is about to be opened.  Closes the least recently commanded idle connection if
+     * we are at the cap.  If every connection is busy we go over the cap rather than lose commands.
+     */
+    void willConnect(BluetoothLEDevice device) {
+        List<BluetoothLEDevice> victims = new ArrayList<BluetoothLEDevice>();
+
+        synchronized (this) {
+            _connections.put(device.getDeviceKey(), device);
+
+            int excess = _connections.size() - _maxConnections;
+            for (BluetoothLEDevice candidate : _connections.values()) {
+                if (excess <= 0) {
+                    break;
+                }
+                // persistent devices are expected to stay connected
+                if (candidate == device || candidate.getDeviceState() != DeviceState.Connected || candidate.isBusy() || candidate.isPersistent()) {
+                    continue;
+                }
+                victims.add(candidate);
+                excess--;
+            }
+            for (BluetoothLEDevice victim : victims) {
+                _connections.remove(victim.getDeviceKey());
+            }
+        }
+
+        for (BluetoothLEDevice victim : victims) {
+            Trace.record(Trace.INFO, TRACE_EVICT, victim.getDeviceKey());
+            _evictions.incrementAndGet();
+            // keeps the GATT client around so reconnecting on demand is quick
+            victim.suspend();
+            _evictedDevices.put(victim.getDeviceKey(), victim);
+        }
+    }
+
+    /**
+     * A command is about to be sent to a device.  Reconnects the device if we evicted it.
+     */
+    void willSendCommand(BluetoothLEDevice device) {
+        synchronized (this) {
+            // touch
+            _connections.get(device.getDeviceKey());
+        }
+
+        if (device.getDeviceState() == DeviceState.Connected) {
+            _hits.incrementAndGet();
+            return;
+        }
+
+        _misses.incrementAndGet();
+
+        if (isEvicted(device) && device.getDeviceState() != DeviceState.Connecting) {
+            Trace.record(Trace.INFO, TRACE_RECONNECT, device.getDeviceKey());
+            _reconnectStartTimes.putIfAbsent(device.getDeviceKey(), _manager.getScheduler().currentTimeMillis());
+            device.connect(_manager.getContext());
+        }
+    }
+
+    void didConnect(BluetoothLEDevice device) {
+        _evictedDevices.remove(device.getDeviceKey());
+
+        Long startTime = _reconnectStartTimes.remove(device.getDeviceKey());
+        if (startTime != null) {
+            _reconnects.incrementAndGet();
+            _reconnectTime.addAndGet(_manager.getScheduler().currentTimeMillis() - startTime);
+        }
+    }
+
+    /**
+     * The connection closed or could not be opened
+     */
+    void didDisconnect(BluetoothLEDevice device) {
+        synchronized (this) {
+            _connections.remove(device.getDeviceKey());
+        }
+        _reconnectStartTimes.remove(device.getDeviceKey());
+    }
+
+    /**
+     * The device was disconnected on purpose, don't reconnect it on demand
+     */
+    void release(BluetoothLEDevice device) {
+        didDisconnect(device);
+        _evictedDevices.remove(device.getDeviceKey());
+    }
+}
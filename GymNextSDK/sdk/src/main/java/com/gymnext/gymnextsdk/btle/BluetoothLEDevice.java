@@ -2,10 +2,6 @@ package com.gymnext.gymnextsdk.btle;
 
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.util.Log;
@@ -13,14 +9,27 @@ import android.util.Log;
 import com.gymnext.gymnextsdk.CentralDeviceManager;
 import com.gymnext.gymnextsdk.CommunicationMethod;
 import com.gymnext.gymnextsdk.Device;
+import com.gymnext.gymnextsdk.DeviceEvent;
 import com.gymnext.gymnextsdk.DeviceState;
+import com.gymnext.gymnextsdk.DeviceStateMachine.Event;
 import com.gymnext.gymnextsdk.Service;
-import com.gymnext.gymnextsdk.timer.TimerService;
+import com.gymnext.gymnextsdk.base.LatencyHistogram;
+import com.gymnext.gymnextsdk.base.SerialExecutor;
+import com.gymnext.gymnextsdk.base.Trace;
 
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.HashMap;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class BluetoothLEDevice extends Device
 {
@@ -29,10 +38,52 @@ public class BluetoothLEDevice extends Device
         return new BluetoothLEDevice(deviceJson);
     }
 
-    private BluetoothGatt _btGatt;
-    private BluetoothDevice _btDevice;
-    private Map<String, BluetoothLEService> _services = new HashMap<String, BluetoothLEService>();
-    private boolean _inRange = false;
+    public static BluetoothLEDevice fromBytes(byte[] record) throws IOException
+    {
+        return new BluetoothLEDevice(new DataInputStream(new ByteArrayInputStream(record)));
+    }
+
+    private static final String KEY_CONNECT_LATENCY = "connectLatency";
+
+    private static final int TRACE_CONNECTION_STATE = Trace.event("ble.connection", "device", "state");
+    private static final int TRACE_CONNECTION_ERROR = Trace.event("ble.connection.error", "device", "status");
+    private static final int TRACE_SERVICES_DISCOVERED = Trace.event("ble.discovered", "device", "status");
+    private static final int TRACE_CONNECT = Trace.event("ble.connect", "device", "persistent");
+    private static final int TRACE_CONNECT_LINK = Trace.event("ble.connect.link", "device", "warm");
+    private static final int TRACE_READY = Trace.event("ble.ready", "device", "ms");
+
+    // Roughly the last 64 connection attempts
+    private static final long CONNECT_LATENCY_WINDOW = 64;
+
+    // The link of the current connection, kept after the connection pool suspends it for warm
+    // reconnects
+    private volatile BluetoothLELink _link;
+    // Set while the connection pool has suspended the connection, the only time a disconnected
+    // device keeps its link
+    private volatile boolean _suspended = false;
+    // listener of _link, set before the link is opened since it can report straight away
+    private volatile LinkListener _linkListener;
+    private volatile BluetoothDevice _btDevice;
+    private final Map<String, BluetoothLEService> _services = new ConcurrentHashMap<String, BluetoothLEService>();
+    // The timer service, whose initial communication decides when the device is ready for commands
+    private volatile BluetoothLEService _primaryService;
+    // Routes GATT callbacks to services, rebuilt each time services are discovered
+    private volatile BluetoothLEServiceTable _serviceTable = BluetoothLEServiceTable.EMPTY;
+    private volatile boolean _inRange = false;
+    private final LatencyHistogram _connectLatency = new LatencyHistogram(CONNECT_LATENCY_WINDOW);
+
+    // Warm reconnects reuse the GATT client (and the services it discovered) of the last connection
+    private volatile boolean _warmConnect = false;
+    private volatile long _connectStartTime;
+
+    // Set when we are asked to disconnect, persistent devices are only reconnected automatically
+    // when the connection was lost
+    private volatile boolean _disconnectRequested = false;
+    private final LatencyHistogram _timeToFirstCommand = new LatencyHistogram(CONNECT_LATENCY_WINDOW);
+    private final LatencyHistogram _warmTimeToFirstCommand = new LatencyHistogram(CONNECT_LATENCY_WINDOW);
+
+    // GATT callbacks are handled here, in order, on the manager's shared callback pool
+    private final SerialExecutor _callbackExecutor = new SerialExecutor(BluetoothLEDeviceManager.getInstance().getCallbackPool(), "BluetoothLEDevice " + _deviceId, BluetoothLEDeviceManager.getInstance().getClock());
 
     public BluetoothLEDevice(String deviceId, String deviceName, String deviceAlias, String manufacturerName, String modelName, BluetoothDevice btDevice)
     {
@@ -43,6 +94,136 @@ public class BluetoothLEDevice extends Device
     protected BluetoothLEDevice(JSONObject deviceJson)
     {
         super(deviceJson);
+
+        // stored sparsely as [bucket, count, bucket, count, ...]
+        final JSONArray latencyJson = deviceJson.optJSONArray(KEY_CONNECT_LATENCY);
+        if (latencyJson != null)
+        {
+            long[] counts = new long[LatencyHistogram.BUCKET_COUNT];
+            for (int i = 0; i + 1 < latencyJson.length(); i += 2)
+            {
+                long bucket = latencyJson.optLong(i, -1);
+                if (bucket >= 0 && bucket < counts.length)
+                {
+                    counts[(int) bucket] = latencyJson.optLong(i + 1, 0);
+                }
+            }
+            _connectLatency.setCounts(counts);
+        }
+    }
+
+    protected BluetoothLEDevice(DataInput in) throws IOException
+    {
+        super(in);
+
+        long[] counts = new long[LatencyHistogram.BUCKET_COUNT];
+        int bucketCount = in.readUnsignedShort();
+        for (int i = 0; i < bucketCount; i++)
+        {
+            int bucket = in.readUnsignedShort();
+            long count = in.readLong();
+            if (bucket < counts.length)
+            {
+                counts[bucket] = count;
+            }
+        }
+        _connectLatency.setCounts(counts);
+    }
+
+    @Override
+    public void writeTo(DataOutput out) throws IOException
+    {
+        super.writeTo(out);
+
+        // only the buckets in use
+        long[] counts = _connectLatency.getCounts();
+        int bucketCount = 0;
+        for (long count : counts)
+        {
+            if (count > 0)
+            {
+                bucketCount++;
+            }
+        }
+        out.writeShort(bucketCount);
+        for (int i = 0; i < counts.length; i++)
+        {
+            if (counts[i] > 0)
+            {
+                out.writeShort(i);
+                out.writeLong(counts[i]);
+            }
+        }
+    }
+
+    @Override
+    public JSONObject toJson()
+    {
+        final JSONObject result = super.toJson();
+
+        final JSONArray latencyJson = new JSONArray();
+        long[] counts = _connectLatency.getCounts();
+        for (int i = 0; i < counts.length; i++)
+        {
+            if (counts[i] > 0)
+            {
+                latencyJson.put((long) i);
+                latencyJson.put(counts[i]);
+            }
+        }
+
+        try
+        {
+            result.put(KEY_CONNECT_LATENCY, latencyJson);
+        }
+        catch (JSONException e)
+        {
+            // Swallow, the history is rebuilt as we connect
+        }
+        return result;
+    }
+
+    /**
+     * How long connecting to this device has taken recently, in milliseconds.  Attempts that timed
+     * out are recorded at the timeout they were given.
+     */
+    public LatencyHistogram getConnectLatency()
+    {
+        return _connectLatency;
+    }
+
+    /**
+     * How long it took from connecting until the device accepted commands, in milliseconds, for
+     * connections that started from scratch
+     */
+    public LatencyHistogram getTimeToFirstCommand()
+    {
+        return _timeToFirstCommand;
+    }
+
+    /**
+     * How long it took from connecting until the device accepted commands, in milliseconds, for
+     * warm reconnects
+     */
+    public LatencyHistogram getWarmTimeToFirstCommand()
+    {
+        return _warmTimeToFirstCommand;
+    }
+
+    /**
+     * How long GATT callbacks for this device waited before they were handled, in microseconds
+     */
+    public LatencyHistogram getCallbackLag()
+    {
+        return _callbackExecutor.getLag();
+    }
+
+    /**
+     * The number of GATT callbacks waiting to be handled
+     */
+    public int getPendingCallbackCount()
+    {
+        return _callbackExecutor.getPendingCount();
     }
 
     @Override
@@ -60,215 +241,488 @@ public class BluetoothLEDevice extends Device
         _btDevice = btDevice;
     }
 
+    /**
+     * The platform's device, looked up the first time it is needed for stored devices
+     * @return
+     * the device, or null if Bluetooth isn't available
+     */
+    BluetoothDevice getBtDevice() {
+        if (_btDevice == null) {
+            _btDevice = BluetoothLEDeviceManager.getInstance().getRemoteDevice(_deviceId);
+        }
+        return _btDevice;
+    }
+
+    /**
+     * Add a service for the device to use.  Its GATT service is looked for the next time the
+     * device connects, callbacks for its characteristics are routed to it from then on.
+     * @param service
+     * the service
+     */
+    public void registerService(BluetoothLEService service)
+    {
+        _services.put(service.getId(), service);
+    }
+
+    /**
+     * Check if any service still has operations waiting to be written to the device
+     */
+    public boolean isBusy()
+    {
+        for (BluetoothLEService service : _services.values())
+        {
+            if (service.hasPendingOperations())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if the device should be reconnected without being asked, i.e. it is persistent and
+     * the connection went away on its own
+     */
+    public boolean shouldReconnectAutomatically()
+    {
+        return isPersistent() && !_disconnectRequested;
+    }
+
     public void connect(Context context)
     {
-        if (_deviceState == DeviceState.Disconnected || _deviceState == DeviceState.OutOfRange)
+        // only one caller can win the move to connecting
+        if (_stateMachine.fire(Event.Connect))
         {
-            Log.i("BluetoothLEDevice", "Connect");
+            Trace.record(Trace.INFO, TRACE_CONNECT, getDeviceKey(), isPersistent() ? 1 : 0);
+
+            _disconnectRequested = false;
+            _suspended = false;
+
+            // makes room if we are at the connection limit
+            BluetoothLEDeviceManager.getInstance().getConnectionPool().willConnect(this);
 
-            _deviceState = DeviceState.Connecting;
+            _connectStartTime = BluetoothLEDeviceManager.getInstance().getScheduler().currentTimeMillis();
 
-            _btGatt = _btDevice.connectGatt(context, false, new BluetoothGattCallback()
+            // Reuse the link from the last connection if we still have it.  Note the platform
+            // reconnects an existing client in the background (auto connect) mode.
+            BluetoothLELink link = _link;
+            _warmConnect = link != null && link.connect();
+            if (!_warmConnect)
             {
-                @Override
-                public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status)
+                _closeLink();
+                LinkListener listener = new LinkListener();
+                _linkListener = listener;
+                // persistent devices wait in the background until the device shows up
+                link = BluetoothLEDeviceManager.getInstance().getLinkFactory().open(this, context, isPersistent(), listener);
+                if (link == null)
                 {
-                    if (status == BluetoothGatt.GATT_SUCCESS)
-                    {
-                        boolean sendingInitialCommunicationBefore = _services.get(TimerService.SERVICE_ID).isSendingInitialCommunication();
-                        _services.get(TimerService.SERVICE_ID).didReadValueForCharacteristic(characteristic);
-                        boolean sendingInitialCommunicationAfter = _services.get(TimerService.SERVICE_ID).isSendingInitialCommunication();
-
-                        if (sendingInitialCommunicationBefore && !sendingInitialCommunicationAfter && _delegate != null) {
-                            _delegate.establishedCommunicationChannel(BluetoothLEDevice.this);
-                        }
-
-                        if (_delegate != null)
-                        {
-                            _delegate.receivedDataFromDevice(BluetoothLEDevice.this);
-                        }
-                    }
+                    _linkListener = null;
+                    BluetoothLEDeviceManager.getInstance().deviceDidFailToConnect(this);
+                    return;
                 }
+                _link = link;
+            }
+            Trace.record(Trace.INFO, TRACE_CONNECT_LINK, getDeviceKey(), _warmConnect ? 1 : 0);
 
-                @Override
-                public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status)
-                {
-                    _services.get(TimerService.SERVICE_ID).didWriteValueForCharacteristic(characteristic);
+            // Services outlive the connection so commands sent while we were disconnected are
+            // delivered now
+            final String secureCode = CentralDeviceManager.getInstance().getDeviceSecureCode(this);
+            if (_primaryService == null) {
+                _primaryService = new BluetoothLETimerService(this);
+                registerService(_primaryService);
+            }
+            for (BluetoothLEService service : _services.values()) {
+                service.didConnect(link, secureCode);
+            }
 
-                    if (status == BluetoothGatt.GATT_SUCCESS)
-                    {
+            BluetoothLEDeviceManager.getInstance().connect(this);
 
-                        if (_delegate != null)
-                        {
-                            _delegate.sentDataToDevice(BluetoothLEDevice.this);
-                        }
-                    }
-                }
+        }
+    }
 
-                @Override
-                public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-                    _services.get(TimerService.SERVICE_ID).didWriteValueForDescriptor(descriptor);
+    public void didConnect()
+    {
+        // println("Did Connect")
+        handleDidConnect();
+    }
 
-                    if (status == BluetoothGatt.GATT_SUCCESS)
-                    {
-                        if (_delegate != null)
-                        {
-                            _delegate.sentDataToDevice(BluetoothLEDevice.this);
-                        }
-                    }
-                }
+    /**
+     * The link connected
+     * @return
+     * true if the device state changed, false if the state machine refused the event
+     */
+    boolean handleDidConnect()
+    {
+        if (!_stateMachine.fire(Event.DidConnect))
+        {
+            return false;
+        }
 
-                @Override
-                public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-                    _services.get(TimerService.SERVICE_ID).didReadValueForDescriptor(descriptor);
+        _inRange = true;
+        getLinkMetrics().didConnect(BluetoothLEDeviceManager.getInstance().getScheduler().currentTimeMillis() - _connectStartTime);
 
-                    if (status == BluetoothGatt.GATT_SUCCESS)
-                    {
-                        if (_delegate != null)
-                        {
-                            _delegate.receivedDataFromDevice(BluetoothLEDevice.this);
-                        }
-                    }
-                }
+        BluetoothLELink link = _link;
+        if (link != null)
+        {
+            // the link keeps what it discovered last time, skip discovery if it is still there
+            BluetoothLEServiceTable table = _warmConnect ? BluetoothLEServiceTable.build(_services.values(), link) : null;
+            if (table != null && table.contains(_primaryService))
+            {
+                _didDiscoverServices(table);
+            }
+            else
+            {
+                link.discoverServices();
+            }
+        }
+        return true;
+    }
 
-                @Override
-                public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState)
-                {
-                    Log.i("BluetoothLEDevice", "onConnectionStateChange Status: "  + status);
-                    Log.i("BluetoothLEDevice", "onConnectionStateChange New State: "  + newState);
-                    if (status == BluetoothGatt.GATT_SUCCESS) {
-                        if (newState == BluetoothProfile.STATE_CONNECTED) {
-                            BluetoothLEDeviceManager.getInstance().deviceDidConnect(BluetoothLEDevice.this);
-
-                        } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                            BluetoothLEDeviceManager.getInstance().deviceDidDisconnect(BluetoothLEDevice.this);
-                        }
-                    }
-                    else {
-                        if (newState == BluetoothProfile.STATE_CONNECTED) {
-                            BluetoothLEDeviceManager.getInstance().deviceDidFailToConnect(BluetoothLEDevice.this);
+    public void disconnect()
+    {
+        // println("Disconnect")
+        _disconnect(false);
+    }
 
-                        }
-                    }
+    /**
+     * Disconnect but keep the GATT client so we can reconnect quickly later
+     */
+    void suspend()
+    {
+        _disconnect(true);
+    }
 
-                }
+    public void didDisconnect()
+    {
+        // println("Did Disconnect")
+        handleDidDisconnect();
+    }
 
-                @Override
-                public void onServicesDiscovered(BluetoothGatt gatt, int status)
-                {
-                    Log.i("BluetoothLEDevice", "onServicesDiscovered: "  + gatt);
-                    final BluetoothGattService service = gatt.getService(BluetoothLETimerService.UART_UUID);
-                    if (service != null)
-                    {
-                        _services.get(TimerService.SERVICE_ID).didDiscoverServiceAndCharacteristics(service);
-                    }
-                }
+    public void didFailToConnect()
+    {
+        // println("Did Fail To Connect")
+        handleDidFailToConnect();
+    }
 
-                @Override
-                public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic)
-                {
-                    boolean sendingInitialCommunicationBefore = _services.get(TimerService.SERVICE_ID).isSendingInitialCommunication();
-                    _services.get(TimerService.SERVICE_ID).didReceiveUpdateValueForCharacteristic(characteristic);
-                    boolean sendingInitialCommunicationAfter = _services.get(TimerService.SERVICE_ID).isSendingInitialCommunication();
+    /**
+     * The link disconnected
+     * @return
+     * true if the device state changed
+     */
+    boolean handleDidDisconnect()
+    {
+        return _didLoseConnection(Event.DidDisconnect);
+    }
 
-                    if (sendingInitialCommunicationBefore && !sendingInitialCommunicationAfter && _delegate != null) {
-                        _delegate.establishedCommunicationChannel(BluetoothLEDevice.this);
-                    }
+    /**
+     * The connection attempt failed
+     * @return
+     * true if the device state changed
+     */
+    boolean handleDidFailToConnect()
+    {
+        return _didLoseConnection(Event.DidFailToConnect);
+    }
 
-                    if (_delegate != null)
-                    {
-                        _delegate.receivedDataFromDevice(BluetoothLEDevice.this);
-                    }
-                }
+    /**
+     * The connection attempt timed out.  Refused unless we are still connecting.
+     * @return
+     * true if the device state changed
+     */
+    boolean handleConnectionTimeout()
+    {
+        return _didLoseConnection(Event.ConnectionTimeout);
+    }
 
-            });
+    public void didMoveIntoRange()
+    {
+        // println("Did Move Into Range")
+        _stateMachine.fire(Event.MoveIntoRange);
+        _inRange = true;
+    }
 
-            // Assumes one service
-            final String secureCode = CentralDeviceManager.getInstance().getDeviceSecureCode(this);
-            _services.put(TimerService.SERVICE_ID, new BluetoothLETimerService(secureCode, _btGatt));
+    public void didMoveOutOfRange()
+    {
+        // println("Did Move Out Of Range")
+        _stateMachine.fire(Event.MoveOutOfRange);
+        _inRange = false;
+    }
 
-            BluetoothLEDeviceManager.getInstance().connect(this);
+    private void _disconnect(boolean keepLink)
+    {
+        DeviceState deviceState = getDeviceState();
+        if (deviceState == DeviceState.Connecting || deviceState == DeviceState.Connected)
+        {
+            _disconnectRequested = true;
+            _suspended = keepLink;
+
+            if (!keepLink)
+            {
+                BluetoothLEDeviceManager.getInstance().disconnect(this);
+                _closeLink();
+            }
+            else
+            {
+                BluetoothLELink link = _link;
+                if (link != null)
+                {
+                    link.disconnect();
+                }
+            }
 
+            BluetoothLEDeviceManager.getInstance().deviceDidDisconnect(BluetoothLEDevice.this);
+        }
+        else if (!keepLink)
+        {
+            // e.g. deactivating a device whose connection was suspended
+            _closeLink();
         }
     }
 
-    public void didConnect()
+    private boolean _didLoseConnection(Event event)
     {
-        // println("Did Connect")
+        if (!_stateMachine.fire(event))
+        {
+            return false;
+        }
 
-        if (_deviceState == DeviceState.Connecting)
+        // only a connection the pool suspended keeps its link, and a link that failed may be in a
+        // bad state
+        if (event != Event.DidDisconnect || !_suspended)
         {
-            _deviceState = DeviceState.Connected;
-            _inRange = true;
+            _closeLink();
+        }
 
-            _btGatt.discoverServices();
+        for (BluetoothLEService service : _services.values())
+        {
+            service.didDisconnect();
         }
+
+        if (!_inRange)
+        {
+            _stateMachine.fire(Event.MoveOutOfRange);
+        }
+        return true;
     }
 
-    public void disconnect()
+    private void _closeLink()
     {
-        // println("Disconnect")
+        BluetoothLELink link = _link;
+        _linkListener = null;
+        _link = null;
+        if (link != null) {
+            link.close();
+        }
+    }
 
-        if (_deviceState == DeviceState.Connecting || _deviceState == DeviceState.Connected)
+    private void _didDiscoverServices(BluetoothLEServiceTable table)
+    {
+        _serviceTable = table;
+        for (Map.Entry<BluetoothLEService, List<UUID>> entry : table.getDiscoveredServices().entrySet())
         {
-            BluetoothLEDeviceManager.getInstance().disconnect(this);
-
-            if (_btGatt != null) {
-                _btGatt.disconnect();
-                _btGatt.close();
-                _btGatt = null;
-            }
-            BluetoothLEDeviceManager.getInstance().deviceDidDisconnect(BluetoothLEDevice.this);
+            entry.getKey().didDiscoverService(entry.getValue());
         }
     }
 
-    public void didDisconnect()
+    private void _updateCommunicationChannel(BluetoothLEService service, boolean sendingInitialCommunicationBefore)
     {
-        // println("Did Disconnect")
-        if (_inRange)
+        if (service != _primaryService)
         {
-            _deviceState = DeviceState.Disconnected;
+            return;
         }
-        else
+
+        boolean sendingInitialCommunicationAfter = service.isSendingInitialCommunication();
+        if (sendingInitialCommunicationBefore && !sendingInitialCommunicationAfter)
         {
-            _deviceState = DeviceState.OutOfRange;
+            long timeToFirstCommand = BluetoothLEDeviceManager.getInstance().getScheduler().currentTimeMillis() - _connectStartTime;
+            (_warmConnect ? _warmTimeToFirstCommand : _timeToFirstCommand).record(timeToFirstCommand);
+            getLinkMetrics().didFinishHandshake(timeToFirstCommand);
+            Trace.record(Trace.INFO, TRACE_READY, getDeviceKey(), timeToFirstCommand);
+
+            publishEvent(DeviceEvent.Type.EstablishedCommunicationChannel, service.getId());
         }
     }
 
-    public void didFailToConnect()
+    // One listener per link, kept with the link when it is reused across connections.  Events
+    // arrive on a thread shared by every device (a Binder thread for GATT clients), so each one is
+    // handed to this device's serial executor, and dropped there unless the link is still ours.
+    private final class LinkListener implements BluetoothLELink.Listener
     {
-        if (_btGatt != null) {
-            _btGatt.disconnect();
-            _btGatt.close();
-            _btGatt = null;
+        private boolean _isCurrent()
+        {
+            return _linkListener == this;
         }
 
-        // println("Did Fail To Connect")
-        if (_inRange)
+        @Override
+        public void onCharacteristicRead(BluetoothLELink link, final UUID serviceUuid, final UUID characteristic, final byte[] value, final int status)
+        {
+            _callbackExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (!_isCurrent())
+                    {
+                        return;
+                    }
+                    BluetoothLEService service = _serviceTable.get(serviceUuid);
+                    if (service != null && status == BluetoothGatt.GATT_SUCCESS)
+                    {
+                        boolean sendingInitialCommunicationBefore = service.isSendingInitialCommunication();
+                        service.didReadValueForCharacteristic(characteristic, value);
+                        _updateCommunicationChannel(service, sendingInitialCommunicationBefore);
+
+                        publishEvent(DeviceEvent.Type.ReceivedData, service.getId());
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothLELink link, final UUID serviceUuid, final UUID characteristic, final int status)
+        {
+            _callbackExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (!_isCurrent())
+                    {
+                        return;
+                    }
+                    BluetoothLEService service = _serviceTable.get(serviceUuid);
+                    if (service == null)
+                    {
+                        return;
+                    }
+                    service.didWriteValueForCharacteristic(characteristic);
+
+                    if (status == BluetoothGatt.GATT_SUCCESS)
+                    {
+                        publishEvent(DeviceEvent.Type.SentData, service.getId());
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothLELink link, final UUID serviceUuid, final UUID characteristic, final UUID descriptor, final int status) {
+            _callbackExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (!_isCurrent())
+                    {
+                        return;
+                    }
+                    BluetoothLEService service = _serviceTable.get(serviceUuid);
+                    if (service == null)
+                    {
+                        return;
+                    }
+                    service.didWriteValueForDescriptor(characteristic, descriptor);
+
+                    if (status == BluetoothGatt.GATT_SUCCESS)
+                    {
+                        publishEvent(DeviceEvent.Type.SentData, service.getId());
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onConnectionStateChange(BluetoothLELink link, final int status, final int newState)
         {
-            _deviceState = DeviceState.Disconnected;
+            _callbackExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (!_isCurrent())
+                    {
+                        return;
+                    }
+                    _didChangeConnectionState(status, newState);
+                }
+            });
         }
-        else
+
+        @Override
+        public void onServicesDiscovered(final BluetoothLELink link, final int status)
         {
-            _deviceState = DeviceState.OutOfRange;
+            _callbackExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (!_isCurrent())
+                    {
+                        return;
+                    }
+                    Trace.record(Trace.INFO, TRACE_SERVICES_DISCOVERED, getDeviceKey(), status);
+                    _didDiscoverServices(BluetoothLEServiceTable.build(_services.values(), link));
+                }
+            });
         }
-    }
 
-    public void didMoveIntoRange()
-    {
-        // println("Did Move Into Range")
-        if (_deviceState == DeviceState.OutOfRange)
+        @Override
+        public void onCharacteristicChanged(BluetoothLELink link, final UUID serviceUuid, final UUID characteristic, final byte[] value)
         {
-            _deviceState = DeviceState.Disconnected;
+            _callbackExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (!_isCurrent())
+                    {
+                        return;
+                    }
+                    BluetoothLEService service = _serviceTable.get(serviceUuid);
+                    if (service == null)
+                    {
+                        return;
+                    }
+
+                    boolean sendingInitialCommunicationBefore = service.isSendingInitialCommunication();
+                    service.didReceiveUpdateValueForCharacteristic(characteristic, value);
+                    _updateCommunicationChannel(service, sendingInitialCommunicationBefore);
+
+                    publishEvent(DeviceEvent.Type.ReceivedData, service.getId());
+                }
+            });
         }
-        _inRange = true;
     }
 
-    public void didMoveOutOfRange()
+    private void _didChangeConnectionState(int status, int newState)
     {
-        // println("Did Move Out Of Range")
-        _deviceState = DeviceState.OutOfRange;
-        _inRange = false;
+        Trace.record(Trace.INFO, TRACE_CONNECTION_STATE, getDeviceKey(), newState);
+        if (status != BluetoothGatt.GATT_SUCCESS)
+        {
+            Trace.record(Trace.WARN, TRACE_CONNECTION_ERROR, getDeviceKey(), status);
+        }
+
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                BluetoothLEDeviceManager.getInstance().deviceDidConnect(BluetoothLEDevice.this);
+
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                BluetoothLEDeviceManager.getInstance().deviceDidDisconnect(BluetoothLEDevice.this);
+            }
+        }
+        else {
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                BluetoothLEDeviceManager.getInstance().deviceDidFailToConnect(BluetoothLEDevice.this);
+
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                // link loss (8) or a failed attempt (133), the state machine refuses whichever doesn't apply
+                if (isConnected()) {
+                    BluetoothLEDeviceManager.getInstance().deviceDidDisconnect(BluetoothLEDevice.this);
+                } else {
+                    BluetoothLEDeviceManager.getInstance().deviceDidFailToConnect(BluetoothLEDevice.this);
+                }
+            }
+        }
     }
 
 }
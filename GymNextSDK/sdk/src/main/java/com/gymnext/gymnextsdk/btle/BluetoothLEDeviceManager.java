@@ -7,34 +7,45 @@ import android.bluetooth.BluetoothManager;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
-import android.text.TextUtils;
 import android.util.Log;
 
 import com.gymnext.gymnextsdk.Device;
 import com.gymnext.gymnextsdk.DeviceState;
+import com.gymnext.gymnextsdk.ScanMode;
+import com.gymnext.gymnextsdk.base.Clock;
+import com.gymnext.gymnextsdk.base.LatencyHistogram;
+import com.gymnext.gymnextsdk.base.LongKeyedMap;
+import com.gymnext.gymnextsdk.base.MacAddress;
+import com.gymnext.gymnextsdk.base.RecordLog;
+import com.gymnext.gymnextsdk.base.ExecutorScheduler;
+import com.gymnext.gymnextsdk.base.Scheduler;
+import com.gymnext.gymnextsdk.base.Trace;
 import com.gymnext.gymnextsdk.timer.TimerService;
 import com.gymnext.gymnextsdk.base.DeviceManager;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 
-import java.io.UnsupportedEncodingException;
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class BluetoothLEDeviceManager implements DeviceManager {
+    /**
+     * Called directly on the thread that noticed the change: the scan callback for devices moving
+     * into range, the device's callback thread for connection changes.  Return quickly, the
+     * device's other Bluetooth callbacks wait for it.
+     */
     public interface BluetoothLEDeviceManagerDelegate {
         public void deviceDidMoveInRange(BluetoothLEDeviceManager deviceManager, BluetoothLEDevice device);
 
@@ -52,7 +63,31 @@ public class BluetoothLEDeviceManager implements DeviceManager {
      */
     private static BluetoothLEDeviceManager mInstance = new BluetoothLEDeviceManager();
 
-    private static final int CONNECTION_TIMEOUT = 5;
+    // Connection timeouts in milliseconds.  Until a device has enough history we use the default,
+    // after that the timeout is a high percentile of its recent connect times plus a margin.
+    private static final long DEFAULT_CONNECTION_TIMEOUT = 5000;
+    private static final long MIN_CONNECTION_TIMEOUT = 1500;
+    private static final long MAX_CONNECTION_TIMEOUT = 20000;
+    private static final long CONNECTION_TIMEOUT_MARGIN = 500;
+    private static final double CONNECTION_TIMEOUT_PERCENTILE = 0.95;
+    private static final double CONNECTION_TIMEOUT_FACTOR = 1.5;
+    private static final long MIN_CONNECTION_SAMPLES = 5;
+
+    // Wait before re-arming a persistent device, so a device that fails straight away doesn't spin
+    private static final long REARM_DELAY = 1000;
+
+    // Connection history is written out lazily rather than on every connect
+    private static final long SAVE_DELAY = 10000;
+
+    // The Bluetooth base UUID that 16-bit UUIDs are short for
+    private static final long BASE_UUID_MSB = 0x0000000000001000L;
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+    private static final int TRACE_SCAN = Trace.event("ble.scan", "device", "rssi");
+    private static final int TRACE_SCAN_REJECTED = Trace.event("ble.scan.rejected", "device", "uuids");
+    private static final int TRACE_NEW_DEVICE = Trace.event("ble.device.new", "device");
+    private static final int TRACE_REARM = Trace.event("ble.rearm", "device");
+    private static final int TRACE_CONNECT_TIMEOUT = Trace.event("ble.connect.timeout", "device", "ms");
 
     /**
      * singleton accessor
@@ -61,18 +96,46 @@ public class BluetoothLEDeviceManager implements DeviceManager {
         return mInstance;
     }
 
-    private Context _context;
+    private volatile Context _context;
 
-    private BluetoothLEDeviceManagerDelegate _delegate;
+    private volatile BluetoothLEDeviceManagerDelegate _delegate;
 
-    private boolean _scanning = false;
-    private Map<String, BluetoothLEDevice> _devices = new HashMap<String, BluetoothLEDevice>();
+    // Touched from the UI, scan, GATT callback and timeout threads, keyed by packed MAC address
+    private final LongKeyedMap<BluetoothLEDevice> _devices = new LongKeyedMap<BluetoothLEDevice>();
 
-    private BluetoothAdapter _adapter;
+    private volatile BluetoothAdapter _adapter;
 
-    private ScheduledExecutorService _executor = Executors.newSingleThreadScheduledExecutor();
-    private Map<String, ScheduledFuture<?>> _connectionTimeoutTimers = new HashMap<String, ScheduledFuture<?>>();
+    // Timeouts, scan windows, re-arming and delayed saves
+    private final Scheduler _defaultScheduler = new ExecutorScheduler(Executors.newSingleThreadScheduledExecutor());
+    private volatile Scheduler _scheduler = _defaultScheduler;
+    // the clock of whichever scheduler is current, for objects that outlive a scheduler change
+    private final Clock _clock = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return _scheduler.currentTimeMillis();
+        }
 
+        @Override
+        public long nanoTime() {
+            return _scheduler.nanoTime();
+        }
+    };
+    private final LongKeyedMap<ConnectionTimeout> _connectionTimeoutTimers = new LongKeyedMap<ConnectionTimeout>();
+
+    // Devices handle their GATT callbacks on this pool, each through its own serial executor
+    private static final int MAX_CALLBACK_THREADS = 4;
+    private final ExecutorService _callbackPool = Executors.newFixedThreadPool(Math.max(2, Math.min(MAX_CALLBACK_THREADS, Runtime.getRuntime().availableProcessors())));
+
+    private BluetoothLEScanScheduler _scanScheduler = new BluetoothLEScanScheduler(this);
+
+    // Known devices, one binary record each
+    private volatile RecordLog _registryLog;
+    private final LongKeyedMap<BluetoothLEDevice> _dirtyDevices = new LongKeyedMap<BluetoothLEDevice>();
+    private final AtomicBoolean _saveScheduled = new AtomicBoolean(false);
+
+    private final BluetoothLEConnectionPool _connectionPool = new BluetoothLEConnectionPool(this);
+
+    private volatile BluetoothLELink.Factory _linkFactory = GattLink.FACTORY;
 
     /**
      * hidden constructor
@@ -87,8 +150,9 @@ public class BluetoothLEDeviceManager implements DeviceManager {
 
         _context = context;
 
+        // null on hardware without Bluetooth, we then only know the stored devices
         BluetoothManager bluetoothManager = (BluetoothManager) _context.getSystemService(Context.BLUETOOTH_SERVICE);
-        _adapter = bluetoothManager.getAdapter();
+        _adapter = bluetoothManager != null ? bluetoothManager.getAdapter() : null;
 
         _loadDevices();
     }
@@ -101,34 +165,139 @@ public class BluetoothLEDeviceManager implements DeviceManager {
         return _delegate;
     }
 
+    /**
+     * The pool that keeps the number of open connections under the platform limit
+     */
+    public BluetoothLEConnectionPool getConnectionPool() {
+        return _connectionPool;
+    }
+
+    /**
+     * Change how devices open their links, e.g. to record or replay traffic.  Applies to links
+     * opened from now on.
+     * @param linkFactory
+     * the factory, or null for GATT clients
+     */
+    public void setLinkFactory(BluetoothLELink.Factory linkFactory) {
+        _linkFactory = linkFactory != null ? linkFactory : GattLink.FACTORY;
+    }
+
+    public BluetoothLELink.Factory getLinkFactory() {
+        return _linkFactory;
+    }
+
+    /**
+     * The factory for links over GATT clients, to wrap with another factory
+     */
+    public static BluetoothLELink.Factory getGattLinkFactory() {
+        return GattLink.FACTORY;
+    }
+
+    /**
+     * Run timeouts, scan windows and other timers on a different scheduler, e.g. a
+     * VirtualScheduler.  Set it before connecting or scanning, timers already running stay on the
+     * old one.
+     * @param scheduler
+     * the scheduler, or null for the default one
+     */
+    public void setScheduler(Scheduler scheduler) {
+        _scheduler = scheduler != null ? scheduler : _defaultScheduler;
+    }
+
+    public Scheduler getScheduler() {
+        return _scheduler;
+    }
+
+    Context getContext() {
+        return _context;
+    }
+
+    ExecutorService getCallbackPool() {
+        return _callbackPool;
+    }
+
+    /**
+     * The clock of the current scheduler, following setScheduler()
+     */
+    Clock getClock() {
+        return _clock;
+    }
+
     public boolean isAvailable() {
-        return _adapter.isEnabled();
+        BluetoothAdapter adapter = _adapter;
+        return adapter != null && adapter.isEnabled();
     }
 
     public boolean isScanning() {
-        return _scanning;
+        return _scanScheduler.isRunning();
     }
 
     public boolean startScanning() {
+        return startScanning(ScanMode.Balanced);
+    }
+
+    public boolean startScanning(ScanMode scanMode) {
         if (!isAvailable()) {
             return false;
         }
 
+        if (_scanScheduler.isRunning()) {
+            _scanScheduler.setMode(scanMode);
+            return true;
+        }
+
         Log.i("BluetoothLEDeviceManager", "Start Scanning");
-        _scanning = true;
-        _adapter.startLeScan(mScanCallback);
+        _scanScheduler.start(scanMode);
 
         return true;
     }
 
     public void stopScanning() {
-        if (!isAvailable()) {
+        Log.i("BluetoothLEDeviceManager", "Stop Scanning");
+        _scanScheduler.stop();
+    }
+
+    /**
+     * The devices we expect to find while scanning.  Once they have all been seen (or are connected)
+     * scanning backs off.
+     */
+    public void setWatchedDeviceIds(Collection<String> deviceIds) {
+        _scanScheduler.setWatchedDeviceIds(deviceIds);
+    }
+
+    boolean startLeScan() {
+        BluetoothAdapter adapter = _adapter;
+        if (adapter == null || !adapter.isEnabled()) {
+            return false;
+        }
+        return adapter.startLeScan(mScanCallback);
+    }
+
+    void stopLeScan() {
+        BluetoothAdapter adapter = _adapter;
+        if (adapter == null || !adapter.isEnabled()) {
             return;
         }
+        adapter.stopLeScan(mScanCallback);
+    }
 
-        Log.i("BluetoothLEDeviceManager", "Stop Scanning");
-        _adapter.stopLeScan(mScanCallback);
-        _scanning = false;
+    /**
+     * A device queued a write with nothing else waiting, scanning makes room for it
+     */
+    void deviceDidBecomeBusy(BluetoothLEDevice device) {
+        _scanScheduler.didBecomeBusy();
+    }
+
+    /**
+     * Check if any device has commands waiting to be written
+     */
+    boolean hasBusyDevices() {
+        for (BluetoothLEDevice device : _devices.values()) {
+            if (device.isBusy()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private LeScanCallback mScanCallback = new LeScanCallback() {
@@ -138,59 +307,62 @@ public class BluetoothLEDeviceManager implements DeviceManager {
         @Override
         public void onLeScan(BluetoothDevice btDevice, int rssi, byte[] scanRecord) {
 
-            Log.i("Duane", "Device Discovered: " + btDevice.getAddress());
-            Log.i("Duane", "Device Discovered: " + btDevice.getName());
-            if (btDevice.getName() == null) {
+            String deviceName = btDevice.getName();
+            if (deviceName == null) {
                 return;
             }
 
-            Log.i("Duane", "Device Discovered: " + btDevice.getName());
-
             String deviceId = btDevice.getAddress();
-            String deviceName = btDevice.getName();
-
-            // TODO: Advertisement Data
-            Log.i("Duane", "Service ids " + btDevice.getUuids());
-//            printScanRecord(scanRecord);
+            long deviceKey = MacAddress.pack(deviceId);
+            if (deviceKey == MacAddress.INVALID) {
+                return;
+            }
+            Trace.record(Trace.VERBOSE, TRACE_SCAN, deviceKey, rssi);
 
             boolean acceptable = false;
             List<UUID> serviceUuids = _parseUUIDs(scanRecord);
-            Log.i("Duane", "Service ids " + serviceUuids);
             if (serviceUuids.contains(BluetoothLETimerService.UART_UUID)) {
-                Log.i("BluetoothLEDeviceManager", "Acceptable Device");
                 acceptable = true;
             } else {
-                Log.i("BluetoothLEDeviceManager", "Not Acceptable Device: " + serviceUuids);
+                Trace.record(Trace.VERBOSE, TRACE_SCAN_REJECTED, deviceKey, serviceUuids.size());
             }
 
             if (acceptable) {
+                _scanScheduler.didSeeDevice(deviceId);
+
                 String modelName = "Unknown";
                 String manufacturerName = "GymNext";
                 Set<String> serviceIds = new HashSet<String>();
                 serviceIds.add(TimerService.SERVICE_ID);
 
-                if (!hasDevice(deviceId)) {
-                    Log.i("BluetoothLEDeviceManager", "New device " + deviceId);
+                BluetoothLEDevice existingDevice = _getOrLoad(deviceKey, deviceId);
+                final BluetoothLEDevice newDevice;
+                if (existingDevice == null) {
+                    newDevice = new BluetoothLEDevice(deviceId, deviceName, null, manufacturerName, modelName, btDevice);
+                    newDevice.setServiceIds(serviceIds);
+                    newDevice.didMoveIntoRange();
+                    existingDevice = _devices.putIfAbsent(deviceKey, newDevice);
+                } else {
+                    newDevice = null;
+                }
 
-                    final BluetoothLEDevice device = new BluetoothLEDevice(deviceId, deviceName, null, manufacturerName, modelName, btDevice);
-                    device.setServiceIds(serviceIds);
+                if (existingDevice == null) {
+                    Trace.record(Trace.INFO, TRACE_NEW_DEVICE, deviceKey);
 
-                    device.didMoveIntoRange();
-                    _devices.put(device.getDeviceId(), device);
-                    _saveDevices();
+                    _saveDevice(newDevice);
 
-                    if (_delegate != null) {
-                        _delegate.deviceDidMoveInRange(BluetoothLEDeviceManager.this, device);
+                    BluetoothLEDeviceManagerDelegate delegate = _delegate;
+                    if (delegate != null) {
+                        delegate.deviceDidMoveInRange(BluetoothLEDeviceManager.this, newDevice);
                     }
                 } else {
-                    Log.i("BluetoothLEDeviceManager", "Existing device " + deviceId);
 
-                    final BluetoothLEDevice device = _devices.get(deviceId);
+                    final BluetoothLEDevice device = existingDevice;
                     device.setBtDevice(btDevice);
 
                     if (!device.getDeviceName().equals(deviceName)) {
                         device.setDeviceName(deviceName);
-                        _saveDevices();
+                        _saveDevice(device);
 
                         // Trigger an update
                         if (_delegate != null) {
@@ -210,20 +382,76 @@ public class BluetoothLEDeviceManager implements DeviceManager {
         }
     };
 
+    /**
+     * Add a device without scanning for it, e.g. one in a trace that is being replayed.  The
+     * device is stored and reported as in range like a scanned one.
+     * @return
+     * the device, or the one already known with the same id
+     */
+    public BluetoothLEDevice addDevice(BluetoothLEDevice device) {
+        long deviceKey = device.getDeviceKey();
+        if (deviceKey == MacAddress.INVALID) {
+            throw new IllegalArgumentException("not a MAC address: " + device.getDeviceId());
+        }
+
+        BluetoothLEDevice existingDevice = _getOrLoad(deviceKey, device.getDeviceId());
+        if (existingDevice == null) {
+            device.didMoveIntoRange();
+            existingDevice = _devices.putIfAbsent(deviceKey, device);
+        }
+        if (existingDevice != null) {
+            return existingDevice;
+        }
+
+        Trace.record(Trace.INFO, TRACE_NEW_DEVICE, deviceKey);
+        _saveDevice(device);
+
+        BluetoothLEDeviceManagerDelegate delegate = _delegate;
+        if (delegate != null) {
+            delegate.deviceDidMoveInRange(this, device);
+        }
+        return device;
+    }
+
     public boolean hasDevice(String deviceId) {
-        return _devices.containsKey(deviceId);
+        return _hasDevice(MacAddress.pack(deviceId), deviceId);
     }
 
     public void forgetDevice(String deviceId) {
-        _devices.remove(deviceId);
-        _saveDevices();
+        long deviceKey = MacAddress.pack(deviceId);
+
+        // let go of the link while the device is still known
+        BluetoothLEDevice device = _devices.get(deviceKey);
+        if (device != null) {
+            device.disconnect();
+            device.setDelegate(null);
+        }
+
+        _devices.remove(deviceKey);
+        _dirtyDevices.remove(deviceKey);
+
+        RecordLog registryLog = _registryLog;
+        if (registryLog != null) {
+            try {
+                registryLog.remove(deviceId);
+            } catch (IOException e) {
+                Log.w("BluetoothLEDeviceManager", "Could not forget device " + deviceId, e);
+            }
+        }
     }
 
     public Device getDevice(String deviceId) {
-        return _devices.get(deviceId);
+        return _getOrLoad(MacAddress.pack(deviceId), deviceId);
     }
 
     public List<Device> getDevices(String serviceId) {
+        RecordLog registryLog = _registryLog;
+        if (registryLog != null && registryLog.size() > _devices.size()) {
+            for (String deviceId : registryLog.keys()) {
+                _getOrLoad(MacAddress.pack(deviceId), deviceId);
+            }
+        }
+
         List<Device> result = new ArrayList<Device>();
         for (Device device : _devices.values()) {
             if (serviceId == null || device.hasService(serviceId)) {
@@ -234,131 +462,363 @@ public class BluetoothLEDeviceManager implements DeviceManager {
     }
 
     public void connect(final BluetoothLEDevice device) {
-        // Does nothing
-
-        ScheduledFuture<?> future = _executor.schedule(new Runnable() {
-            @Override
-            public void run() {
+        if (device.isPersistent()) {
+            // background connections take as long as the device takes to come back
+            _cancelConnectionTimeout(device);
+            return;
+        }
 
-                Log.i("BluetoothLEDeviceManager", "Timeout occurred");
+        ConnectionTimeout timeout = new ConnectionTimeout(device);
+        ConnectionTimeout previous = _connectionTimeoutTimers.put(device.getDeviceKey(), timeout);
+        if (previous != null) {
+            previous.cancel();
+        }
+        timeout.schedule();
+    }
 
-                device.didFailToConnect();
+    /**
+     * The time we allow for connecting to a device, learned from how long it has taken before
+     * @return
+     * the timeout in milliseconds
+     */
+    public long getConnectionTimeout(BluetoothLEDevice device) {
+        LatencyHistogram history = device.getConnectLatency();
+        if (history.getCount() < MIN_CONNECTION_SAMPLES) {
+            return DEFAULT_CONNECTION_TIMEOUT;
+        }
 
-                if (_delegate != null) {
-                    _delegate.deviceDidFailToConnect(BluetoothLEDeviceManager.this, device);
-                }
-            }
-        }, CONNECTION_TIMEOUT, TimeUnit.SECONDS);
-        _connectionTimeoutTimers.put(device.getDeviceId(), future);
+        long timeout = (long) (history.getPercentile(CONNECTION_TIMEOUT_PERCENTILE) * CONNECTION_TIMEOUT_FACTOR) + CONNECTION_TIMEOUT_MARGIN;
+        return Math.max(MIN_CONNECTION_TIMEOUT, Math.min(MAX_CONNECTION_TIMEOUT, timeout));
     }
 
     public void disconnect(BluetoothLEDevice device) {
-        // Does nothing
+        _connectionPool.release(device);
     }
 
     private void _loadDevices() {
+        File file = new File(_context.getFilesDir(), "gymnext_devices.log");
+        try {
+            _registryLog = new RecordLog(file);
+        } catch (IOException e) {
+            Log.w("BluetoothLEDeviceManager", "Could not open device registry, starting over", e);
+            file.delete();
+            try {
+                _registryLog = new RecordLog(file);
+            } catch (IOException e2) {
+                Log.w("BluetoothLEDeviceManager", "Could not create device registry", e2);
+                return;
+            }
+        }
+
+        // also finishes a migration that didn't get through every device
+        _migrateJsonDevices();
+
+        // records are only decoded when a device is first asked for
+        Log.i("BluetoothLEDeviceManager", "Known devices: " + _registryLog.size());
+
+    }
+
+    /**
+     * Retrieve a device, reading it from the registry the first time it is asked for
+     */
+    private BluetoothLEDevice _getOrLoad(long deviceKey, String deviceId) {
+        if (deviceKey == MacAddress.INVALID) {
+            return null;
+        }
+
+        BluetoothLEDevice device = _devices.get(deviceKey);
+        RecordLog registryLog = _registryLog;
+        if (device != null || registryLog == null || !registryLog.contains(deviceId)) {
+            return device;
+        }
+
+        device = _readDevice(deviceId);
+        if (device == null || device.getDeviceKey() != deviceKey) {
+            return null;
+        }
+
+        BluetoothLEDevice existing = _devices.putIfAbsent(deviceKey, device);
+        return existing != null ? existing : device;
+    }
+
+    private boolean _hasDevice(long deviceKey, String deviceId) {
+        if (deviceKey == MacAddress.INVALID) {
+            return false;
+        }
+        if (_devices.containsKey(deviceKey)) {
+            return true;
+        }
+
+        RecordLog registryLog = _registryLog;
+        return registryLog != null && registryLog.contains(deviceId);
+    }
+
+    private boolean _hasDevice(BluetoothLEDevice device) {
+        return _hasDevice(device.getDeviceKey(), device.getDeviceId());
+    }
+
+    /**
+     * Look up the platform device for an address.  Done when a stored device is first connected
+     * rather than for every stored device at startup.
+     */
+    BluetoothDevice getRemoteDevice(String deviceId) {
+        BluetoothAdapter adapter = _adapter;
+        if (adapter == null) {
+            return null;
+        }
+
+        try {
+            return adapter.getRemoteDevice(deviceId);
+        } catch (IllegalArgumentException e) {
+            // not a valid address
+            return null;
+        }
+    }
+
+    /**
+     * Read a single device from the registry without loading the others
+     * @return
+     * the device (without its platform device set) or null if it isn't known or can't be read
+     */
+    private BluetoothLEDevice _readDevice(String deviceId) {
+        try {
+            byte[] record = _registryLog == null ? null : _registryLog.read(deviceId);
+            return record == null ? null : BluetoothLEDevice.fromBytes(record);
+        } catch (IOException e) {
+            Log.w("BluetoothLEDeviceManager", "Could not read device " + deviceId, e);
+            return null;
+        }
+    }
+
+    /**
+     * Move devices saved by older versions (a JSON array in preferences) into the registry.  The
+     * old devices are only removed once every one of them is in the registry, otherwise they are
+     * left in place and the devices that are still missing are tried again next time.
+     */
+    private void _migrateJsonDevices() {
         SharedPreferences settings = _context.getSharedPreferences("gymnext_devices.pref", Context.MODE_PRIVATE);
-        boolean hasDevices = settings.getString("bluetoothLEDevicesVersion", null) != null;
+        if (!"1.0".equals(settings.getString("bluetoothLEDevicesVersion", null))) {
+            return;
+        }
 
-        if (hasDevices) {
-            String s = settings.getString("devices", null);
-            if (s != null) {
+        String s = settings.getString("devices", null);
+        if (s != null) {
+            JSONArray jsonArray;
+            try {
+                jsonArray = new JSONArray(s);
+            } catch (JSONException e) {
+                Log.w("BluetoothLEDeviceManager", "Could not read devices to migrate", e);
+                return;
+            }
+
+            boolean migrated = true;
+            for (int i = 0; i < jsonArray.length(); i++) {
                 try {
-                    JSONArray jsonArray = new JSONArray(s);
-                    for (int i = 0; i < jsonArray.length(); i++) {
-                        BluetoothLEDevice device = BluetoothLEDevice.fromJson(jsonArray.getJSONObject(i));
-                        BluetoothDevice btDevice = _adapter.getRemoteDevice(device.getDeviceId());
-                        if (btDevice != null) {
-                            device.setBtDevice(btDevice);
-                            _devices.put(device.getDeviceId(), device);
-                        }
+                    BluetoothLEDevice device = BluetoothLEDevice.fromJson(jsonArray.getJSONObject(i));
+                    // migrated by an earlier attempt, and possibly changed since
+                    if (!_registryLog.contains(device.getDeviceId())) {
+                        _registryLog.put(device.getDeviceId(), device.toBytes());
                     }
                 } catch (JSONException e) {
-                    // Swallow
+                    Log.w("BluetoothLEDeviceManager", "Could not migrate device " + i, e);
+                    migrated = false;
+                } catch (IOException e) {
+                    Log.w("BluetoothLEDeviceManager", "Could not migrate devices", e);
+                    return;
                 }
             }
+
+            if (!migrated) {
+                return;
+            }
         }
 
-        Log.i("BluetoothLEDeviceManager", "Loaded devices: " + _devices.size());
+        final Editor editor = settings.edit();
+        editor.remove("bluetoothLEDevicesVersion");
+        editor.remove("devices");
+        editor.commit();
 
+        Log.i("BluetoothLEDeviceManager", "Migrated devices: " + _registryLog.size());
     }
 
-    private void _saveDevices() {
-        SharedPreferences settings = _context.getSharedPreferences("gymnext_devices.pref", Context.MODE_PRIVATE);
-        final Editor editor = settings.edit();
-        editor.putString("bluetoothLEDevicesVersion", "1.0");
+    private void _saveDevice(BluetoothLEDevice device) {
+        RecordLog registryLog = _registryLog;
+        if (registryLog == null || !_hasDevice(device)) {
+            return;
+        }
 
-        final JSONArray jsonArray = new JSONArray();
-        for (Device device : _devices.values()) {
-            jsonArray.put(device.toJson());
+        try {
+            registryLog.put(device.getDeviceId(), device.toBytes());
+        } catch (IOException e) {
+            Log.w("BluetoothLEDeviceManager", "Could not save device " + device.getDeviceId(), e);
         }
+    }
 
-        editor.putString("devices", jsonArray.toString());
-        editor.commit();
+    /**
+     * Save a device a little later, together with any others that changed in the meantime
+     */
+    private void _saveDeviceSoon(BluetoothLEDevice device) {
+        _dirtyDevices.put(device.getDeviceKey(), device);
+        if (!_saveScheduled.compareAndSet(false, true)) {
+            return;
+        }
 
-        Log.i("BluetoothLEDeviceManager", "Saved devices: " + _devices.size());
+        _scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                _saveScheduled.set(false);
+                for (long deviceKey : _dirtyDevices.keys()) {
+                    BluetoothLEDevice dirtyDevice = _dirtyDevices.remove(deviceKey);
+                    if (dirtyDevice != null && _devices.get(deviceKey) == dirtyDevice) {
+                        _saveDevice(dirtyDevice);
+                    }
+                }
+            }
+        }, SAVE_DELAY);
     }
 
     public void deviceDidConnect(BluetoothLEDevice device) {
-        if (!hasDevice(device.getDeviceId())) {
+        if (!_hasDevice(device)) {
             return;
         }
 
-        if (device.isConnected()) {
+        if (!device.handleDidConnect()) {
             return;
         }
 
-        device.didConnect();
-
         // Kill connection timeout trackers
-        ScheduledFuture<?> future = _connectionTimeoutTimers.get(device.getDeviceId());
-        if (future != null) {
-            future.cancel(false);
+        ConnectionTimeout timeout = _cancelConnectionTimeout(device);
+        if (timeout != null) {
+            device.getConnectLatency().record(_scheduler.currentTimeMillis() - timeout._startTime);
+            _saveDeviceSoon(device);
         }
+        _connectionPool.didConnect(device);
 
-        if (_delegate != null) {
-            _delegate.deviceDidConnect(this, device);
+        BluetoothLEDeviceManagerDelegate delegate = _delegate;
+        if (delegate != null) {
+            delegate.deviceDidConnect(this, device);
         }
     }
 
     public void deviceDidDisconnect(BluetoothLEDevice device) {
-        if (!hasDevice(device.getDeviceId())) {
+        if (!_hasDevice(device)) {
             return;
         }
 
-        if (!device.isConnected()) {
+        if (!device.handleDidDisconnect()) {
             return;
         }
 
-        device.didDisconnect();
-
         // Kill connection timeout trackers
-        ScheduledFuture<?> future = _connectionTimeoutTimers.get(device.getDeviceId());
-        if (future != null) {
-            future.cancel(false);
-        }
+        _cancelConnectionTimeout(device);
+        _connectionPool.didDisconnect(device);
 
-        if (_delegate != null) {
-            _delegate.deviceDidDisconnect(this, device);
+        BluetoothLEDeviceManagerDelegate delegate = _delegate;
+        if (delegate != null) {
+            delegate.deviceDidDisconnect(this, device);
         }
 
+        _rearm(device);
+
     }
 
     public void deviceDidFailToConnect(BluetoothLEDevice device) {
-        if (!hasDevice(device.getDeviceId())) {
+        if (!_hasDevice(device)) {
             return;
         }
 
-        device.didFailToConnect();
+        if (!device.handleDidFailToConnect()) {
+            return;
+        }
 
         // Kill connection timeout trackers
-        ScheduledFuture<?> future = _connectionTimeoutTimers.get(device.getDeviceId());
-        if (future != null) {
-            future.cancel(false);
+        _cancelConnectionTimeout(device);
+        _connectionPool.didDisconnect(device);
+
+        BluetoothLEDeviceManagerDelegate delegate = _delegate;
+        if (delegate != null) {
+            delegate.deviceDidFailToConnect(this, device);
+        }
+
+        _rearm(device);
+    }
+
+    /**
+     * Start waiting for a persistent device to come back after its connection went away
+     */
+    private void _rearm(final BluetoothLEDevice device) {
+        if (!device.shouldReconnectAutomatically()) {
+            return;
         }
 
-        if (_delegate != null) {
-            _delegate.deviceDidFailToConnect(this, device);
+        _scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (_hasDevice(device) && device.shouldReconnectAutomatically()) {
+                    Trace.record(Trace.INFO, TRACE_REARM, device.getDeviceKey());
+                    device.connect(_context);
+                }
+            }
+        }, REARM_DELAY);
+    }
+
+    private ConnectionTimeout _cancelConnectionTimeout(BluetoothLEDevice device) {
+        ConnectionTimeout timeout = _connectionTimeoutTimers.remove(device.getDeviceKey());
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        return timeout;
+    }
+
+    /**
+     * Fails a connection attempt that takes too long.  Whoever removes the timeout from the map
+     * first wins, so a timeout that fires after the device connected does nothing.
+     */
+    private class ConnectionTimeout implements Runnable {
+        private final BluetoothLEDevice _device;
+        private final long _startTime = _scheduler.currentTimeMillis();
+        private final long _timeout;
+        private volatile Scheduler.Task _task;
+
+        private ConnectionTimeout(BluetoothLEDevice device) {
+            _device = device;
+            _timeout = getConnectionTimeout(device);
+        }
+
+        private void schedule() {
+            _task = _scheduler.schedule(this, _timeout);
+        }
+
+        private void cancel() {
+            Scheduler.Task task = _task;
+            if (task != null) {
+                task.cancel();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (!_connectionTimeoutTimers.remove(_device.getDeviceKey(), this)) {
+                return;
+            }
+
+            // refused if the device connected (or gave up) in the meantime
+            if (!_device.handleConnectionTimeout()) {
+                return;
+            }
+
+            Trace.record(Trace.INFO, TRACE_CONNECT_TIMEOUT, _device.getDeviceKey(), _timeout);
+
+            // we only know it would have taken longer than this, recording it lets the timeout
+            // grow for devices that keep timing out
+            _device.getConnectLatency().record(_timeout);
+            _saveDeviceSoon(_device);
+            _connectionPool.didDisconnect(_device);
+
+            BluetoothLEDeviceManagerDelegate delegate = _delegate;
+            if (delegate != null) {
+                delegate.deviceDidFailToConnect(BluetoothLEDeviceManager.this, _device);
+            }
         }
     }
 
@@ -368,10 +828,7 @@ public class BluetoothLEDeviceManager implements DeviceManager {
     private List<UUID> _parseUUIDs(byte[] advertisedData) {
         List<UUID> uuids = new ArrayList<UUID>();
 
-        Log.i("Duane", "Advertised Data " + bytesToHex(advertisedData));
-
         ByteBuffer buffer = ByteBuffer.wrap(advertisedData).order(ByteOrder.LITTLE_ENDIAN);
-        Log.i("BluetoothLEDeviceManager", "Advertised Data " + buffer.remaining());
         while (buffer.remaining() > 2) {
             byte length = buffer.get();
             if (length == 0) break;
@@ -380,31 +837,25 @@ public class BluetoothLEDeviceManager implements DeviceManager {
             switch (type) {
                 case 0x02: // Partial list of 16-bit UUIDs
                 case 0x03: // Complete list of 16-bit UUIDs
-                    Log.i("BluetoothLEDeviceManager", "02 or 03");
                     while (length >= 2) {
-                        uuids.add(UUID.fromString(String.format(
-                                "%08x-0000-1000-8000-00805f9b34fb", buffer.getShort())));
+                        // 0000xxxx-0000-1000-8000-00805f9b34fb
+                        long shortUuid = buffer.getShort() & 0xFFFFL;
+                        uuids.add(new UUID((shortUuid << 32) | BASE_UUID_MSB, BASE_UUID_LSB));
                         length -= 2;
                     }
                     break;
 
                 case 0x06: // Partial list of 128-bit UUIDs
                 case 0x07: // Complete list of 128-bit UUIDs
-                    Log.i("BluetoothLEDeviceManager", "06 or 07");
                     while (length >= 16) {
                         long lsb = buffer.getLong();
                         long msb = buffer.getLong();
-                        Log.i("BluetoothLEDeviceManager", lsb + "");
-                        Log.i("BluetoothLEDeviceManager", msb + "");
-                        Log.i("BluetoothLEDeviceManager", new UUID(msb, lsb).toString());
-
                         uuids.add(new UUID(msb, lsb));
                         length -= 16;
                     }
                     break;
 
                 default:
-                    Log.i("BluetoothLEDeviceManager", "No Match " + type + " - "  + length);
                     buffer.position(buffer.position() + length - 1);
                     break;
             }
@@ -412,91 +863,4 @@ public class BluetoothLEDeviceManager implements DeviceManager {
 
         return uuids;
     }
-
-    private void printScanRecord (byte[] scanRecord) {
-
-        // Simply print all raw bytes
-        try {
-            String decodedRecord = new String(scanRecord,"UTF-8");
-            Log.d("DEBUG","decoded String : " + ByteArrayToString(scanRecord));
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        }
-
-        // Parse data bytes into individual records
-        List<AdRecord> records = AdRecord.parseScanRecord(scanRecord);
-
-
-        // Print individual records
-        if (records.size() == 0) {
-            Log.i("DEBUG", "Scan Record Empty");
-        } else {
-            Log.i("DEBUG", "Scan Record: " + TextUtils.join(",", records));
-        }
-
-    }
-
-
-    public static String ByteArrayToString(byte[] ba)
-    {
-        StringBuilder hex = new StringBuilder(ba.length * 2);
-        for (byte b : ba)
-            hex.append(b + " ");
-
-        return hex.toString();
-    }
-
-
-    protected static class AdRecord {
-
-        protected AdRecord(int length, int type, byte[] data) {
-            String decodedRecord = "";
-            try {
-                decodedRecord = new String(data,"UTF-8");
-
-            } catch (UnsupportedEncodingException e) {
-                e.printStackTrace();
-            }
-
-            Log.d("DEBUG", "Length: " + length + " Type : " + type + " Data : " + ByteArrayToString(data));
-        }
-
-        // ...
-
-        protected static List<AdRecord> parseScanRecord(byte[] scanRecord) {
-            List<AdRecord> records = new ArrayList<AdRecord>();
-
-            int index = 0;
-            while (index < scanRecord.length) {
-                int length = scanRecord[index++];
-                //Done once we run out of records
-                if (length == 0) break;
-
-                int type = scanRecord[index];
-                //Done if our record isn't a valid type
-                if (type == 0) break;
-
-                byte[] data = Arrays.copyOfRange(scanRecord, index + 1, index + length);
-
-                records.add(new AdRecord(length, type, data));
-                //Advance
-                index += length;
-            }
-
-            return records;
-        }
-
-        // ...
-    }
-
-    final protected static char[] hexArray = "0123456789ABCDEF".toCharArray();
-    public static String bytesToHex(byte[] bytes) {
-        char[] hexChars = new char[bytes.length * 2];
-        for ( int j = 0; j < bytes.length; j++ ) {
-            int v = bytes[j] & 0xFF;
-            hexChars[j * 2] = hexArray[v >>> 4];
-            hexChars[j * 2 + 1] = hexArray[v & 0x0F];
-        }
-        return new String(hexChars);
-    }
 }
@@ -0,0 +1,125 @@
+package com.gymnext.gymnextsdk.btle;
+
+import android.content.Context;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A connection to one device at the level the SDK uses it: writes, acknowledgements,
+ * notifications and connection state, with characteristics named by UUID.
+ *
+ * On a phone a link is a GATT client (see {@link GattLink}).  Links can also be wrapped, e.g. to
+ * record the traffic ({@link GattTraceRecorder}), or stand in for a device altogether, e.g. to
+ * replay recorded traffic ({@link GattTraceReplayer}).  Which links devices get is decided by the
+ * factory set with BluetoothLEDeviceManager.setLinkFactory().
+ *
+ * Status and state values are the ones BluetoothGatt and BluetoothProfile use.
+ */
+public interface BluetoothLELink {
+    /**
+     * Receives what happens on a link.  Called on whatever thread the link delivers on, e.g. a
+     * Binder thread for GATT clients, so implementations should hand the work off quickly.
+     */
+    public interface Listener {
+        public void onConnectionStateChange(BluetoothLELink link, int status, int newState);
+
+        public void onServicesDiscovered(BluetoothLELink link, int status);
+
+        /**
+         * @param value
+         * the value read, owned by the listener
+         */
+        public void onCharacteristicRead(BluetoothLELink link, UUID service, UUID characteristic, byte[] value, int status);
+
+        /**
+         * A characteristic write was acknowledged
+         */
+        public void onCharacteristicWrite(BluetoothLELink link, UUID service, UUID characteristic, int status);
+
+        /**
+         * A descriptor write was acknowledged
+         */
+        public void onDescriptorWrite(BluetoothLELink link, UUID service, UUID characteristic, UUID descriptor, int status);
+
+        /**
+         * A notification arrived
+         * @param value
+         * the characteristic's new value, owned by the listener
+         */
+        public void onCharacteristicChanged(BluetoothLELink link, UUID service, UUID characteristic, byte[] value);
+    }
+
+    /**
+     * Opens links to devices
+     */
+    public interface Factory {
+        /**
+         * Open a link to a device.  Events may reach the listener before this returns.
+         * @param device
+         * the device
+         * @param context
+         * the context to connect from
+         * @param autoConnect
+         * true to wait in the background until the device shows up
+         * @param listener
+         * receives the link's events
+         * @return
+         * the link, or null if the device can't be reached
+         */
+        public BluetoothLELink open(BluetoothLEDevice device, Context context, boolean autoConnect, Listener listener);
+    }
+
+    /**
+     * The device at the other end, see Device.getDeviceKey()
+     */
+    public long getDeviceKey();
+
+    /**
+     * The name the device advertises
+     * @return
+     * the name, or null if it isn't known
+     */
+    public String getName();
+
+    /**
+     * What the last service discovery found.  A new map is made for every discovery, so getting
+     * the same map as before means the handles from before are still good.
+     * @return
+     * GATT service UUID -> the UUIDs of its characteristics, or null before the first discovery
+     */
+    public Map<UUID, List<UUID>> getServices();
+
+    /**
+     * Connect again after a disconnect, keeping what was discovered
+     * @return
+     * false if the link can't be reused, open a new one instead
+     */
+    public boolean connect();
+
+    public void disconnect();
+
+    /**
+     * Disconnect and release the link for good
+     */
+    public void close();
+
+    public boolean discoverServices();
+
+    public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable);
+
+    /**
+     * Start a write.  Only one write may be in flight, wait for it to be acknowledged.
+     * @return
+     * false if the write wasn't started, no acknowledgement will come
+     */
+    public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value);
+
+    /**
+     * Start a descriptor write.  Only one write may be in flight, wait for it to be acknowledged.
+     * @return
+     * false if the write wasn't started, no acknowledgement will come
+     */
+    public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value);
+}
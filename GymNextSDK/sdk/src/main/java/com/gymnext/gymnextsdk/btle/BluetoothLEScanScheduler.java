@@ -0,0 +1,238 @@
+package com.gymnext.gymnextsdk.btle;
+
+import android.util.Log;
+
+import com.gymnext.gymnextsdk.Device;
+import com.gymnext.gymnextsdk.ScanMode;
+import com.gymnext.gymnextsdk.base.Scheduler;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Duty cycles the LE scanner so it doesn't compete with GATT traffic for radio time.
+ *
+ * In balanced mode the radio is only on for a short window every interval.  Once every watched
+ * (active) device has been seen or is connected, the interval doubles up to a maximum, and a
+ * newly watched device brings the next window forward.  Windows are skipped, and an open window
+ * is cut short, while any connected device has commands waiting to be written.  Burst mode scans
+ * continuously for a limited time and then drops back to balanced mode on its own; asking for a
+ * burst during one extends it.
+ */
+class BluetoothLEScanScheduler {
+
+    static final long SCAN_WINDOW = 2000;
+    static final long SCAN_INTERVAL = 10000;
+    static final long MAX_SCAN_INTERVAL = 60000;
+    static final long BURST_DURATION = 30000;
+    static final long BUSY_RETRY_DELAY = 500;
+
+    private final BluetoothLEDeviceManager _manager;
+
+    private boolean _running = false;
+    private boolean _radioOn = false;
+    private boolean _windowOpen = false;
+    private ScanMode _mode = ScanMode.Balanced;
+    private long _interval = SCAN_INTERVAL;
+    private long _burstDeadline = 0;
+    private Scheduler.Task _pending;
+
+    private Set<String> _watchedDeviceIds = new HashSet<String>();
+    private Set<String> _seenDeviceIds = new HashSet<String>();
+
+    BluetoothLEScanScheduler(BluetoothLEDeviceManager manager) {
+        _manager = manager;
+    }
+
+    synchronized boolean isRunning() {
+        return _running;
+    }
+
+    synchronized ScanMode getMode() {
+        return _mode;
+    }
+
+    synchronized void start(ScanMode mode) {
+        _running = true;
+        _setMode(mode);
+        _interval = SCAN_INTERVAL;
+        _schedule(_beginWindow, 0);
+    }
+
+    synchronized void setMode(ScanMode mode) {
+        if (!_running) {
+            return;
+        }
+        if (_mode == mode) {
+            if (mode == ScanMode.Burst) {
+                // another burst, start counting again
+                _setMode(mode);
+                if (_windowOpen) {
+                    _schedule(_endWindow, BURST_DURATION);
+                }
+            }
+            return;
+        }
+
+        _setMode(mode);
+        _interval = SCAN_INTERVAL;
+
+        // restart the cycle so the new mode takes effect right away
+        _closeWindow();
+        _schedule(_beginWindow, 0);
+    }
+
+    synchronized void stop() {
+        _running = false;
+        if (_pending != null) {
+            _pending.cancel();
+            _pending = null;
+        }
+        _closeWindow();
+    }
+
+    synchronized void setWatchedDeviceIds(Collection<String> deviceIds) {
+        Set<String> added = new HashSet<String>(deviceIds);
+        added.removeAll(_watchedDeviceIds);
+        _watchedDeviceIds = new HashSet<String>(deviceIds);
+
+        // a newly watched device may be waiting to be found, look now rather than after the back-off
+        if (!added.isEmpty() && !_allWatchedDevicesSeen()) {
+            _interval = SCAN_INTERVAL;
+            if (_running && !_windowOpen) {
+                _schedule(_beginWindow, 0);
+            }
+        }
+    }
+
+    synchronized void didSeeDevice(String deviceId) {
+        _seenDeviceIds.add(deviceId);
+    }
+
+    /**
+     * A device started writing commands.  The check runs on the scheduler so the caller's locks
+     * aren't held while taking ours.
+     */
+    void didBecomeBusy() {
+        _manager.getScheduler().schedule(_suspendIfBusy, 0);
+    }
+
+    private void _setMode(ScanMode mode) {
+        _mode = mode;
+        if (mode == ScanMode.Burst) {
+            _burstDeadline = _manager.getScheduler().currentTimeMillis() + BURST_DURATION;
+        }
+    }
+
+    private final Runnable _beginWindow = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (BluetoothLEScanScheduler.this) {
+                if (!_running) {
+                    return;
+                }
+
+                if (_mode == ScanMode.Balanced && _manager.hasBusyDevices()) {
+                    // give the radio to the command queues and check back shortly
+                    _schedule(_beginWindow, BUSY_RETRY_DELAY);
+                    return;
+                }
+
+                _seenDeviceIds.clear();
+                _radioOn();
+                _windowOpen = true;
+
+                if (_mode == ScanMode.Burst) {
+                    _schedule(_endWindow, Math.max(0, _burstDeadline - _manager.getScheduler().currentTimeMillis()));
+                } else {
+                    _schedule(_endWindow, SCAN_WINDOW);
+                }
+            }
+        }
+    };
+
+    private final Runnable _endWindow = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (BluetoothLEScanScheduler.this) {
+                if (!_running) {
+                    return;
+                }
+
+                _closeWindow();
+
+                if (_mode == ScanMode.Burst) {
+                    Log.i("BluetoothLEScanScheduler", "Burst finished, falling back to balanced");
+                    _mode = ScanMode.Balanced;
+                    _interval = SCAN_INTERVAL;
+                } else if (_allWatchedDevicesSeen()) {
+                    _interval = Math.min(_interval * 2, MAX_SCAN_INTERVAL);
+                } else {
+                    _interval = SCAN_INTERVAL;
+                }
+
+                _schedule(_beginWindow, _interval - SCAN_WINDOW);
+            }
+        }
+    };
+
+    private final Runnable _suspendIfBusy = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (BluetoothLEScanScheduler.this) {
+                if (!_running || !_windowOpen || _mode != ScanMode.Balanced || !_manager.hasBusyDevices()) {
+                    return;
+                }
+
+                // give the radio to the command queues, the next window checks back shortly
+                _closeWindow();
+                _schedule(_beginWindow, BUSY_RETRY_DELAY);
+            }
+        }
+    };
+
+    private boolean _allWatchedDevicesSeen() {
+        if (_watchedDeviceIds.isEmpty()) {
+            return false;
+        }
+
+        for (String deviceId : _watchedDeviceIds) {
+            if (_seenDeviceIds.contains(deviceId)) {
+                continue;
+            }
+
+            // connected devices stop advertising
+            Device device = _manager.getDevice(deviceId);
+            if (device == null || !device.isConnected()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void _schedule(Runnable runnable, long delay) {
+        if (_pending != null) {
+            _pending.cancel();
+        }
+        _pending = _manager.getScheduler().schedule(runnable, delay);
+    }
+
+    private void _closeWindow() {
+        _radioOff();
+        _windowOpen = false;
+    }
+
+    private void _radioOn() {
+        if (!_radioOn) {
+            _radioOn = _manager.startLeScan();
+        }
+    }
+
+    private void _radioOff() {
+        if (_radioOn) {
+            _manager.stopLeScan();
+            _radioOn = false;
+        }
+    }
+}
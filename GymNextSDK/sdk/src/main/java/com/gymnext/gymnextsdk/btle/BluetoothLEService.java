@@ -1,25 +1,62 @@
 package com.gymnext.gymnextsdk.btle;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
-
 import com.gymnext.gymnextsdk.Service;
 
+import java.util.List;
+import java.util.UUID;
+
 public interface BluetoothLEService extends Service
 {
-    public boolean isSendingInitialCommunication();
-
-    public void didDiscoverServiceAndCharacteristics(BluetoothGattService service);
+    /**
+     * The GATT service this service talks to.  Notifications and reads for its characteristics
+     * are routed here.
+     */
+    public UUID getServiceUuid();
 
-    public void didReceiveUpdateValueForCharacteristic(BluetoothGattCharacteristic characteristic);
-
-    public void didReadValueForCharacteristic(BluetoothGattCharacteristic characteristic);
-
-    public void didWriteValueForCharacteristic(BluetoothGattCharacteristic characteristic);
-
-    public void didWriteValueForDescriptor(BluetoothGattDescriptor descriptor);
+    public boolean isSendingInitialCommunication();
 
-    public void didReadValueForDescriptor(BluetoothGattDescriptor descriptor);
+    public boolean hasPendingOperations();
+
+    /**
+     * A (new) connection to the device was opened.  Services live as long as the device so that
+     * commands sent while disconnected can be delivered after reconnecting.
+     * @param link
+     * the link to write to, the same link as last time for a warm reconnect
+     */
+    public void didConnect(BluetoothLELink link, String secureCode);
+
+    /**
+     * The connection was closed, writes that were in flight are lost
+     */
+    public void didDisconnect();
+
+    /**
+     * The service's GATT service was found on the device
+     * @param characteristics
+     * the UUIDs of its characteristics.  The same list as last time (not just an equal one) means
+     * the services weren't discovered again, the handles from last time are still good.
+     */
+    public void didDiscoverService(List<UUID> characteristics);
+
+    /**
+     * A notification arrived
+     * @param characteristic
+     * the characteristic that changed
+     * @param value
+     * its value when the notification arrived
+     */
+    public void didReceiveUpdateValueForCharacteristic(UUID characteristic, byte[] value);
+
+    public void didReadValueForCharacteristic(UUID characteristic, byte[] value);
+
+    /**
+     * A characteristic write was acknowledged, successfully or not
+     */
+    public void didWriteValueForCharacteristic(UUID characteristic);
+
+    /**
+     * A descriptor write was acknowledged, successfully or not
+     */
+    public void didWriteValueForDescriptor(UUID characteristic, UUID descriptor);
 
 }
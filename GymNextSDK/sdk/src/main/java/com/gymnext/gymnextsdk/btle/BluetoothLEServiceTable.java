@@ -0,0 +1,81 @@
+package com.gymnext.gymnextsdk.btle;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Which service handles which GATT service, worked out once when a device's services are
+ * discovered.  Callbacks then find their service with a single lookup by GATT service UUID.
+ *
+ * Immutable, a new table is built for every discovery.
+ */
+final class BluetoothLEServiceTable {
+    static final BluetoothLEServiceTable EMPTY = new BluetoothLEServiceTable(
+            Collections.<UUID, BluetoothLEService>emptyMap(),
+            Collections.<BluetoothLEService, List<UUID>>emptyMap());
+
+    // GATT service UUID -> service
+    private final Map<UUID, BluetoothLEService> _byService;
+    private final Map<BluetoothLEService, List<UUID>> _discovered;
+
+    private BluetoothLEServiceTable(Map<UUID, BluetoothLEService> byService, Map<BluetoothLEService, List<UUID>> discovered) {
+        _byService = byService;
+        _discovered = discovered;
+    }
+
+    /**
+     * Match services to what a link discovered
+     * @param services
+     * the services the device supports
+     * @param link
+     * the link, after discovery
+     * @return
+     * the table, covering the services whose GATT service was found
+     */
+    static BluetoothLEServiceTable build(Collection<BluetoothLEService> services, BluetoothLELink link) {
+        Map<UUID, List<UUID>> found = link.getServices();
+        if (found == null) {
+            return EMPTY;
+        }
+
+        Map<UUID, BluetoothLEService> byService = new HashMap<UUID, BluetoothLEService>();
+        Map<BluetoothLEService, List<UUID>> discovered = new HashMap<BluetoothLEService, List<UUID>>();
+
+        for (BluetoothLEService service : services) {
+            List<UUID> characteristics = found.get(service.getServiceUuid());
+            if (characteristics == null) {
+                continue;
+            }
+
+            discovered.put(service, characteristics);
+            byService.put(service.getServiceUuid(), service);
+        }
+
+        return new BluetoothLEServiceTable(byService, discovered);
+    }
+
+    /**
+     * The services whose GATT service was discovered, with the UUIDs of its characteristics
+     */
+    Map<BluetoothLEService, List<UUID>> getDiscoveredServices() {
+        return _discovered;
+    }
+
+    boolean contains(BluetoothLEService service) {
+        return _discovered.containsKey(service);
+    }
+
+    /**
+     * @param service
+     * the GATT service UUID
+     * @return
+     * the service that handles it, or null if none does
+     */
+    BluetoothLEService get(UUID service) {
+        return service == null ? null : _byService.get(service);
+    }
+}
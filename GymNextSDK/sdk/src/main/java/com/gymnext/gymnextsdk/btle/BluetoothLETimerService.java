@@ -1,13 +1,13 @@
 package com.gymnext.gymnextsdk.btle;
 
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
 import android.util.Log;
 
 import com.gymnext.gymnextsdk.timer.DisplayMode;
+import com.gymnext.gymnextsdk.DeviceState;
 import com.gymnext.gymnextsdk.SecureMode;
+import com.gymnext.gymnextsdk.base.CommandTrace;
+import com.gymnext.gymnextsdk.base.CommandTraceStore;
+import com.gymnext.gymnextsdk.base.Trace;
 import com.gymnext.gymnextsdk.timer.StatusMode;
 import com.gymnext.gymnextsdk.timer.TimerSchedule;
 import com.gymnext.gymnextsdk.timer.TimerService;
@@ -15,40 +15,86 @@ import com.gymnext.gymnextsdk.timer.TimerService;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.regex.Pattern;
 
 public class BluetoothLETimerService implements BluetoothLEService, TimerService {
     private static class BluetoothLEOperation {
 
-        private BluetoothGattDescriptor _descriptor;
-        private BluetoothGattCharacteristic _characteristic;
+        private UUID _characteristic;
+        private UUID _descriptor;
         private byte[] _value;
+        private CommandTrace _trace;
 
-        private BluetoothLEOperation(BluetoothGattDescriptor descriptor, byte[] value) {
+        private BluetoothLEOperation(UUID characteristic, UUID descriptor, byte[] value) {
+            _characteristic = characteristic;
             _descriptor = descriptor;
             _value = value;
         }
 
-        private BluetoothLEOperation(BluetoothGattCharacteristic characteristic, byte[] value) {
+        private BluetoothLEOperation(UUID characteristic, byte[] value, CommandTrace trace) {
             _characteristic = characteristic;
             _value = value;
+            _trace = trace;
         }
 
-        public BluetoothGattCharacteristic getCharacteristic() {
+        public UUID getCharacteristic() {
             return _characteristic;
         }
 
-        public BluetoothGattDescriptor getDescriptor() {
+        /**
+         * @return
+         * the descriptor to write, or null to write the characteristic
+         */
+        public UUID getDescriptor() {
             return _descriptor;
         }
 
         public byte[] getValue() {
             return _value;
         }
+
+        public CommandTrace getTrace() {
+            return _trace;
+        }
+    }
+
+    /**
+     * A command whose writes were all acknowledged, waiting for the status frame that answers it
+     */
+    private static class AwaitingAnswer {
+        private final CommandTrace _trace;
+        // what the answer shows the timer doing, null if the command doesn't start or stop it
+        private final Boolean _running;
+        private final long _deadline;
+
+        private AwaitingAnswer(CommandTrace trace, Boolean running, long deadline) {
+            _trace = trace;
+            _running = running;
+            _deadline = deadline;
+        }
+
+        private boolean isAnsweredBy(boolean success, boolean running) {
+            // an error frame carries no state to check
+            return !success || _running == null || _running == running;
+        }
+    }
+
+    private static class BufferedCommand {
+        private final String _string;
+        private final CommandTrace _trace;
+        private final long _time;
+
+        private BufferedCommand(String string, CommandTrace trace, long time) {
+            _string = string;
+            _trace = trace;
+            _time = time;
+        }
     }
 
     // UUIDs for UART service and associated characteristics.
@@ -62,11 +108,45 @@ public class BluetoothLETimerService implements BluetoothLEService, TimerService
 
     public static UUID CLIENT_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
 
+    // Same as BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE
+    private static final byte[] ENABLE_NOTIFICATION_VALUE = {0x01, 0x00};
+
+    // Commands waiting for a connection are dropped, oldest first, past this
+    private static final int MAX_BUFFERED_COMMANDS = 32;
+    // and once they have waited this long (milliseconds), a timer that late is no use
+    private static final long BUFFERED_COMMAND_TTL = 30000;
+    // Commands not answered within this long (milliseconds) of their last acknowledgement are
+    // given up on, the frames that arrived in the meantime didn't show their effect
+    private static final long ANSWER_TIMEOUT = 10000;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // verify and set secure code commands, hidden in command traces
+    private static final Pattern SECURE_CODE_PATTERN = Pattern.compile("(VS|SS)\\?[^;]*");
+
+    private static final int TRACE_NOTIFY = Trace.event("timer.notify", "device", "bytes");
+    private static final int TRACE_BUFFER = Trace.event("timer.command.buffer", "device", "length");
+    private static final int TRACE_COMMAND = Trace.event("timer.command", "device", "trace");
+    private static final int TRACE_WRITE = Trace.event("timer.write", "device", "bytes");
+    private static final int TRACE_SERVICE_NEW = Trace.event("timer.service.new", "device");
+    private static final int TRACE_DISCOVERED = Trace.event("timer.discovered", "device", "warm");
+
     private boolean _sendingInitialCommunication = false;
 
+    // Set up for the current connection
+    private boolean _ready = false;
+
+    // Warm reconnect, see _sendWarmCommunication()
+    private boolean _statusReceived = false;
+    private boolean _verifyingWarmReconnect = false;
+    private int _expectedHardwareVersion;
+    private int _expectedSoftwareVersion;
+    private boolean _expectedPower;
+
     // provided
+    private final BluetoothLEDevice _device;
     private String _secureCode = null;
-    private BluetoothGatt _gatt;
+    private BluetoothLELink _link;
     private String _deviceName;
 
     // Info
@@ -98,29 +178,74 @@ public class BluetoothLETimerService implements BluetoothLEService, TimerService
     private boolean _started = false;
     private boolean _finished = false;
 
-    private BluetoothGattService _service;
-    private BluetoothGattCharacteristic _rxCharacteristic;
-    private BluetoothGattCharacteristic _txCharacteristic;
+    // what discovery found last time, see didDiscoverService()
+    private List<UUID> _characteristics;
 
     private Queue<BluetoothLEOperation> _btleCommandQueue = new LinkedList<BluetoothLEOperation>();
+    // when the operation at the head of the queue was written, for the write latency
+    private long _operationStartTime;
+
+    // Commands whose writes were all acknowledged, oldest first.  A status frame answers the oldest
+    // one whose effect it shows, the device also sends frames nobody asked for.
+    private Queue<AwaitingAnswer> _awaitingAnswer = new LinkedList<AwaitingAnswer>();
+
+    // Commands sent while connecting (or reconnecting after the pool closed the connection),
+    // written once the connection is set up
+    private Queue<BufferedCommand> _bufferedCommands = new LinkedList<BufferedCommand>();
 
     // Constructor
-    public BluetoothLETimerService(String secureCode, BluetoothGatt gatt) {
-        Log.i("BluetoothLETimerService", "Timer Service Constructed");
-        _gatt = gatt;
+    public BluetoothLETimerService(BluetoothLEDevice device) {
+        Trace.record(Trace.INFO, TRACE_SERVICE_NEW, device.getDeviceKey());
+        _device = device;
+        _deviceName = device.getDeviceName();
+    }
+
+    @Override
+    public synchronized void didConnect(BluetoothLELink link, String secureCode) {
         _secureCode = secureCode;
-        _deviceName = gatt.getDevice().getName();
+        if (link.getName() != null) {
+            _deviceName = link.getName();
+        }
+
+        if (link != _link) {
+            // handles from another link are no use
+            _link = link;
+            _characteristics = null;
+        }
+
+        // wait for discovery before writing
+        _ready = false;
+        _clearQueue();
+    }
+
+    @Override
+    public synchronized void didDisconnect() {
+        // keep the service and characteristics, a warm reconnect can reuse them
+        _ready = false;
+        _clearQueue();
+        _sendingInitialCommunication = false;
+        _verifyingWarmReconnect = false;
     }
 
     public String getId() {
         return TimerService.SERVICE_ID;
     }
 
+    @Override
+    public UUID getServiceUuid() {
+        return UART_UUID;
+    }
+
     @Override
     public boolean isSendingInitialCommunication() {
         return _sendingInitialCommunication;
     }
 
+    @Override
+    public synchronized boolean hasPendingOperations() {
+        return !_btleCommandQueue.isEmpty();
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////
     //
     // INFORMATION
@@ -527,51 +652,62 @@ public class BluetoothLETimerService implements BluetoothLEService, TimerService
     }
 
     private boolean _doCommand(String command) {
+        // reconnects the device if the pool closed its connection
+        BluetoothLEDeviceManager.getInstance().getConnectionPool().willSendCommand(_device);
+
         return _writeString(command + ";");
     }
 
-    public void didDiscoverServiceAndCharacteristics(BluetoothGattService service) {
-        Log.i("LETimerService", "didDiscoverServiceAndCharacteristics");
-        if (service.getUuid().equals(UART_UUID)) {
-            Log.i("LETimerService", "Get service, set notification, send initial");
-
-            _service = service;
-            _txCharacteristic = _service.getCharacteristic(TX_UUID);
-            _rxCharacteristic = _service.getCharacteristic(RX_UUID);
+    public synchronized void didDiscoverService(List<UUID> characteristics) {
+        if (!characteristics.contains(TX_UUID) || !characteristics.contains(RX_UUID)) {
+            Log.w("LETimerService", "UART characteristics missing");
+            return;
+        }
+        // the same handles as last time, and we know what state the device was in
+        boolean warm = _statusReceived && characteristics == _characteristics;
+        Trace.record(Trace.INFO, TRACE_DISCOVERED, _device.getDeviceKey(), warm ? 1 : 0);
 
-            Log.i("LETimerService", "TX: " + _txCharacteristic.getUuid());
-            Log.i("LETimerService", "RX: " + _rxCharacteristic.getUuid());
-            Log.i("LETimerService", "Service: " + _service.getUuid());
+        _characteristics = characteristics;
 
-            // Setup notifications on RX characteristic changes (i.e. data received).
-            if (!_gatt.setCharacteristicNotification(_rxCharacteristic, true)) {
-                Log.w("LETimerService", "Characteristic notification setup failed");
-            }
+        // Setup notifications on RX characteristic changes (i.e. data received).
+        if (!_link.setCharacteristicNotification(UART_UUID, RX_UUID, true)) {
+            Log.w("LETimerService", "Characteristic notification setup failed");
+        }
 
-            // Next update the RX characteristic's client descriptor to enable notifications.
-            BluetoothGattDescriptor desc = _rxCharacteristic.getDescriptor(CLIENT_UUID);
-            if (desc == null) {
-                Log.w("LETimerService", "Failed to get descriptor");
-            } else {
-                _addDescriptorWriteToQueue(desc, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-            }
+        // Next update the RX characteristic's client descriptor to enable notifications.
+        _addDescriptorWriteToQueue(RX_UUID, CLIENT_UUID, ENABLE_NOTIFICATION_VALUE);
 
+        _ready = true;
+        if (warm) {
+            _sendWarmCommunication();
+        } else {
             sendInitialCommunication();
         }
+
+        _dropExpiredCommands();
+        while (!_bufferedCommands.isEmpty()) {
+            BufferedCommand command = _bufferedCommands.remove();
+            _write(command._string, command._trace);
+        }
     }
 
-    public void didReceiveUpdateValueForCharacteristic(BluetoothGattCharacteristic characteristic) {
-        Log.i("LETimerService", "Update to " + characteristic.toString());
-        if (characteristic == _rxCharacteristic) {
-            if (characteristic.getStringValue(0).length() >= 10) {
+    public synchronized void didReceiveUpdateValueForCharacteristic(UUID characteristic, byte[] value) {
+        Trace.record(Trace.DEBUG, TRACE_NOTIFY, _device.getDeviceKey(), value.length);
+        _device.getLinkMetrics().didReceiveNotification(value.length);
+        if (RX_UUID.equals(characteristic)) {
+            if (value.length >= 10) {
 
                 int[] data = new int[10];
                 for (int i = 0; i < 10; i++) {
-                    data[i] = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, i);
+                    data[i] = value[i] & 0xFF;
                 }
 
+                // bit 6 of byte 1 is the running flag, see below
+                _didAnswer(data[0] == 0, (data[1] & 64) == 64);
+
                 if (data[0] != 0) {
                     // error
+                    _device.getLinkMetrics().didReceiveStatusError();
                     return;
                 }
 
@@ -652,53 +788,101 @@ public class BluetoothLETimerService implements BluetoothLEService, TimerService
 
                 _hardwareVersion = data[8];
                 _softwareVersion = data[9];
+                _statusReceived = true;
+
+                if (_verifyingWarmReconnect) {
+                    _verifyingWarmReconnect = false;
+
+                    if (_hardwareVersion != _expectedHardwareVersion || _softwareVersion != _expectedSoftwareVersion) {
+                        // updated while we were away, the services may have changed too
+                        Log.i("LETimerService", "Firmware changed, rediscovering");
+                        _characteristics = null;
+                        _link.discoverServices();
+                        return;
+                    }
+                    if (_power != _expectedPower) {
+                        // restarted while we were away
+                        Log.i("LETimerService", "State changed, sending initial communication");
+                        sendInitialCommunication();
+                        return;
+                    }
+                }
 
                 _sendingInitialCommunication = false;
             }
         }
     }
 
-    public void didWriteValueForCharacteristic(BluetoothGattCharacteristic characteristic) {
+    public void didWriteValueForCharacteristic(UUID characteristic) {
         _popQueue();
     }
 
-    public void didWriteValueForDescriptor(BluetoothGattDescriptor descriptor) {
+    public void didWriteValueForDescriptor(UUID characteristic, UUID descriptor) {
         _popQueue();
     }
 
-    public void didReadValueForCharacteristic(BluetoothGattCharacteristic characteristic) {
+    public void didReadValueForCharacteristic(UUID characteristic, byte[] value) {
         // Ignored
     }
 
-    public void didReadValueForDescriptor(BluetoothGattDescriptor descriptor) {
-        // Ignored
+    public synchronized boolean _writeString(String string) {
+        return _write(string, CommandTraceStore.getInstance().begin(_device.getDeviceKey(), _hideSecureCodes(string)));
     }
 
-    public boolean _writeString(String string) {
-            Log.i("LETimerService", "Writing String: " + string + " to " + _txCharacteristic.getUuid());
+    private synchronized boolean _write(String string, CommandTrace trace) {
+            if (!_ready) {
+                // only worth keeping if a connection is on its way
+                DeviceState deviceState = _device.getDeviceState();
+                if (deviceState != DeviceState.Connecting && deviceState != DeviceState.Connected
+                        && !BluetoothLEDeviceManager.getInstance().getConnectionPool().isEvicted(_device)) {
+                    trace.didDrop();
+                    return false;
+                }
+
+                Trace.record(Trace.DEBUG, TRACE_BUFFER, _device.getDeviceKey(), string.length());
+                _dropExpiredCommands();
+                if (_bufferedCommands.size() >= MAX_BUFFERED_COMMANDS) {
+                    _bufferedCommands.remove()._trace.didDrop();
+                }
+                _bufferedCommands.add(new BufferedCommand(string, trace, BluetoothLEDeviceManager.getInstance().getScheduler().currentTimeMillis()));
+                _device.getLinkMetrics().didBufferCommand(_bufferedCommands.size());
+                return true;
+            }
+
+            Trace.record(Trace.DEBUG, TRACE_COMMAND, _device.getDeviceKey(), trace.getId());
+            _device.getLinkMetrics().didSendCommand();
 
             int len = string.length();
             int pos = 0;
+            trace.didQueue((len + 19) / 20);
             while (len != 0) {
                 if (len >= 20) {
-                    byte[] data = string.substring(pos, pos + 20).getBytes(Charset.forName("UTF-8"));
-                    _addCharacteristicWriteToQueue(_txCharacteristic, data);
+                    byte[] data = string.substring(pos, pos + 20).getBytes(UTF8);
+                    _addCharacteristicWriteToQueue(TX_UUID, data, trace);
                     len -= 20;
                     pos += 20;
                 } else {
-                    byte[] data = string.substring(pos, pos + len).getBytes(Charset.forName("UTF-8"));
-                    _addCharacteristicWriteToQueue(_txCharacteristic, data);
+                    byte[] data = string.substring(pos, pos + len).getBytes(UTF8);
+                    _addCharacteristicWriteToQueue(TX_UUID, data, trace);
                     len = 0;
                 }
             }
         return true;
     }
 
+    private synchronized void _dropExpiredCommands() {
+        long expired = BluetoothLEDeviceManager.getInstance().getScheduler().currentTimeMillis() - BUFFERED_COMMAND_TTL;
+        while (!_bufferedCommands.isEmpty() && _bufferedCommands.peek()._time <= expired) {
+            _bufferedCommands.remove()._trace.didDrop();
+        }
+    }
+
     public void sendInitialCommunication() {
 
         _sendingInitialCommunication = true;
 
         Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        c.setTimeInMillis(BluetoothLEDeviceManager.getInstance().getScheduler().currentTimeMillis());
         long now = c.getTimeInMillis();
         c.set(Calendar.HOUR_OF_DAY, 0);
         c.set(Calendar.MINUTE, 0);
@@ -718,44 +902,154 @@ public class BluetoothLETimerService implements BluetoothLEService, TimerService
         sb.append("P1;");
         sb.append("XX"); // Last command must be status request since it can be run in secure and non-secure modes
 
-        _doCommand(sb.toString());
+        _writeString(sb.toString() + ";");
     }
 
 
 
-    private synchronized void _addCharacteristicWriteToQueue(BluetoothGattCharacteristic characteristic, byte[] value) {
-        _btleCommandQueue.add(new BluetoothLEOperation(characteristic, value));
+    /**
+     * Reconnected to the same device using the handles from last time.  The clock, power and
+     * settings were set up on the last connection, so only check the device still is what it was
+     * (same firmware, same power state) and fall back to the full setup if it isn't.
+     */
+    private void _sendWarmCommunication() {
+        _sendingInitialCommunication = true;
+        _verifyingWarmReconnect = true;
+        _expectedHardwareVersion = _hardwareVersion;
+        _expectedSoftwareVersion = _softwareVersion;
+        _expectedPower = _power;
 
-        if (_btleCommandQueue.size() == 1) {
-            Log.i("BluetoothLETimerService", "Write Charactertistic " + value.length);
-            characteristic.setValue(value);
-            _gatt.writeCharacteristic(characteristic);
+        StringBuilder sb = new StringBuilder();
+        if (_secured) {
+            sb.append("VS?").append(_secureCode != null ? _secureCode : "0000").append(";");
         }
+        sb.append("XX");
+
+        _writeString(sb.toString() + ";");
     }
 
-    private synchronized void _addDescriptorWriteToQueue(BluetoothGattDescriptor descriptor, byte[] value) {
-        _btleCommandQueue.add(new BluetoothLEOperation(descriptor, value));
+    private synchronized void _addCharacteristicWriteToQueue(UUID characteristic, byte[] value, CommandTrace trace) {
+        _addToQueue(new BluetoothLEOperation(characteristic, value, trace));
+    }
+
+    private synchronized void _addDescriptorWriteToQueue(UUID characteristic, UUID descriptor, byte[] value) {
+        _addToQueue(new BluetoothLEOperation(characteristic, descriptor, value));
+    }
+
+    private synchronized void _addToQueue(BluetoothLEOperation operation) {
+        _btleCommandQueue.add(operation);
+        _device.getLinkMetrics().didQueueWrite(_btleCommandQueue.size());
 
         if (_btleCommandQueue.size() == 1) {
-            descriptor.setValue(value);
-            _gatt.writeDescriptor(descriptor);
+            BluetoothLEDeviceManager.getInstance().deviceDidBecomeBusy(_device);
+            _startQueue();
         }
     }
 
     private synchronized void _popQueue() {
-        _btleCommandQueue.remove();
+        // write completions can still arrive after the connection was closed
+        BluetoothLEOperation done = _btleCommandQueue.poll();
+        if (done == null) {
+            return;
+        }
+        _device.getLinkMetrics().didAcknowledgeWrite((BluetoothLEDeviceManager.getInstance().getScheduler().nanoTime() - _operationStartTime) / 1000000);
+        if (done.getTrace() != null && done.getTrace().didAcknowledge()) {
+            long deadline = BluetoothLEDeviceManager.getInstance().getScheduler().currentTimeMillis() + ANSWER_TIMEOUT;
+            _awaitingAnswer.add(new AwaitingAnswer(done.getTrace(), _expectedRunning(done.getTrace().getCommand()), deadline));
+        }
 
-        if (_btleCommandQueue.size() > 0) {
+        _startQueue();
+    }
+
+    /**
+     * Start the write at the head of the queue.  Writes the link refuses will never be
+     * acknowledged, so they are dropped rather than holding up the queue.
+     */
+    private void _startQueue() {
+        while (!_btleCommandQueue.isEmpty()) {
             BluetoothLEOperation operation = _btleCommandQueue.element();
-            if (operation.getDescriptor() != null) {
-                operation.getDescriptor().setValue(operation.getValue());
-                _gatt.writeDescriptor(operation.getDescriptor());
-            } else if (operation.getCharacteristic() != null) {
-                operation.getCharacteristic().setValue(operation.getValue());
-                Log.i("BluetoothLETimerService", "Write Charactertistic " + operation.getValue().length);
-                _gatt.writeCharacteristic(operation.getCharacteristic());
+            if (_startOperation(operation)) {
+                return;
+            }
+
+            Log.w("LETimerService", "Write refused");
+            _btleCommandQueue.remove();
+            if (operation.getTrace() != null) {
+                operation.getTrace().didDrop();
+            }
+        }
+    }
+
+    private boolean _startOperation(BluetoothLEOperation operation) {
+        _operationStartTime = BluetoothLEDeviceManager.getInstance().getScheduler().nanoTime();
+        _device.getLinkMetrics().didWrite(operation.getValue().length);
+        if (operation.getTrace() != null) {
+            operation.getTrace().didWrite();
+        }
+
+        if (operation.getDescriptor() != null) {
+            return _link.writeDescriptor(UART_UUID, operation.getCharacteristic(), operation.getDescriptor(), operation.getValue());
+        }
+        Trace.record(Trace.VERBOSE, TRACE_WRITE, _device.getDeviceKey(), operation.getValue().length);
+        return _link.writeCharacteristic(UART_UUID, operation.getCharacteristic(), operation.getValue());
+    }
+
+    /**
+     * Throw away the writes of the last connection, their commands won't be answered
+     */
+    private synchronized void _clearQueue() {
+        for (BluetoothLEOperation operation : _btleCommandQueue) {
+            if (operation.getTrace() != null) {
+                operation.getTrace().didDrop();
+            }
+        }
+        _btleCommandQueue.clear();
+
+        for (AwaitingAnswer awaiting : _awaitingAnswer) {
+            awaiting._trace.didDrop();
+        }
+        _awaitingAnswer.clear();
+    }
+
+    /**
+     * Credit a status frame to the oldest command it answers, and give up on commands that have
+     * waited too long
+     */
+    private synchronized void _didAnswer(boolean success, boolean running) {
+        long now = BluetoothLEDeviceManager.getInstance().getScheduler().currentTimeMillis();
+        Iterator<AwaitingAnswer> iterator = _awaitingAnswer.iterator();
+        while (iterator.hasNext()) {
+            AwaitingAnswer awaiting = iterator.next();
+            if (awaiting._deadline <= now) {
+                iterator.remove();
+                awaiting._trace.didDrop();
+            } else if (awaiting.isAnsweredBy(success, running)) {
+                iterator.remove();
+                awaiting._trace.didAnswer(success);
+                return;
             }
         }
     }
 
+    /**
+     * What a command leaves the timer doing, the last start, pause or reset in it wins
+     * @return
+     * true if it starts the timer, false if it stops it, null if it does neither
+     */
+    private static Boolean _expectedRunning(String command) {
+        Boolean running = null;
+        for (String part : command.split(";")) {
+            if (part.equals("_S")) {
+                running = true;
+            } else if (part.equals("_P") || part.equals("_R")) {
+                running = false;
+            }
+        }
+        return running;
+    }
+
+    private static String _hideSecureCodes(String string) {
+        return SECURE_CODE_PATTERN.matcher(string).replaceAll("$1?****");
+    }
+
 }
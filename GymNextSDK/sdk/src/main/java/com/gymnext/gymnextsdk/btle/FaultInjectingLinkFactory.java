@@ -0,0 +1,552 @@
+package com.gymnext.gymnextsdk.btle;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+
+import com.gymnext.gymnextsdk.base.Scheduler;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes the links another factory opens behave like a bad radio: events from the device arrive
+ * late, acknowledgements and notifications go missing, notifications arrive twice, writes and
+ * discoveries fail with GATT errors, connection attempts fail and connections drop.  Wrap the
+ * factory the SDK uses, e.g. a {@link GattTraceReplayer} to run without a phone:
+ *
+ * FaultInjectingLinkFactory faults = new FaultInjectingLinkFactory(replayer, new Random(1));
+ * faults.setAckLatency(FaultInjectingLinkFactory.Latency.normal(30, 10));
+ * faults.setNotificationDropRate(0.01);
+ * faults.setMeanTimeBetweenDisconnects(600000);
+ * BluetoothLEDeviceManager.getInstance().setLinkFactory(faults);
+ *
+ * Late events are delivered on the device manager's scheduler, so on a VirtualScheduler they
+ * wait for virtual time.  Each event is delayed on its own, so events can overtake each other.
+ * Faults can be changed at any time and apply to the next event.  Requests the SDK makes pass
+ * straight through.
+ */
+public class FaultInjectingLinkFactory implements BluetoothLELink.Factory {
+
+    /**
+     * The status phones report when a connection attempt fails
+     */
+    public static final int GATT_ERROR = 133;
+
+    /**
+     * The status phones report when the device stops answering and the connection is dropped
+     */
+    public static final int GATT_CONNECTION_TIMEOUT = 8;
+
+    /**
+     * How long events are held back, drawn afresh for every event
+     */
+    public abstract static class Latency {
+        public static final Latency NONE = fixed(0);
+
+        /**
+         * @return
+         * the delay in milliseconds
+         */
+        public abstract long next(Random random);
+
+        public static Latency fixed(final long millis) {
+            return new Latency() {
+                @Override
+                public long next(Random random) {
+                    return millis;
+                }
+            };
+        }
+
+        /**
+         * Anywhere between min and max, inclusive
+         */
+        public static Latency uniform(final long min, final long max) {
+            if (max < min) {
+                throw new IllegalArgumentException("max must not be less than min");
+            }
+            return new Latency() {
+                @Override
+                public long next(Random random) {
+                    return min + (long) (random.nextDouble() * (max - min + 1));
+                }
+            };
+        }
+
+        /**
+         * Bell shaped around the mean, never negative
+         */
+        public static Latency normal(final double mean, final double deviation) {
+            return new Latency() {
+                @Override
+                public long next(Random random) {
+                    return Math.max(0, Math.round(mean + random.nextGaussian() * deviation));
+                }
+            };
+        }
+
+        /**
+         * At least min, usually close to it, with a long tail: the occasional event that waits
+         * for a retransmission or a busy radio.
+         * @param min
+         * the shortest delay
+         * @param mean
+         * the average delay, more than min
+         */
+        public static Latency exponential(final long min, final double mean) {
+            if (mean <= min) {
+                throw new IllegalArgumentException("mean must be more than min");
+            }
+            return new Latency() {
+                @Override
+                public long next(Random random) {
+                    return min + Math.round(-Math.log(1 - random.nextDouble()) * (mean - min));
+                }
+            };
+        }
+    }
+
+    private final BluetoothLELink.Factory _factory;
+    private final Random _random;
+    private final Scheduler _scheduler;
+
+    private volatile Latency _ackLatency = Latency.NONE;
+    private volatile Latency _notificationLatency = Latency.NONE;
+    private volatile Latency _connectionLatency = Latency.NONE;
+    private volatile double _ackDropRate = 0;
+    private volatile double _notificationDropRate = 0;
+    private volatile double _notificationDuplicateRate = 0;
+    private volatile double _errorRate = 0;
+    private volatile int _errorStatus = BluetoothGatt.GATT_FAILURE;
+    private volatile double _connectFailureRate = 0;
+    private volatile long _meanTimeBetweenDisconnects = 0;
+
+    private final AtomicLong _delayed = new AtomicLong();
+    private final AtomicLong _droppedAcks = new AtomicLong();
+    private final AtomicLong _droppedNotifications = new AtomicLong();
+    private final AtomicLong _duplicatedNotifications = new AtomicLong();
+    private final AtomicLong _errors = new AtomicLong();
+    private final AtomicLong _failedConnects = new AtomicLong();
+    private final AtomicLong _disconnects = new AtomicLong();
+
+    /**
+     * Delay events on the device manager's scheduler
+     * @param factory
+     * the factory that opens the links to break
+     * @param random
+     * where the faults come from, seed it for repeatable runs
+     */
+    public FaultInjectingLinkFactory(BluetoothLELink.Factory factory, Random random) {
+        this(factory, random, null);
+    }
+
+    /**
+     * @param scheduler
+     * the scheduler to delay events on, or null for the device manager's
+     */
+    public FaultInjectingLinkFactory(BluetoothLELink.Factory factory, Random random, Scheduler scheduler) {
+        _factory = factory;
+        _random = random;
+        _scheduler = scheduler;
+    }
+
+    @Override
+    public BluetoothLELink open(BluetoothLEDevice device, Context context, boolean autoConnect, BluetoothLELink.Listener listener) {
+        FaultyLink link = new FaultyLink(device.getDeviceKey(), listener);
+        link._link = _factory.open(device, context, autoConnect, link);
+        return link._link == null ? null : link;
+    }
+
+    /**
+     * @param latency
+     * how late write and descriptor write acknowledgements arrive
+     */
+    public void setAckLatency(Latency latency) {
+        _ackLatency = latency != null ? latency : Latency.NONE;
+    }
+
+    /**
+     * @param latency
+     * how late notifications and reads arrive
+     */
+    public void setNotificationLatency(Latency latency) {
+        _notificationLatency = latency != null ? latency : Latency.NONE;
+    }
+
+    /**
+     * @param latency
+     * how late connection state changes and discoveries arrive
+     */
+    public void setConnectionLatency(Latency latency) {
+        _connectionLatency = latency != null ? latency : Latency.NONE;
+    }
+
+    /**
+     * @param rate
+     * the fraction of write acknowledgements that never arrive, 0 to 1
+     */
+    public void setAckDropRate(double rate) {
+        _ackDropRate = _checkRate(rate);
+    }
+
+    /**
+     * @param rate
+     * the fraction of notifications that never arrive, 0 to 1
+     */
+    public void setNotificationDropRate(double rate) {
+        _notificationDropRate = _checkRate(rate);
+    }
+
+    /**
+     * @param rate
+     * the fraction of notifications that arrive twice, 0 to 1
+     */
+    public void setNotificationDuplicateRate(double rate) {
+        _notificationDuplicateRate = _checkRate(rate);
+    }
+
+    /**
+     * @param rate
+     * the fraction of acknowledgements, reads and discoveries that report an error, 0 to 1
+     * @param status
+     * the GATT status to report, e.g. BluetoothGatt.GATT_FAILURE
+     */
+    public void setErrorRate(double rate, int status) {
+        _errorRate = _checkRate(rate);
+        _errorStatus = status;
+    }
+
+    /**
+     * @param rate
+     * the fraction of connection attempts that fail with GATT_ERROR, 0 to 1
+     */
+    public void setConnectFailureRate(double rate) {
+        _connectFailureRate = _checkRate(rate);
+    }
+
+    /**
+     * Drop connections at random, as if the device went out of range.  Dropped links report
+     * GATT_CONNECTION_TIMEOUT and stay down until the SDK connects again.
+     * @param millis
+     * the average time a connection lasts, 0 to never drop one
+     */
+    public void setMeanTimeBetweenDisconnects(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis must not be negative");
+        }
+        _meanTimeBetweenDisconnects = millis;
+    }
+
+    /**
+     * The number of events delivered late
+     */
+    public long getDelayedCount() {
+        return _delayed.get();
+    }
+
+    public long getDroppedAckCount() {
+        return _droppedAcks.get();
+    }
+
+    public long getDroppedNotificationCount() {
+        return _droppedNotifications.get();
+    }
+
+    public long getDuplicatedNotificationCount() {
+        return _duplicatedNotifications.get();
+    }
+
+    /**
+     * The number of acknowledgements, reads and discoveries turned into errors
+     */
+    public long getErrorCount() {
+        return _errors.get();
+    }
+
+    public long getFailedConnectCount() {
+        return _failedConnects.get();
+    }
+
+    /**
+     * The number of connections dropped
+     */
+    public long getDisconnectCount() {
+        return _disconnects.get();
+    }
+
+    // PRIVATE METHODS
+
+    private static double _checkRate(double rate) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("rate must be between 0 and 1");
+        }
+        return rate;
+    }
+
+    private boolean _happens(double rate) {
+        return rate > 0 && _random.nextDouble() < rate;
+    }
+
+    private int _status(int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS && _happens(_errorRate)) {
+            _errors.incrementAndGet();
+            return _errorStatus;
+        }
+        return status;
+    }
+
+    private Scheduler _getScheduler() {
+        return _scheduler != null ? _scheduler : BluetoothLEDeviceManager.getInstance().getScheduler();
+    }
+
+    /**
+     * Stands between a link and its listener, breaking what comes back from the device
+     */
+    private final class FaultyLink implements BluetoothLELink, BluetoothLELink.Listener {
+        private final long _deviceKey;
+        private final BluetoothLELink.Listener _listener;
+        private volatile BluetoothLELink _link;
+        private volatile boolean _closed = false;
+
+        // guarded by this
+        private boolean _dropped = false;
+        private Scheduler.Task _disconnectTask;
+
+        private FaultyLink(long deviceKey, BluetoothLELink.Listener listener) {
+            _deviceKey = deviceKey;
+            _listener = listener;
+        }
+
+        @Override
+        public long getDeviceKey() {
+            return _deviceKey;
+        }
+
+        @Override
+        public String getName() {
+            return _link.getName();
+        }
+
+        @Override
+        public Map<UUID, List<UUID>> getServices() {
+            return _link.getServices();
+        }
+
+        @Override
+        public boolean connect() {
+            synchronized (this) {
+                _dropped = false;
+            }
+            return _link.connect();
+        }
+
+        @Override
+        public void disconnect() {
+            _cancelDisconnect();
+            _link.disconnect();
+        }
+
+        @Override
+        public void close() {
+            _closed = true;
+            _cancelDisconnect();
+            _link.close();
+        }
+
+        @Override
+        public boolean discoverServices() {
+            return _link.discoverServices();
+        }
+
+        @Override
+        public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+            return _link.setCharacteristicNotification(service, characteristic, enable);
+        }
+
+        @Override
+        public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value) {
+            return _link.writeCharacteristic(service, characteristic, value);
+        }
+
+        @Override
+        public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+            return _link.writeDescriptor(service, characteristic, descriptor, value);
+        }
+
+        @Override
+        public void onConnectionStateChange(BluetoothLELink link, int status, int newState) {
+            if (newState == BluetoothProfile.STATE_CONNECTED && status == BluetoothGatt.GATT_SUCCESS && _happens(_connectFailureRate)) {
+                _failedConnects.incrementAndGet();
+                _drop(GATT_ERROR);
+                return;
+            }
+
+            final int reportedStatus = status;
+            final int reportedState = newState;
+            synchronized (this) {
+                if (_dropped) {
+                    // we already told the listener the connection went away
+                    return;
+                }
+                if (newState == BluetoothProfile.STATE_CONNECTED) {
+                    _scheduleDisconnect();
+                } else {
+                    _cancelDisconnect();
+                }
+            }
+            _deliver(_connectionLatency, new Runnable() {
+                @Override
+                public void run() {
+                    _listener.onConnectionStateChange(FaultyLink.this, reportedStatus, reportedState);
+                }
+            });
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothLELink link, int status) {
+            final int reportedStatus = _status(status);
+            _deliver(_connectionLatency, new Runnable() {
+                @Override
+                public void run() {
+                    _listener.onServicesDiscovered(FaultyLink.this, reportedStatus);
+                }
+            });
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothLELink link, final UUID service, final UUID characteristic, final byte[] value, int status) {
+            final int reportedStatus = _status(status);
+            _deliver(_notificationLatency, new Runnable() {
+                @Override
+                public void run() {
+                    _listener.onCharacteristicRead(FaultyLink.this, service, characteristic, value, reportedStatus);
+                }
+            });
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothLELink link, final UUID service, final UUID characteristic, int status) {
+            if (_happens(_ackDropRate)) {
+                _droppedAcks.incrementAndGet();
+                return;
+            }
+
+            final int reportedStatus = _status(status);
+            _deliver(_ackLatency, new Runnable() {
+                @Override
+                public void run() {
+                    _listener.onCharacteristicWrite(FaultyLink.this, service, characteristic, reportedStatus);
+                }
+            });
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothLELink link, final UUID service, final UUID characteristic, final UUID descriptor, int status) {
+            if (_happens(_ackDropRate)) {
+                _droppedAcks.incrementAndGet();
+                return;
+            }
+
+            final int reportedStatus = _status(status);
+            _deliver(_ackLatency, new Runnable() {
+                @Override
+                public void run() {
+                    _listener.onDescriptorWrite(FaultyLink.this, service, characteristic, descriptor, reportedStatus);
+                }
+            });
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothLELink link, final UUID service, final UUID characteristic, final byte[] value) {
+            if (_happens(_notificationDropRate)) {
+                _droppedNotifications.incrementAndGet();
+                return;
+            }
+
+            Runnable notification = new Runnable() {
+                @Override
+                public void run() {
+                    _listener.onCharacteristicChanged(FaultyLink.this, service, characteristic, value.clone());
+                }
+            };
+            _deliver(_notificationLatency, notification);
+            if (_happens(_notificationDuplicateRate)) {
+                _duplicatedNotifications.incrementAndGet();
+                _deliver(_notificationLatency, notification);
+            }
+        }
+
+        /**
+         * Pass an event on now or after the latency, unless the link is closed or dropped by then
+         */
+        private void _deliver(Latency latency, final Runnable event) {
+            long delay = latency.next(_random);
+            if (delay <= 0) {
+                if (_isUp()) {
+                    event.run();
+                }
+                return;
+            }
+
+            _delayed.incrementAndGet();
+            _getScheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (_isUp()) {
+                        event.run();
+                    }
+                }
+            }, delay);
+        }
+
+        private synchronized boolean _isUp() {
+            return !_closed && !_dropped;
+        }
+
+        /**
+         * Tell the listener the connection went away and take the real one down quietly
+         */
+        private void _drop(int status) {
+            synchronized (this) {
+                if (_closed || _dropped) {
+                    return;
+                }
+                _dropped = true;
+                _cancelDisconnect();
+            }
+            _link.disconnect();
+            _listener.onConnectionStateChange(this, status, BluetoothProfile.STATE_DISCONNECTED);
+        }
+
+        // guarded by this
+        private void _scheduleDisconnect() {
+            long mean = _meanTimeBetweenDisconnects;
+            if (mean <= 0 || _disconnectTask != null) {
+                return;
+            }
+
+            long delay = Math.round(-Math.log(1 - _random.nextDouble()) * mean);
+            _disconnectTask = _getScheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (FaultyLink.this) {
+                        _disconnectTask = null;
+                    }
+                    _disconnects.incrementAndGet();
+                    _drop(GATT_CONNECTION_TIMEOUT);
+                }
+            }, delay);
+        }
+
+        private synchronized void _cancelDisconnect() {
+            if (_disconnectTask != null) {
+                _disconnectTask.cancel();
+                _disconnectTask = null;
+            }
+        }
+    }
+}
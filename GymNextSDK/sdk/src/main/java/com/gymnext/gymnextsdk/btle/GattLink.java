@@ -0,0 +1,200 @@
+package com.gymnext.gymnextsdk.btle;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A link over an Android GATT client.  Callbacks are passed on on the Binder thread they arrive
+ * on, with the values copied out since the platform reuses its characteristic objects.
+ */
+final class GattLink implements BluetoothLELink {
+    static final BluetoothLELink.Factory FACTORY = new BluetoothLELink.Factory() {
+        @Override
+        public BluetoothLELink open(BluetoothLEDevice device, Context context, boolean autoConnect, Listener listener) {
+            BluetoothDevice btDevice = device.getBtDevice();
+            if (btDevice == null) {
+                return null;
+            }
+
+            GattLink link = new GattLink(device.getDeviceKey(), btDevice, listener);
+            link._gatt = btDevice.connectGatt(context, autoConnect, link._callback);
+            return link.getGatt() == null ? null : link;
+        }
+    };
+
+    private final long _deviceKey;
+    private final BluetoothDevice _btDevice;
+    private final Listener _listener;
+    private volatile BluetoothGatt _gatt;
+    private volatile Map<UUID, List<UUID>> _services;
+
+    private GattLink(long deviceKey, BluetoothDevice btDevice, Listener listener) {
+        _deviceKey = deviceKey;
+        _btDevice = btDevice;
+        _listener = listener;
+    }
+
+    BluetoothGatt getGatt() {
+        return _gatt;
+    }
+
+    @Override
+    public long getDeviceKey() {
+        return _deviceKey;
+    }
+
+    @Override
+    public String getName() {
+        return _btDevice.getName();
+    }
+
+    @Override
+    public Map<UUID, List<UUID>> getServices() {
+        return _services;
+    }
+
+    @Override
+    public boolean connect() {
+        BluetoothGatt gatt = _gatt;
+        return gatt != null && gatt.connect();
+    }
+
+    @Override
+    public void disconnect() {
+        BluetoothGatt gatt = _gatt;
+        if (gatt != null) {
+            gatt.disconnect();
+        }
+    }
+
+    @Override
+    public void close() {
+        BluetoothGatt gatt = _gatt;
+        _gatt = null;
+        if (gatt != null) {
+            gatt.disconnect();
+            gatt.close();
+        }
+    }
+
+    @Override
+    public boolean discoverServices() {
+        BluetoothGatt gatt = _gatt;
+        return gatt != null && gatt.discoverServices();
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+        BluetoothGatt gatt = _gatt;
+        BluetoothGattCharacteristic gattCharacteristic = _characteristic(gatt, service, characteristic);
+        return gattCharacteristic != null && gatt.setCharacteristicNotification(gattCharacteristic, enable);
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value) {
+        BluetoothGatt gatt = _gatt;
+        BluetoothGattCharacteristic gattCharacteristic = _characteristic(gatt, service, characteristic);
+        if (gattCharacteristic == null) {
+            return false;
+        }
+        gattCharacteristic.setValue(value);
+        return gatt.writeCharacteristic(gattCharacteristic);
+    }
+
+    @Override
+    public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+        BluetoothGatt gatt = _gatt;
+        BluetoothGattCharacteristic gattCharacteristic = _characteristic(gatt, service, characteristic);
+        BluetoothGattDescriptor gattDescriptor = gattCharacteristic == null ? null : gattCharacteristic.getDescriptor(descriptor);
+        if (gattDescriptor == null) {
+            return false;
+        }
+        gattDescriptor.setValue(value);
+        return gatt.writeDescriptor(gattDescriptor);
+    }
+
+    // PRIVATE METHODS
+
+    private static BluetoothGattCharacteristic _characteristic(BluetoothGatt gatt, UUID service, UUID characteristic) {
+        BluetoothGattService gattService = gatt == null ? null : gatt.getService(service);
+        return gattService == null ? null : gattService.getCharacteristic(characteristic);
+    }
+
+    private static UUID _serviceUuid(BluetoothGattCharacteristic characteristic) {
+        BluetoothGattService service = characteristic.getService();
+        return service == null ? null : service.getUuid();
+    }
+
+    private static byte[] _copy(byte[] value) {
+        return value == null ? new byte[0] : value.clone();
+    }
+
+    private static Map<UUID, List<UUID>> _describe(BluetoothGatt gatt) {
+        Map<UUID, List<UUID>> services = new LinkedHashMap<UUID, List<UUID>>();
+        List<BluetoothGattService> gattServices = gatt.getServices();
+        if (gattServices != null) {
+            for (BluetoothGattService gattService : gattServices) {
+                List<UUID> characteristics = new ArrayList<UUID>();
+                List<BluetoothGattCharacteristic> gattCharacteristics = gattService.getCharacteristics();
+                if (gattCharacteristics != null) {
+                    for (BluetoothGattCharacteristic characteristic : gattCharacteristics) {
+                        characteristics.add(characteristic.getUuid());
+                    }
+                }
+                services.put(gattService.getUuid(), Collections.unmodifiableList(characteristics));
+            }
+        }
+        return Collections.unmodifiableMap(services);
+    }
+
+    // One callback for the life of the client, it is reused across reconnects
+    private final BluetoothGattCallback _callback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            _listener.onConnectionStateChange(GattLink.this, status, newState);
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            _services = _describe(gatt);
+            _listener.onServicesDiscovered(GattLink.this, status);
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            _listener.onCharacteristicRead(GattLink.this, _serviceUuid(characteristic), characteristic.getUuid(), _copy(characteristic.getValue()), status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            _listener.onCharacteristicWrite(GattLink.this, _serviceUuid(characteristic), characteristic.getUuid(), status);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            BluetoothGattCharacteristic characteristic = descriptor.getCharacteristic();
+            if (characteristic == null) {
+                return;
+            }
+            _listener.onDescriptorWrite(GattLink.this, _serviceUuid(characteristic), characteristic.getUuid(), descriptor.getUuid(), status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            // the characteristic is overwritten by the next notification, so take the value now
+            _listener.onCharacteristicChanged(GattLink.this, _serviceUuid(characteristic), characteristic.getUuid(), _copy(characteristic.getValue()));
+        }
+    };
+}
@@ -0,0 +1,207 @@
+package com.gymnext.gymnextsdk.btle;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Reads a trace written by {@link GattTraceWriter}, one record at a time
+ */
+public class GattTraceReader implements Closeable {
+    private static final GattTraceRecord.Type[] TYPES = GattTraceRecord.Type.values();
+
+    private final DataInputStream _in;
+    private final long _startTime;
+
+    private long _time = 0;
+    private final List<Long> _devices = new ArrayList<Long>();
+    private final List<UUID> _uuids = new ArrayList<UUID>();
+
+    /**
+     * @throws IOException
+     * if the stream doesn't start with a trace header this version can read
+     */
+    public GattTraceReader(InputStream in) throws IOException {
+        _in = new DataInputStream(new BufferedInputStream(in));
+        if (_in.readInt() != GattTraceWriter.MAGIC) {
+            throw new IOException("Not a GATT trace");
+        }
+        int version = _in.readUnsignedByte();
+        if (version != GattTraceWriter.VERSION) {
+            throw new IOException("Unsupported GATT trace version " + version);
+        }
+        _startTime = _in.readLong();
+    }
+
+    /**
+     * @return
+     * when the trace was started, in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return _startTime;
+    }
+
+    /**
+     * Read the next record.  A trace cut off part way through a record (e.g. the app was killed
+     * while recording) ends at the last whole record.
+     * @return
+     * the record, or null at the end of the trace
+     */
+    public GattTraceRecord read() throws IOException {
+        int typeIndex = _in.read();
+        if (typeIndex < 0) {
+            return null;
+        }
+        if (typeIndex >= TYPES.length) {
+            throw new IOException("Unknown GATT trace record type " + typeIndex);
+        }
+
+        try {
+            return _read(TYPES[typeIndex]);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        _in.close();
+    }
+
+    // PRIVATE METHODS
+
+    private GattTraceRecord _read(GattTraceRecord.Type type) throws IOException {
+        _time += _readVarint();
+        long deviceKey = _readDevice();
+
+        switch (type) {
+            case ConnectionStateChange: {
+                int status = (int) _readVarint();
+                int newState = (int) _readVarint();
+                return GattTraceRecord.connectionStateChange(_time, deviceKey, status, newState);
+            }
+            case ServicesDiscovered: {
+                int status = (int) _readVarint();
+                return GattTraceRecord.servicesDiscovered(_time, deviceKey, status, _readServices());
+            }
+            case CharacteristicRead: {
+                UUID service = _readUuid();
+                UUID characteristic = _readUuid();
+                int status = (int) _readVarint();
+                return GattTraceRecord.characteristicRead(_time, deviceKey, service, characteristic, _readValue(), status);
+            }
+            case CharacteristicWrite: {
+                UUID service = _readUuid();
+                UUID characteristic = _readUuid();
+                return GattTraceRecord.characteristicWrite(_time, deviceKey, service, characteristic, (int) _readVarint());
+            }
+            case DescriptorWrite: {
+                UUID service = _readUuid();
+                UUID characteristic = _readUuid();
+                UUID descriptor = _readUuid();
+                return GattTraceRecord.descriptorWrite(_time, deviceKey, service, characteristic, descriptor, (int) _readVarint());
+            }
+            case CharacteristicChanged: {
+                UUID service = _readUuid();
+                UUID characteristic = _readUuid();
+                return GattTraceRecord.characteristicChanged(_time, deviceKey, service, characteristic, _readValue());
+            }
+            case WriteCharacteristic: {
+                UUID service = _readUuid();
+                UUID characteristic = _readUuid();
+                return GattTraceRecord.writeCharacteristic(_time, deviceKey, service, characteristic, _readValue());
+            }
+            case WriteDescriptor: {
+                UUID service = _readUuid();
+                UUID characteristic = _readUuid();
+                UUID descriptor = _readUuid();
+                return GattTraceRecord.writeDescriptor(_time, deviceKey, service, characteristic, descriptor, _readValue());
+            }
+            case SetNotification: {
+                UUID service = _readUuid();
+                UUID characteristic = _readUuid();
+                return GattTraceRecord.setNotification(_time, deviceKey, service, characteristic, _readVarint() != 0);
+            }
+            default:
+                return GattTraceRecord.request(type, _time, deviceKey);
+        }
+    }
+
+    private long _readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = _in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private int _readIndex(int known) throws IOException {
+        long index = _readVarint();
+        if (index > known + 1) {
+            throw new IOException("Bad index " + index);
+        }
+        return (int) index;
+    }
+
+    private long _readDevice() throws IOException {
+        int index = _readIndex(_devices.size());
+        if (index == 0) {
+            throw new IOException("Missing device");
+        }
+        if (index > _devices.size()) {
+            _devices.add(_in.readLong());
+        }
+        return _devices.get(index - 1);
+    }
+
+    private UUID _readUuid() throws IOException {
+        int index = _readIndex(_uuids.size());
+        if (index == 0) {
+            return null;
+        }
+        if (index > _uuids.size()) {
+            long msb = _in.readLong();
+            long lsb = _in.readLong();
+            _uuids.add(new UUID(msb, lsb));
+        }
+        return _uuids.get(index - 1);
+    }
+
+    private byte[] _readValue() throws IOException {
+        long length = _readVarint();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Bad value length " + length);
+        }
+        byte[] value = new byte[(int) length];
+        _in.readFully(value);
+        return value;
+    }
+
+    private Map<UUID, List<UUID>> _readServices() throws IOException {
+        int serviceCount = (int) _readVarint();
+        Map<UUID, List<UUID>> services = new LinkedHashMap<UUID, List<UUID>>();
+        for (int i = 0; i < serviceCount; i++) {
+            UUID service = _readUuid();
+            int characteristicCount = (int) _readVarint();
+            List<UUID> characteristics = new ArrayList<UUID>();
+            for (int j = 0; j < characteristicCount; j++) {
+                characteristics.add(_readUuid());
+            }
+            services.put(service, Collections.unmodifiableList(characteristics));
+        }
+        return Collections.unmodifiableMap(services);
+    }
+}
@@ -0,0 +1,223 @@
+package com.gymnext.gymnextsdk.btle;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * One thing that happened on a link: an event from the device or a request the SDK made.
+ * Immutable, fields that don't apply to the type are null or 0.
+ */
+public final class GattTraceRecord {
+    public enum Type {
+        // from the device
+        ConnectionStateChange(true),
+        ServicesDiscovered(true),
+        CharacteristicRead(true),
+        CharacteristicWrite(true),
+        DescriptorWrite(true),
+        CharacteristicChanged(true),
+
+        // from the SDK
+        Open(false),
+        Connect(false),
+        Disconnect(false),
+        Close(false),
+        DiscoverServices(false),
+        SetNotification(false),
+        WriteCharacteristic(false),
+        WriteDescriptor(false);
+
+        private final boolean _inbound;
+
+        Type(boolean inbound) {
+            _inbound = inbound;
+        }
+
+        /**
+         * @return
+         * true for events from the device, false for requests made by the SDK
+         */
+        public boolean isInbound() {
+            return _inbound;
+        }
+    }
+
+    private final Type _type;
+    private final long _time;
+    private final long _deviceKey;
+    private final UUID _service;
+    private final UUID _characteristic;
+    private final UUID _descriptor;
+    private final int _status;
+    private final int _newState;
+    private final byte[] _value;
+    private final Map<UUID, List<UUID>> _services;
+
+    GattTraceRecord(Type type, long time, long deviceKey, UUID service, UUID characteristic, UUID descriptor, int status, int newState, byte[] value, Map<UUID, List<UUID>> services) {
+        _type = type;
+        _time = time;
+        _deviceKey = deviceKey;
+        _service = service;
+        _characteristic = characteristic;
+        _descriptor = descriptor;
+        _status = status;
+        _newState = newState;
+        _value = value;
+        _services = services;
+    }
+
+    public static GattTraceRecord connectionStateChange(long time, long deviceKey, int status, int newState) {
+        return new GattTraceRecord(Type.ConnectionStateChange, time, deviceKey, null, null, null, status, newState, null, null);
+    }
+
+    /**
+     * @param services
+     * GATT service UUID -> the UUIDs of its characteristics, see BluetoothLELink.getServices()
+     */
+    public static GattTraceRecord servicesDiscovered(long time, long deviceKey, int status, Map<UUID, List<UUID>> services) {
+        return new GattTraceRecord(Type.ServicesDiscovered, time, deviceKey, null, null, null, status, 0, null, services);
+    }
+
+    public static GattTraceRecord characteristicRead(long time, long deviceKey, UUID service, UUID characteristic, byte[] value, int status) {
+        return new GattTraceRecord(Type.CharacteristicRead, time, deviceKey, service, characteristic, null, status, 0, value, null);
+    }
+
+    public static GattTraceRecord characteristicWrite(long time, long deviceKey, UUID service, UUID characteristic, int status) {
+        return new GattTraceRecord(Type.CharacteristicWrite, time, deviceKey, service, characteristic, null, status, 0, null, null);
+    }
+
+    public static GattTraceRecord descriptorWrite(long time, long deviceKey, UUID service, UUID characteristic, UUID descriptor, int status) {
+        return new GattTraceRecord(Type.DescriptorWrite, time, deviceKey, service, characteristic, descriptor, status, 0, null, null);
+    }
+
+    public static GattTraceRecord characteristicChanged(long time, long deviceKey, UUID service, UUID characteristic, byte[] value) {
+        return new GattTraceRecord(Type.CharacteristicChanged, time, deviceKey, service, characteristic, null, 0, 0, value, null);
+    }
+
+    /**
+     * A request without arguments: Open, Connect, Disconnect, Close or DiscoverServices
+     */
+    public static GattTraceRecord request(Type type, long time, long deviceKey) {
+        return new GattTraceRecord(type, time, deviceKey, null, null, null, 0, 0, null, null);
+    }
+
+    public static GattTraceRecord setNotification(long time, long deviceKey, UUID service, UUID characteristic, boolean enable) {
+        return new GattTraceRecord(Type.SetNotification, time, deviceKey, service, characteristic, null, enable ? 1 : 0, 0, null, null);
+    }
+
+    public static GattTraceRecord writeCharacteristic(long time, long deviceKey, UUID service, UUID characteristic, byte[] value) {
+        return new GattTraceRecord(Type.WriteCharacteristic, time, deviceKey, service, characteristic, null, 0, 0, value, null);
+    }
+
+    public static GattTraceRecord writeDescriptor(long time, long deviceKey, UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+        return new GattTraceRecord(Type.WriteDescriptor, time, deviceKey, service, characteristic, descriptor, 0, 0, value, null);
+    }
+
+    public Type getType() {
+        return _type;
+    }
+
+    /**
+     * @return
+     * microseconds since the trace started
+     */
+    public long getTime() {
+        return _time;
+    }
+
+    public long getDeviceKey() {
+        return _deviceKey;
+    }
+
+    public UUID getService() {
+        return _service;
+    }
+
+    public UUID getCharacteristic() {
+        return _characteristic;
+    }
+
+    public UUID getDescriptor() {
+        return _descriptor;
+    }
+
+    /**
+     * @return
+     * the GATT status, or 1 / 0 for enabling / disabling a notification
+     */
+    public int getStatus() {
+        return _status;
+    }
+
+    public int getNewState() {
+        return _newState;
+    }
+
+    /**
+     * @return
+     * the value read, written or notified.  Shared, don't change it.
+     */
+    public byte[] getValue() {
+        return _value;
+    }
+
+    public Map<UUID, List<UUID>> getServices() {
+        return _services;
+    }
+
+    /**
+     * Pass an event from the device on to a listener as if it had just happened
+     * @param link
+     * the link to report it on
+     * @param listener
+     * the listener
+     */
+    public void deliver(BluetoothLELink link, BluetoothLELink.Listener listener) {
+        switch (_type) {
+            case ConnectionStateChange:
+                listener.onConnectionStateChange(link, _status, _newState);
+                break;
+            case ServicesDiscovered:
+                listener.onServicesDiscovered(link, _status);
+                break;
+            case CharacteristicRead:
+                listener.onCharacteristicRead(link, _service, _characteristic, _value.clone(), _status);
+                break;
+            case CharacteristicWrite:
+                listener.onCharacteristicWrite(link, _service, _characteristic, _status);
+                break;
+            case DescriptorWrite:
+                listener.onDescriptorWrite(link, _service, _characteristic, _descriptor, _status);
+                break;
+            case CharacteristicChanged:
+                listener.onCharacteristicChanged(link, _service, _characteristic, _value.clone());
+                break;
+            default:
+                // requests aren't delivered
+                break;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(_time).append("us ").append(_type);
+        if (_characteristic != null) {
+            sb.append(' ').append(_characteristic);
+        }
+        if (_descriptor != null) {
+            sb.append('/').append(_descriptor);
+        }
+        if (_type == Type.ConnectionStateChange) {
+            sb.append(" state=").append(_newState);
+        }
+        if (_status != 0) {
+            sb.append(" status=").append(_status);
+        }
+        if (_value != null) {
+            sb.append(" ").append(_value.length).append("B");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,182 @@
+package com.gymnext.gymnextsdk.btle;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Records everything that happens on the links another factory opens: writes, acknowledgements,
+ * notifications, connection state changes and discoveries, with their timestamps.  Replay the
+ * trace with {@link GattTraceReplayer}.
+ *
+ * BluetoothLEDeviceManager.getInstance().setLinkFactory(new GattTraceRecorder(writer, BluetoothLEDeviceManager.getGattLinkFactory()));
+ *
+ * Events are recorded on the thread they arrive on, before they are passed on.  If writing the
+ * trace fails recording stops, the links carry on.
+ */
+public class GattTraceRecorder implements BluetoothLELink.Factory {
+    private final GattTraceWriter _writer;
+    private final BluetoothLELink.Factory _factory;
+    private volatile boolean _recording = true;
+
+    /**
+     * @param writer
+     * where to write the trace
+     * @param factory
+     * the factory that opens the links to record
+     */
+    public GattTraceRecorder(GattTraceWriter writer, BluetoothLELink.Factory factory) {
+        _writer = writer;
+        _factory = factory;
+    }
+
+    @Override
+    public BluetoothLELink open(BluetoothLEDevice device, Context context, boolean autoConnect, BluetoothLELink.Listener listener) {
+        RecordingLink link = new RecordingLink(device.getDeviceKey(), listener);
+        _record(GattTraceRecord.request(GattTraceRecord.Type.Open, _writer.now(), device.getDeviceKey()));
+        link._link = _factory.open(device, context, autoConnect, link);
+        return link._link == null ? null : link;
+    }
+
+    /**
+     * Stop recording and write out what is buffered.  Links already open carry on unrecorded.
+     */
+    public void stop() {
+        _recording = false;
+        try {
+            _writer.flush();
+        } catch (IOException e) {
+            Log.w("GattTraceRecorder", "Failed to flush trace", e);
+        }
+    }
+
+    public boolean isRecording() {
+        return _recording;
+    }
+
+    // PRIVATE METHODS
+
+    private void _record(GattTraceRecord record) {
+        if (!_recording) {
+            return;
+        }
+
+        try {
+            _writer.write(record);
+        } catch (IOException e) {
+            Log.w("GattTraceRecorder", "Failed to write trace, stopped recording", e);
+            _recording = false;
+        }
+    }
+
+    /**
+     * Records the requests made on a link and the events coming back from it
+     */
+    private final class RecordingLink implements BluetoothLELink, BluetoothLELink.Listener {
+        private final long _deviceKey;
+        private final BluetoothLELink.Listener _listener;
+        private volatile BluetoothLELink _link;
+
+        private RecordingLink(long deviceKey, BluetoothLELink.Listener listener) {
+            _deviceKey = deviceKey;
+            _listener = listener;
+        }
+
+        @Override
+        public long getDeviceKey() {
+            return _deviceKey;
+        }
+
+        @Override
+        public String getName() {
+            return _link.getName();
+        }
+
+        @Override
+        public Map<UUID, List<UUID>> getServices() {
+            return _link.getServices();
+        }
+
+        @Override
+        public boolean connect() {
+            _record(GattTraceRecord.request(GattTraceRecord.Type.Connect, _writer.now(), _deviceKey));
+            return _link.connect();
+        }
+
+        @Override
+        public void disconnect() {
+            _record(GattTraceRecord.request(GattTraceRecord.Type.Disconnect, _writer.now(), _deviceKey));
+            _link.disconnect();
+        }
+
+        @Override
+        public void close() {
+            _record(GattTraceRecord.request(GattTraceRecord.Type.Close, _writer.now(), _deviceKey));
+            _link.close();
+        }
+
+        @Override
+        public boolean discoverServices() {
+            _record(GattTraceRecord.request(GattTraceRecord.Type.DiscoverServices, _writer.now(), _deviceKey));
+            return _link.discoverServices();
+        }
+
+        @Override
+        public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+            _record(GattTraceRecord.setNotification(_writer.now(), _deviceKey, service, characteristic, enable));
+            return _link.setCharacteristicNotification(service, characteristic, enable);
+        }
+
+        @Override
+        public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value) {
+            _record(GattTraceRecord.writeCharacteristic(_writer.now(), _deviceKey, service, characteristic, value));
+            return _link.writeCharacteristic(service, characteristic, value);
+        }
+
+        @Override
+        public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+            _record(GattTraceRecord.writeDescriptor(_writer.now(), _deviceKey, service, characteristic, descriptor, value));
+            return _link.writeDescriptor(service, characteristic, descriptor, value);
+        }
+
+        @Override
+        public void onConnectionStateChange(BluetoothLELink link, int status, int newState) {
+            _record(GattTraceRecord.connectionStateChange(_writer.now(), _deviceKey, status, newState));
+            _listener.onConnectionStateChange(this, status, newState);
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothLELink link, int status) {
+            _record(GattTraceRecord.servicesDiscovered(_writer.now(), _deviceKey, status, link.getServices()));
+            _listener.onServicesDiscovered(this, status);
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothLELink link, UUID service, UUID characteristic, byte[] value, int status) {
+            _record(GattTraceRecord.characteristicRead(_writer.now(), _deviceKey, service, characteristic, value, status));
+            _listener.onCharacteristicRead(this, service, characteristic, value, status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothLELink link, UUID service, UUID characteristic, int status) {
+            _record(GattTraceRecord.characteristicWrite(_writer.now(), _deviceKey, service, characteristic, status));
+            _listener.onCharacteristicWrite(this, service, characteristic, status);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothLELink link, UUID service, UUID characteristic, UUID descriptor, int status) {
+            _record(GattTraceRecord.descriptorWrite(_writer.now(), _deviceKey, service, characteristic, descriptor, status));
+            _listener.onDescriptorWrite(this, service, characteristic, descriptor, status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothLELink link, UUID service, UUID characteristic, byte[] value) {
+            _record(GattTraceRecord.characteristicChanged(_writer.now(), _deviceKey, service, characteristic, value));
+            _listener.onCharacteristicChanged(this, service, characteristic, value);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.gymnext.gymnextsdk.btle;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.gymnext.gymnextsdk.base.LongKeyedMap;
+import com.gymnext.gymnextsdk.base.Scheduler;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays a recorded trace back into the SDK without a device.  Set the replayer as the link factory,
+ * connect the devices in the trace, then run it:
+ *
+ * GattTraceReplayer replayer = new GattTraceReplayer(new GattTraceReader(in));
+ * BluetoothLEDeviceManager.getInstance().setLinkFactory(replayer);
+ * ... connect the devices ...
+ * replayer.run();
+ *
+ * or play(scheduler) to play it on a scheduler without blocking, e.g. on the SDK's VirtualScheduler.
+ *
+ * Events from the devices are delivered at the recorded times, scaled by the speed, to the links
+ * open for those devices at the time.  Events for devices without an open link are skipped.  The
+ * replay doesn't react to what the SDK writes, it plays the trace as recorded; the writes are
+ * counted so they can be compared to the recorded ones.
+ */
+public class GattTraceReplayer implements BluetoothLELink.Factory {
+    private final GattTraceReader _reader;
+    private volatile double _speed = 1;
+
+    private final LongKeyedMap<ReplayLink> _links = new LongKeyedMap<ReplayLink>();
+
+    private final AtomicLong _delivered = new AtomicLong();
+    private final AtomicLong _skipped = new AtomicLong();
+    private final AtomicLong _recordedWrites = new AtomicLong();
+    private final AtomicLong _writes = new AtomicLong();
+
+    public GattTraceReplayer(GattTraceReader reader) {
+        _reader = reader;
+    }
+
+    /**
+     * @param speed
+     * 1 to replay at the recorded pace, 10 for ten times faster, 0 for as fast as possible
+     */
+    public void setSpeed(double speed) {
+        if (speed < 0) {
+            throw new IllegalArgumentException("speed must not be negative");
+        }
+        _speed = speed;
+    }
+
+    @Override
+    public BluetoothLELink open(BluetoothLEDevice device, Context context, boolean autoConnect, BluetoothLELink.Listener listener) {
+        return open(device.getDeviceKey(), listener);
+    }
+
+    /**
+     * Open a link to a device in the trace, for listeners other than the SDK's devices
+     * @param deviceKey
+     * the device, see Device.getDeviceKey()
+     * @param listener
+     * receives the device's recorded events
+     * @return
+     * the link, replacing any link open for the device
+     */
+    public BluetoothLELink open(long deviceKey, BluetoothLELink.Listener listener) {
+        ReplayLink link = new ReplayLink(deviceKey, listener);
+        _links.put(deviceKey, link);
+        return link;
+    }
+
+    /**
+     * Play the whole trace on this thread
+     * @throws IOException
+     * if the trace can't be read
+     * @throws InterruptedException
+     * if interrupted while waiting for the next event
+     */
+    public void run() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+
+        GattTraceRecord record;
+        while ((record = _nextEvent()) != null) {
+            _waitUntil(start, record.getTime());
+            _deliver(record);
+        }
+    }
+
+    /**
+     * Play the trace on a scheduler, one event at a time, and return straight away.  The recorded
+     * times are measured on the scheduler's clock, so on a VirtualScheduler the trace plays as
+     * time is advanced.  Reading stops at the first error.
+     * @param scheduler
+     * the scheduler to deliver events on
+     */
+    public void play(Scheduler scheduler) {
+        _playNext(scheduler, scheduler.nanoTime());
+    }
+
+    /**
+     * The number of events passed on to links
+     */
+    public long getDeliveredCount() {
+        return _delivered.get();
+    }
+
+    /**
+     * The number of events skipped because their device had no open link
+     */
+    public long getSkippedCount() {
+        return _skipped.get();
+    }
+
+    /**
+     * The number of writes in the trace read so far
+     */
+    public long getRecordedWriteCount() {
+        return _recordedWrites.get();
+    }
+
+    /**
+     * The number of writes the SDK made to the replayed links
+     */
+    public long getWriteCount() {
+        return _writes.get();
+    }
+
+    // PRIVATE METHODS
+
+    /**
+     * Read up to the next event from a device, counting the recorded writes on the way
+     */
+    private GattTraceRecord _nextEvent() throws IOException {
+        GattTraceRecord record;
+        while ((record = _reader.read()) != null) {
+            if (record.getType().isInbound()) {
+                return record;
+            }
+            if (record.getType() == GattTraceRecord.Type.WriteCharacteristic || record.getType() == GattTraceRecord.Type.WriteDescriptor) {
+                _recordedWrites.incrementAndGet();
+            }
+        }
+        return null;
+    }
+
+    private void _deliver(GattTraceRecord record) {
+        ReplayLink link = _links.get(record.getDeviceKey());
+        if (link == null || link._closed) {
+            _skipped.incrementAndGet();
+            return;
+        }
+        if (record.getType() == GattTraceRecord.Type.ServicesDiscovered) {
+            link._services = record.getServices();
+        }
+        record.deliver(link, link._listener);
+        _delivered.incrementAndGet();
+    }
+
+    private void _playNext(final Scheduler scheduler, final long start) {
+        final GattTraceRecord record;
+        try {
+            record = _nextEvent();
+        } catch (IOException e) {
+            Log.w("GattTraceReplayer", "Failed to read trace, stopped replaying", e);
+            return;
+        }
+        if (record == null) {
+            return;
+        }
+
+        double speed = _speed;
+        long delay = 0;
+        if (speed != 0) {
+            delay = (start + (long) (record.getTime() * 1000 / speed) - scheduler.nanoTime()) / 1000000;
+        }
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                _deliver(record);
+                _playNext(scheduler, start);
+            }
+        }, delay);
+    }
+
+    private void _waitUntil(long start, long time) throws InterruptedException {
+        double speed = _speed;
+        if (speed == 0) {
+            return;
+        }
+
+        long due = start + (long) (time * 1000 / speed);
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        }
+    }
+
+    /**
+     * Stands in for a device, events come from the trace
+     */
+    private final class ReplayLink implements BluetoothLELink {
+        private final long _deviceKey;
+        private final BluetoothLELink.Listener _listener;
+        private volatile Map<UUID, List<UUID>> _services;
+        private volatile boolean _closed = false;
+
+        private ReplayLink(long deviceKey, BluetoothLELink.Listener listener) {
+            _deviceKey = deviceKey;
+            _listener = listener;
+        }
+
+        @Override
+        public long getDeviceKey() {
+            return _deviceKey;
+        }
+
+        @Override
+        public String getName() {
+            return null;
+        }
+
+        @Override
+        public Map<UUID, List<UUID>> getServices() {
+            return _services;
+        }
+
+        @Override
+        public boolean connect() {
+            return !_closed;
+        }
+
+        @Override
+        public void disconnect() {
+            // the trace decides when the device disconnects
+        }
+
+        @Override
+        public void close() {
+            _closed = true;
+        }
+
+        @Override
+        public boolean discoverServices() {
+            return !_closed;
+        }
+
+        @Override
+        public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+            return !_closed;
+        }
+
+        @Override
+        public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value) {
+            _writes.incrementAndGet();
+            return !_closed;
+        }
+
+        @Override
+        public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+            _writes.incrementAndGet();
+            return !_closed;
+        }
+    }
+}
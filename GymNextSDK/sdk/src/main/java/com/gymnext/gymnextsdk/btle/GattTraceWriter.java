@@ -0,0 +1,204 @@
+package com.gymnext.gymnextsdk.btle;
+
+import com.gymnext.gymnextsdk.base.Clock;
+import com.gymnext.gymnextsdk.base.LongKeyedMap;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Writes link traffic in the binary trace format, read back with {@link GattTraceReader}.
+ *
+ * The format is a header (magic "GTRC", a version byte and the start time in milliseconds since
+ * the epoch as a long) followed by records.  Each record is a type byte, the time since the
+ * previous record in microseconds and then the record's fields.  Numbers are unsigned varints.
+ * Devices and UUIDs are written as indexes in order of first use, starting at 1 (0 is null); an
+ * index one past the last one seen is followed by the 8 byte device key or 16 byte UUID it
+ * stands for.  Values are a varint length followed by the bytes.
+ */
+public class GattTraceWriter implements Closeable {
+    static final int MAGIC = 0x47545243; // "GTRC"
+    static final int VERSION = 1;
+
+    private final DataOutputStream _out;
+    private final Clock _clock;
+    private final long _startTime;
+
+    // guarded by this
+    private long _lastTime = 0;
+    private final LongKeyedMap<Integer> _devices = new LongKeyedMap<Integer>();
+    private final Map<UUID, Integer> _uuids = new HashMap<UUID, Integer>();
+
+    public GattTraceWriter(OutputStream out) throws IOException {
+        this(out, Clock.SYSTEM);
+    }
+
+    /**
+     * @param clock
+     * the clock to stamp records with, e.g. the SDK's scheduler when it runs on virtual time
+     */
+    public GattTraceWriter(OutputStream out, Clock clock) throws IOException {
+        _clock = clock;
+        _startTime = clock.nanoTime();
+        _out = new DataOutputStream(new BufferedOutputStream(out));
+        _out.writeInt(MAGIC);
+        _out.writeByte(VERSION);
+        _out.writeLong(clock.currentTimeMillis());
+    }
+
+    /**
+     * @return
+     * microseconds since the trace started, to stamp records with
+     */
+    public long now() {
+        return (_clock.nanoTime() - _startTime) / 1000;
+    }
+
+    /**
+     * Append a record.  Records should be written in time order, one that is stamped earlier than
+     * the record before it is written at the same time as that one.
+     */
+    public synchronized void write(GattTraceRecord record) throws IOException {
+        long time = Math.max(_lastTime, record.getTime());
+
+        _out.writeByte(record.getType().ordinal());
+        _writeVarint(time - _lastTime);
+        _lastTime = time;
+        _writeDevice(record.getDeviceKey());
+
+        switch (record.getType()) {
+            case ConnectionStateChange:
+                _writeVarint(record.getStatus());
+                _writeVarint(record.getNewState());
+                break;
+            case ServicesDiscovered:
+                _writeVarint(record.getStatus());
+                _writeServices(record.getServices());
+                break;
+            case CharacteristicRead:
+                _writeUuid(record.getService());
+                _writeUuid(record.getCharacteristic());
+                _writeVarint(record.getStatus());
+                _writeValue(record.getValue());
+                break;
+            case CharacteristicWrite:
+                _writeUuid(record.getService());
+                _writeUuid(record.getCharacteristic());
+                _writeVarint(record.getStatus());
+                break;
+            case DescriptorWrite:
+                _writeUuid(record.getService());
+                _writeUuid(record.getCharacteristic());
+                _writeUuid(record.getDescriptor());
+                _writeVarint(record.getStatus());
+                break;
+            case CharacteristicChanged:
+            case WriteCharacteristic:
+                _writeUuid(record.getService());
+                _writeUuid(record.getCharacteristic());
+                _writeValue(record.getValue());
+                break;
+            case WriteDescriptor:
+                _writeUuid(record.getService());
+                _writeUuid(record.getCharacteristic());
+                _writeUuid(record.getDescriptor());
+                _writeValue(record.getValue());
+                break;
+            case SetNotification:
+                _writeUuid(record.getService());
+                _writeUuid(record.getCharacteristic());
+                _writeVarint(record.getStatus());
+                break;
+            default:
+                // requests without arguments
+                break;
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        _out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        _out.close();
+    }
+
+    // PRIVATE METHODS
+
+    private void _writeVarint(long value) throws IOException {
+        // statuses are ints, write negative ones as their unsigned 32 bit value
+        if (value < 0 && value >= Integer.MIN_VALUE) {
+            value &= 0xFFFFFFFFL;
+        }
+        while ((value & ~0x7FL) != 0) {
+            _out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        _out.writeByte((int) value);
+    }
+
+    private void _writeDevice(long deviceKey) throws IOException {
+        Integer index = _devices.get(deviceKey);
+        if (index != null) {
+            _writeVarint(index);
+            return;
+        }
+
+        index = _devices.size() + 1;
+        _devices.put(deviceKey, index);
+        _writeVarint(index);
+        _out.writeLong(deviceKey);
+    }
+
+    private void _writeUuid(UUID uuid) throws IOException {
+        if (uuid == null) {
+            _writeVarint(0);
+            return;
+        }
+
+        Integer index = _uuids.get(uuid);
+        if (index != null) {
+            _writeVarint(index);
+            return;
+        }
+
+        index = _uuids.size() + 1;
+        _uuids.put(uuid, index);
+        _writeVarint(index);
+        _out.writeLong(uuid.getMostSignificantBits());
+        _out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private void _writeValue(byte[] value) throws IOException {
+        if (value == null) {
+            _writeVarint(0);
+            return;
+        }
+        _writeVarint(value.length);
+        _out.write(value);
+    }
+
+    private void _writeServices(Map<UUID, List<UUID>> services) throws IOException {
+        if (services == null) {
+            _writeVarint(0);
+            return;
+        }
+
+        _writeVarint(services.size());
+        for (Map.Entry<UUID, List<UUID>> entry : services.entrySet()) {
+            _writeUuid(entry.getKey());
+            _writeVarint(entry.getValue().size());
+            for (UUID characteristic : entry.getValue()) {
+                _writeUuid(characteristic);
+            }
+        }
+    }
+}
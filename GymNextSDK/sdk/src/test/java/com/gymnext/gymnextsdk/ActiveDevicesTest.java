@@ -0,0 +1,190 @@
+package com.gymnext.gymnextsdk;
+
+import com.gymnext.gymnextsdk.base.VirtualScheduler;
+import com.gymnext.gymnextsdk.btle.BluetoothLEDeviceManager;
+import com.gymnext.gymnextsdk.btle.SilentLinkFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Bulk changes of the active devices, reported as one event
+ */
+public class ActiveDevicesTest
+{
+    private static final Executor DIRECT = new Executor()
+    {
+        @Override
+        public void execute(Runnable command)
+        {
+            command.run();
+        }
+    };
+
+    private TestContext _context;
+    private CentralDeviceManager _manager;
+    private Device _first;
+    private Device _second;
+    private Device _third;
+
+    // ActiveDevicesChanged events, in order
+    private final List<DeviceEvent> _events = Collections.synchronizedList(new ArrayList<DeviceEvent>());
+
+    @Before
+    public void setUp() throws Exception
+    {
+        TestSingletons.reset();
+        _context = new TestContext();
+
+        _manager = CentralDeviceManager.getInstance();
+        _manager.setScheduler(new VirtualScheduler(0));
+        BluetoothLEDeviceManager.getInstance().setLinkFactory(new SilentLinkFactory());
+        _manager.initialize(_context).get();
+
+        _first = TestDevices.add(1);
+        _second = TestDevices.add(2);
+        _third = TestDevices.add(3);
+
+        _manager.getEventBus().subscribe(new DeviceEventListener()
+        {
+            @Override
+            public void onDeviceEvent(DeviceEvent event)
+            {
+                _events.add(event);
+            }
+        }, DeviceEventFilter.ALL.withTypes(EnumSet.of(DeviceEvent.Type.ActiveDevicesChanged)), DIRECT, DeviceEventBus.UNBOUNDED, DeviceEventBus.OverflowPolicy.DropNewest);
+    }
+
+    @After
+    public void tearDown()
+    {
+        _context.delete();
+    }
+
+    @Test
+    public void activateDevicesOnlyReportsWhatChanged()
+    {
+        _manager.activateDevices(Arrays.asList(_first, _second));
+        _manager.activateDevices(Arrays.asList(_second, _third));
+
+        assertTrue(_manager.isActive(_first));
+        assertTrue(_manager.isActive(_second));
+        assertTrue(_manager.isActive(_third));
+
+        assertEquals(2, _events.size());
+        assertEquals(Arrays.asList(_first, _second), _events.get(0).getDevices());
+        assertEquals(Collections.singletonList(_third), _events.get(1).getDevices());
+        assertEquals(0, _events.get(1).getDeactivatedDevices().size());
+
+        // nothing changes, nothing is reported
+        _manager.activateDevices(Collections.singletonList(_third));
+        assertEquals(2, _events.size());
+    }
+
+    @Test
+    public void setActiveDevicesDeactivatesTheRest()
+    {
+        _manager.activateDevices(Arrays.asList(_first, _second));
+        _manager.setActiveDevices(Arrays.asList(_second, _third));
+
+        assertFalse(_manager.isActive(_first));
+        assertTrue(_manager.isActive(_second));
+        assertTrue(_manager.isActive(_third));
+
+        assertEquals(2, _events.size());
+        assertEquals(Collections.singletonList(_third), _events.get(1).getDevices());
+        assertEquals(Collections.singletonList(_first), _events.get(1).getDeactivatedDevices());
+    }
+
+    @Test
+    public void delegatesWithoutTheAdapterHearOfEachDevice() throws InterruptedException
+    {
+        final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(3);
+        _manager.setDelegate(new RecordingDelegate(calls, done));
+
+        _manager.activateDevices(Collections.singletonList(_first));
+        _manager.setActiveDevices(Collections.singletonList(_second));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("activate 1", "deactivate 1", "activate 2"), calls);
+    }
+
+    /**
+     * A delegate written against CentralDeviceManagerDelegate alone
+     */
+    private static final class RecordingDelegate implements CentralDeviceManager.CentralDeviceManagerDelegate
+    {
+        private final List<String> _calls;
+        private final CountDownLatch _done;
+
+        private RecordingDelegate(List<String> calls, CountDownLatch done)
+        {
+            _calls = calls;
+            _done = done;
+        }
+
+        @Override
+        public void deviceDidActivate(CentralDeviceManager centralDeviceManager, Device device)
+        {
+            _calls.add("activate " + device.getDeviceName().substring("Timer ".length()));
+            _done.countDown();
+        }
+
+        @Override
+        public void deviceDidDeactivate(CentralDeviceManager centralDeviceManager, Device device)
+        {
+            _calls.add("deactivate " + device.getDeviceName().substring("Timer ".length()));
+            _done.countDown();
+        }
+
+        @Override
+        public void deviceDidMoveInRange(CentralDeviceManager centralDeviceManager, Device device)
+        {
+        }
+
+        @Override
+        public void deviceDidMoveOutOfRange(CentralDeviceManager centralDeviceManager, Device device)
+        {
+        }
+
+        @Override
+        public void deviceDidConnect(CentralDeviceManager centralDeviceManager, Device device)
+        {
+        }
+
+        @Override
+        public void deviceDidFailToConnect(CentralDeviceManager centralDeviceManager, Device device)
+        {
+        }
+
+        @Override
+        public void deviceDidDisconnect(CentralDeviceManager centralDeviceManager, Device device)
+        {
+        }
+
+        @Override
+        public void deviceManagerDidFinishReconnectingDevices(CentralDeviceManager centralDeviceManager)
+        {
+        }
+
+        @Override
+        public void deviceManagerDidFinishDisconnectingDevices(CentralDeviceManager centralDeviceManager)
+        {
+        }
+    }
+}
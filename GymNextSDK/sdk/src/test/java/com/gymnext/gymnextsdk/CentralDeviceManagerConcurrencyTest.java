@@ -0,0 +1,172 @@
+package com.gymnext.gymnextsdk;
+
+import com.gymnext.gymnextsdk.base.VirtualScheduler;
+import com.gymnext.gymnextsdk.btle.BluetoothLEDeviceManager;
+import com.gymnext.gymnextsdk.btle.SilentLinkFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Calls into CentralDeviceManager from many threads at once, the way the UI, scan and GATT
+ * callback threads do, and checks nothing is lost or done twice.
+ */
+public class CentralDeviceManagerConcurrencyTest
+{
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 200;
+    private static final int DEVICES = 32;
+
+    private TestContext _context;
+    private CentralDeviceManager _manager;
+    private final List<Device> _devices = new ArrayList<Device>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        TestSingletons.reset();
+        _context = new TestContext();
+
+        _manager = CentralDeviceManager.getInstance();
+        _manager.setScheduler(new VirtualScheduler(0));
+        BluetoothLEDeviceManager.getInstance().setLinkFactory(new SilentLinkFactory());
+        _manager.initialize(_context).get();
+
+        for (int i = 0; i < DEVICES; i++)
+        {
+            _devices.add(TestDevices.add(i));
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        _context.delete();
+    }
+
+    @Test
+    public void onlyOneReconnectAllStartsARun() throws Exception
+    {
+        _manager.activateDevices(_devices);
+
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            _manager.disconnectAll();
+
+            final AtomicInteger started = new AtomicInteger();
+            _runTogether(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (_manager.reconnectAll(true))
+                    {
+                        started.incrementAndGet();
+                    }
+                }
+            });
+            assertEquals("round " + round, 1, started.get());
+
+            // nobody else gets in until we disconnect again
+            assertTrue(!_manager.reconnectAll(true));
+        }
+    }
+
+    @Test
+    public void concurrentActivationsAreAllKept() throws Exception
+    {
+        final AtomicInteger next = new AtomicInteger();
+        _runTogether(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (int i = next.getAndIncrement(); i < DEVICES; i = next.getAndIncrement())
+                {
+                    _manager.activateDevice(_devices.get(i), false);
+                }
+            }
+        });
+
+        for (Device device : _devices)
+        {
+            assertTrue(device.getDeviceId(), _manager.isActive(device));
+        }
+        assertEquals(DEVICES, _manager.getActiveDevices(null).size());
+    }
+
+    @Test
+    public void activationsRacingDeactivationsSettle() throws Exception
+    {
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            final Device device = _devices.get(round % DEVICES);
+            final AtomicInteger turn = new AtomicInteger();
+            _runTogether(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (turn.getAndIncrement() % 2 == 0)
+                    {
+                        _manager.activateDevice(device, false);
+                    }
+                    else
+                    {
+                        _manager.deactivateDevice(device);
+                    }
+                }
+            });
+
+            // the lists agree with the id sets whichever call came last
+            boolean active = _manager.isActive(device);
+            assertEquals(active, _manager.getActiveDevices(null).contains(device));
+        }
+    }
+
+    /**
+     * Run the same work on several threads, released at the same moment
+     */
+    private static void _runTogether(final Runnable work) throws Exception
+    {
+        final CyclicBarrier start = new CyclicBarrier(THREADS);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++)
+        {
+            threads[i] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        work.run();
+                    }
+                    catch (Throwable e)
+                    {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+}
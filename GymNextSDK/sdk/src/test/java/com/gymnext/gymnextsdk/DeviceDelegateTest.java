@@ -0,0 +1,124 @@
+package com.gymnext.gymnextsdk;
+
+import com.gymnext.gymnextsdk.btle.BluetoothLEDeviceManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceDelegateTest
+{
+    private DeviceEventBus _bus;
+
+    @Before
+    public void setUp()
+    {
+        TestSingletons.reset();
+        _bus = DeviceEventBus.getInstance();
+    }
+
+    @Test
+    public void aStuckDelegateDoesntHoldUpOthers() throws InterruptedException
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch received = new CountDownLatch(1);
+        _bus.subscribe(new DeviceEventListener()
+        {
+            @Override
+            public void onDeviceEvent(DeviceEvent event)
+            {
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        _bus.subscribe(new DeviceEventListener()
+        {
+            @Override
+            public void onDeviceEvent(DeviceEvent event)
+            {
+                received.countDown();
+            }
+        });
+
+        _bus.publish(new DeviceEvent(DeviceEvent.Type.ReceivedData, TestDevices.create(0), null));
+        try
+        {
+            assertTrue(received.await(5, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void aDeviceThatIsLetGoOfTakesItsDelegate() throws InterruptedException
+    {
+        Device device = TestDevices.create(0);
+        Device.DeviceDelegate delegate = new NoDelegate();
+        device.setDelegate(delegate);
+        assertEquals(1, _bus.getSubscriberCount());
+
+        WeakReference<Device.DeviceDelegate> delegateRef = new WeakReference<Device.DeviceDelegate>(delegate);
+        device = null;
+        delegate = null;
+        for (int i = 0; i < 50 && delegateRef.get() != null; i++)
+        {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(delegateRef.get());
+
+        // the subscription goes with the next event for the device
+        _bus.publish(new DeviceEvent(DeviceEvent.Type.ReceivedData, TestDevices.create(0), null));
+        for (int i = 0; i < 100 && _bus.getSubscriberCount() > 0; i++)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(0, _bus.getSubscriberCount());
+    }
+
+    @Test
+    public void forgettingADeviceDropsItsDelegate()
+    {
+        Device device = TestDevices.add(0);
+        device.setDelegate(new NoDelegate());
+        assertEquals(1, _bus.getSubscriberCount());
+
+        BluetoothLEDeviceManager.getInstance().forgetDevice(device.getDeviceId());
+
+        assertNull(device.getDelegate());
+        assertEquals(0, _bus.getSubscriberCount());
+    }
+
+    private static final class NoDelegate implements Device.DeviceDelegate
+    {
+        @Override
+        public void establishedCommunicationChannel(Device device)
+        {
+        }
+
+        @Override
+        public void sentDataToDevice(Device device)
+        {
+        }
+
+        @Override
+        public void receivedDataFromDevice(Device device)
+        {
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.gymnext.gymnextsdk;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeviceEventBusTest
+{
+    private DeviceEventBus _bus;
+    private ManualExecutor _executor;
+    private Device _device;
+
+    // what the listener got, in order
+    private final List<DeviceEvent> _received = new ArrayList<DeviceEvent>();
+    private final DeviceEventListener _listener = new DeviceEventListener()
+    {
+        @Override
+        public void onDeviceEvent(DeviceEvent event)
+        {
+            _received.add(event);
+        }
+    };
+
+    @Before
+    public void setUp()
+    {
+        TestSingletons.reset();
+        _bus = DeviceEventBus.getInstance();
+        _executor = new ManualExecutor();
+        _device = TestDevices.create(0);
+    }
+
+    @Test
+    public void unboundedSubscribersGetEveryEvent()
+    {
+        DeviceEventBus.Subscription subscription = _bus.subscribe(_listener, DeviceEventFilter.ALL, _executor, DeviceEventBus.UNBOUNDED, DeviceEventBus.OverflowPolicy.DropNewest);
+
+        // far more than the default capacity while the subscriber is stuck
+        for (int i = 0; i < 10 * DeviceEventBus.DEFAULT_QUEUE_CAPACITY; i++)
+        {
+            _bus.publish(new DeviceEvent(DeviceEvent.Type.ReceivedData, _device, "service" + i));
+        }
+        _executor.runAll();
+
+        assertEquals(10 * DeviceEventBus.DEFAULT_QUEUE_CAPACITY, _received.size());
+        assertEquals("service0", _received.get(0).getServiceId());
+        assertEquals(0, subscription.getDroppedCount());
+    }
+
+    @Test
+    public void eventsForOtherServicesAreNotCoalesced()
+    {
+        _bus.subscribe(_listener, DeviceEventFilter.ALL, _executor, 2, DeviceEventBus.OverflowPolicy.Coalesce);
+
+        _bus.publish(new DeviceEvent(DeviceEvent.Type.ReceivedData, _device, "timer"));
+        _bus.publish(new DeviceEvent(DeviceEvent.Type.ReceivedData, _device, "sensor"));
+        _bus.publish(new DeviceEvent(DeviceEvent.Type.ReceivedData, _device, "timer"));
+        _executor.runAll();
+
+        assertEquals(Arrays.asList("sensor", "timer"), _serviceIds());
+    }
+
+    // PRIVATE METHODS
+
+    private List<String> _serviceIds()
+    {
+        List<String> serviceIds = new ArrayList<String>();
+        for (DeviceEvent event : _received)
+        {
+            serviceIds.add(event.getServiceId());
+        }
+        return serviceIds;
+    }
+
+    /**
+     * Holds on to tasks until asked to run them, a subscriber that has fallen behind
+     */
+    private static final class ManualExecutor implements Executor
+    {
+        private final ArrayDeque<Runnable> _tasks = new ArrayDeque<Runnable>();
+
+        @Override
+        public void execute(Runnable task)
+        {
+            _tasks.add(task);
+        }
+
+        void runAll()
+        {
+            Runnable task;
+            while ((task = _tasks.poll()) != null)
+            {
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.gymnext.gymnextsdk;
+
+import com.gymnext.gymnextsdk.base.LinkMetrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DeviceMetricsTest
+{
+    @Test
+    public void reconnectsAreConnectionsAfterTheFirst()
+    {
+        LinkMetrics metrics = new LinkMetrics();
+        metrics.didConnect(100);
+        metrics.didConnect(200);
+        metrics.didConnect(300);
+
+        DeviceMetrics snapshot = new DeviceMetrics("device", metrics);
+        assertEquals(3, snapshot.getConnects());
+        assertEquals(2, snapshot.getReconnects());
+    }
+
+    @Test
+    public void highWaterMarksOnlyRise()
+    {
+        LinkMetrics metrics = new LinkMetrics();
+        metrics.didQueueWrite(1);
+        metrics.didQueueWrite(5);
+        metrics.didQueueWrite(2);
+        metrics.didBufferCommand(3);
+        metrics.didBufferCommand(1);
+
+        assertEquals(5, metrics.getMaxWriteQueueDepth());
+        assertEquals(3, metrics.getMaxBufferedCommands());
+    }
+
+    @Test
+    public void snapshotsSumOverDevices()
+    {
+        LinkMetrics first = new LinkMetrics();
+        first.didSendCommand();
+        first.didWrite(20);
+        first.didQueueWrite(4);
+        first.didAcknowledgeWrite(10);
+        LinkMetrics second = new LinkMetrics();
+        second.didSendCommand();
+        second.didWrite(5);
+        second.didWrite(3);
+        second.didQueueWrite(2);
+        second.didAcknowledgeWrite(500);
+        second.didReceiveStatusError();
+
+        DeviceMetrics sum = new DeviceMetrics(Arrays.asList(new DeviceMetrics("first", first), new DeviceMetrics("second", second)));
+
+        assertNull(sum.getDeviceId());
+        assertEquals(2, sum.getDeviceCount());
+        assertEquals(2, sum.getCommandsSent());
+        assertEquals(3, sum.getWritesSent());
+        assertEquals(28, sum.getBytesSent());
+        assertEquals(1, sum.getStatusErrors());
+        // the deepest queue of any device, not a sum
+        assertEquals(4, sum.getMaxWriteQueueDepth());
+        assertEquals(new DeviceMetrics("second", second).getMaxWriteLatency(), sum.getMaxWriteLatency());
+    }
+}
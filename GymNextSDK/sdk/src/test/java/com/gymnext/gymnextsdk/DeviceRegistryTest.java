@@ -0,0 +1,142 @@
+package com.gymnext.gymnextsdk;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceRegistryTest
+{
+    private DeviceRegistry _registry;
+
+    @Before
+    public void setUp()
+    {
+        TestSingletons.reset();
+        _registry = new DeviceRegistry();
+        _registry.setEnabled(CommunicationMethod.BluetoothLE, true);
+    }
+
+    @Test
+    public void discoveredServicesAreIndexed()
+    {
+        Device device = TestDevices.create(1);
+        device.setServiceIds(_services("timer"));
+        _registry.add(device, false);
+        assertEquals(Collections.singletonList(device), _registry.getDevices("timer"));
+
+        device.setServiceIds(_services("timer", "sensor"));
+        assertEquals(Collections.singletonList(device), _registry.getDevices("sensor"));
+
+        device.setServiceIds(_services("sensor"));
+        assertTrue(_registry.getDevices("timer").isEmpty());
+        assertEquals(Collections.singletonList(device), _registry.getDevices("sensor"));
+    }
+
+    @Test
+    public void removedDevicesLeaveTheServiceIndex()
+    {
+        Device first = TestDevices.create(1);
+        Device second = TestDevices.create(2);
+        first.setServiceIds(_services("timer"));
+        second.setServiceIds(_services("timer"));
+        _registry.add(first, false);
+        _registry.add(second, false);
+
+        _registry.remove(first.getDeviceId());
+        assertEquals(Collections.singletonList(second), _registry.getDevices("timer"));
+
+        // a removed device is no longer followed
+        first.setServiceIds(_services("sensor"));
+        assertTrue(_registry.getDevices("sensor").isEmpty());
+
+        _registry.remove(second.getDeviceId());
+        assertTrue(_registry.getDevices("timer").isEmpty());
+    }
+
+    @Test
+    public void snapshotsDontChangeWhenDevicesAreRemoved()
+    {
+        Device first = TestDevices.create(1);
+        Device second = TestDevices.create(2);
+        _registry.add(first, false);
+        _registry.add(second, false);
+
+        List<Device> before = _registry.getDevices(null);
+        _registry.remove(first.getDeviceId());
+
+        assertEquals(Arrays.asList(first, second), before);
+        assertEquals(Collections.singletonList(second), _registry.getDevices(null));
+    }
+
+    @Test
+    public void readersSeeWholeSnapshotsWhileDevicesAreRemoved() throws Exception
+    {
+        final int count = 2000;
+        final List<Device> devices = new ArrayList<Device>();
+        for (int i = 0; i < count; i++)
+        {
+            Device device = TestDevices.create(i);
+            device.setServiceIds(_services("timer"));
+            _registry.add(device, false);
+            devices.add(device);
+        }
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread reader = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                int last = count;
+                while (!done.get() && failure.get() == null)
+                {
+                    try
+                    {
+                        List<Device> snapshot = _registry.getDevices("timer");
+                        // devices go from the front, so a snapshot is always the tail of the list
+                        if (snapshot.size() > last || !snapshot.equals(devices.subList(count - snapshot.size(), count)))
+                        {
+                            failure.set("got " + snapshot.size() + " devices after " + last);
+                        }
+                        last = snapshot.size();
+                    }
+                    catch (RuntimeException e)
+                    {
+                        failure.set(e.toString());
+                    }
+                }
+            }
+        });
+        reader.start();
+
+        for (Device device : devices)
+        {
+            _registry.remove(device.getDeviceId());
+        }
+        done.set(true);
+        reader.join();
+
+        assertNull(failure.get());
+        assertTrue(_registry.getDevices("timer").isEmpty());
+    }
+
+    // PRIVATE METHODS
+
+    private static Set<String> _services(String... serviceIds)
+    {
+        return new HashSet<String>(Arrays.asList(serviceIds));
+    }
+}
@@ -0,0 +1,73 @@
+package com.gymnext.gymnextsdk;
+
+import com.gymnext.gymnextsdk.base.ManualTickSource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameAlignedDeliveryTest
+{
+    private DeviceEventBus _bus;
+    private ManualTickSource _tickSource;
+    private FrameAlignedDelivery _delivery;
+
+    // what the listener got, in order
+    private final List<DeviceBatch> _batches = new ArrayList<DeviceBatch>();
+
+    @Before
+    public void setUp()
+    {
+        TestSingletons.reset();
+        _bus = DeviceEventBus.getInstance();
+        _tickSource = new ManualTickSource();
+        _delivery = new FrameAlignedDelivery(_bus, DeviceEventFilter.ALL, _tickSource, new DeviceBatchListener()
+        {
+            @Override
+            public void devicesDidChange(DeviceBatch batch)
+            {
+                _batches.add(batch);
+            }
+        });
+        _delivery.start();
+    }
+
+    @Test
+    public void eventsBetweenTicksArriveTogether()
+    {
+        Device first = TestDevices.create(0);
+        Device second = TestDevices.create(1);
+        _bus.publish(new DeviceEvent(DeviceEvent.Type.ReceivedData, first, "timer"));
+        _bus.publish(new DeviceEvent(DeviceEvent.Type.ReceivedData, second, "timer"));
+        _bus.publish(new DeviceEvent(DeviceEvent.Type.ReceivedData, first, "timer"));
+
+        assertTrue(_batches.isEmpty());
+        _tickSource.tick();
+
+        assertEquals(1, _batches.size());
+        assertEquals(Arrays.<Device>asList(first, second), _batches.get(0).getChangedDevices());
+
+        // nothing changed, nothing to deliver and no tick asked for
+        assertFalse(_tickSource.hasPendingTicks());
+        _tickSource.tick();
+        assertEquals(1, _batches.size());
+    }
+
+    @Test
+    public void stoppingDropsWhatWasCollected()
+    {
+        _bus.publish(new DeviceEvent(DeviceEvent.Type.ReceivedData, TestDevices.create(0), "timer"));
+        _delivery.stop();
+
+        assertFalse(_tickSource.hasPendingTicks());
+        _tickSource.tick();
+        assertTrue(_batches.isEmpty());
+    }
+}
@@ -0,0 +1,194 @@
+package com.gymnext.gymnextsdk;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Preferences kept in memory, for tests
+ */
+public class InMemoryPreferences implements SharedPreferences
+{
+    // guarded by this
+    private final Map<String, Object> _values = new HashMap<String, Object>();
+    private final CopyOnWriteArrayList<OnSharedPreferenceChangeListener> _listeners = new CopyOnWriteArrayList<OnSharedPreferenceChangeListener>();
+
+    @Override
+    public synchronized Map<String, ?> getAll()
+    {
+        return new HashMap<String, Object>(_values);
+    }
+
+    @Override
+    public synchronized String getString(String key, String defValue)
+    {
+        Object value = _values.get(key);
+        return value != null ? (String) value : defValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized Set<String> getStringSet(String key, Set<String> defValues)
+    {
+        Object value = _values.get(key);
+        return value != null ? new HashSet<String>((Set<String>) value) : defValues;
+    }
+
+    @Override
+    public synchronized int getInt(String key, int defValue)
+    {
+        Object value = _values.get(key);
+        return value != null ? (Integer) value : defValue;
+    }
+
+    @Override
+    public synchronized long getLong(String key, long defValue)
+    {
+        Object value = _values.get(key);
+        return value != null ? (Long) value : defValue;
+    }
+
+    @Override
+    public synchronized float getFloat(String key, float defValue)
+    {
+        Object value = _values.get(key);
+        return value != null ? (Float) value : defValue;
+    }
+
+    @Override
+    public synchronized boolean getBoolean(String key, boolean defValue)
+    {
+        Object value = _values.get(key);
+        return value != null ? (Boolean) value : defValue;
+    }
+
+    @Override
+    public synchronized boolean contains(String key)
+    {
+        return _values.containsKey(key);
+    }
+
+    @Override
+    public Editor edit()
+    {
+        return new InMemoryEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener)
+    {
+        _listeners.addIfAbsent(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener)
+    {
+        _listeners.remove(listener);
+    }
+
+    private class InMemoryEditor implements Editor
+    {
+        // null values are removals
+        private final Map<String, Object> _changes = new HashMap<String, Object>();
+        private boolean _clear = false;
+
+        @Override
+        public Editor putString(String key, String value)
+        {
+            _changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values)
+        {
+            _changes.put(key, values != null ? new HashSet<String>(values) : null);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value)
+        {
+            _changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value)
+        {
+            _changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value)
+        {
+            _changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value)
+        {
+            _changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key)
+        {
+            _changes.put(key, null);
+            return this;
+        }
+
+        @Override
+        public Editor clear()
+        {
+            _clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit()
+        {
+            InMemoryPreferences preferences = InMemoryPreferences.this;
+            synchronized (preferences)
+            {
+                if (_clear)
+                {
+                    _values.clear();
+                }
+                for (Map.Entry<String, Object> change : _changes.entrySet())
+                {
+                    if (change.getValue() == null)
+                    {
+                        _values.remove(change.getKey());
+                    }
+                    else
+                    {
+                        _values.put(change.getKey(), change.getValue());
+                    }
+                }
+            }
+
+            for (OnSharedPreferenceChangeListener listener : _listeners)
+            {
+                for (String key : _changes.keySet())
+                {
+                    listener.onSharedPreferenceChanged(preferences, key);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void apply()
+        {
+            commit();
+        }
+    }
+}
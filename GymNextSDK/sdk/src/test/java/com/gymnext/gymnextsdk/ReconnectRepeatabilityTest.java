@@ -0,0 +1,128 @@
+package com.gymnext.gymnextsdk;
+
+import android.content.Context;
+
+import com.gymnext.gymnextsdk.base.Scheduler;
+import com.gymnext.gymnextsdk.base.VirtualScheduler;
+import com.gymnext.gymnextsdk.btle.BluetoothLEDevice;
+import com.gymnext.gymnextsdk.btle.BluetoothLEDeviceManager;
+import com.gymnext.gymnextsdk.btle.BluetoothLELink;
+import com.gymnext.gymnextsdk.btle.SilentLinkFactory;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A reconnect run against devices that never answer, on virtual time with seeded back-off jitter,
+ * goes the same way every time.
+ */
+public class ReconnectRepeatabilityTest
+{
+    private static final int DEVICES = 6;
+    private static final long SEED = 20151019;
+
+    // long enough for every attempt to time out and every back-off to run out
+    private static final long RUN_TIME = ReconnectScheduler.MAX_ATTEMPTS * (ReconnectScheduler.ATTEMPT_DEADLINE + ReconnectScheduler.MAX_BACKOFF);
+
+    @Test
+    public void seededRunsRepeat() throws Exception
+    {
+        List<String> first = _run(new Random(SEED));
+        List<String> second = _run(new Random(SEED));
+
+        // every device is tried more than once, so the back-offs are in there
+        assertTrue(first.toString(), first.size() > DEVICES);
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void differentSeedsJitterDifferently() throws Exception
+    {
+        assertNotEquals(_run(new Random(SEED)), _run(new Random(SEED + 1)));
+    }
+
+    // PRIVATE METHODS
+
+    /**
+     * Reconnect to devices that never answer until the run gives up
+     * @return
+     * when each connection attempt was made, in milliseconds since the run started
+     */
+    private static List<String> _run(Random random) throws Exception
+    {
+        TestSingletons.reset();
+        TestContext context = new TestContext();
+        try
+        {
+            VirtualScheduler scheduler = new VirtualScheduler(0);
+            RecordingLinkFactory factory = new RecordingLinkFactory(scheduler);
+
+            CentralDeviceManager manager = CentralDeviceManager.getInstance();
+            manager.setScheduler(scheduler);
+            manager.setReconnectRandom(random);
+            BluetoothLEDeviceManager.getInstance().setLinkFactory(factory);
+            manager.initialize(context).get();
+
+            List<Device> devices = new ArrayList<Device>();
+            for (int i = 0; i < DEVICES; i++)
+            {
+                devices.add(TestDevices.add(i));
+            }
+            manager.activateDevices(devices);
+            manager.disconnectAll();
+            scheduler.advance(RUN_TIME);
+
+            factory.start();
+            assertTrue(manager.reconnectAll(true));
+            scheduler.advance(RUN_TIME);
+            return factory.getAttempts();
+        }
+        finally
+        {
+            context.delete();
+        }
+    }
+
+    /**
+     * Notes when each link is opened
+     */
+    private static final class RecordingLinkFactory extends SilentLinkFactory
+    {
+        private final Scheduler _scheduler;
+        private final List<String> _attempts = Collections.synchronizedList(new ArrayList<String>());
+        private volatile long _start = -1;
+
+        private RecordingLinkFactory(Scheduler scheduler)
+        {
+            _scheduler = scheduler;
+        }
+
+        void start()
+        {
+            _start = _scheduler.currentTimeMillis();
+        }
+
+        List<String> getAttempts()
+        {
+            return new ArrayList<String>(_attempts);
+        }
+
+        @Override
+        public BluetoothLELink open(BluetoothLEDevice device, Context context, boolean autoConnect, BluetoothLELink.Listener listener)
+        {
+            if (_start >= 0)
+            {
+                _attempts.add((_scheduler.currentTimeMillis() - _start) + "ms " + device.getDeviceId());
+            }
+            return super.open(device, context, autoConnect, listener);
+        }
+    }
+}
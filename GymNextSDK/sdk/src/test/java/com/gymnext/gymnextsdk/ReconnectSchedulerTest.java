@@ -0,0 +1,215 @@
+package com.gymnext.gymnextsdk;
+
+import com.gymnext.gymnextsdk.base.VirtualScheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReconnectSchedulerTest
+{
+    private VirtualScheduler _scheduler;
+    private ReconnectScheduler _reconnectScheduler;
+
+    // what the scheduler asked for, guarded by this
+    private final List<Device> _connects = new ArrayList<Device>();
+    private ReconnectSummary _summary;
+
+    @Before
+    public void setUp()
+    {
+        TestSingletons.reset();
+        _scheduler = new VirtualScheduler(0);
+        _reconnectScheduler = new ReconnectScheduler(new ReconnectScheduler.Callback()
+        {
+            @Override
+            public void connect(Device device)
+            {
+                // never answers
+                synchronized (ReconnectSchedulerTest.this)
+                {
+                    _connects.add(device);
+                }
+            }
+
+            @Override
+            public void didFinish(ReconnectSummary summary)
+            {
+                synchronized (ReconnectSchedulerTest.this)
+                {
+                    _summary = summary;
+                }
+            }
+        });
+        _reconnectScheduler.setScheduler(_scheduler);
+    }
+
+    @Test
+    public void persistentDevicesAreArmedWithoutHoldingUpTheRun()
+    {
+        Device persistent = TestDevices.create(1);
+        persistent.setPersistent(true);
+
+        _reconnectScheduler.start(Collections.singletonList(persistent));
+
+        assertEquals(Collections.singletonList(persistent), _connects);
+        assertNotNull(_summary);
+        assertEquals(Collections.singletonList(persistent), _summary.getArmedDevices());
+        assertEquals(0, _summary.getFailedDevices().size());
+    }
+
+    @Test
+    public void attemptsThatNeverAnswerExpire()
+    {
+        Device silent = TestDevices.create(1);
+        Device persistent = TestDevices.create(2);
+        persistent.setPersistent(true);
+
+        _reconnectScheduler.start(Arrays.asList(silent, persistent));
+        assertNull(_summary);
+
+        _scheduler.advance(ReconnectScheduler.MAX_ATTEMPTS * (ReconnectScheduler.ATTEMPT_DEADLINE + ReconnectScheduler.MAX_BACKOFF));
+
+        assertNotNull(_summary);
+        assertEquals(Collections.singletonList(silent), _summary.getFailedDevices());
+        assertEquals(Collections.singletonList(persistent), _summary.getArmedDevices());
+        assertEquals(ReconnectScheduler.MAX_ATTEMPTS + 1, _summary.getAttempts());
+    }
+
+    @Test
+    public void noMoreThanTheCapAreInFlight()
+    {
+        List<Device> devices = _create(5);
+        _reconnectScheduler.setMaxConcurrentConnections(2);
+
+        _reconnectScheduler.start(devices);
+        assertEquals(devices.subList(0, 2), _connects);
+
+        // each answer makes room for the next one
+        _reconnectScheduler.deviceDidConnect(devices.get(1));
+        assertEquals(devices.subList(0, 3), _connects);
+        _reconnectScheduler.deviceDidFailToConnect(devices.get(0));
+        assertEquals(devices.subList(0, 4), _connects);
+    }
+
+    @Test
+    public void devicesAreTriedInPriorityOrder()
+    {
+        List<Device> devices = _create(4);
+        _reconnectScheduler.setMaxConcurrentConnections(1);
+
+        _reconnectScheduler.start(devices);
+        // added later, so after the others however it compares
+        Device late = TestDevices.create(0);
+        _reconnectScheduler.add(Collections.singletonList(late));
+
+        for (Device device : devices)
+        {
+            _reconnectScheduler.deviceDidConnect(device);
+        }
+        List<Device> expected = new ArrayList<Device>(devices);
+        expected.add(late);
+        assertEquals(expected, _connects);
+    }
+
+    @Test
+    public void retriesWaitForTheSeededBackoff()
+    {
+        final long seed = 20151019;
+        Device device = TestDevices.create(1);
+        _reconnectScheduler.setRandom(new Random(seed));
+
+        _reconnectScheduler.start(Collections.singletonList(device));
+        _reconnectScheduler.deviceDidFailToConnect(device);
+
+        // the first retry waits between half and all of the base back-off
+        long backoff = ReconnectScheduler.BASE_BACKOFF / 2 + (long) (new Random(seed).nextDouble() * (ReconnectScheduler.BASE_BACKOFF / 2));
+        assertTrue(backoff >= ReconnectScheduler.BASE_BACKOFF / 2 && backoff <= ReconnectScheduler.BASE_BACKOFF);
+
+        _scheduler.advance(backoff - 1);
+        assertEquals(1, _connects.size());
+        _scheduler.advance(1);
+        assertEquals(2, _connects.size());
+    }
+
+    @Test
+    public void devicesAreGivenUpOnAfterTheLastAttempt()
+    {
+        Device device = TestDevices.create(1);
+
+        _reconnectScheduler.start(Collections.singletonList(device));
+        for (int i = 1; i < ReconnectScheduler.MAX_ATTEMPTS; i++)
+        {
+            _reconnectScheduler.deviceDidFailToConnect(device);
+            _scheduler.advance(ReconnectScheduler.MAX_BACKOFF);
+            assertNull(_summary);
+        }
+        _reconnectScheduler.deviceDidFailToConnect(device);
+
+        assertEquals(ReconnectScheduler.MAX_ATTEMPTS, _connects.size());
+        assertNotNull(_summary);
+        assertEquals(Collections.singletonList(device), _summary.getFailedDevices());
+        assertEquals(ReconnectScheduler.MAX_ATTEMPTS, _summary.getAttempts());
+
+        // no retry is left behind
+        _scheduler.advance(ReconnectScheduler.MAX_ATTEMPTS * (ReconnectScheduler.ATTEMPT_DEADLINE + ReconnectScheduler.MAX_BACKOFF));
+        assertEquals(ReconnectScheduler.MAX_ATTEMPTS, _connects.size());
+    }
+
+    @Test
+    public void retriesFromAnEarlierRunAreIgnored()
+    {
+        Device device = TestDevices.create(1);
+        // the first back-off is the shortest there is, the second close to the longest
+        _reconnectScheduler.setRandom(new Random()
+        {
+            private boolean _first = true;
+
+            @Override
+            public double nextDouble()
+            {
+                double value = _first ? 0 : 0.99;
+                _first = false;
+                return value;
+            }
+        });
+
+        _reconnectScheduler.start(Collections.singletonList(device));
+        _reconnectScheduler.deviceDidFailToConnect(device);
+        _scheduler.advance(100);
+
+        // a new run, the device is waiting out a longer back-off in it
+        _reconnectScheduler.start(Collections.singletonList(device));
+        _reconnectScheduler.deviceDidFailToConnect(device);
+        assertEquals(2, _connects.size());
+
+        // the first run's retry is due, but belongs to a run that is over
+        _scheduler.advance(ReconnectScheduler.BASE_BACKOFF / 2);
+        assertEquals(2, _connects.size());
+
+        _scheduler.advance(ReconnectScheduler.BASE_BACKOFF / 2);
+        assertEquals(3, _connects.size());
+    }
+
+    // PRIVATE METHODS
+
+    private static List<Device> _create(int count)
+    {
+        List<Device> devices = new ArrayList<Device>();
+        for (int i = 1; i <= count; i++)
+        {
+            devices.add(TestDevices.create(i));
+        }
+        return devices;
+    }
+}
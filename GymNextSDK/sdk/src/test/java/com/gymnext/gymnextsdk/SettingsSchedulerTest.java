@@ -0,0 +1,63 @@
+package com.gymnext.gymnextsdk;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.gymnext.gymnextsdk.base.VirtualScheduler;
+import com.gymnext.gymnextsdk.btle.BluetoothLEDeviceManager;
+import com.gymnext.gymnextsdk.btle.SilentLinkFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Settings are written on the scheduler given to setScheduler(), even one set after initialize()
+ */
+public class SettingsSchedulerTest
+{
+    // a little over CentralDeviceManager.SETTINGS_WRITE_DELAY
+    private static final long WRITTEN = 501;
+
+    private TestContext _context;
+    private CentralDeviceManager _manager;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        TestSingletons.reset();
+        _context = new TestContext();
+        _manager = CentralDeviceManager.getInstance();
+        BluetoothLEDeviceManager.getInstance().setLinkFactory(new SilentLinkFactory());
+        _manager.initialize(_context).get();
+    }
+
+    @After
+    public void tearDown()
+    {
+        _context.delete();
+    }
+
+    @Test
+    public void settingsAreWrittenOnVirtualTime()
+    {
+        VirtualScheduler scheduler = new VirtualScheduler(0);
+        _manager.setScheduler(scheduler);
+        Device device = TestDevices.add(1);
+
+        _manager.setDeviceAlias(device, "Rig 1");
+        scheduler.advance(WRITTEN - 2);
+        assertNull(_aliases().getString(device.getDeviceId(), null));
+
+        scheduler.advance(2);
+        assertEquals("Rig 1", _aliases().getString(device.getDeviceId(), null));
+    }
+
+    private SharedPreferences _aliases()
+    {
+        return _context.getSharedPreferences("gymnext_device_aliases.pref", Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,97 @@
+package com.gymnext.gymnextsdk;
+
+import android.content.Context;
+
+import com.gymnext.gymnextsdk.base.VirtualScheduler;
+import com.gymnext.gymnextsdk.btle.BluetoothLEDeviceManager;
+import com.gymnext.gymnextsdk.btle.SilentLinkFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures starting up with thousands of stored devices: the call to initialize(), loading in
+ * the background, and the first device list, which is when the rest of the registry is read.
+ * The calls an app makes on the UI thread must return quickly without waiting for loading, and
+ * only the first device list may pay for reading the registry.
+ */
+public class StartupBenchmarkTest
+{
+    private static final int STORED_DEVICES = 5000;
+    private static final int ACTIVE_DEVICES = 4;
+    // what a call on the UI thread may take, in milliseconds, far more than it should need
+    private static final long INTERACTIVE_BUDGET = 250;
+
+    private TestContext _context;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        TestSingletons.reset();
+        _context = new TestContext();
+
+        // a previous run of the app stored the devices and left a few active
+        BluetoothLEDeviceManager.getInstance().initialize(_context);
+        Set<String> activeDeviceIds = new HashSet<String>();
+        for (int i = 0; i < STORED_DEVICES; i++)
+        {
+            TestDevices.add(i);
+            if (i < ACTIVE_DEVICES)
+            {
+                activeDeviceIds.add(TestDevices.deviceId(i));
+            }
+        }
+        _context.getSharedPreferences("gymnext_active_device_ids.pref", Context.MODE_PRIVATE).edit().putStringSet("active_devices", activeDeviceIds).commit();
+
+        TestSingletons.reset();
+        CentralDeviceManager.getInstance().setScheduler(new VirtualScheduler(0));
+        BluetoothLEDeviceManager.getInstance().setLinkFactory(new SilentLinkFactory());
+    }
+
+    @After
+    public void tearDown()
+    {
+        _context.delete();
+    }
+
+    @Test
+    public void startup() throws Exception
+    {
+        CentralDeviceManager manager = CentralDeviceManager.getInstance();
+
+        long start = System.nanoTime();
+        Future<Void> ready = manager.initialize(_context);
+        long initialize = System.nanoTime() - start;
+
+        // queued behind loading rather than waiting for it
+        start = System.nanoTime();
+        assertTrue(manager.reconnectAll(false));
+        long reconnectAll = System.nanoTime() - start;
+
+        ready.get();
+
+        start = System.nanoTime();
+        int deviceCount = manager.getDevices(null).size();
+        long firstList = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        manager.getDevices(null);
+        long secondList = System.nanoTime() - start;
+
+        // the caller only waits for loading when it asks for it
+        assertTrue("initialize() took " + initialize / 1000000 + "ms", initialize < INTERACTIVE_BUDGET * 1000000);
+        assertTrue("reconnectAll() took " + reconnectAll / 1000000 + "ms", reconnectAll < INTERACTIVE_BUDGET * 1000000);
+        // the first list reads the registry, later ones are snapshots
+        assertTrue("second device list took " + secondList / 1000 + "us", secondList < firstList);
+        assertEquals(STORED_DEVICES, deviceCount);
+        assertEquals(ACTIVE_DEVICES, manager.getActiveDevices(null).size());
+    }
+}
@@ -0,0 +1,79 @@
+package com.gymnext.gymnextsdk;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A context for tests on the JVM.  Preferences are kept in memory, files go to a new temporary
+ * directory and there is no Bluetooth.
+ */
+public class TestContext extends ContextWrapper
+{
+    private final File _filesDir;
+
+    // guarded by this
+    private final Map<String, InMemoryPreferences> _preferences = new HashMap<String, InMemoryPreferences>();
+
+    public TestContext() throws IOException
+    {
+        super(null);
+        _filesDir = File.createTempFile("gymnext", "");
+        if (!_filesDir.delete() || !_filesDir.mkdir())
+        {
+            throw new IOException("Could not create " + _filesDir);
+        }
+        _filesDir.deleteOnExit();
+    }
+
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode)
+    {
+        InMemoryPreferences preferences = _preferences.get(name);
+        if (preferences == null)
+        {
+            preferences = new InMemoryPreferences();
+            _preferences.put(name, preferences);
+        }
+        return preferences;
+    }
+
+    @Override
+    public Object getSystemService(String name)
+    {
+        return null;
+    }
+
+    @Override
+    public File getFilesDir()
+    {
+        return _filesDir;
+    }
+
+    @Override
+    public Context getApplicationContext()
+    {
+        return this;
+    }
+
+    /**
+     * Delete what the SDK wrote
+     */
+    public void delete()
+    {
+        File[] files = _filesDir.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                file.delete();
+            }
+        }
+        _filesDir.delete();
+    }
+}
@@ -0,0 +1,39 @@
+package com.gymnext.gymnextsdk;
+
+import com.gymnext.gymnextsdk.btle.BluetoothLEDevice;
+import com.gymnext.gymnextsdk.btle.BluetoothLEDeviceManager;
+
+/**
+ * Timers for tests.  Timer n has the address 00:00:00:00:HH:LL, made from n, and the name
+ * "Timer n".  Create devices after TestSingletons.reset(), a device holds on to the manager that
+ * was current when it was made.
+ */
+public final class TestDevices
+{
+    private TestDevices()
+    {
+    }
+
+    public static String deviceId(int index)
+    {
+        return String.format("00:00:00:00:%02X:%02X", (index >> 8) & 0xFF, index & 0xFF);
+    }
+
+    /**
+     * A device the manager doesn't know about
+     */
+    public static BluetoothLEDevice create(int index)
+    {
+        return new BluetoothLEDevice(deviceId(index), "Timer " + index, null, "GymNext", "Unknown", null);
+    }
+
+    /**
+     * Add a device as if it had been found by scanning
+     * @return
+     * the device the manager keeps
+     */
+    public static BluetoothLEDevice add(int index)
+    {
+        return BluetoothLEDeviceManager.getInstance().addDevice(create(index));
+    }
+}
@@ -0,0 +1,44 @@
+package com.gymnext.gymnextsdk;
+
+import com.gymnext.gymnextsdk.base.CommandTraceStore;
+import com.gymnext.gymnextsdk.btle.BluetoothLEDeviceManager;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+
+/**
+ * Gives each test fresh SDK singletons, so tests in the same JVM don't see each other's devices,
+ * settings or schedulers.  The old singletons are left to the garbage collector; their threads
+ * are idle and don't keep the JVM alive past the tests.
+ */
+public final class TestSingletons
+{
+    private TestSingletons()
+    {
+    }
+
+    public static void reset()
+    {
+        // in order of use, the central manager holds on to the event bus it was created with
+        _replace(CommandTraceStore.class);
+        _replace(DeviceEventBus.class);
+        _replace(BluetoothLEDeviceManager.class);
+        _replace(CentralDeviceManager.class);
+    }
+
+    private static <T> void _replace(Class<T> type)
+    {
+        try
+        {
+            Constructor<T> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            Field instance = type.getDeclaredField("mInstance");
+            instance.setAccessible(true);
+            instance.set(null, constructor.newInstance());
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException("Could not reset " + type.getSimpleName(), e);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.gymnext.gymnextsdk.base;
+
+import com.gymnext.gymnextsdk.InMemoryPreferences;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DebouncedPreferencesTest
+{
+    private static final long DELAY = 500;
+
+    @Test
+    public void aBurstOfChangesIsOneWrite()
+    {
+        VirtualScheduler scheduler = new VirtualScheduler(0);
+        InMemoryPreferences preferences = new InMemoryPreferences();
+        DebouncedPreferences settings = new DebouncedPreferences(preferences, scheduler, DELAY);
+
+        settings.putString("alias", "first");
+        settings.putLong("lastUsed", 1);
+        scheduler.advance(DELAY - 1);
+        settings.putString("alias", "second");
+        assertNull(preferences.getString("alias", null));
+
+        scheduler.advance(1);
+        assertEquals("second", preferences.getString("alias", null));
+        assertEquals(1, preferences.getLong("lastUsed", 0));
+        assertEquals(3, settings.getChangeCount());
+        assertEquals(1, settings.getWriteCount());
+    }
+
+    @Test
+    public void laterWritesGoToTheNewScheduler()
+    {
+        VirtualScheduler first = new VirtualScheduler(0);
+        VirtualScheduler second = new VirtualScheduler(0);
+        InMemoryPreferences preferences = new InMemoryPreferences();
+        DebouncedPreferences settings = new DebouncedPreferences(preferences, first, DELAY);
+
+        settings.setScheduler(second);
+        settings.putString("alias", "timer");
+        assertEquals(0, first.getPendingCount());
+
+        second.advance(DELAY);
+        assertEquals("timer", preferences.getString("alias", null));
+    }
+}
@@ -0,0 +1,139 @@
+package com.gymnext.gymnextsdk.base;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FixedRateTickSourceTest
+{
+    private static final long PERIOD = 100;
+
+    @Test
+    public void ticksFallOnThePeriod()
+    {
+        VirtualScheduler scheduler = new VirtualScheduler(0);
+        FixedRateTickSource tickSource = new FixedRateTickSource(scheduler, PERIOD);
+        final List<Long> ticks = new ArrayList<Long>();
+        final Clock clock = scheduler;
+
+        scheduler.advance(30);
+        tickSource.scheduleTick(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ticks.add(clock.currentTimeMillis());
+            }
+        });
+        scheduler.advance(PERIOD);
+
+        assertEquals(1, ticks.size());
+        assertEquals(Long.valueOf(PERIOD), ticks.get(0));
+    }
+
+    @Test
+    public void aCallbackCanAskForTheNextTick()
+    {
+        VirtualScheduler scheduler = new VirtualScheduler(0);
+        RearmingCallback callback = new RearmingCallback(new FixedRateTickSource(scheduler, PERIOD), 5);
+
+        callback.start();
+        scheduler.advance(10 * PERIOD);
+
+        // the first tick and one for each time it asked again
+        assertEquals(6, callback._ticks);
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void aTickThatRunsBeforeScheduleReturnsIsNotLost()
+    {
+        // runs every task straight away, like an executor thread that wins the race
+        Scheduler inline = new Scheduler()
+        {
+            @Override
+            public Task schedule(Runnable runnable, long delay)
+            {
+                runnable.run();
+                return new Task()
+                {
+                    @Override
+                    public boolean cancel()
+                    {
+                        return false;
+                    }
+                };
+            }
+
+            @Override
+            public long currentTimeMillis()
+            {
+                return 0;
+            }
+
+            @Override
+            public long nanoTime()
+            {
+                return 0;
+            }
+        };
+        RearmingCallback callback = new RearmingCallback(new FixedRateTickSource(inline, PERIOD), 5);
+
+        callback.start();
+        // and later requests aren't taken for the one that already ran
+        callback._remaining = 1;
+        callback.start();
+
+        assertEquals(8, callback._ticks);
+    }
+
+    @Test
+    public void cancelledTicksDontRun()
+    {
+        VirtualScheduler scheduler = new VirtualScheduler(0);
+        FixedRateTickSource tickSource = new FixedRateTickSource(scheduler, PERIOD);
+        RearmingCallback callback = new RearmingCallback(tickSource, 0);
+
+        callback.start();
+        tickSource.cancelTick(callback);
+        // asking again after cancelling gives one tick, not two
+        callback.start();
+        scheduler.advance(PERIOD);
+
+        assertEquals(1, callback._ticks);
+    }
+
+    /**
+     * Asks for the next tick from each tick, a given number of times
+     */
+    private static final class RearmingCallback implements Runnable
+    {
+        private final TickSource _tickSource;
+        private int _remaining;
+        private int _ticks = 0;
+
+        private RearmingCallback(TickSource tickSource, int rearms)
+        {
+            _tickSource = tickSource;
+            _remaining = rearms;
+        }
+
+        void start()
+        {
+            _tickSource.scheduleTick(this);
+        }
+
+        @Override
+        public void run()
+        {
+            _ticks++;
+            if (_remaining-- > 0)
+            {
+                _tickSource.scheduleTick(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.gymnext.gymnextsdk.base;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LongKeyedMapTest
+{
+    @Test
+    public void putGetRemove()
+    {
+        LongKeyedMap<String> map = new LongKeyedMap<String>();
+
+        assertNull(map.put(1, "one"));
+        assertNull(map.put(2, "two"));
+        assertEquals("one", map.put(1, "uno"));
+        assertEquals("uno", map.get(1));
+        assertEquals(2, map.size());
+
+        assertEquals("uno", map.remove(1));
+        assertNull(map.remove(1));
+        assertNull(map.get(1));
+        assertFalse(map.containsKey(1));
+        assertEquals(1, map.size());
+
+        // a removed key can come back
+        assertNull(map.put(1, "one"));
+        assertEquals("one", map.get(1));
+        assertEquals(2, map.size());
+
+        assertFalse(map.remove(2, "one"));
+        assertTrue(map.remove(2, "two"));
+        assertEquals("one", map.putIfAbsent(1, "uno"));
+        assertEquals(Arrays.asList("one"), map.values());
+    }
+
+    @Test
+    public void churnKeepsEveryLiveKey()
+    {
+        LongKeyedMap<Long> map = new LongKeyedMap<Long>();
+
+        // far more removals than the table has slots, so removed slots must be reclaimed
+        for (long key = 0; key < 10000; key++)
+        {
+            map.put(key, key);
+            if (key >= 16)
+            {
+                assertEquals(Long.valueOf(key - 16), map.remove(key - 16));
+            }
+        }
+
+        assertEquals(16, map.size());
+        long[] keys = map.keys();
+        Arrays.sort(keys);
+        for (int i = 0; i < keys.length; i++)
+        {
+            assertEquals(10000 - 16 + i, keys[i]);
+            assertEquals(Long.valueOf(keys[i]), map.get(keys[i]));
+        }
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.keys().length);
+    }
+
+    @Test
+    public void readersNeverLoseAKeyThatStays() throws Exception
+    {
+        final LongKeyedMap<Long> map = new LongKeyedMap<Long>();
+        final long[] stable = new long[64];
+        for (int i = 0; i < stable.length; i++)
+        {
+            stable[i] = 0x001122330000L + i;
+            map.put(stable[i], stable[i]);
+        }
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread reader = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                while (!done.get() && failure.get() == null)
+                {
+                    for (long key : stable)
+                    {
+                        Long value = map.get(key);
+                        if (value == null || value != key)
+                        {
+                            failure.set("lost " + key + ", got " + value);
+                        }
+                    }
+                }
+            }
+        });
+        reader.start();
+
+        // other keys come and go, growing and rebuilding the table under the reader
+        for (long key = 0; key < 200000; key++)
+        {
+            map.put(key, key);
+            if (key >= 100)
+            {
+                map.remove(key - 100);
+            }
+        }
+        done.set(true);
+        reader.join();
+
+        assertNull(failure.get());
+        assertEquals(stable.length + 100, map.size());
+    }
+}
@@ -0,0 +1,80 @@
+package com.gymnext.gymnextsdk.base;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class RecordLogTest
+{
+    private File _file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        _file = File.createTempFile("records", ".log");
+        _file.delete();
+    }
+
+    @After
+    public void tearDown()
+    {
+        _file.delete();
+    }
+
+    @Test
+    public void recordsSurviveReopening() throws IOException
+    {
+        RecordLog log = new RecordLog(_file);
+        log.put("one", new byte[] { 1 });
+        log.put("two", new byte[] { 2, 2 });
+        log.put("one", new byte[] { 1, 1, 1 });
+        log.put("three", new byte[0]);
+        log.remove("three");
+        log.close();
+
+        log = new RecordLog(_file);
+        assertEquals(2, log.size());
+        assertArrayEquals(new byte[] { 1, 1, 1 }, log.read("one"));
+        assertArrayEquals(new byte[] { 2, 2 }, log.read("two"));
+        assertFalse(log.contains("three"));
+        assertNull(log.read("three"));
+        log.close();
+    }
+
+    @Test
+    public void aTornRecordIsDropped() throws IOException
+    {
+        RecordLog log = new RecordLog(_file);
+        log.put("one", new byte[] { 1 });
+        long intact = log.getFileSize();
+        log.put("two", new byte[] { 2, 2, 2, 2 });
+        log.close();
+
+        // as if the process died half way through writing the second record
+        RandomAccessFile file = new RandomAccessFile(_file, "rw");
+        file.setLength(file.length() - 2);
+        file.close();
+
+        log = new RecordLog(_file);
+        assertEquals(Arrays.asList("one"), log.keys());
+        assertArrayEquals(new byte[] { 1 }, log.read("one"));
+        assertEquals(intact, log.getFileSize());
+
+        // and the log carries on after the last whole record
+        log.put("two", new byte[] { 2 });
+        log.close();
+        log = new RecordLog(_file);
+        assertArrayEquals(new byte[] { 2 }, log.read("two"));
+        log.close();
+    }
+}
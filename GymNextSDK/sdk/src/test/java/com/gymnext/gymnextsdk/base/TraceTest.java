@@ -0,0 +1,67 @@
+package com.gymnext.gymnextsdk.base;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TraceTest
+{
+    private static final int TRACE_PAIR = Trace.event("test.pair", "value", "double");
+    private static final Pattern PAIR = Pattern.compile("test\\.pair value=(-?\\d+) double=(-?\\d+)");
+
+    @Test
+    public void dumpsNeverMixUpEvents() throws Exception
+    {
+        Trace.clear();
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread writer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // wraps the ring many times while the dumps run
+                for (long i = 0; !done.get(); i++)
+                {
+                    Trace.record(Trace.INFO, TRACE_PAIR, i, 2 * i);
+                }
+            }
+        });
+        writer.start();
+
+        int checked = 0;
+        try
+        {
+            for (int dump = 0; dump < 200 && failure.get() == null; dump++)
+            {
+                for (String line : Trace.dump())
+                {
+                    Matcher matcher = PAIR.matcher(line);
+                    if (!matcher.find())
+                    {
+                        continue;
+                    }
+                    if (Long.parseLong(matcher.group(2)) != 2 * Long.parseLong(matcher.group(1)))
+                    {
+                        failure.set(line);
+                    }
+                    checked++;
+                }
+            }
+        }
+        finally
+        {
+            done.set(true);
+            writer.join();
+        }
+
+        assertNull(failure.get());
+        assertTrue(checked > 0);
+    }
+}
@@ -0,0 +1,191 @@
+package com.gymnext.gymnextsdk.btle;
+
+import com.gymnext.gymnextsdk.DeviceMetrics;
+import com.gymnext.gymnextsdk.TestDevices;
+import com.gymnext.gymnextsdk.TestSingletons;
+import com.gymnext.gymnextsdk.base.CommandTrace;
+import com.gymnext.gymnextsdk.base.CommandTraceStore;
+import com.gymnext.gymnextsdk.base.VirtualScheduler;
+import com.gymnext.gymnextsdk.timer.TimerService;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class BluetoothLETimerServiceTest {
+    // a little over BluetoothLETimerService.BUFFERED_COMMAND_TTL
+    private static final long EXPIRED = 30001;
+    // a little over BluetoothLETimerService.ANSWER_TIMEOUT
+    private static final long UNANSWERED = 10001;
+
+    private VirtualScheduler _scheduler;
+    private BluetoothLEDevice _device;
+
+    @Before
+    public void setUp() {
+        TestSingletons.reset();
+        _scheduler = new VirtualScheduler(0);
+        BluetoothLEDeviceManager.getInstance().setScheduler(_scheduler);
+        BluetoothLEDeviceManager.getInstance().setLinkFactory(new SilentLinkFactory());
+        CommandTraceStore.getInstance().setClock(_scheduler);
+
+        _device = TestDevices.add(0);
+    }
+
+    @Test
+    public void commandsToADisconnectedDeviceAreRefused() {
+        BluetoothLETimerService service = new BluetoothLETimerService(_device);
+
+        assertFalse(service.powerOn());
+        assertEquals(CommandTrace.Outcome.Dropped, _trace("P1;").getOutcome());
+    }
+
+    @Test
+    public void commandsWhileConnectingAreWrittenOnceReady() {
+        BluetoothLETimerService service = _connect();
+
+        assertTrue(service.powerOn());
+        service.didDiscoverService(Arrays.asList(BluetoothLETimerService.TX_UUID, BluetoothLETimerService.RX_UUID));
+
+        assertTrue(_acknowledgeUntilWritten(service, _trace("P1;")));
+    }
+
+    @Test
+    public void bufferedCommandsExpire() {
+        BluetoothLETimerService service = _connect();
+
+        assertTrue(service.powerOn());
+        _scheduler.advance(EXPIRED);
+        assertTrue(service.powerOff());
+        service.didDiscoverService(Arrays.asList(BluetoothLETimerService.TX_UUID, BluetoothLETimerService.RX_UUID));
+
+        assertEquals(CommandTrace.Outcome.Dropped, _trace("P1;").getOutcome());
+        assertTrue(_acknowledgeUntilWritten(service, _trace("P0;")));
+    }
+
+    @Test
+    public void framesNobodyAskedForDontAnswerCommands() {
+        BluetoothLETimerService service = _ready();
+
+        assertTrue(service.start());
+        _acknowledgeAll(service, _trace("_S;"));
+        // e.g. the device's own status report, from before the timer started
+        _receive(service, false);
+        assertEquals(CommandTrace.Outcome.Pending, _trace("_S;").getOutcome());
+
+        assertTrue(service.pause());
+        _acknowledgeAll(service, _trace("_P;"));
+        _receive(service, true);
+        _receive(service, false);
+
+        assertEquals(CommandTrace.Outcome.Confirmed, _trace("_S;").getOutcome());
+        assertEquals(CommandTrace.Outcome.Confirmed, _trace("_P;").getOutcome());
+    }
+
+    @Test
+    public void commandsThatAreNeverAnsweredTimeOut() {
+        BluetoothLETimerService service = _ready();
+
+        assertTrue(service.start());
+        _acknowledgeAll(service, _trace("_S;"));
+        _receive(service, false);
+        _scheduler.advance(UNANSWERED);
+        _receive(service, false);
+
+        assertEquals(CommandTrace.Outcome.Dropped, _trace("_S;").getOutcome());
+    }
+
+    @Test
+    public void metricsCountWhatCrossesTheLink() {
+        BluetoothLETimerService service = _ready();
+        DeviceMetrics before = _device.getMetrics();
+
+        assertTrue(service.start());
+        _scheduler.advance(40);
+        // whatever was still waiting for an ack, then the start command
+        service.didWriteValueForCharacteristic(BluetoothLETimerService.TX_UUID);
+        service.didWriteValueForCharacteristic(BluetoothLETimerService.TX_UUID);
+        _receive(service, true);
+        byte[] error = new byte[10];
+        error[0] = 1;
+        service.didReceiveUpdateValueForCharacteristic(BluetoothLETimerService.RX_UUID, error);
+
+        DeviceMetrics after = _device.getMetrics();
+        assertEquals(before.getCommandsSent() + 1, after.getCommandsSent());
+        assertEquals(before.getWritesSent() + 1, after.getWritesSent());
+        assertEquals(before.getNotificationsReceived() + 2, after.getNotificationsReceived());
+        assertEquals(1, after.getStatusErrors());
+        assertTrue(after.toString(), after.getMaxWriteLatency() >= 40);
+        assertEquals(1, after.getConnects());
+
+        // the earlier snapshot doesn't move
+        assertEquals(0, before.getStatusErrors());
+        assertTrue(before.getMaxWriteLatency() < 40);
+    }
+
+    /**
+     * Connect, discover services and answer the initial communication
+     */
+    private BluetoothLETimerService _ready() {
+        BluetoothLETimerService service = _connect();
+        service.didDiscoverService(Arrays.asList(BluetoothLETimerService.TX_UUID, BluetoothLETimerService.RX_UUID));
+
+        CommandTrace initial = CommandTraceStore.getInstance().getRecent(_device.getDeviceKey()).get(0);
+        _acknowledgeAll(service, initial);
+        _receive(service, false);
+        assertEquals(CommandTrace.Outcome.Confirmed, initial.getOutcome());
+        return service;
+    }
+
+    /**
+     * A status frame from the timer
+     */
+    private static void _receive(BluetoothLETimerService service, boolean running) {
+        byte[] frame = new byte[10];
+        frame[1] = (byte) (running ? 64 : 0);
+        service.didReceiveUpdateValueForCharacteristic(BluetoothLETimerService.RX_UUID, frame);
+    }
+
+    private static void _acknowledgeAll(BluetoothLETimerService service, CommandTrace trace) {
+        for (int i = 0; i < 100 && trace.getWriteTime() < 0; i++) {
+            service.didWriteValueForCharacteristic(BluetoothLETimerService.TX_UUID);
+        }
+        assertTrue(trace.getWriteTime() >= 0);
+    }
+
+    /**
+     * Connect and stop before service discovery, the service isn't ready for writes yet
+     */
+    private BluetoothLETimerService _connect() {
+        _device.connect(null);
+        BluetoothLEDeviceManager.getInstance().deviceDidConnect(_device);
+        return (BluetoothLETimerService) _device.getService(TimerService.SERVICE_ID);
+    }
+
+    /**
+     * Acknowledge writes, the descriptor write and the initial communication go first
+     */
+    private static boolean _acknowledgeUntilWritten(BluetoothLETimerService service, CommandTrace trace) {
+        for (int i = 0; i < 100 && trace.getQueueTime() < 0; i++) {
+            service.didWriteValueForCharacteristic(BluetoothLETimerService.TX_UUID);
+        }
+        return trace.getQueueTime() >= 0;
+    }
+
+    private CommandTrace _trace(String command) {
+        CommandTrace found = null;
+        for (CommandTrace trace : CommandTraceStore.getInstance().getRecent(_device.getDeviceKey())) {
+            if (trace.getCommand().equals(command)) {
+                found = trace;
+            }
+        }
+        assertNotNull(command, found);
+        return found;
+    }
+}
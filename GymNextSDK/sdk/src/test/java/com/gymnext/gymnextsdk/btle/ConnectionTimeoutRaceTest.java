@@ -0,0 +1,146 @@
+package com.gymnext.gymnextsdk.btle;
+
+import com.gymnext.gymnextsdk.DeviceState;
+import com.gymnext.gymnextsdk.TestDevices;
+import com.gymnext.gymnextsdk.TestSingletons;
+import com.gymnext.gymnextsdk.base.VirtualScheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Races a connection timeout against the link's answer.  Whichever way the race goes, exactly one
+ * of them may decide the attempt, and the device must end up in the state the winner chose.
+ */
+public class ConnectionTimeoutRaceTest {
+    private static final int ATTEMPTS = 2000;
+
+    // longer than any timeout or delayed save
+    private static final long IDLE_TIME = 60000;
+
+    private BluetoothLEDeviceManager _manager;
+    private VirtualScheduler _scheduler;
+    private BluetoothLEDevice _device;
+
+    private final AtomicInteger _connected = new AtomicInteger();
+    private final AtomicInteger _failed = new AtomicInteger();
+    private final AtomicInteger _disconnected = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        TestSingletons.reset();
+
+        _manager = BluetoothLEDeviceManager.getInstance();
+        _scheduler = new VirtualScheduler(0);
+        _manager.setScheduler(_scheduler);
+        _manager.setLinkFactory(new SilentLinkFactory());
+        _manager.setDelegate(new CountingDelegate());
+
+        _device = TestDevices.add(0);
+    }
+
+    @Test
+    public void connectRacesTimeout() throws Exception {
+        _race(new Runnable() {
+            @Override
+            public void run() {
+                _manager.deviceDidConnect(_device);
+            }
+        });
+    }
+
+    @Test
+    public void failureRacesTimeout() throws Exception {
+        _race(new Runnable() {
+            @Override
+            public void run() {
+                _manager.deviceDidFailToConnect(_device);
+            }
+        });
+    }
+
+    private void _race(final Runnable answer) throws Exception {
+        final CyclicBarrier start = new CyclicBarrier(2);
+        int connectedWins = 0;
+
+        for (int i = 0; i < ATTEMPTS; i++) {
+            int connected = _connected.get();
+            int failed = _failed.get();
+
+            _device.connect(null);
+            assertEquals(DeviceState.Connecting, _device.getDeviceState());
+            final long timeout = _manager.getConnectionTimeout(_device);
+
+            Thread link = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    _await(start);
+                    answer.run();
+                }
+            });
+            link.start();
+            _await(start);
+            _scheduler.advance(timeout);
+            link.join();
+
+            int connects = _connected.get() - connected;
+            int failures = _failed.get() - failed;
+            assertEquals("attempt " + i + " must be decided exactly once", 1, connects + failures);
+            if (connects == 1) {
+                connectedWins++;
+                assertEquals(DeviceState.Connected, _device.getDeviceState());
+            } else {
+                assertNotEquals(DeviceState.Connected, _device.getDeviceState());
+                assertNotEquals(DeviceState.Connecting, _device.getDeviceState());
+            }
+
+            // no timer of the attempt is left to decide it again later
+            _scheduler.advance(IDLE_TIME);
+            assertEquals(0, _scheduler.getPendingCount());
+            assertEquals(connects + failures, _connected.get() - connected + _failed.get() - failed);
+
+            _device.disconnect();
+        }
+
+        assertEquals(connectedWins, _disconnected.get());
+    }
+
+    private static void _await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private class CountingDelegate implements BluetoothLEDeviceManager.BluetoothLEDeviceManagerDelegate {
+        @Override
+        public void deviceDidMoveInRange(BluetoothLEDeviceManager deviceManager, BluetoothLEDevice device) {
+        }
+
+        @Override
+        public void deviceDidMoveOutOfRange(BluetoothLEDeviceManager deviceManager, BluetoothLEDevice device) {
+        }
+
+        @Override
+        public void deviceDidConnect(BluetoothLEDeviceManager deviceManager, BluetoothLEDevice device) {
+            _connected.incrementAndGet();
+        }
+
+        @Override
+        public void deviceDidFailToConnect(BluetoothLEDeviceManager deviceManager, BluetoothLEDevice device) {
+            _failed.incrementAndGet();
+        }
+
+        @Override
+        public void deviceDidDisconnect(BluetoothLEDeviceManager deviceManager, BluetoothLEDevice device) {
+            _disconnected.incrementAndGet();
+        }
+    }
+}
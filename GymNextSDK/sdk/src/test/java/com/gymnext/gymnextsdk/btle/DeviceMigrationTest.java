@@ -0,0 +1,100 @@
+package com.gymnext.gymnextsdk.btle;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.gymnext.gymnextsdk.TestContext;
+import com.gymnext.gymnextsdk.TestDevices;
+import com.gymnext.gymnextsdk.TestSingletons;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Devices saved by older versions, as a JSON array in preferences, are moved into the registry
+ */
+public class DeviceMigrationTest {
+    private TestContext _context;
+    private SharedPreferences _legacy;
+
+    @Before
+    public void setUp() throws Exception {
+        TestSingletons.reset();
+        _context = new TestContext();
+        _legacy = _context.getSharedPreferences("gymnext_devices.pref", Context.MODE_PRIVATE);
+    }
+
+    @After
+    public void tearDown() {
+        _context.delete();
+    }
+
+    @Test
+    public void savedDevicesAreMigrated() {
+        _save("[" + _json(0) + "," + _json(1) + "]");
+
+        BluetoothLEDeviceManager manager = BluetoothLEDeviceManager.getInstance();
+        manager.initialize(_context);
+
+        assertEquals("Timer 0", manager.getDevice(TestDevices.deviceId(0)).getDeviceName());
+        assertTrue(manager.hasDevice(TestDevices.deviceId(1)));
+        assertNull(_legacy.getString("devices", null));
+        assertNull(_legacy.getString("bluetoothLEDevicesVersion", null));
+
+        // and they are still there next time, from the registry alone
+        TestSingletons.reset();
+        manager = BluetoothLEDeviceManager.getInstance();
+        manager.initialize(_context);
+        assertTrue(manager.hasDevice(TestDevices.deviceId(1)));
+    }
+
+    @Test
+    public void unreadableDevicesAreKept() {
+        String devices = "[" + _json(0) + "," + _json(1);
+        _save(devices);
+
+        BluetoothLEDeviceManager manager = BluetoothLEDeviceManager.getInstance();
+        manager.initialize(_context);
+
+        assertFalse(manager.hasDevice(TestDevices.deviceId(0)));
+        assertEquals(devices, _legacy.getString("devices", null));
+        assertEquals("1.0", _legacy.getString("bluetoothLEDevicesVersion", null));
+    }
+
+    @Test
+    public void aBadDeviceKeepsTheOthersForNextTime() {
+        String devices = "[" + _json(0) + ",42]";
+        _save(devices);
+
+        BluetoothLEDeviceManager manager = BluetoothLEDeviceManager.getInstance();
+        manager.initialize(_context);
+
+        // the good one is in the registry, but nothing is thrown away
+        assertNotNull(manager.getDevice(TestDevices.deviceId(0)));
+        assertEquals(devices, _legacy.getString("devices", null));
+        assertEquals("1.0", _legacy.getString("bluetoothLEDevicesVersion", null));
+    }
+
+    // PRIVATE METHODS
+
+    private void _save(String devices) {
+        _legacy.edit()
+                .putString("bluetoothLEDevicesVersion", "1.0")
+                .putString("devices", devices)
+                .commit();
+    }
+
+    /**
+     * A device the way older versions wrote it
+     */
+    private static String _json(int index) {
+        return TestDevices.create(index).toJson().toString();
+    }
+}
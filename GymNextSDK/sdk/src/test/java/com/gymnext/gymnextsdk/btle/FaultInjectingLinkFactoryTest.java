@@ -0,0 +1,206 @@
+package com.gymnext.gymnextsdk.btle;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+
+import com.gymnext.gymnextsdk.TestDevices;
+import com.gymnext.gymnextsdk.TestSingletons;
+import com.gymnext.gymnextsdk.base.VirtualScheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class FaultInjectingLinkFactoryTest {
+    private static final UUID SERVICE = BluetoothLETimerService.UART_UUID;
+    private static final UUID CHARACTERISTIC = BluetoothLETimerService.RX_UUID;
+
+    private VirtualScheduler _scheduler;
+    private DeviceSide _deviceSide;
+    private FaultInjectingLinkFactory _factory;
+    private RecordingListener _listener;
+
+    @Before
+    public void setUp() {
+        TestSingletons.reset();
+        _scheduler = new VirtualScheduler(0);
+        _deviceSide = new DeviceSide();
+        _factory = new FaultInjectingLinkFactory(_deviceSide, new Random(20151019), _scheduler);
+        _listener = new RecordingListener();
+    }
+
+    @Test
+    public void lateEventsArriveOnTheScheduler() {
+        _factory.setAckLatency(FaultInjectingLinkFactory.Latency.fixed(50));
+        _open();
+
+        _deviceSide._listener.onCharacteristicWrite(null, SERVICE, CHARACTERISTIC, BluetoothGatt.GATT_SUCCESS);
+        _scheduler.advance(49);
+        assertEquals(Collections.<String>emptyList(), _listener._events);
+
+        _scheduler.advance(1);
+        assertEquals(Collections.singletonList("ack 0"), _listener._events);
+        assertEquals(1, _factory.getDelayedCount());
+    }
+
+    @Test
+    public void notificationsAreDroppedOrDuplicated() {
+        _open();
+
+        _factory.setNotificationDropRate(1);
+        _notify();
+        assertEquals(Collections.<String>emptyList(), _listener._events);
+        assertEquals(1, _factory.getDroppedNotificationCount());
+
+        _factory.setNotificationDropRate(0);
+        _factory.setNotificationDuplicateRate(1);
+        _notify();
+        assertEquals(2, _listener._events.size());
+        assertEquals(1, _factory.getDuplicatedNotificationCount());
+    }
+
+    @Test
+    public void acksCanBeDroppedOrFail() {
+        _open();
+
+        _factory.setAckDropRate(1);
+        _deviceSide._listener.onCharacteristicWrite(null, SERVICE, CHARACTERISTIC, BluetoothGatt.GATT_SUCCESS);
+        assertEquals(Collections.<String>emptyList(), _listener._events);
+        assertEquals(1, _factory.getDroppedAckCount());
+
+        _factory.setAckDropRate(0);
+        _factory.setErrorRate(1, BluetoothGatt.GATT_FAILURE);
+        _deviceSide._listener.onCharacteristicWrite(null, SERVICE, CHARACTERISTIC, BluetoothGatt.GATT_SUCCESS);
+        assertEquals(Collections.singletonList("ack " + BluetoothGatt.GATT_FAILURE), _listener._events);
+        assertEquals(1, _factory.getErrorCount());
+    }
+
+    @Test
+    public void connectionsCanFail() {
+        _factory.setConnectFailureRate(1);
+        _open();
+
+        _connect();
+
+        assertEquals(Collections.singletonList("state " + FaultInjectingLinkFactory.GATT_ERROR + "/" + BluetoothProfile.STATE_DISCONNECTED), _listener._events);
+        assertEquals(1, _factory.getFailedConnectCount());
+    }
+
+    @Test
+    public void droppedConnectionsStayDown() {
+        _factory.setMeanTimeBetweenDisconnects(1000);
+        _open();
+        _connect();
+
+        // far past the mean, the drop has happened
+        _scheduler.advance(100000);
+        _notify();
+
+        assertEquals(2, _listener._events.size());
+        assertEquals("state " + FaultInjectingLinkFactory.GATT_CONNECTION_TIMEOUT + "/" + BluetoothProfile.STATE_DISCONNECTED, _listener._events.get(1));
+        assertEquals(1, _factory.getDisconnectCount());
+    }
+
+    @Test
+    public void seededRunsRepeat() {
+        assertEquals(_jitteredArrivals(1), _jitteredArrivals(1));
+        assertNotEquals(_jitteredArrivals(1), _jitteredArrivals(2));
+    }
+
+    // PRIVATE METHODS
+
+    private void _open() {
+        _factory.open(TestDevices.create(0), null, false, _listener);
+    }
+
+    private void _connect() {
+        _deviceSide._listener.onConnectionStateChange(null, BluetoothGatt.GATT_SUCCESS, BluetoothProfile.STATE_CONNECTED);
+    }
+
+    private void _notify() {
+        _deviceSide._listener.onCharacteristicChanged(null, SERVICE, CHARACTERISTIC, new byte[10]);
+    }
+
+    /**
+     * When acks with uniformly random latency arrive, in milliseconds
+     */
+    private List<Long> _jitteredArrivals(long seed) {
+        final VirtualScheduler scheduler = new VirtualScheduler(0);
+        DeviceSide deviceSide = new DeviceSide();
+        FaultInjectingLinkFactory factory = new FaultInjectingLinkFactory(deviceSide, new Random(seed), scheduler);
+        factory.setAckLatency(FaultInjectingLinkFactory.Latency.uniform(10, 100));
+
+        final List<Long> arrivals = new ArrayList<Long>();
+        factory.open(TestDevices.create(0), null, false, new RecordingListener() {
+            @Override
+            public void onCharacteristicWrite(BluetoothLELink link, UUID service, UUID characteristic, int status) {
+                arrivals.add(scheduler.currentTimeMillis());
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            deviceSide._listener.onCharacteristicWrite(null, SERVICE, CHARACTERISTIC, BluetoothGatt.GATT_SUCCESS);
+        }
+        scheduler.advance(100);
+        return arrivals;
+    }
+
+    /**
+     * The real links, silent; the test answers for the device through the listener they were
+     * opened with
+     */
+    private static final class DeviceSide extends SilentLinkFactory {
+        private BluetoothLELink.Listener _listener;
+
+        @Override
+        public BluetoothLELink open(BluetoothLEDevice device, Context context, boolean autoConnect, BluetoothLELink.Listener listener) {
+            _listener = listener;
+            return super.open(device, context, autoConnect, listener);
+        }
+    }
+
+    /**
+     * What reached the SDK side, in order
+     */
+    private static class RecordingListener implements BluetoothLELink.Listener {
+        private final List<String> _events = new ArrayList<String>();
+
+        @Override
+        public void onConnectionStateChange(BluetoothLELink link, int status, int newState) {
+            _events.add("state " + status + "/" + newState);
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothLELink link, int status) {
+            _events.add("discovered " + status);
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothLELink link, UUID service, UUID characteristic, byte[] value, int status) {
+            _events.add("read " + status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothLELink link, UUID service, UUID characteristic, int status) {
+            _events.add("ack " + status);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothLELink link, UUID service, UUID characteristic, UUID descriptor, int status) {
+            _events.add("descriptor " + status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothLELink link, UUID service, UUID characteristic, byte[] value) {
+            _events.add("notification");
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.gymnext.gymnextsdk.btle;
+
+import com.gymnext.gymnextsdk.base.VirtualScheduler;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class GattTraceTest {
+    private static final long DEVICE = 0x001122334455L;
+    private static final long OTHER_DEVICE = 0x001122334466L;
+    private static final UUID SERVICE = BluetoothLETimerService.UART_UUID;
+    private static final UUID TX = BluetoothLETimerService.TX_UUID;
+    private static final UUID RX = BluetoothLETimerService.RX_UUID;
+
+    @Test
+    public void recordsReadBackAsWritten() throws IOException {
+        Map<UUID, List<UUID>> services = Collections.singletonMap(SERVICE, Arrays.asList(TX, RX));
+        byte[] value = "P1;".getBytes("UTF-8");
+
+        byte[] trace = _write(
+                GattTraceRecord.connectionStateChange(1000, DEVICE, 0, 2),
+                GattTraceRecord.request(GattTraceRecord.Type.DiscoverServices, 1500, DEVICE),
+                GattTraceRecord.servicesDiscovered(2000, DEVICE, 0, services),
+                GattTraceRecord.writeCharacteristic(2500, DEVICE, SERVICE, TX, value),
+                GattTraceRecord.characteristicWrite(3000, DEVICE, SERVICE, TX, 0),
+                GattTraceRecord.characteristicChanged(3000, OTHER_DEVICE, SERVICE, RX, value),
+                GattTraceRecord.connectionStateChange(4000, DEVICE, 8, 0));
+
+        List<GattTraceRecord> records = _readAll(trace);
+        assertEquals(7, records.size());
+
+        GattTraceRecord connected = records.get(0);
+        assertEquals(GattTraceRecord.Type.ConnectionStateChange, connected.getType());
+        assertEquals(1000, connected.getTime());
+        assertEquals(DEVICE, connected.getDeviceKey());
+        assertEquals(2, connected.getNewState());
+
+        assertEquals(GattTraceRecord.Type.DiscoverServices, records.get(1).getType());
+        assertEquals(services, records.get(2).getServices());
+
+        GattTraceRecord write = records.get(3);
+        assertEquals(2500, write.getTime());
+        assertEquals(SERVICE, write.getService());
+        assertEquals(TX, write.getCharacteristic());
+        assertArrayEquals(value, write.getValue());
+
+        GattTraceRecord changed = records.get(5);
+        assertEquals(OTHER_DEVICE, changed.getDeviceKey());
+        assertEquals(RX, changed.getCharacteristic());
+        assertArrayEquals(value, changed.getValue());
+
+        GattTraceRecord lost = records.get(6);
+        assertEquals(4000, lost.getTime());
+        assertEquals(8, lost.getStatus());
+        assertEquals(0, lost.getNewState());
+    }
+
+    @Test
+    public void truncatedTraceEndsAtTheLastWholeRecord() throws IOException {
+        byte[] value = new byte[64];
+        byte[] trace = _write(
+                GattTraceRecord.connectionStateChange(1000, DEVICE, 0, 2),
+                GattTraceRecord.characteristicChanged(2000, DEVICE, SERVICE, RX, value));
+
+        // cut off part way through the value
+        List<GattTraceRecord> records = _readAll(Arrays.copyOf(trace, trace.length - 10));
+        assertEquals(1, records.size());
+        assertEquals(GattTraceRecord.Type.ConnectionStateChange, records.get(0).getType());
+    }
+
+    @Test(expected = IOException.class)
+    public void somethingElseIsNotATrace() throws IOException {
+        new GattTraceReader(new ByteArrayInputStream("not a trace".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void replayDeliversEventsAtTheRecordedTimes() throws IOException {
+        byte[] value = "A1;".getBytes("UTF-8");
+        byte[] trace = _write(
+                GattTraceRecord.connectionStateChange(1000, DEVICE, 0, 2),
+                GattTraceRecord.writeCharacteristic(1500, DEVICE, SERVICE, TX, value),
+                GattTraceRecord.characteristicChanged(2000000, DEVICE, SERVICE, RX, value),
+                GattTraceRecord.characteristicChanged(2500000, OTHER_DEVICE, SERVICE, RX, value));
+
+        VirtualScheduler scheduler = new VirtualScheduler(0);
+        GattTraceReplayer replayer = new GattTraceReplayer(new GattTraceReader(new ByteArrayInputStream(trace)));
+        RecordingListener listener = new RecordingListener(scheduler);
+        BluetoothLELink link = replayer.open(DEVICE, listener);
+        replayer.play(scheduler);
+
+        scheduler.advance(1);
+        assertEquals(Arrays.asList("1 state 2"), listener._events);
+        assertNotNull(link);
+
+        scheduler.advance(1000);
+        assertEquals(Arrays.asList("1 state 2"), listener._events);
+
+        scheduler.advance(1000);
+        assertEquals(Arrays.asList("1 state 2", "2000 changed " + RX), listener._events);
+
+        // nothing is listening for the other device
+        scheduler.advance(1000);
+        assertEquals(2, listener._events.size());
+        assertEquals(2, replayer.getDeliveredCount());
+        assertEquals(1, replayer.getSkippedCount());
+        assertEquals(1, replayer.getRecordedWriteCount());
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    // PRIVATE METHODS
+
+    private static byte[] _write(GattTraceRecord... records) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GattTraceWriter writer = new GattTraceWriter(out, new VirtualScheduler(0));
+        for (GattTraceRecord record : records) {
+            writer.write(record);
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private static List<GattTraceRecord> _readAll(byte[] trace) throws IOException {
+        GattTraceReader reader = new GattTraceReader(new ByteArrayInputStream(trace));
+        List<GattTraceRecord> records = new ArrayList<GattTraceRecord>();
+        GattTraceRecord record;
+        while ((record = reader.read()) != null) {
+            records.add(record);
+        }
+        reader.close();
+        return records;
+    }
+
+    /**
+     * Notes the events it gets, stamped in milliseconds on the scheduler's clock
+     */
+    private static final class RecordingListener implements BluetoothLELink.Listener {
+        private final VirtualScheduler _scheduler;
+        private final List<String> _events = new ArrayList<String>();
+
+        private RecordingListener(VirtualScheduler scheduler) {
+            _scheduler = scheduler;
+        }
+
+        private void _add(String event) {
+            _events.add(_scheduler.currentTimeMillis() + " " + event);
+        }
+
+        @Override
+        public void onConnectionStateChange(BluetoothLELink link, int status, int newState) {
+            _add("state " + newState);
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothLELink link, int status) {
+            _add("discovered");
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothLELink link, UUID service, UUID characteristic, byte[] value, int status) {
+            _add("read " + characteristic);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothLELink link, UUID service, UUID characteristic, int status) {
+            _add("written " + characteristic);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothLELink link, UUID service, UUID characteristic, UUID descriptor, int status) {
+            _add("descriptor written " + descriptor);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothLELink link, UUID service, UUID characteristic, byte[] value) {
+            _add("changed " + characteristic);
+        }
+    }
+}
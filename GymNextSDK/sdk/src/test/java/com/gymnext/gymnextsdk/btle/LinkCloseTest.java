@@ -0,0 +1,99 @@
+package com.gymnext.gymnextsdk.btle;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+
+import com.gymnext.gymnextsdk.DeviceState;
+import com.gymnext.gymnextsdk.TestDevices;
+import com.gymnext.gymnextsdk.TestSingletons;
+import com.gymnext.gymnextsdk.base.VirtualScheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Links are closed whenever a device is done with them, only a connection the pool suspended
+ * keeps its link for a warm reconnect
+ */
+public class LinkCloseTest {
+    private LinkFactory _factory;
+    private BluetoothLEDevice _device;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        TestSingletons.reset();
+        _factory = new LinkFactory();
+        BluetoothLEDeviceManager.getInstance().setScheduler(new VirtualScheduler(0));
+        BluetoothLEDeviceManager.getInstance().setLinkFactory(_factory);
+
+        _device = TestDevices.add(0);
+        _device.connect(null);
+        _answer(BluetoothProfile.STATE_CONNECTED);
+        assertEquals(DeviceState.Connected, _awaitState(DeviceState.Connected));
+    }
+
+    @Test
+    public void aLostConnectionClosesTheLink() throws InterruptedException {
+        _answer(BluetoothProfile.STATE_DISCONNECTED);
+
+        assertEquals(DeviceState.Disconnected, _awaitState(DeviceState.Disconnected));
+        assertEquals(1, _factory.getClosedCount());
+    }
+
+    @Test
+    public void disconnectingClosesTheLink() {
+        _device.disconnect();
+
+        assertEquals(1, _factory.getClosedCount());
+    }
+
+    @Test
+    public void aSuspendedConnectionKeepsItsLinkUntilDeactivated() throws InterruptedException {
+        _device.suspend();
+        _answer(BluetoothProfile.STATE_DISCONNECTED);
+        assertFalse(_device.isConnected());
+        assertEquals(0, _factory.getClosedCount());
+
+        // what deactivating the device does
+        _device.disconnect();
+        assertEquals(1, _factory.getClosedCount());
+    }
+
+    @Test
+    public void forgettingClosesTheLink() {
+        _device.suspend();
+
+        BluetoothLEDeviceManager.getInstance().forgetDevice(_device.getDeviceId());
+        assertEquals(1, _factory.getClosedCount());
+    }
+
+    // PRIVATE METHODS
+
+    private void _answer(int newState) {
+        _factory._listener.onConnectionStateChange(null, BluetoothGatt.GATT_SUCCESS, newState);
+    }
+
+    private DeviceState _awaitState(DeviceState state) throws InterruptedException {
+        for (int i = 0; i < 100 && _device.getDeviceState() != state; i++) {
+            Thread.sleep(10);
+        }
+        return _device.getDeviceState();
+    }
+
+    /**
+     * Silent links, keeping the listener of the last one so the test can answer for it
+     */
+    private static final class LinkFactory extends SilentLinkFactory {
+        private volatile BluetoothLELink.Listener _listener;
+
+        @Override
+        public BluetoothLELink open(BluetoothLEDevice device, Context context, boolean autoConnect, BluetoothLELink.Listener listener) {
+            _listener = listener;
+            return super.open(device, context, autoConnect, listener);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.gymnext.gymnextsdk.btle;
+
+import android.content.Context;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens links that accept everything and never answer, tests answer for them through the device
+ * manager
+ */
+public class SilentLinkFactory implements BluetoothLELink.Factory {
+    private final AtomicInteger _closedCount = new AtomicInteger();
+
+    /**
+     * The number of links that have been closed
+     */
+    public int getClosedCount() {
+        return _closedCount.get();
+    }
+
+    @Override
+    public BluetoothLELink open(final BluetoothLEDevice device, Context context, boolean autoConnect, BluetoothLELink.Listener listener) {
+        return new BluetoothLELink() {
+            @Override
+            public long getDeviceKey() {
+                return device.getDeviceKey();
+            }
+
+            @Override
+            public String getName() {
+                return device.getDeviceName();
+            }
+
+            @Override
+            public Map<UUID, List<UUID>> getServices() {
+                return null;
+            }
+
+            @Override
+            public boolean connect() {
+                return false;
+            }
+
+            @Override
+            public void disconnect() {
+            }
+
+            @Override
+            public void close() {
+                _closedCount.incrementAndGet();
+            }
+
+            @Override
+            public boolean discoverServices() {
+                return true;
+            }
+
+            @Override
+            public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+                return true;
+            }
+
+            @Override
+            public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value) {
+                return true;
+            }
+
+            @Override
+            public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,94 @@
+package com.gymnext.gymnextsdk.btle;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+
+import com.gymnext.gymnextsdk.DeviceState;
+import com.gymnext.gymnextsdk.TestDevices;
+import com.gymnext.gymnextsdk.TestSingletons;
+import com.gymnext.gymnextsdk.base.VirtualScheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class StaleLinkTest {
+    // long enough for the device's serial executor to get through what it was handed
+    private static final long SETTLE_TIME = 200;
+
+    private LinkFactory _factory;
+    private BluetoothLEDevice _device;
+
+    @Before
+    public void setUp() {
+        TestSingletons.reset();
+        _factory = new LinkFactory();
+        BluetoothLEDeviceManager.getInstance().setScheduler(new VirtualScheduler(0));
+        BluetoothLEDeviceManager.getInstance().setLinkFactory(_factory);
+
+        _device = TestDevices.add(0);
+    }
+
+    @Test
+    public void eventsWhileTheLinkOpensAreKept() throws InterruptedException {
+        _factory._connectOnOpen = true;
+        _device.connect(null);
+
+        assertEquals(DeviceState.Connected, _awaitState(DeviceState.Connected));
+    }
+
+    @Test
+    public void eventsFromAClosedLinkAreDropped() throws InterruptedException {
+        _device.connect(null);
+        _device.disconnect();
+
+        // the old link answers while the new one is being opened
+        _factory._connectStaleOnOpen = true;
+        _device.connect(null);
+        Thread.sleep(SETTLE_TIME);
+        assertEquals(DeviceState.Connecting, _device.getDeviceState());
+
+        _connect(_factory._listeners.get(1));
+        assertEquals(DeviceState.Connected, _awaitState(DeviceState.Connected));
+    }
+
+    // PRIVATE METHODS
+
+    private static void _connect(BluetoothLELink.Listener listener) {
+        listener.onConnectionStateChange(null, BluetoothGatt.GATT_SUCCESS, BluetoothProfile.STATE_CONNECTED);
+    }
+
+    private DeviceState _awaitState(DeviceState state) throws InterruptedException {
+        for (int i = 0; i < 100 && _device.getDeviceState() != state; i++) {
+            Thread.sleep(10);
+        }
+        return _device.getDeviceState();
+    }
+
+    /**
+     * Silent links, keeping the listeners they were opened with so the test can answer for them
+     */
+    private static final class LinkFactory extends SilentLinkFactory {
+        private final List<BluetoothLELink.Listener> _listeners = new ArrayList<BluetoothLELink.Listener>();
+        private volatile boolean _connectOnOpen = false;
+        private volatile boolean _connectStaleOnOpen = false;
+
+        @Override
+        public BluetoothLELink open(BluetoothLEDevice device, Context context, boolean autoConnect, BluetoothLELink.Listener listener) {
+            // like a GATT client reporting before connectGatt returns
+            if (_connectOnOpen) {
+                _connect(listener);
+            }
+            if (_connectStaleOnOpen && !_listeners.isEmpty()) {
+                _connect(_listeners.get(_listeners.size() - 1));
+            }
+            _listeners.add(listener);
+            return super.open(device, context, autoConnect, listener);
+        }
+    }
+}